@@ -19,6 +19,7 @@ docker run -dt \
     /bin/bash
 
 docker cp $PWD/plugin-data/PolyPhen_SIFT.pm $CONTAINER_NAME:plugins/PolyPhen_SIFT.pm
+docker cp $PWD/scripts/vep_worker.pl $CONTAINER_NAME:/opt/vep/src/ensembl-vep/vep_worker
 
 # Create command passthrough script
 cat > ./scripts/vep << EOF
@@ -26,11 +27,22 @@ cat > ./scripts/vep << EOF
 
 # This script is generated automatically by init_vep.sh - do not modify
 
-docker exec ${CONTAINER_NAME} vep "\$@"
+docker exec -i ${CONTAINER_NAME} vep "\$@"
 EOF
 
 chmod +x ./scripts/vep
 
+# Create passthrough script for the long-lived workers used by vep.worker-pool
+cat > ./scripts/vep_worker << EOF
+#!/bin/bash
+
+# This script is generated automatically by init_vep.sh - do not modify
+
+docker exec -i ${CONTAINER_NAME} perl /opt/vep/src/ensembl-vep/vep_worker "\$@"
+EOF
+
+chmod +x ./scripts/vep_worker
+
 echo 
 echo "VEP running in container '${CONTAINER_NAME}' and is accessible from the scripts directory."
 echo "Use ./scripts/vep --help to get started" 
\ No newline at end of file
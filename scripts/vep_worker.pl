@@ -0,0 +1,62 @@
+#!/usr/bin/env perl
+
+# Long-lived VEP worker used by the wrapper's worker pool (see VEPWorker.java).
+#
+# Accepts the same --flag[=value] options as the vep script, loads VEP once and then
+# annotates batches read from STDIN:
+#
+#   #FORMAT <format>    starts a batch
+#   <variant>           one input line per variant
+#   #END                ends the batch
+#
+# Each batch is answered with one JSON record per line followed by "#END", or
+# "#END <message>" if the batch failed. "#PING" is answered with "#PONG".
+
+use strict;
+use warnings;
+
+use Bio::EnsEMBL::VEP::Runner;
+use JSON;
+
+my %config;
+for my $arg (@ARGV) {
+    next unless $arg =~ /^--([^=]+)(?:=(.*))?$/s;
+    my ($key, $value) = ($1, defined $2 ? $2 : 1);
+    if ($key eq 'plugin') {
+        push @{$config{plugin}}, $value;
+    } else {
+        $config{$key} = $value;
+    }
+}
+delete @config{qw(output_file warning_file fork input_data)};
+
+my $runner = Bio::EnsEMBL::VEP::Runner->new(\%config);
+my $json = JSON->new->utf8;
+
+$| = 1;
+my @batch;
+while (my $line = <STDIN>) {
+    chomp $line;
+    if ($line eq '#PING') {
+        print "#PONG\n";
+    } elsif ($line =~ /^#FORMAT\s+(\S+)/) {
+        @batch = ();
+        $runner->param('format', $1);
+    } elsif ($line eq '#END') {
+        # run_rest re-reads input_data, so drop the parser state left over from the previous batch
+        delete @{$runner}{qw(parser input_buffer)};
+        my $results = eval { $runner->run_rest(join("\n", @batch)) };
+        @batch = ();
+        if (my $error = $@) {
+            my ($message) = $error =~ /MSG:\s(.*)/;
+            $message = $error unless defined $message;
+            $message =~ s/\s+/ /g;
+            print "#END $message\n";
+            next;
+        }
+        print $json->encode($_), "\n" for @$results;
+        print "#END\n";
+    } else {
+        push @batch, $line;
+    }
+}
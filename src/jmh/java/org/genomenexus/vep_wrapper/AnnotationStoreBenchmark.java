@@ -0,0 +1,79 @@
+package org.genomenexus.vep_wrapper;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.util.FileSystemUtils;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Single-variant lookups in a precomputed annotation store of the given size, for variants that
+ * are in the store and variants that are not.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AnnotationStoreBenchmark {
+
+    @Param({"10000", "100000"})
+    int size;
+
+    Path directory;
+    AnnotationStore store;
+    List<String> variants;
+    SplittableRandom random = new SplittableRandom(42);
+
+    @Setup
+    public void setup() throws IOException {
+        variants = BenchmarkData.regions(size);
+        List<ObjectNode> records = BenchmarkData.mockRecords();
+        directory = Files.createTempDirectory("annotation-store-benchmark");
+        Path path = directory.resolve("store.bin");
+        try (AnnotationStoreWriter writer = new AnnotationStoreWriter(path, "benchmark")) {
+            for (int i = 0; i < variants.size(); i++) {
+                ObjectNode record = records.get(i % records.size()).deepCopy();
+                record.put("input", variants.get(i));
+                writer.add(PrecomputedAnnotations.key("region", variants.get(i)), record.toString());
+            }
+            writer.finish();
+        }
+        store = AnnotationStore.open(path);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        store.close();
+        FileSystemUtils.deleteRecursively(directory);
+    }
+
+    @Benchmark
+    public Optional<String> hit() {
+        return store.get(PrecomputedAnnotations.key("region", variants.get(random.nextInt(size))));
+    }
+
+    @Benchmark
+    public Optional<String> miss() {
+        return store.get(PrecomputedAnnotations.key("hgvs", variants.get(random.nextInt(size))));
+    }
+}
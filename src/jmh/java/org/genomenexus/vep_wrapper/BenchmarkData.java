@@ -0,0 +1,151 @@
+package org.genomenexus.vep_wrapper;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.SplittableRandom;
+import java.util.stream.Stream;
+
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.unit.DataSize;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
+
+/**
+ * Deterministic inputs for the benchmarks: generated variant batches with a realistic mix of
+ * contigs and change types, and VEP output built from the records in {@code mock-vep-data}.
+ */
+final class BenchmarkData {
+
+    static final Path MOCK_VEP_DATA = Path.of("src/test/resources/mock-vep-data");
+
+    private static final String[] CONTIGS = {
+        "1", "2", "3", "4", "5", "6", "7", "8", "9", "10", "11", "12", "13", "14", "15", "16", "17",
+        "18", "19", "20", "21", "22", "X", "Y", "MT"
+    };
+    private static final char[] BASES = {'A', 'C', 'G', 'T'};
+
+    private BenchmarkData() {}
+
+    /**
+     * Genomic HGVS notations: mostly substitutions, with deletions, insertions, delins and dups mixed in.
+     */
+    static List<String> hgvsg(int size) {
+        SplittableRandom random = new SplittableRandom(size);
+        List<String> variants = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            String contig = random.nextInt(4) == 0 ? "chr" + CONTIGS[random.nextInt(CONTIGS.length)] : CONTIGS[random.nextInt(CONTIGS.length)];
+            int start = 1 + random.nextInt(200_000_000);
+            int kind = random.nextInt(20);
+            variants.add(switch (kind) {
+                case 0, 1 -> contig + ":g." + start + "_" + (start + random.nextInt(1, 20)) + "del";
+                case 2 -> contig + ":g." + start + "_" + (start + 1) + "ins" + bases(random, random.nextInt(1, 6));
+                case 3 -> contig + ":g." + start + "_" + (start + 1) + "delins" + bases(random, 2);
+                case 4 -> contig + ":g." + start + "dup";
+                default -> contig + ":g." + start + base(random) + ">" + base(random);
+            });
+        }
+        return variants;
+    }
+
+    /**
+     * The same batch as {@link #hgvsg(int)}, in region notation.
+     */
+    static List<String> regions(int size) {
+        List<String> variants = hgvsg(size);
+        variants.replaceAll(VEPController::hgvsgToRegion);
+        return variants;
+    }
+
+    /**
+     * The records in {@code mock-vep-data}, each compacted onto a single line as VEP writes them.
+     */
+    static List<ObjectNode> mockRecords() {
+        ObjectMapper objectMapper = new ObjectMapper();
+        try (Stream<Path> files = Files.list(MOCK_VEP_DATA)) {
+            List<ObjectNode> records = new ArrayList<>();
+            for (Path file : files.sorted().toList()) {
+                records.add((ObjectNode) objectMapper.readTree(file.toFile()));
+            }
+            return records;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Run the benchmarks from the project directory", e);
+        }
+    }
+
+    /**
+     * One VEP output line per variant, cycling through the mock records with {@code input} set to the variant.
+     */
+    static List<String> vepOutput(List<String> variants) {
+        List<ObjectNode> records = mockRecords();
+        List<String> lines = new ArrayList<>(variants.size());
+        for (int i = 0; i < variants.size(); i++) {
+            ObjectNode record = records.get(i % records.size()).deepCopy();
+            record.put("input", variants.get(i));
+            lines.add(record.toString());
+        }
+        return lines;
+    }
+
+    static VEPConfiguration configuration() {
+        return new VEPConfiguration(
+            VEPConfiguration.Mode.Cache,
+            null,
+            new VEPConfiguration.CacheConfigurationOptional(Optional.of("Homo_sapiens.GRCh37.dna.toplevel.fa.gz")),
+            4,
+            75,
+            Optional.empty(),
+            Optional.empty(),
+            null,
+            null,
+            new VEPConfiguration.ExecutionConfiguration(75, Duration.ofMinutes(10), 100, 0, 75, 2.0, 50, Integer.MAX_VALUE, VEPConfiguration.InputTransport.Stdin, "", 0, Duration.ZERO, false, 0, "scripts/vep"),
+            new VEPConfiguration.WorkerPoolConfiguration(false, "", 0, 0, Duration.ofSeconds(30), Duration.ofSeconds(5)),
+            new VEPConfiguration.ResultCacheConfiguration(false, DataSize.ofMegabytes(1), Duration.ofDays(1), "", DataSize.ofMegabytes(1)),
+            new VEPConfiguration.JobsConfiguration("", Duration.ofDays(1), Duration.ofMinutes(10), 1, 1),
+            new VEPConfiguration.AnnotationStoreConfiguration("", Duration.ofMinutes(1)),
+            new VEPConfiguration.WarmupConfiguration(false, List.of(), Duration.ofSeconds(30)),
+            new VEPConfiguration.CoordinatorConfiguration(false, false, List.of(), 0, Duration.ofSeconds(10), "", Duration.ofMinutes(2), 1),
+            new VEPConfiguration.LanesConfiguration(0, 0, "X-Client-Id"),
+            new VEPConfiguration.AlphaMissenseLookupConfiguration(false, "", DataSize.ofMegabytes(1)),
+            new VEPConfiguration.ReferenceCheckConfiguration(false, "", false, DataSize.ofMegabytes(1)),
+            new VEPConfiguration.PageCacheConfiguration(false, List.of(), List.of(), DataSize.ofBytes(0), DataSize.ofBytes(0), false)
+        );
+    }
+
+    static VEPMetrics metrics() {
+        return new VEPMetrics(new SimpleMeterRegistry(), ObservationRegistry.NOOP);
+    }
+
+    /**
+     * Wires {@code service} the way Spring would, without starting the application context.
+     */
+    static <T extends VEPService> T wire(T service, VEPConfiguration configuration, VEPExecutor executor) {
+        ReflectionTestUtils.setField(service, "vepConfiguration", configuration);
+        ReflectionTestUtils.setField(service, "metrics", metrics());
+        ReflectionTestUtils.setField(service, "vepExecutor", executor);
+        ReflectionTestUtils.setField(service, "outputTransformer", new VEPOutputTransformer(configuration));
+        ReflectionTestUtils.setField(service, "resultCache", new VariantAnnotationCache(configuration));
+        return service;
+    }
+
+    private static String bases(SplittableRandom random, int length) {
+        char[] bases = new char[length];
+        for (int i = 0; i < length; i++) {
+            bases[i] = base(random);
+        }
+        return new String(bases);
+    }
+
+    private static char base(SplittableRandom random) {
+        return BASES[random.nextInt(BASES.length)];
+    }
+}
@@ -0,0 +1,61 @@
+package org.genomenexus.vep_wrapper;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Splitting a batch into chunks, for the HGVS and the region endpoints.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChunkingBenchmark {
+
+    @Param({"1", "100", "10000", "100000"})
+    int size;
+
+    List<String> hgvsg;
+    List<String> regions;
+    VEPExecutor executor;
+    VEPService service;
+
+    @Setup
+    public void setup() {
+        hgvsg = BenchmarkData.hgvsg(size);
+        regions = BenchmarkData.regions(size);
+        VEPConfiguration configuration = BenchmarkData.configuration();
+        executor = new VEPExecutor(configuration, BenchmarkData.metrics());
+        service = BenchmarkData.wire(new VEPService(), configuration, executor);
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    @Benchmark
+    public List<List<String>> getVariantChunks() {
+        return service.getVariantChunks(hgvsg, 1);
+    }
+
+    @Benchmark
+    public List<List<String>> getVariantChunksByChromosome() {
+        return service.getVariantChunksByChromosome(regions);
+    }
+}
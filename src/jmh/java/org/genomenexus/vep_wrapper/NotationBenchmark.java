@@ -0,0 +1,55 @@
+package org.genomenexus.vep_wrapper;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Converting a batch of HGVSg notations to regions, as the POST endpoints do in cache mode.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NotationBenchmark {
+
+    @Param({"1", "100", "10000", "100000"})
+    int size;
+
+    List<String> hgvsg;
+    List<String> regions;
+
+    @Setup
+    public void setup() {
+        hgvsg = BenchmarkData.hgvsg(size);
+        regions = BenchmarkData.regions(size);
+    }
+
+    @Benchmark
+    public void hgvsgToRegion(Blackhole blackhole) {
+        for (String variant : hgvsg) {
+            blackhole.consume(VEPController.hgvsgToRegion(variant));
+        }
+    }
+
+    @Benchmark
+    public void parseRegion(Blackhole blackhole) {
+        for (String variant : regions) {
+            blackhole.consume(VariantNotationParser.parseRegion(variant));
+        }
+    }
+}
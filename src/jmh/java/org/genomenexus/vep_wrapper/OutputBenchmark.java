@@ -0,0 +1,95 @@
+package org.genomenexus.vep_wrapper;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Turning VEP output into the response: the field renames alone, and the whole of
+ * {@code annotateVariants} (chunk scheduling, matching records to variants and assembling the JSON
+ * array) with VEP replaced by canned output built from {@code mock-vep-data}. Every record is a
+ * few kilobytes, so the largest batch is kept at 10k variants to stay within a default heap.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class OutputBenchmark {
+
+    @Param({"1", "100", "1000", "10000"})
+    int size;
+
+    String vepOutput;
+    List<List<String>> chunks;
+    VEPOutputTransformer transformer;
+    VEPExecutor executor;
+    VEPService service;
+
+    @Setup
+    public void setup() {
+        List<String> variants = BenchmarkData.hgvsg(size);
+        List<String> lines = BenchmarkData.vepOutput(variants);
+        vepOutput = String.join("\n", lines);
+
+        Map<String, String> recordsByVariant = new HashMap<>();
+        for (int i = 0; i < variants.size(); i++) {
+            recordsByVariant.put(variants.get(i), lines.get(i));
+        }
+
+        VEPConfiguration configuration = BenchmarkData.configuration();
+        transformer = new VEPOutputTransformer(configuration);
+        executor = new VEPExecutor(configuration, BenchmarkData.metrics());
+        service = BenchmarkData.wire(new VEPService() {
+            @Override
+            public Callable<VEPResult> runVEP(List<String> flags, List<String> input) {
+                return () -> {
+                    StringBuilder output = new StringBuilder();
+                    for (String variant : input) {
+                        output.append(recordsByVariant.get(variant)).append('\n');
+                    }
+                    // parsed like runVEP parses VEP's output
+                    List<VEPRecord> records = new ArrayList<>();
+                    transformer.transform(new StringReader(output.toString()), records::add);
+                    return VEPResult.parsed(records);
+                };
+            }
+        }, configuration, executor);
+        chunks = service.getVariantChunks(variants, 1);
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    @Benchmark
+    public int transform(Blackhole blackhole) throws IOException {
+        return transformer.transform(new StringReader(vepOutput), blackhole::consume);
+    }
+
+    @Benchmark
+    public String annotateVariants() throws Exception {
+        return service.annotateVariants(chunks, "hgvs");
+    }
+}
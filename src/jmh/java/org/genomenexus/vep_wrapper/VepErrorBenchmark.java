@@ -0,0 +1,51 @@
+package org.genomenexus.vep_wrapper;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Extracting the message from VEP's stderr, which grows with one warning per skipped variant.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class VepErrorBenchmark {
+
+    @Param({"1", "100", "10000", "100000"})
+    int warnings;
+
+    String stderr;
+
+    @Setup
+    public void setup() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < warnings; i++) {
+            builder.append("WARNING: Possible invalid use of chromosome name in variant on line ").append(i + 1).append('\n');
+        }
+        builder.append("\n-------------------- EXCEPTION --------------------\n")
+            .append("MSG: No valid variants found in input\n\n")
+            .append("STACK Bio::EnsEMBL::VEP::Runner::_check_input /opt/vep/src/ensembl-vep/modules/Bio/EnsEMBL/VEP/Runner.pm:712\n")
+            .append("Ensembl API version = 112\n")
+            .append("---------------------------------------------------\n");
+        stderr = builder.toString();
+    }
+
+    @Benchmark
+    public String parseVepError() {
+        return VEPService.parseVepError(stderr);
+    }
+}
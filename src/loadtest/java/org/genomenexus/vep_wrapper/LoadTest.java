@@ -0,0 +1,394 @@
+package org.genomenexus.vep_wrapper;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.MatchResult;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+/**
+ * Load test of the service against the stub VEP in {@code src/test/resources/stub-vep/vep}, for
+ * comparing settings such as {@code vep.forks}, {@code vep.hgvs-max-threads} and chunking.
+ *
+ * For each configuration in the config file, the packaged war is started in its own JVM, in a
+ * working directory whose {@code scripts/vep} is the stub, and driven over HTTP by concurrent
+ * clients with a reproducible mix of single-variant GET and batch POST requests to the HGVS
+ * endpoints. Reports throughput, p50/p99 latency, and the peak number of VEP processes and heap
+ * use of the service, which are sampled from {@code /actuator/prometheus}.
+ *
+ * Options: {@code config=<path>} (default {@code src/loadtest/loadtest.json}), {@code war=<path>}
+ * (default the war in {@code target}), {@code only=<name>,...} and {@code output=<directory>}
+ * (default {@code target/loadtest}).
+ */
+public final class LoadTest {
+
+    private static final Path STUB = Path.of("src/test/resources/stub-vep/vep");
+    private static final Path MOCK_DATA = Path.of("src/test/resources/mock-vep-data");
+    private static final Duration STARTUP_TIMEOUT = Duration.ofMinutes(3);
+    private static final Duration REQUEST_TIMEOUT = Duration.ofMinutes(10);
+    private static final long SAMPLE_INTERVAL_MILLIS = 250;
+
+    private static final Pattern SUBSTITUTION = Pattern.compile("^(\\w+):g\\.(\\d+)([ACGT])>([ACGT])$");
+    private static final Pattern PROCESSES_LIVE = Pattern.compile("^vep_processes_live(?:\\{[^}]*\\})? (\\S+)$", Pattern.MULTILINE);
+    private static final Pattern HEAP_USED = Pattern.compile("^jvm_memory_used_bytes\\{[^}]*area=\"heap\"[^}]*\\} (\\S+)$", Pattern.MULTILINE);
+
+    private static final ObjectMapper MAPPER = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+    record Config(Stub stub, Workload workload, List<String> jvmArgs, Map<String, String> properties, List<Run> configs) {}
+
+    /**
+     * The startup and per-variant time of the stub VEP.
+     */
+    record Stub(long startupMs, long variantMs) {}
+
+    /**
+     * {@code requests} requests, after {@code warmupRequests} unmeasured ones, by {@code clients}
+     * concurrent clients. A {@code postFraction} of them POST {@code postSize} variants, the rest GET
+     * one. A {@code transcriptFraction} of the variants are recorded HGVSc notations, the rest HGVSg
+     * substitutions at positions no other request uses, so that each reaches VEP.
+     */
+    record Workload(int clients, int warmupRequests, int requests, double postFraction, int postSize,
+                    double transcriptFraction, long seed) {}
+
+    /**
+     * A named set of service properties, on top of the common ones.
+     */
+    record Run(String name, Map<String, String> properties) {}
+
+    record Result(String name, int requests, int errors, int rejected, long variants, double seconds,
+                  double requestsPerSecond, double variantsPerSecond, double p50Millis, double p99Millis,
+                  int maxProcesses, long maxHeapMegabytes) {}
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (String arg : args) {
+            String[] option = arg.replaceFirst("^--", "").split("=", 2);
+            options.put(option[0], option.length > 1 ? option[1] : "true");
+        }
+        Config config = MAPPER.readValue(Path.of(options.getOrDefault("config", "src/loadtest/loadtest.json")).toFile(), Config.class);
+        Path war = options.containsKey("war") ? Path.of(options.get("war")) : findWar();
+        Path output = Path.of(options.getOrDefault("output", "target/loadtest"));
+        List<String> only = options.containsKey("only") ? List.of(options.get("only").split(",")) : List.of();
+
+        List<String> recordedInputs = readRecordedInputs();
+        List<Result> results = new ArrayList<>();
+        for (Run run : config.configs()) {
+            if (only.isEmpty() || only.contains(run.name())) {
+                System.out.println("Running " + run.name());
+                results.add(new LoadTest(config, run, war, output.resolve(run.name()), recordedInputs).run());
+            }
+        }
+
+        System.out.println();
+        System.out.printf("%-28s %8s %6s %8s %9s %10s %9s %9s %6s %8s%n",
+            "config", "requests", "errors", "rejected", "req/s", "variants/s", "p50 ms", "p99 ms", "procs", "heap MB");
+        for (Result result : results) {
+            System.out.printf("%-28s %8d %6d %8d %9.1f %10.1f %9.1f %9.1f %6d %8d%n",
+                result.name(), result.requests(), result.errors(), result.rejected(), result.requestsPerSecond(),
+                result.variantsPerSecond(), result.p50Millis(), result.p99Millis(), result.maxProcesses(),
+                result.maxHeapMegabytes());
+        }
+        Files.createDirectories(output);
+        MAPPER.writeValue(output.resolve("results.json").toFile(), results);
+        System.out.println("Results written to " + output.resolve("results.json"));
+    }
+
+    private final Config config;
+    private final Run run;
+    private final Path war;
+    private final Path directory;
+    private final List<String> recordedInputs;
+    private final HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(10)).build();
+    private final AtomicInteger maxProcesses = new AtomicInteger();
+    private final AtomicLong maxHeapBytes = new AtomicLong();
+    private URI base;
+
+    private LoadTest(Config config, Run run, Path war, Path directory, List<String> recordedInputs) {
+        this.config = config;
+        this.run = run;
+        this.war = war;
+        this.directory = directory;
+        this.recordedInputs = recordedInputs;
+    }
+
+    Result run() throws Exception {
+        Process service = start();
+        try {
+            awaitReady(service);
+            Workload workload = config.workload();
+            // the same requests for every configuration
+            Random random = new Random(workload.seed());
+            Variants variants = new Variants(recordedInputs);
+            List<Request> warmup = requests(workload.warmupRequests(), random, variants);
+            List<Request> measured = requests(workload.requests(), random, variants);
+            send(warmup, workload.clients());
+
+            ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(
+                Thread.ofPlatform().name("loadtest-sampler").daemon().factory()
+            );
+            sampler.scheduleAtFixedRate(this::sample, 0, SAMPLE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+            long start = System.nanoTime();
+            long[][] outcomes;
+            try {
+                outcomes = send(measured, workload.clients());
+            } finally {
+                sampler.shutdownNow();
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            sample();
+            return summarize(measured, outcomes, seconds);
+        } finally {
+            stop(service);
+        }
+    }
+
+    /**
+     * An HGVS request: a GET of one variant or a POST of several.
+     */
+    private record Request(boolean post, List<String> variants) {}
+
+    private List<Request> requests(int count, Random random, Variants variants) {
+        Workload workload = config.workload();
+        List<Request> requests = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            boolean post = random.nextDouble() < workload.postFraction();
+            List<String> batch = new ArrayList<>();
+            for (int j = 0; j < (post ? workload.postSize() : 1); j++) {
+                batch.add(variants.next(random, workload.transcriptFraction()));
+            }
+            requests.add(new Request(post, batch));
+        }
+        return requests;
+    }
+
+    // The latency in nanoseconds and the status of each request, -1 if it could not be sent
+    private long[][] send(List<Request> requests, int clients) throws InterruptedException {
+        long[][] outcomes = new long[requests.size()][];
+        AtomicInteger next = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(clients, Thread.ofPlatform().name("loadtest-client-", 0).factory());
+        for (int i = 0; i < clients; i++) {
+            pool.execute(() -> {
+                for (int index = next.getAndIncrement(); index < requests.size(); index = next.getAndIncrement()) {
+                    long start = System.nanoTime();
+                    int status;
+                    try {
+                        status = client.send(toHttpRequest(requests.get(index)), HttpResponse.BodyHandlers.discarding()).statusCode();
+                    } catch (IOException e) {
+                        status = -1;
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    outcomes[index] = new long[] {System.nanoTime() - start, status};
+                }
+            });
+        }
+        pool.shutdown();
+        pool.awaitTermination(1, TimeUnit.DAYS);
+        return outcomes;
+    }
+
+    private HttpRequest toHttpRequest(Request request) throws IOException {
+        if (request.post()) {
+            return HttpRequest.newBuilder(base.resolve("/vep/human/hgvs"))
+                .timeout(REQUEST_TIMEOUT)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(MAPPER.writeValueAsBytes(Map.of("hgvs_notations", request.variants()))))
+                .build();
+        }
+        String variant = URLEncoder.encode(request.variants().get(0), StandardCharsets.UTF_8).replace("+", "%20");
+        return HttpRequest.newBuilder(base.resolve("/vep/human/hgvs/" + variant)).timeout(REQUEST_TIMEOUT).GET().build();
+    }
+
+    private Result summarize(List<Request> requests, long[][] outcomes, double seconds) {
+        long[] latencies = new long[outcomes.length];
+        int errors = 0;
+        int rejected = 0;
+        long variantCount = 0;
+        for (int i = 0; i < outcomes.length; i++) {
+            latencies[i] = outcomes[i][0];
+            if (outcomes[i][1] == 429) {
+                rejected++;
+            } else if (outcomes[i][1] != 200) {
+                errors++;
+            }
+            variantCount += requests.get(i).variants().size();
+        }
+        Arrays.sort(latencies);
+        return new Result(
+            run.name(),
+            outcomes.length,
+            errors,
+            rejected,
+            variantCount,
+            seconds,
+            outcomes.length / seconds,
+            variantCount / seconds,
+            percentile(latencies, 0.50) / 1e6,
+            percentile(latencies, 0.99) / 1e6,
+            maxProcesses.get(),
+            maxHeapBytes.get() >> 20
+        );
+    }
+
+    private static long percentile(long[] sorted, double quantile) {
+        return sorted.length == 0 ? 0 : sorted[(int) Math.min(sorted.length - 1, Math.ceil(quantile * sorted.length) - 1)];
+    }
+
+    private void sample() {
+        try {
+            String metrics = client.send(
+                HttpRequest.newBuilder(base.resolve("/actuator/prometheus")).timeout(Duration.ofSeconds(5)).GET().build(),
+                HttpResponse.BodyHandlers.ofString()
+            ).body();
+            Matcher processes = PROCESSES_LIVE.matcher(metrics);
+            if (processes.find()) {
+                maxProcesses.accumulateAndGet((int) Double.parseDouble(processes.group(1)), Math::max);
+            }
+            long heap = 0;
+            for (Matcher pool = HEAP_USED.matcher(metrics); pool.find(); ) {
+                heap += (long) Double.parseDouble(pool.group(1));
+            }
+            maxHeapBytes.accumulateAndGet(heap, Math::max);
+        } catch (IOException e) {
+            // a missed sample
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private Process start() throws IOException {
+        Path scripts = directory.resolve("scripts");
+        Files.createDirectories(scripts);
+        Files.deleteIfExists(scripts.resolve("vep"));
+        Files.createSymbolicLink(scripts.resolve("vep"), STUB.toAbsolutePath());
+
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        base = URI.create("http://localhost:" + port);
+
+        List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(config.jvmArgs());
+        command.addAll(List.of("-jar", war.toAbsolutePath().toString(), "--spring.profiles.active=prod", "--server.port=" + port));
+        Map<String, String> properties = new LinkedHashMap<>(config.properties());
+        properties.putAll(run.properties());
+        properties.forEach((key, value) -> command.add("--" + key + "=" + value));
+
+        ProcessBuilder builder = new ProcessBuilder(command)
+            .directory(directory.toFile())
+            .redirectErrorStream(true)
+            .redirectOutput(directory.resolve("service.log").toFile());
+        builder.environment().put("VEP_STUB_DATA", MOCK_DATA.toAbsolutePath().toString());
+        builder.environment().put("VEP_STUB_STARTUP_MS", String.valueOf(config.stub().startupMs()));
+        builder.environment().put("VEP_STUB_VARIANT_MS", String.valueOf(config.stub().variantMs()));
+        return builder.start();
+    }
+
+    private void awaitReady(Process service) throws Exception {
+        long deadline = System.nanoTime() + STARTUP_TIMEOUT.toNanos();
+        HttpRequest readiness = HttpRequest.newBuilder(base.resolve("/actuator/health/readiness"))
+            .timeout(Duration.ofSeconds(5))
+            .GET()
+            .build();
+        while (System.nanoTime() < deadline) {
+            if (!service.isAlive()) {
+                throw new IllegalStateException("Service exited, see " + directory.resolve("service.log"));
+            }
+            try {
+                if (client.send(readiness, HttpResponse.BodyHandlers.discarding()).statusCode() == 200) {
+                    return;
+                }
+            } catch (IOException e) {
+                // not listening yet
+            }
+            Thread.sleep(500);
+        }
+        throw new IllegalStateException("Service not ready after " + STARTUP_TIMEOUT + ", see " + directory.resolve("service.log"));
+    }
+
+    private static void stop(Process service) throws InterruptedException {
+        service.destroy();
+        if (!service.waitFor(30, TimeUnit.SECONDS)) {
+            service.descendants().forEach(ProcessHandle::destroyForcibly);
+            service.destroyForcibly();
+        }
+    }
+
+    private static Path findWar() throws IOException {
+        try (DirectoryStream<Path> wars = Files.newDirectoryStream(Path.of("target"), "vep_wrapper*.war")) {
+            for (Path war : wars) {
+                return war;
+            }
+        }
+        throw new IllegalStateException("No war in target, run mvn package first or pass war=<path>");
+    }
+
+    private static List<String> readRecordedInputs() throws IOException {
+        List<String> inputs = new ArrayList<>();
+        try (DirectoryStream<Path> records = Files.newDirectoryStream(MOCK_DATA, "*.json")) {
+            for (Path record : records) {
+                inputs.add(MAPPER.readTree(record.toFile()).get("input").asText());
+            }
+        }
+        inputs.sort(null);
+        return inputs;
+    }
+
+    /**
+     * The variants requested: the recorded HGVSc notations as they are, and the recorded HGVSg
+     * substitutions moved to a new position each time.
+     */
+    private static final class Variants {
+
+        private final List<String> transcript = new ArrayList<>();
+        private final List<MatchResult> genomic = new ArrayList<>();
+        private int offset;
+
+        Variants(List<String> recordedInputs) {
+            for (String input : recordedInputs) {
+                Matcher substitution = SUBSTITUTION.matcher(input);
+                if (substitution.matches()) {
+                    genomic.add(substitution.toMatchResult());
+                } else if (input.contains(":c.")) {
+                    transcript.add(input);
+                }
+            }
+        }
+
+        String next(Random random, double transcriptFraction) {
+            if (random.nextDouble() < transcriptFraction) {
+                return transcript.get(random.nextInt(transcript.size()));
+            }
+            MatchResult substitution = genomic.get(random.nextInt(genomic.size()));
+            long position = Long.parseLong(substitution.group(2)) + ++offset;
+            return substitution.group(1) + ":g." + position + substitution.group(3) + ">" + substitution.group(4);
+        }
+    }
+}
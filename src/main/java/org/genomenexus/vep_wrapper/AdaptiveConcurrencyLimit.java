@@ -0,0 +1,68 @@
+package org.genomenexus.vep_wrapper;
+
+import java.util.Arrays;
+
+/**
+ * AIMD limit on the number of VEP chunks running at once. Every finished chunk reports its latency
+ * per variant. While that latency stays within {@code tolerance} times the best recently observed
+ * latency of chunks of a similar size, the limit grows by one per {@code limit} samples; once it
+ * exceeds it, or a chunk times out or fails transiently, the limit is cut by {@link #BACKOFF}.
+ * Chunks are compared by size, within a power of two, since VEP's startup makes the latency per
+ * variant of a single-variant lookup far higher than that of a bulk chunk at any load. Chunks VEP
+ * rejected because of their input or its own setup are not sampled, since they fail however
+ * loaded VEP is.
+ */
+class AdaptiveConcurrencyLimit {
+
+    static final double BACKOFF = 0.75;
+
+    // How quickly the baseline drifts towards slower samples, so it can follow a changing workload
+    private static final double BASELINE_DRIFT = 0.01;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double tolerance;
+    private double limit;
+    // Baseline latency per variant of chunks of 2^i to 2^(i+1) - 1 variants
+    private final double[] baselineNanosPerVariant = new double[Integer.SIZE];
+
+    AdaptiveConcurrencyLimit(int initialLimit, int minLimit, int maxLimit, double tolerance) {
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.tolerance = tolerance;
+        this.limit = Math.clamp(initialLimit, minLimit, maxLimit);
+        Arrays.fill(baselineNanosPerVariant, Double.NaN);
+    }
+
+    synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    synchronized void onSample(long nanos, int variants, boolean failed) {
+        if (failed) {
+            decrease();
+            return;
+        }
+
+        int size = Math.max(variants, 1);
+        int bucket = Integer.SIZE - 1 - Integer.numberOfLeadingZeros(size);
+        double nanosPerVariant = (double) nanos / size;
+        double baseline = baselineNanosPerVariant[bucket];
+        if (Double.isNaN(baseline) || nanosPerVariant < baseline) {
+            baseline = nanosPerVariant;
+        } else {
+            baseline += (nanosPerVariant - baseline) * BASELINE_DRIFT;
+        }
+        baselineNanosPerVariant[bucket] = baseline;
+
+        if (nanosPerVariant > baseline * tolerance) {
+            decrease();
+        } else {
+            limit = Math.min(maxLimit, limit + 1 / limit);
+        }
+    }
+
+    private void decrease() {
+        limit = Math.max(minLimit, limit * BACKOFF);
+    }
+}
@@ -0,0 +1,175 @@
+package org.genomenexus.vep_wrapper;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Optional;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Adds AlphaMissense scores to VEP records in the JVM, in place of VEP's AlphaMissense plugin. The
+ * bgzipped prediction file is read through its tabix index, with decompressed blocks cached across
+ * requests. Like the plugin, a missense consequence of a SNV gets the {@code am_pathogenicity} and
+ * {@code am_class} of the first prediction for its position and alleles, nested under
+ * {@code alphamissense}.
+ */
+final class AlphaMissenseAnnotator implements Closeable {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static final String MISSENSE_VARIANT = "missense_variant";
+
+    // Columns of the prediction file
+    private static final int CHROM = 0;
+    private static final int POS = 1;
+    private static final int REF = 2;
+    private static final int ALT = 3;
+    private static final int AM_PATHOGENICITY = 8;
+    private static final int AM_CLASS = 9;
+
+    private final BgzfFile file;
+    private final TabixIndex index;
+    private final Map<String, String> fieldRenames;
+    private final VEPMetrics metrics;
+
+    record Prediction(String pathogenicity, String amClass) {}
+
+    private AlphaMissenseAnnotator(BgzfFile file, TabixIndex index, Map<String, String> fieldRenames, VEPMetrics metrics) {
+        this.file = file;
+        this.index = index;
+        this.fieldRenames = fieldRenames;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Opens the prediction file at {@code path}, indexed by {@code path.tbi}.
+     */
+    static AlphaMissenseAnnotator open(Path path, long blockCacheSize, Map<String, String> fieldRenames, VEPMetrics metrics) throws IOException {
+        Path indexPath = Path.of(path + ".tbi");
+        if (!Files.exists(indexPath)) {
+            throw new IOException("Missing tabix index " + indexPath + "; run tabix -s 1 -b 2 -e 2 " + path);
+        }
+        TabixIndex index = TabixIndex.read(indexPath);
+        return new AlphaMissenseAnnotator(BgzfFile.open(path, blockCacheSize), index, fieldRenames, metrics);
+    }
+
+    long getCachedBytes() {
+        return file.getCachedBytes();
+    }
+
+    /**
+     * The prediction for replacing {@code ref} with {@code alt} at the 1-based {@code position} of
+     * {@code chromosome}, named with or without a {@code chr} prefix.
+     */
+    Optional<Prediction> lookup(String chromosome, int position, String ref, String alt) {
+        String sequence = getSequenceName(chromosome);
+        if (sequence == null) {
+            return Optional.empty();
+        }
+        String pos = Integer.toString(position);
+        for (TabixIndex.Chunk chunk : index.query(sequence, position)) {
+            BgzfFile.LineReader lines = file.lines(chunk.start());
+            String line;
+            while (lines.getVirtualOffset() < chunk.end() && (line = lines.readLine()) != null) {
+                if (line.startsWith("#")) {
+                    continue;
+                }
+                String[] columns = line.split("\t", AM_CLASS + 2);
+                if (columns.length <= AM_CLASS || !columns[CHROM].equals(sequence)) {
+                    continue;
+                }
+                if (!columns[POS].equals(pos)) {
+                    if (Integer.parseInt(columns[POS]) > position) {
+                        break;
+                    }
+                    continue;
+                }
+                if (columns[REF].equals(ref) && columns[ALT].equals(alt)) {
+                    return Optional.of(new Prediction(columns[AM_PATHOGENICITY], columns[AM_CLASS]));
+                }
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * {@code record} with a prediction added to each of its missense consequences that has one.
+     * Field names are read and written as renamed by {@code vep.field-renames}.
+     */
+    VEPRecord annotate(VEPRecord record) throws JsonProcessingException {
+        if (!record.json().contains(MISSENSE_VARIANT)) {
+            return record;
+        }
+        JsonNode root = OBJECT_MAPPER.readTree(record.json());
+        String[] alleles = root.path(field("allele_string")).asText().split("/");
+        JsonNode consequences = root.path(field("transcript_consequences"));
+        String chromosome = root.path(field("seq_region_name")).asText();
+        int start = root.path(field("start")).asInt();
+        if (alleles.length < 2 || !isBase(alleles[0]) || start != root.path(field("end")).asInt() || !consequences.isArray()) {
+            return record;
+        }
+        boolean annotated = false;
+        for (JsonNode consequence : consequences) {
+            String alt = consequence.path(field("variant_allele")).asText();
+            if (!(consequence instanceof ObjectNode node) || !isMissense(consequence) || !isBase(alt)) {
+                continue;
+            }
+            Optional<Prediction> prediction = lookup(chromosome, start, alleles[0], alt);
+            metrics.recordAlphaMissenseLookup(prediction.isPresent());
+            if (prediction.isPresent()) {
+                ObjectNode scores = node.putObject(field("alphamissense"));
+                scores.put(field("am_pathogenicity"), toNumber(prediction.get().pathogenicity()));
+                scores.put(field("am_class"), prediction.get().amClass());
+                annotated = true;
+            }
+        }
+        return annotated ? new VEPRecord(record.input(), OBJECT_MAPPER.writeValueAsString(root)) : record;
+    }
+
+    private boolean isMissense(JsonNode consequence) {
+        for (JsonNode term : consequence.path(field("consequence_terms"))) {
+            if (MISSENSE_VARIANT.equals(term.asText())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private String field(String name) {
+        return fieldRenames.getOrDefault(name, name);
+    }
+
+    private String getSequenceName(String chromosome) {
+        for (String candidate : new String[] {
+            chromosome,
+            "chr" + chromosome,
+            chromosome.startsWith("chr") ? chromosome.substring(3) : chromosome,
+            "MT".equals(chromosome) ? "chrM" : chromosome
+        }) {
+            if (index.contains(candidate)) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isBase(String allele) {
+        return allele.length() == 1 && "ACGT".indexOf(allele.charAt(0)) >= 0;
+    }
+
+    // Scores are written as the number they are in the file, without rounding through a double
+    private static BigDecimal toNumber(String score) {
+        return new BigDecimal(score);
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+}
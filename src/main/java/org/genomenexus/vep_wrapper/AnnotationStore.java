@@ -0,0 +1,175 @@
+package org.genomenexus.vep_wrapper;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Read-only store of precomputed annotations, written by {@link AnnotationStoreWriter} and memory
+ * mapped for lookups. The file holds a header, an index of fixed-size entries sorted by key, the
+ * keys, and the deflate-compressed record JSON:
+ *
+ * <pre>
+ * magic "GNVEPAS1" | namespace length (int) | namespace (UTF-8) | entry count (int) | keys start (long) | records start (long)
+ * entries: key offset (long) | key length (int) | record offset (long) | compressed length (int) | record length (int)
+ * keys | records
+ * </pre>
+ *
+ * A lookup is a binary search over the index and one inflate, without any copying beyond the key
+ * being compared and the record returned. Files larger than 2GB are mapped in segments.
+ */
+final class AnnotationStore implements Closeable {
+
+    static final byte[] MAGIC = "GNVEPAS1".getBytes(StandardCharsets.US_ASCII);
+    static final int ENTRY_SIZE = 28;
+
+    private static final long SEGMENT_SIZE = 1L << 30;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final ByteBuffer[] segments;
+    private final String namespace;
+    private final int size;
+    private final long indexStart;
+    private final long keysStart;
+    private final long recordsStart;
+
+    private AnnotationStore(Path path, FileChannel channel) throws IOException {
+        this.path = path;
+        this.channel = channel;
+        long length = channel.size();
+        if (length < MAGIC.length + Integer.BYTES) {
+            throw new IOException("Not an annotation store: " + path);
+        }
+        this.segments = new ByteBuffer[(int) Math.max(1, (length + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+        for (int i = 0; i < segments.length; i++) {
+            long start = i * SEGMENT_SIZE;
+            segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE, length - start));
+        }
+
+        ByteBuffer header = read(0, MAGIC.length + Integer.BYTES);
+        byte[] magic = new byte[MAGIC.length];
+        header.get(magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new IOException("Not an annotation store: " + path);
+        }
+        int namespaceLength = header.getInt();
+        this.namespace = StandardCharsets.UTF_8.decode(read(header.limit(), namespaceLength)).toString();
+        ByteBuffer counts = read(header.limit() + namespaceLength, Integer.BYTES + 2 * Long.BYTES);
+        this.size = counts.getInt();
+        this.keysStart = counts.getLong();
+        this.recordsStart = counts.getLong();
+        this.indexStart = header.limit() + namespaceLength + counts.limit();
+        if (indexStart + (long) size * ENTRY_SIZE > keysStart || keysStart > recordsStart || recordsStart > length) {
+            throw new IOException("Corrupt annotation store: " + path);
+        }
+    }
+
+    static AnnotationStore open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            return new AnnotationStore(path, channel);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    Path getPath() {
+        return path;
+    }
+
+    /**
+     * Identifies the VEP release and configuration the annotations were made with, like the result cache namespace.
+     */
+    String getNamespace() {
+        return namespace;
+    }
+
+    int size() {
+        return size;
+    }
+
+    Optional<String> get(String key) {
+        byte[] target = key.getBytes(StandardCharsets.UTF_8);
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            ByteBuffer entry = read(indexStart + (long) middle * ENTRY_SIZE, ENTRY_SIZE);
+            long keyOffset = entry.getLong();
+            int keyLength = entry.getInt();
+            byte[] candidate = new byte[keyLength];
+            read(keysStart + keyOffset, keyLength).get(candidate);
+            int comparison = Arrays.compareUnsigned(candidate, target);
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                return Optional.of(inflate(read(recordsStart + entry.getLong(), entry.getInt()), entry.getInt()));
+            }
+        }
+        return Optional.empty();
+    }
+
+    private String inflate(ByteBuffer compressed, int length) {
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(compressed);
+            byte[] record = new byte[length];
+            int inflated = 0;
+            while (inflated < length && !inflater.finished()) {
+                int n = inflater.inflate(record, inflated, length - inflated);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                inflated += n;
+            }
+            if (inflated != length) {
+                throw new IllegalStateException("Corrupt record in annotation store " + path);
+            }
+            return new String(record, StandardCharsets.UTF_8);
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupt record in annotation store " + path, e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    // A read-only view of the bytes at position, copied only when they span two segments
+    private ByteBuffer read(long position, int length) {
+        int segment = (int) (position / SEGMENT_SIZE);
+        int offset = (int) (position % SEGMENT_SIZE);
+        if (offset + length <= segments[segment].limit()) {
+            return segments[segment].slice(offset, length);
+        }
+        byte[] bytes = new byte[length];
+        int copied = 0;
+        while (copied < length) {
+            ByteBuffer current = segments[segment++];
+            int n = Math.min(length - copied, current.limit() - offset);
+            current.get(offset, bytes, copied, n);
+            copied += n;
+            offset = 0;
+        }
+        return ByteBuffer.wrap(bytes);
+    }
+
+    /**
+     * Closes the file. The mapping itself stays valid until it is garbage collected, so lookups that
+     * are still running on a store that was just swapped out complete normally.
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
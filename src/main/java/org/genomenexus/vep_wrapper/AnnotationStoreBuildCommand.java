@@ -0,0 +1,156 @@
+package org.genomenexus.vep_wrapper;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.ExitCodeGenerator;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Builds an {@link AnnotationStore} from a list of variants, one per line, by annotating them
+ * through {@link VEPService} exactly as requests would be, then exits:
+ *
+ * <pre>
+ * java -jar vep_wrapper.war --spring.main.web-application-type=none \
+ *     --build-annotation-store=variants.txt [--format=hgvs|region] [--output=store.bin]
+ * </pre>
+ *
+ * The store is written to {@code --output}, or to {@code vep.annotation-store.path} so that a
+ * running service picks it up. Variants VEP cannot annotate are left out. Each annotation is keyed
+ * by {@link VEPService#getStoreKey}, which the service looks variants up by. The application exits
+ * with the {@link #getExitCode() exit code} of the build.
+ */
+@Component
+public class AnnotationStoreBuildCommand implements ApplicationRunner, ExitCodeGenerator {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AnnotationStoreBuildCommand.class);
+
+    static final String BUILD_OPTION = "build-annotation-store";
+
+    private static final int BATCH_SIZE = 10_000;
+    private static final Duration OVERLOAD_RETRY_DELAY = Duration.ofSeconds(5);
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Autowired
+    private VEPService vepService;
+
+    @Autowired
+    private VEPConfiguration vepConfiguration;
+
+    private volatile int exitCode = 0;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!args.containsOption(BUILD_OPTION)) {
+            return;
+        }
+        try {
+            build(args);
+            exitCode = 0;
+        } catch (Exception e) {
+            LOG.error("Could not build annotation store", e);
+            exitCode = 1;
+        }
+    }
+
+    /**
+     * 0 if the last build succeeded or none was run, 1 if it failed.
+     */
+    @Override
+    public int getExitCode() {
+        return exitCode;
+    }
+
+    /**
+     * Whether {@code args} ask for a build, after which the application is to exit.
+     */
+    static boolean isBuild(ApplicationArguments args) {
+        return args.containsOption(BUILD_OPTION);
+    }
+
+    private void build(ApplicationArguments args) throws Exception {
+        Path variants = Path.of(getOption(args, BUILD_OPTION)
+            .orElseThrow(() -> new IllegalArgumentException("--" + BUILD_OPTION + " needs a file of variants")));
+        String format = getOption(args, "format").orElse("hgvs").equals("region") ? "region" : "hgvs";
+        Path output = getOption(args, "output")
+            .or(() -> Optional.of(vepConfiguration.annotationStore.path()).filter(path -> !path.isBlank()))
+            .map(Path::of)
+            .orElseThrow(() -> new IllegalArgumentException("Pass --output or set vep.annotation-store.path"));
+        String namespace = vepService.getAnnotationNamespace()
+            .orElseThrow(() -> new IllegalStateException("Could not determine the VEP release"));
+
+        try (
+            AnnotationStoreWriter writer = new AnnotationStoreWriter(output, namespace);
+            BufferedReader reader = Files.newBufferedReader(variants, StandardCharsets.UTF_8)
+        ) {
+            List<String> batch = new ArrayList<>(BATCH_SIZE);
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String variant = line.strip();
+                if (variant.isEmpty() || variant.startsWith("#")) {
+                    continue;
+                }
+                batch.add(variant);
+                if (batch.size() == BATCH_SIZE) {
+                    annotate(batch, format, writer);
+                    batch.clear();
+                    LOG.info("Annotated {} variants", writer.size());
+                }
+            }
+            if (!batch.isEmpty()) {
+                annotate(batch, format, writer);
+            }
+            writer.finish();
+            LOG.info("Wrote {} annotations to {}", writer.size(), output);
+        }
+    }
+
+    private void annotate(List<String> batch, String format, AnnotationStoreWriter writer) throws Exception {
+        // planned like the requests of the region and HGVS endpoints
+        VariantBatch chunks = format.equals("region")
+            ? VariantBatch.of(vepService.getVariantChunksByChromosome(batch), "region")
+            : vepService.getHgvsBatch(batch);
+        while (true) {
+            try {
+                vepService.annotateVariants(chunks, FieldProjection.ALL, new VEPResultHandler() {
+                    @Override
+                    public void onRecords(int chunk, List<VEPRecord> records) throws IOException {
+                        for (VEPRecord record : records) {
+                            if (record.input() != null && !objectMapper.readTree(record.json()).has("error")) {
+                                writer.add(vepService.getStoreKey(format, record.input()), record.json());
+                            }
+                        }
+                    }
+
+                    @Override
+                    public void onError(int chunk, String message) {
+                        LOG.warn("Could not annotate {} variants: {}", chunks.chunks().get(chunk).size(), message);
+                    }
+                });
+                return;
+            } catch (VEPOverloadedException e) {
+                Thread.sleep(OVERLOAD_RETRY_DELAY);
+            }
+        }
+    }
+
+    private static Optional<String> getOption(ApplicationArguments args, String name) {
+        List<String> values = args.getOptionValues(name);
+        return values == null || values.isEmpty() ? Optional.empty() : Optional.of(values.getFirst());
+    }
+}
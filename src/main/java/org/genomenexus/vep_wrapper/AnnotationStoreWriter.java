@@ -0,0 +1,120 @@
+package org.genomenexus.vep_wrapper;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.Deflater;
+
+/**
+ * Writes an {@link AnnotationStore}. Records are compressed and appended to a temporary file as
+ * they are added, so only the keys are held in memory; {@link #finish()} sorts them, writes the
+ * store next to {@code path} and moves it into place atomically, so that a running service never
+ * loads a partially written store.
+ */
+final class AnnotationStoreWriter implements Closeable {
+
+    private record Entry(byte[] key, long recordOffset, int compressedLength, int recordLength) {}
+
+    private final Path path;
+    private final String namespace;
+    private final Path recordsFile;
+    private final OutputStream records;
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    private final byte[] buffer = new byte[64 * 1024];
+    private final List<Entry> entries = new ArrayList<>();
+    private final Set<String> keys = new HashSet<>();
+    private long recordsLength = 0;
+
+    AnnotationStoreWriter(Path path, String namespace) throws IOException {
+        this.path = path.toAbsolutePath();
+        this.namespace = namespace;
+        Files.createDirectories(this.path.getParent());
+        this.recordsFile = Files.createTempFile(this.path.getParent(), ".annotation-store", ".records");
+        this.records = new BufferedOutputStream(Files.newOutputStream(recordsFile), 1 << 20);
+    }
+
+    /**
+     * Adds a record unless one was already added for {@code key}.
+     */
+    void add(String key, String json) throws IOException {
+        if (!keys.add(key)) {
+            return;
+        }
+        byte[] record = json.getBytes(StandardCharsets.UTF_8);
+        deflater.reset();
+        deflater.setInput(record);
+        deflater.finish();
+        int compressedLength = 0;
+        while (!deflater.finished()) {
+            int n = deflater.deflate(buffer);
+            records.write(buffer, 0, n);
+            compressedLength += n;
+        }
+        entries.add(new Entry(key.getBytes(StandardCharsets.UTF_8), recordsLength, compressedLength, record.length));
+        recordsLength += compressedLength;
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    void finish() throws IOException {
+        records.close();
+        entries.sort((a, b) -> Arrays.compareUnsigned(a.key(), b.key()));
+
+        byte[] namespaceBytes = namespace.getBytes(StandardCharsets.UTF_8);
+        long headerLength = AnnotationStore.MAGIC.length + Integer.BYTES + namespaceBytes.length + Integer.BYTES + 2 * Long.BYTES;
+        long keysStart = headerLength + (long) entries.size() * AnnotationStore.ENTRY_SIZE;
+        long keysLength = entries.stream().mapToLong(entry -> entry.key().length).sum();
+
+        Path tmp = Files.createTempFile(path.getParent(), ".annotation-store", ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 20))) {
+                out.write(AnnotationStore.MAGIC);
+                out.writeInt(namespaceBytes.length);
+                out.write(namespaceBytes);
+                out.writeInt(entries.size());
+                out.writeLong(keysStart);
+                out.writeLong(keysStart + keysLength);
+
+                long keyOffset = 0;
+                for (Entry entry : entries) {
+                    out.writeLong(keyOffset);
+                    out.writeInt(entry.key().length);
+                    out.writeLong(entry.recordOffset());
+                    out.writeInt(entry.compressedLength());
+                    out.writeInt(entry.recordLength());
+                    keyOffset += entry.key().length;
+                }
+                for (Entry entry : entries) {
+                    out.write(entry.key());
+                }
+                try (InputStream in = Files.newInputStream(recordsFile)) {
+                    in.transferTo(out);
+                }
+            }
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        deflater.end();
+        records.close();
+        Files.deleteIfExists(recordsFile);
+    }
+}
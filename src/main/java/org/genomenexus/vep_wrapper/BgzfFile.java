@@ -0,0 +1,238 @@
+package org.genomenexus.vep_wrapper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+/**
+ * Read-only, memory-mapped BGZF file (a series of gzip members of at most 64KB each, as written by
+ * {@code bgzip}). Positions are BGZF virtual offsets: the file offset of a block in the upper 48
+ * bits, and the offset within its decompressed data in the lower 16. Decompressed blocks are kept
+ * in a cache bounded by their size and shared by every reader of the file.
+ */
+final class BgzfFile implements Closeable {
+
+    private static final long SEGMENT_SIZE = 1L << 30;
+    // gzip header with the FEXTRA flag, the BC subfield and the footer
+    private static final int HEADER_SIZE = 18;
+    private static final int FOOTER_SIZE = 8;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final ByteBuffer[] segments;
+    private final long length;
+    private final Cache<Long, Block> blocks;
+
+    private record Block(byte[] data, int compressedSize) {}
+
+    private BgzfFile(Path path, FileChannel channel, long maxCacheBytes) throws IOException {
+        this.path = path;
+        this.channel = channel;
+        this.length = channel.size();
+        this.segments = new ByteBuffer[(int) Math.max(1, (length + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+        for (int i = 0; i < segments.length; i++) {
+            long start = i * SEGMENT_SIZE;
+            segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE, length - start));
+        }
+        this.blocks = Caffeine.newBuilder()
+            .maximumWeight(maxCacheBytes)
+            .weigher((Long offset, Block block) -> block.data().length)
+            // evict on the reading thread, so that the cache never holds much more than its bound
+            .executor(Runnable::run)
+            .build();
+    }
+
+    static BgzfFile open(Path path, long maxCacheBytes) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            return new BgzfFile(path, channel, maxCacheBytes);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    Path getPath() {
+        return path;
+    }
+
+    /**
+     * Decompressed bytes currently held in the block cache.
+     */
+    long getCachedBytes() {
+        return blocks.policy().eviction().map(eviction -> eviction.weightedSize().orElse(0)).orElse(0L);
+    }
+
+    /**
+     * Reads lines from {@code virtualOffset} on.
+     */
+    LineReader lines(long virtualOffset) {
+        return new LineReader(virtualOffset);
+    }
+
+    /**
+     * Up to {@code count} decompressed bytes from {@code virtualOffset} on, fewer at the end of the file.
+     */
+    byte[] read(long virtualOffset, int count) {
+        byte[] bytes = new byte[count];
+        long blockOffset = virtualOffset >>> 16;
+        int position = (int) (virtualOffset & 0xffff);
+        int copied = 0;
+        while (copied < count && blockOffset < length) {
+            Block block = getBlock(blockOffset);
+            int n = Math.min(count - copied, block.data().length - position);
+            if (n > 0) {
+                System.arraycopy(block.data(), position, bytes, copied, n);
+                copied += n;
+            }
+            blockOffset += block.compressedSize();
+            position = 0;
+        }
+        return copied == count ? bytes : Arrays.copyOf(bytes, copied);
+    }
+
+    final class LineReader {
+
+        private long blockOffset;
+        private Block block;
+        private int position;
+
+        private LineReader(long virtualOffset) {
+            this.blockOffset = virtualOffset >>> 16;
+            this.position = (int) (virtualOffset & 0xffff);
+        }
+
+        /**
+         * The virtual offset of the next line.
+         */
+        long getVirtualOffset() {
+            return blockOffset << 16 | position;
+        }
+
+        /**
+         * The next line without its line break, or null at the end of the file.
+         */
+        String readLine() {
+            ByteArrayOutputStream line = null;
+            while (true) {
+                if (block == null) {
+                    if (blockOffset >= length) {
+                        return line == null ? null : line.toString(StandardCharsets.UTF_8);
+                    }
+                    block = getBlock(blockOffset);
+                }
+                byte[] data = block.data();
+                int end = position;
+                while (end < data.length && data[end] != '\n') {
+                    end++;
+                }
+                if (end < data.length) {
+                    String text;
+                    if (line == null) {
+                        text = new String(data, position, end - position, StandardCharsets.UTF_8);
+                    } else {
+                        line.write(data, position, end - position);
+                        text = line.toString(StandardCharsets.UTF_8);
+                    }
+                    position = end + 1;
+                    if (position == data.length) {
+                        nextBlock();
+                    }
+                    return text;
+                }
+                // the line continues in the next block
+                if (line == null) {
+                    line = new ByteArrayOutputStream();
+                }
+                line.write(data, position, data.length - position);
+                nextBlock();
+            }
+        }
+
+        private void nextBlock() {
+            blockOffset += block.compressedSize();
+            block = null;
+            position = 0;
+        }
+    }
+
+    private Block getBlock(long offset) {
+        return blocks.get(offset, this::readBlock);
+    }
+
+    private Block readBlock(long offset) {
+        ByteBuffer header = slice(offset, HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        if ((header.get(0) & 0xff) != 31 || (header.get(1) & 0xff) != 139 || (header.get(3) & 4) == 0
+            || header.get(12) != 'B' || header.get(13) != 'C') {
+            throw new UncheckedIOException(new IOException("Not a BGZF block at offset " + offset + " of " + path));
+        }
+        int extraLength = header.getShort(10) & 0xffff;
+        int compressedSize = (header.getShort(16) & 0xffff) + 1;
+        ByteBuffer footer = slice(offset + compressedSize - FOOTER_SIZE, FOOTER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        int size = footer.getInt(4);
+        int dataStart = 12 + extraLength;
+        ByteBuffer compressed = slice(offset + dataStart, compressedSize - dataStart - FOOTER_SIZE);
+
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(compressed);
+            byte[] data = new byte[size];
+            int inflated = 0;
+            while (inflated < size && !inflater.finished()) {
+                int n = inflater.inflate(data, inflated, size - inflated);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                inflated += n;
+            }
+            if (inflated != size) {
+                throw new UncheckedIOException(new IOException("Corrupt BGZF block at offset " + offset + " of " + path));
+            }
+            return new Block(data, compressedSize);
+        } catch (DataFormatException e) {
+            throw new UncheckedIOException(new IOException("Corrupt BGZF block at offset " + offset + " of " + path, e));
+        } finally {
+            inflater.end();
+        }
+    }
+
+    // A read-only view of the bytes at position, copied only when they span two segments
+    private ByteBuffer slice(long position, int count) {
+        if (position < 0 || position + count > length) {
+            throw new UncheckedIOException(new IOException("Truncated BGZF file " + path));
+        }
+        int segment = (int) (position / SEGMENT_SIZE);
+        int offset = (int) (position % SEGMENT_SIZE);
+        if (offset + count <= segments[segment].limit()) {
+            return segments[segment].slice(offset, count);
+        }
+        byte[] bytes = new byte[count];
+        int copied = 0;
+        while (copied < count) {
+            ByteBuffer current = segments[segment++];
+            int n = Math.min(count - copied, current.limit() - offset);
+            current.get(offset, bytes, copied, n);
+            copied += n;
+            offset = 0;
+        }
+        return ByteBuffer.wrap(bytes);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
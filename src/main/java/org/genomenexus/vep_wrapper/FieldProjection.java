@@ -0,0 +1,210 @@
+package org.genomenexus.vep_wrapper;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * The annotation fields a caller asked for, named as they appear in the output (after
+ * {@code vep.field-renames}). A projection runs VEP with only the flags and plugins those fields
+ * need instead of {@code --everything}, and trims every other field from the records.
+ *
+ * Fields are matched at any depth. An object or array is kept while something requested is left
+ * inside it, and a requested object or array is kept whole; the fields that identify a record or
+ * consequence are kept along with it.
+ */
+public final class FieldProjection {
+
+    /**
+     * Everything VEP can produce, untrimmed.
+     */
+    public static final FieldProjection ALL = new FieldProjection(null);
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static final Pattern FIELD_NAME = Pattern.compile("[a-z0-9_]+");
+
+    private static final Set<String> IDENTITY_FIELDS = Set.of(
+        "input", "id", "seq_region_name", "start", "end", "strand", "allele_string", "assembly_name",
+        "variant_allele", "transcript_id", "gene_id", "regulatory_feature_id", "motif_feature_id"
+    );
+
+    private static final List<String> CHECK_EXISTING = List.of("--check_existing");
+
+    // The flags that add each field VEP does not output by default, by the field's name in VEP output
+    private static final Map<String, List<String>> FIELD_FLAGS = new HashMap<>();
+
+    static {
+        addFlags(List.of("--hgvs"), "hgvsc", "hgvsp", "hgvs_offset");
+        addFlags(List.of("--hgvsg"), "hgvsg");
+        addFlags(List.of("--xref_refseq"), "refseq_transcript_ids");
+        addFlags(List.of("--symbol"), "gene_symbol", "gene_symbol_source", "hgnc_id");
+        addFlags(List.of("--canonical"), "canonical");
+        addFlags(List.of("--protein"), "protein_id");
+        addFlags(List.of("--biotype"), "biotype");
+        addFlags(List.of("--numbers"), "exon", "intron");
+        addFlags(List.of("--domains"), "domains");
+        addFlags(List.of("--regulatory"), "regulatory_feature_consequences", "motif_feature_consequences");
+        addFlags(List.of("--ccds"), "ccds");
+        addFlags(List.of("--uniprot"), "swissprot", "trembl", "uniparc", "uniprot_isoform");
+        addFlags(List.of("--mane"), "mane", "mane_select", "mane_plus_clinical");
+        addFlags(List.of("--tsl"), "tsl");
+        addFlags(List.of("--appris"), "appris");
+        addFlags(List.of("--variant_class"), "variant_class");
+        addFlags(List.of("--gene_phenotype"), "gene_pheno");
+        addFlags(List.of("--mirna"), "mirna");
+        addFlags(List.of("--sift=b"), "sift_prediction", "sift_score");
+        addFlags(List.of("--polyphen=b"), "polyphen_prediction", "polyphen_score");
+        addFlags(CHECK_EXISTING, "colocated_variants", "clin_sig", "clin_sig_allele", "somatic", "phenotype_or_disease", "var_synonyms");
+        addFlags(List.of("--check_existing", "--af", "--af_1kg", "--af_gnomade", "--af_gnomadg", "--max_af"), "frequencies");
+        addFlags(List.of("--check_existing", "--max_af"), "max_af", "max_af_pops");
+        addFlags(List.of("--check_existing", "--pubmed"), "pubmed");
+    }
+
+    private final SortedSet<String> fields;
+
+    private FieldProjection(SortedSet<String> fields) {
+        this.fields = fields;
+    }
+
+    /**
+     * @throws IllegalArgumentException if no fields are given or a field name is malformed
+     */
+    public static FieldProjection of(Collection<String> fields) {
+        SortedSet<String> projected = new TreeSet<>();
+        for (String field : fields) {
+            String name = field.strip();
+            if (!FIELD_NAME.matcher(name).matches()) {
+                throw new IllegalArgumentException("Invalid field name: " + field);
+            }
+            projected.add(name);
+        }
+        if (projected.isEmpty()) {
+            throw new IllegalArgumentException("No fields requested");
+        }
+        return new FieldProjection(projected);
+    }
+
+    /**
+     * The projection for a request's {@code fields} (comma separated) or {@code profile}, either of
+     * which may be null.
+     *
+     * @throws IllegalArgumentException if both are given, the profile does not exist or a field name is malformed
+     */
+    public static FieldProjection resolve(String fields, String profile, Map<String, FieldProjection> profiles) {
+        if (fields != null && profile != null) {
+            throw new IllegalArgumentException("Request either fields or a profile, not both");
+        }
+        if (profile != null) {
+            FieldProjection projection = profiles.get(profile);
+            if (projection == null) {
+                throw new IllegalArgumentException("Unknown field profile: " + profile);
+            }
+            return projection;
+        }
+        return fields == null ? ALL : of(Arrays.asList(fields.split(",")));
+    }
+
+    public boolean isAll() {
+        return fields == null;
+    }
+
+    /**
+     * Identifies the projection in cache keys; empty for {@link #ALL}, so that unprojected results
+     * keep their keys.
+     */
+    String getCacheKey() {
+        return isAll() ? "" : "fields=" + String.join(",", fields) + "|";
+    }
+
+    /**
+     * The VEP flags needed to produce the fields, besides those of any plugin. A renamed field may
+     * share its new name with a field of VEP's own (plugin {@code sift_pred} becomes
+     * {@code sift_prediction}), so both names are looked up. Only meaningful for projections other
+     * than {@link #ALL}.
+     */
+    List<String> getVepFlags(Map<String, String> fieldRenames) {
+        Map<String, String> originalNames = new HashMap<>();
+        fieldRenames.forEach((original, renamed) -> originalNames.put(renamed, original));
+        Set<String> flags = new LinkedHashSet<>();
+        for (String field : fields) {
+            flags.addAll(FIELD_FLAGS.getOrDefault(field, List.of()));
+            flags.addAll(FIELD_FLAGS.getOrDefault(originalNames.getOrDefault(field, field), List.of()));
+        }
+        return List.copyOf(flags);
+    }
+
+    /**
+     * Whether any of {@code vepFields}, named as a plugin outputs them, is requested.
+     */
+    boolean requestsAny(Collection<String> vepFields, Map<String, String> fieldRenames) {
+        return isAll() || vepFields.stream().anyMatch(field -> fields.contains(fieldRenames.getOrDefault(field, field)));
+    }
+
+    VEPRecord apply(VEPRecord record) throws JsonProcessingException {
+        return isAll() ? record : new VEPRecord(record.input(), apply(record.json()));
+    }
+
+    String apply(String json) throws JsonProcessingException {
+        if (isAll()) {
+            return json;
+        }
+        JsonNode record = OBJECT_MAPPER.readTree(json);
+        trim(record);
+        return record.toString();
+    }
+
+    // Removes what was not requested and returns whether anything requested is left
+    private boolean trim(JsonNode node) {
+        if (node instanceof ArrayNode array) {
+            boolean requested = false;
+            for (int i = array.size() - 1; i >= 0; i--) {
+                if (trim(array.get(i))) {
+                    requested = true;
+                } else {
+                    array.remove(i);
+                }
+            }
+            return requested;
+        }
+        if (node instanceof ObjectNode object) {
+            boolean requested = false;
+            var properties = object.properties().iterator();
+            while (properties.hasNext()) {
+                Map.Entry<String, JsonNode> property = properties.next();
+                if (fields.contains(property.getKey())) {
+                    requested = true;
+                } else if (trim(property.getValue())) {
+                    requested = true;
+                } else if (!IDENTITY_FIELDS.contains(property.getKey())) {
+                    properties.remove();
+                }
+            }
+            return requested;
+        }
+        return false;
+    }
+
+    private static void addFlags(List<String> flags, String... fields) {
+        for (String field : fields) {
+            FIELD_FLAGS.put(field, flags);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return isAll() ? "all fields" : String.join(",", fields);
+    }
+}
@@ -0,0 +1,46 @@
+package org.genomenexus.vep_wrapper;
+
+/**
+ * A variant on the forward strand in VEP region coordinates, as produced by {@link VariantNotationParser}.
+ * Insertions have {@code start == end + 1}; deletions have the allele {@code -}; duplications and
+ * inversions whose sequence is not known are given as the structural variant alleles {@code DUP}
+ * and {@code INV}.
+ *
+ * @param contig   the contig as written in the input, e.g. {@code chr7}
+ * @param ref      the reference bases from {@code start} to {@code end} as the notation states them,
+ *                 e.g. the {@code A} of {@code 123A>T}, or null if it does not
+ * @param region   the variant in VEP region format, e.g. {@code chr7:140453136-140453136:1/T}
+ * @param cacheKey the variant with the contig normalized ({@code chr} dropped, {@code M} as {@code MT}),
+ *                 identical for every notation of the same variant
+ */
+public record GenomicVariant(String contig, int start, int end, String ref, String allele, String region, String cacheKey) {
+
+    static GenomicVariant of(String contig, int start, int end, String allele) {
+        return of(contig, start, end, null, allele);
+    }
+
+    static GenomicVariant of(String contig, int start, int end, String ref, String allele) {
+        return new GenomicVariant(
+            contig,
+            start,
+            end,
+            ref,
+            allele,
+            toRegion(contig, start, end, allele),
+            toRegion(VariantNotationParser.normalizeContig(contig), start, end, allele)
+        );
+    }
+
+    public boolean isInsertion() {
+        return start == end + 1;
+    }
+
+    private static String toRegion(String contig, int start, int end, String allele) {
+        return new StringBuilder(contig.length() + allele.length() + 26)
+            .append(contig).append(':')
+            .append(start).append('-')
+            .append(end).append(":1/")
+            .append(allele)
+            .toString();
+    }
+}
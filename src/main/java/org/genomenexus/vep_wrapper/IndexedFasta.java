@@ -0,0 +1,193 @@
+package org.genomenexus.vep_wrapper;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Read-only, memory-mapped FASTA file with its {@code .fai} index, plain or bgzipped. A bgzipped
+ * FASTA also needs its {@code .gzi} index, as written by {@code samtools faidx} or VEP's installer,
+ * and is read through a {@link BgzfFile} whose decompressed blocks are cached.
+ */
+final class IndexedFasta implements Closeable {
+
+    private static final long SEGMENT_SIZE = 1L << 30;
+
+    private final Path path;
+    private final Map<String, Sequence> sequences;
+    private final Source source;
+
+    /**
+     * A line of the {@code .fai}: the sequence length, the file offset of its first base, and the
+     * bases and bytes per line.
+     */
+    private record Sequence(long length, long offset, int lineBases, int lineWidth) {}
+
+    // The uncompressed bytes of the file
+    private interface Source extends Closeable {
+        byte[] read(long offset, int count);
+    }
+
+    private IndexedFasta(Path path, Map<String, Sequence> sequences, Source source) {
+        this.path = path;
+        this.sequences = sequences;
+        this.source = source;
+    }
+
+    static IndexedFasta open(Path path, long blockCacheSize) throws IOException {
+        Map<String, Sequence> sequences = readIndex(Path.of(path + ".fai"));
+        Source source;
+        try (InputStream in = Files.newInputStream(path)) {
+            byte[] magic = in.readNBytes(2);
+            boolean compressed = magic.length == 2 && (magic[0] & 0xff) == 31 && (magic[1] & 0xff) == 139;
+            source = compressed ? openCompressed(path, blockCacheSize) : openMapped(path);
+        }
+        return new IndexedFasta(path, sequences, source);
+    }
+
+    Path getPath() {
+        return path;
+    }
+
+    boolean contains(String sequence) {
+        return sequences.containsKey(sequence);
+    }
+
+    /**
+     * The number of bases of {@code sequence}, which must be {@link #contains contained}.
+     */
+    long getLength(String sequence) {
+        return sequences.get(sequence).length();
+    }
+
+    /**
+     * The upper-cased bases from the 1-based {@code start} to {@code end} inclusive, clipped to the
+     * sequence, which must be {@link #contains contained}.
+     */
+    String getBases(String sequence, long start, long end) {
+        Sequence indexed = sequences.get(sequence);
+        long from = Math.max(start, 1) - 1;
+        long to = Math.min(end, indexed.length());
+        if (from >= to) {
+            return "";
+        }
+        long fromOffset = getOffset(indexed, from);
+        long toOffset = getOffset(indexed, to - 1) + 1;
+        byte[] bytes = source.read(fromOffset, Math.toIntExact(toOffset - fromOffset));
+        StringBuilder bases = new StringBuilder((int) (to - from));
+        for (byte b : bytes) {
+            if (b != '\n' && b != '\r') {
+                bases.append(Character.toUpperCase((char) b));
+            }
+        }
+        return bases.toString();
+    }
+
+    // The file offset of the 0-based position
+    private static long getOffset(Sequence sequence, long position) {
+        return sequence.offset() + position / sequence.lineBases() * sequence.lineWidth() + position % sequence.lineBases();
+    }
+
+    private static Map<String, Sequence> readIndex(Path indexPath) throws IOException {
+        if (!Files.exists(indexPath)) {
+            throw new IOException("Missing FASTA index " + indexPath);
+        }
+        Map<String, Sequence> sequences = new HashMap<>();
+        for (String line : Files.readAllLines(indexPath, StandardCharsets.US_ASCII)) {
+            if (line.isBlank()) {
+                continue;
+            }
+            String[] columns = line.split("\t");
+            try {
+                sequences.put(columns[0], new Sequence(
+                    Long.parseLong(columns[1]),
+                    Long.parseLong(columns[2]),
+                    Integer.parseInt(columns[3]),
+                    Integer.parseInt(columns[4])
+                ));
+            } catch (IndexOutOfBoundsException | NumberFormatException e) {
+                throw new IOException("Corrupt FASTA index " + indexPath + ": " + line, e);
+            }
+        }
+        return sequences;
+    }
+
+    private static Source openMapped(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long length = channel.size();
+            // the mapping stays valid after the channel is closed
+            ByteBuffer[] segments = new ByteBuffer[(int) Math.max(1, (length + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+            for (int i = 0; i < segments.length; i++) {
+                long start = i * SEGMENT_SIZE;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE, length - start));
+            }
+            return new Source() {
+                @Override
+                public byte[] read(long offset, int count) {
+                    byte[] bytes = new byte[(int) Math.max(0, Math.min(count, length - offset))];
+                    int segment = (int) (offset / SEGMENT_SIZE);
+                    int position = (int) (offset % SEGMENT_SIZE);
+                    int copied = 0;
+                    while (copied < bytes.length) {
+                        ByteBuffer current = segments[segment++];
+                        int n = Math.min(bytes.length - copied, current.limit() - position);
+                        current.get(position, bytes, copied, n);
+                        copied += n;
+                        position = 0;
+                    }
+                    return bytes;
+                }
+
+                @Override
+                public void close() {}
+            };
+        }
+    }
+
+    private static Source openCompressed(Path path, long blockCacheSize) throws IOException {
+        Path gziPath = Path.of(path + ".gzi");
+        if (!Files.exists(gziPath)) {
+            throw new IOException("Missing bgzip index " + gziPath);
+        }
+        // pairs of compressed and uncompressed offsets at which blocks start, after the first one
+        ByteBuffer gzi = ByteBuffer.wrap(Files.readAllBytes(gziPath)).order(ByteOrder.LITTLE_ENDIAN);
+        int blocks = Math.toIntExact(gzi.getLong()) + 1;
+        long[] compressedOffsets = new long[blocks];
+        long[] uncompressedOffsets = new long[blocks];
+        for (int i = 1; i < blocks; i++) {
+            compressedOffsets[i] = gzi.getLong();
+            uncompressedOffsets[i] = gzi.getLong();
+        }
+        BgzfFile file = BgzfFile.open(path, blockCacheSize);
+        return new Source() {
+            @Override
+            public byte[] read(long offset, int count) {
+                int block = Arrays.binarySearch(uncompressedOffsets, offset);
+                if (block < 0) {
+                    block = -block - 2;
+                }
+                return file.read(compressedOffsets[block] << 16 | (offset - uncompressedOffsets[block]), count);
+            }
+
+            @Override
+            public void close() throws IOException {
+                file.close();
+            }
+        };
+    }
+
+    @Override
+    public void close() throws IOException {
+        source.close();
+    }
+}
@@ -0,0 +1,208 @@
+package org.genomenexus.vep_wrapper;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads the VEP cache and plugin data once, sequentially, so that the OS holds them in its page
+ * cache before the first requests need them (see {@link VEPConfiguration.PageCacheConfiguration}).
+ * Runs on its own thread; files that cannot be read are skipped.
+ */
+final class PageCacheWarmer implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PageCacheWarmer.class);
+
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final int PROGRESS_STEPS = 10;
+
+    private final VEPConfiguration.PageCacheConfiguration config;
+    private final ExecutorService reader = Executors.newSingleThreadExecutor(
+        Thread.ofPlatform().name("vep-page-cache").daemon().factory()
+    );
+    private final AtomicLong warmedBytes = new AtomicLong();
+    private volatile long totalBytes;
+    private volatile boolean finished;
+
+    PageCacheWarmer(VEPConfiguration.PageCacheConfiguration config) {
+        this.config = config;
+    }
+
+    void start() {
+        reader.execute(this::warm);
+    }
+
+    boolean isFinished() {
+        return finished;
+    }
+
+    long getWarmedBytes() {
+        return warmedBytes.get();
+    }
+
+    /**
+     * The bytes that will be read, known once the files have been listed.
+     */
+    long getTotalBytes() {
+        return totalBytes;
+    }
+
+    void warm() {
+        long start = System.nanoTime();
+        try {
+            List<Path> files = listFiles(config.paths().stream().map(Path::of).toList(), config.priority());
+            long maxSize = config.maxSize().toBytes();
+            long total = 0;
+            for (Path file : files) {
+                total += sizeOf(file);
+            }
+            totalBytes = maxSize > 0 ? Math.min(total, maxSize) : total;
+            LOG.info("Warming {} MB of VEP data in {} files into the page cache", totalBytes >> 20, files.size());
+
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            int reportedStep = 0;
+            for (Path file : files) {
+                if (Thread.currentThread().isInterrupted() || warmedBytes.get() >= totalBytes) {
+                    break;
+                }
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                    while (warmedBytes.get() < totalBytes) {
+                        buffer.clear().limit((int) Math.min(BUFFER_SIZE, totalBytes - warmedBytes.get()));
+                        int read = channel.read(buffer);
+                        if (read < 0) {
+                            break;
+                        }
+                        long warmed = warmedBytes.addAndGet(read);
+                        throttle(warmed, start);
+                        int step = (int) (warmed * PROGRESS_STEPS / Math.max(totalBytes, 1));
+                        if (step > reportedStep && step < PROGRESS_STEPS) {
+                            reportedStep = step;
+                            LOG.info("Warmed {} of {} MB of VEP data into the page cache", warmed >> 20, totalBytes >> 20);
+                        }
+                    }
+                } catch (IOException e) {
+                    LOG.warn("Could not read {} into the page cache", file, e);
+                }
+            }
+            LOG.info("Warmed {} MB of VEP data into the page cache in {} s", warmedBytes.get() >> 20,
+                TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException | UncheckedIOException e) {
+            LOG.warn("Could not list the VEP data to warm into the page cache", e);
+        } finally {
+            finished = true;
+        }
+    }
+
+    // Sleeps for as long as reading is ahead of the rate limit
+    private void throttle(long warmed, long start) throws InterruptedException {
+        long rateLimit = config.rateLimit().toBytes();
+        if (rateLimit <= 0) {
+            return;
+        }
+        long aheadNanos = warmed * TimeUnit.SECONDS.toNanos(1) / rateLimit - (System.nanoTime() - start);
+        if (aheadNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(aheadNanos);
+        }
+    }
+
+    /**
+     * The regular files under {@code paths}, which need not exist: those matching the
+     * {@code priority} globs first, in the order of the globs, then the rest, each group in natural
+     * path order.
+     */
+    static List<Path> listFiles(List<Path> paths, List<String> priority) throws IOException {
+        List<PathMatcher> matchers = priority.stream()
+            .map(glob -> FileSystems.getDefault().getPathMatcher("glob:" + glob))
+            .toList();
+        List<Path> files = new ArrayList<>();
+        for (Path path : paths) {
+            if (!Files.exists(path)) {
+                LOG.info("Skipping {}, which does not exist", path);
+                continue;
+            }
+            try (Stream<Path> walk = Files.walk(path)) {
+                walk.filter(Files::isRegularFile).map(Path::toAbsolutePath).forEach(files::add);
+            }
+        }
+        Comparator<Path> byPriority = Comparator.comparingInt(file -> {
+            for (int i = 0; i < matchers.size(); i++) {
+                if (matchers.get(i).matches(file)) {
+                    return i;
+                }
+            }
+            return matchers.size();
+        });
+        files.sort(byPriority.thenComparing(Path::toString, PageCacheWarmer::compareNaturally));
+        return files;
+    }
+
+    // Compares runs of digits by their value, so that 2 comes before 10
+    static int compareNaturally(String a, String b) {
+        int i = 0;
+        int j = 0;
+        while (i < a.length() && j < b.length()) {
+            char x = a.charAt(i);
+            char y = b.charAt(j);
+            if (Character.isDigit(x) && Character.isDigit(y)) {
+                int digitsEndA = i;
+                while (digitsEndA < a.length() && Character.isDigit(a.charAt(digitsEndA))) {
+                    digitsEndA++;
+                }
+                int digitsEndB = j;
+                while (digitsEndB < b.length() && Character.isDigit(b.charAt(digitsEndB))) {
+                    digitsEndB++;
+                }
+                String numberA = a.substring(i, digitsEndA).replaceFirst("^0+(?=.)", "");
+                String numberB = b.substring(j, digitsEndB).replaceFirst("^0+(?=.)", "");
+                int order = numberA.length() != numberB.length()
+                    ? Integer.compare(numberA.length(), numberB.length())
+                    : numberA.compareTo(numberB);
+                if (order != 0) {
+                    return order;
+                }
+                i = digitsEndA;
+                j = digitsEndB;
+            } else {
+                if (x != y) {
+                    return Character.compare(x, y);
+                }
+                i++;
+                j++;
+            }
+        }
+        return Integer.compare(a.length() - i, b.length() - j);
+    }
+
+    private static long sizeOf(Path file) {
+        try {
+            return Files.size(file);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    @Override
+    public void close() {
+        reader.shutdownNow();
+    }
+}
@@ -0,0 +1,118 @@
+package org.genomenexus.vep_wrapper;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The {@link AnnotationStore} at {@code vep.annotation-store.path}. The file is checked every
+ * {@code vep.annotation-store.reload-interval} and swapped in without a restart whenever it changes,
+ * but only if it was built with the VEP release and configuration the service runs; a store built
+ * for anything else is ignored until a matching one replaces it.
+ */
+final class PrecomputedAnnotations implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PrecomputedAnnotations.class);
+
+    private final Path path;
+    private final VEPConfiguration.AnnotationStoreConfiguration config;
+    private final Supplier<Optional<String>> namespace;
+    private final AtomicReference<AnnotationStore> store = new AtomicReference<>();
+    private final ScheduledExecutorService reloader = Executors.newSingleThreadScheduledExecutor(
+        Thread.ofPlatform().name("vep-annotation-store-reload").daemon().factory()
+    );
+    // Identifies the file last loaded (or rejected), so that an unchanged file is not reopened
+    private volatile String loadedVersion;
+
+    /**
+     * @param namespace the namespace stores must have been built with, empty while it cannot be determined
+     */
+    PrecomputedAnnotations(VEPConfiguration.AnnotationStoreConfiguration config, Supplier<Optional<String>> namespace) {
+        this.path = Path.of(config.path());
+        this.config = config;
+        this.namespace = namespace;
+    }
+
+    /**
+     * The store key of a variant, as sent to VEP in {@code format}, shared by its notations that
+     * {@link VariantNotationParser#variantKey} does not tell apart.
+     */
+    static String key(String format, String variant) {
+        return format + "|" + VariantNotationParser.variantKey(format, variant);
+    }
+
+    void start() {
+        reloader.scheduleWithFixedDelay(this::reload, 0, config.reloadInterval().toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    Optional<String> get(String format, String variant) {
+        AnnotationStore current = store.get();
+        return current == null ? Optional.empty() : current.get(key(format, variant));
+    }
+
+    int size() {
+        AnnotationStore current = store.get();
+        return current == null ? 0 : current.size();
+    }
+
+    void reload() {
+        try {
+            if (!Files.exists(path)) {
+                loadedVersion = null;
+                swap(null);
+                return;
+            }
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            String version = attributes.fileKey() + "/" + attributes.lastModifiedTime() + "/" + attributes.size();
+            if (version.equals(loadedVersion)) {
+                return;
+            }
+            Optional<String> expectedNamespace = namespace.get();
+            if (expectedNamespace.isEmpty()) {
+                // the VEP release is not known yet; try again on the next check
+                return;
+            }
+
+            AnnotationStore candidate = AnnotationStore.open(path);
+            loadedVersion = version;
+            if (!candidate.getNamespace().equals(expectedNamespace.get())) {
+                LOG.warn("Ignoring annotation store {}: built for {} but running {}", path, candidate.getNamespace(), expectedNamespace.get());
+                candidate.close();
+                swap(null);
+                return;
+            }
+            swap(candidate);
+            LOG.info("Loaded annotation store {} with {} records", path, candidate.size());
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Could not load annotation store {}", path, e);
+        }
+    }
+
+    private void swap(AnnotationStore replacement) throws IOException {
+        AnnotationStore previous = store.getAndSet(replacement);
+        if (previous != null) {
+            previous.close();
+        }
+    }
+
+    @Override
+    public void close() {
+        reloader.shutdownNow();
+        try {
+            swap(null);
+        } catch (IOException e) {
+            LOG.warn("Could not close annotation store {}", path, e);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package org.genomenexus.vep_wrapper;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Optional;
+
+/**
+ * Checks variants against the reference genome VEP runs with in cache mode before they are sent
+ * to VEP, and left-aligns indels so that every notation of the same indel is cached and
+ * deduplicated as one variant. Contigs are matched with or without a {@code chr} prefix, and
+ * renamed to the reference's name for them before being sent to VEP.
+ */
+final class ReferenceGenome implements Closeable {
+
+    // Longer indels are checked but not normalized, rather than reading their whole sequence
+    private static final int MAX_NORMALIZED_LENGTH = 1000;
+    // Bases read at a time while shifting an indel left
+    private static final int WINDOW = 128;
+
+    private final IndexedFasta fasta;
+
+    ReferenceGenome(IndexedFasta fasta) {
+        this.fasta = fasta;
+    }
+
+    /**
+     * Why {@code variant} cannot be annotated against this reference: its contig is not in it, it
+     * lies outside the contig, or the reference bases its notation states are not the reference's.
+     */
+    Optional<String> check(GenomicVariant variant) {
+        String sequence = getSequenceName(variant.contig());
+        if (sequence == null) {
+            return Optional.of("Contig " + variant.contig() + " is not in the reference genome");
+        }
+        long length = fasta.getLength(sequence);
+        if (variant.start() < 1 || variant.end() > length) {
+            return Optional.of("Position " + variant.start() + " is outside contig " + variant.contig() + " of length " + length);
+        }
+        if (variant.ref() != null) {
+            String bases = fasta.getBases(sequence, variant.start(), variant.end());
+            if (!bases.equals(variant.ref()) && !bases.contains("N")) {
+                return Optional.of("Reference allele " + variant.ref() + " does not match " + bases + " at "
+                    + variant.contig() + ":" + variant.start() + (variant.end() == variant.start() ? "" : "-" + variant.end()));
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * {@code variant} on the contig as this reference names it, e.g. {@code 7} for {@code chr7}.
+     * The variant must have passed {@link #check}.
+     */
+    GenomicVariant canonicalize(GenomicVariant variant) {
+        String sequence = getSequenceName(variant.contig());
+        return sequence.equals(variant.contig())
+            ? variant
+            : GenomicVariant.of(sequence, variant.start(), variant.end(), variant.ref(), variant.allele());
+    }
+
+    /**
+     * {@code variant}, if it is an insertion or deletion, shifted as far left as the reference
+     * allows without changing the sequence it results in; any other variant unchanged. The variant
+     * must have passed {@link #check}.
+     */
+    GenomicVariant normalize(GenomicVariant variant) {
+        boolean deletion = variant.allele().equals("-");
+        if (!deletion && !(variant.isInsertion() && isBases(variant.allele()))) {
+            return variant;
+        }
+        String sequence = getSequenceName(variant.contig());
+        // the bases that are deleted or inserted, rotated as the variant moves left
+        String shifted = deletion ? fasta.getBases(sequence, variant.start(), variant.end()) : variant.allele();
+        if (shifted.isEmpty() || shifted.length() > MAX_NORMALIZED_LENGTH || shifted.contains("N")) {
+            return variant;
+        }
+        int start = variant.start();
+        int end = variant.end();
+        // the reference bases left of the variant, ending just before start
+        String left = "";
+        int leftStart = start;
+        while (start > 1) {
+            if (start - 1 < leftStart) {
+                leftStart = Math.max(1, start - WINDOW);
+                left = fasta.getBases(sequence, leftStart, start - 1);
+            }
+            char previous = left.charAt(start - 1 - leftStart);
+            if (previous != shifted.charAt(shifted.length() - 1) || previous == 'N') {
+                break;
+            }
+            shifted = previous + shifted.substring(0, shifted.length() - 1);
+            start--;
+            end--;
+        }
+        if (start == variant.start()) {
+            return variant;
+        }
+        return GenomicVariant.of(variant.contig(), start, end, deletion ? "-" : shifted);
+    }
+
+    private String getSequenceName(String contig) {
+        String normalized = VariantNotationParser.normalizeContig(contig);
+        for (String candidate : new String[] {
+            contig,
+            normalized,
+            "chr" + normalized,
+            "MT".equals(normalized) ? "chrM" : normalized
+        }) {
+            if (fasta.contains(candidate)) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isBases(String allele) {
+        for (int i = 0; i < allele.length(); i++) {
+            if ("ACGT".indexOf(allele.charAt(i)) < 0) {
+                return false;
+            }
+        }
+        return !allele.isEmpty();
+    }
+
+    @Override
+    public void close() throws IOException {
+        fasta.close();
+    }
+}
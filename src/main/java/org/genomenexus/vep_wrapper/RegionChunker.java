@@ -0,0 +1,141 @@
+package org.genomenexus.vep_wrapper;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Splits region-format variants ({@code <contig>:<start>-<end>[:<strand>]/<allele>}) into chunks of
+ * similar size for VEP. Variants are sorted by contig and position, so each chunk covers a contiguous
+ * window of the genome: large contigs are split across several chunks and small ones are packed
+ * together. Any contig name is accepted; {@code chr} prefixes and {@code M}/{@code MT} are only
+ * normalized for ordering, the variants themselves are passed on unchanged.
+ */
+final class RegionChunker {
+
+    private static final int UNKNOWN_POSITION = Integer.MAX_VALUE;
+
+    record Region(String variant, String contig, int contigRank, int position) {}
+
+    private static final Comparator<Region> GENOMIC_ORDER = Comparator
+        .comparingInt(Region::contigRank)
+        .thenComparing(Region::contig)
+        .thenComparingInt(Region::position);
+
+    private RegionChunker() {}
+
+    /**
+     * Chunks the variants into at most {@code maxChunks} chunks of at least {@code minChunkSize}
+     * variants each (except when there are fewer variants than that).
+     */
+    static List<List<String>> chunk(List<String> variants, int maxChunks, int minChunkSize) {
+        List<Region> regions = new ArrayList<>(variants.size());
+        for (String variant : variants) {
+            regions.add(parse(variant));
+        }
+        return chunkRegions(regions, maxChunks, minChunkSize);
+    }
+
+    /**
+     * Chunks VCF data lines the same way, by their {@code CHROM} and {@code POS} columns.
+     */
+    static List<List<String>> chunkVcf(List<String> records, int maxChunks, int minChunkSize) {
+        List<Region> regions = new ArrayList<>(records.size());
+        for (String record : records) {
+            regions.add(parseVcf(record));
+        }
+        return chunkRegions(regions, maxChunks, minChunkSize);
+    }
+
+    private static List<List<String>> chunkRegions(List<Region> regions, int maxChunks, int minChunkSize) {
+        regions.sort(GENOMIC_ORDER);
+
+        int numVariants = regions.size();
+        int chunkSize = Math.max(Math.max(minChunkSize, 1), Math.ceilDiv(numVariants, Math.max(maxChunks, 1)));
+
+        List<List<String>> chunks = new ArrayList<>(Math.ceilDiv(numVariants, chunkSize));
+        for (int i = 0; i < numVariants; i += chunkSize) {
+            List<String> chunk = new ArrayList<>(Math.min(chunkSize, numVariants - i));
+            for (Region region : regions.subList(i, Math.min(i + chunkSize, numVariants))) {
+                chunk.add(region.variant());
+            }
+            chunks.add(chunk);
+        }
+        return chunks;
+    }
+
+    static Region parse(String variant) {
+        String location = variant;
+        int alleleStart = location.lastIndexOf('/');
+        if (alleleStart >= 0) {
+            location = location.substring(0, alleleStart);
+        }
+
+        // Drop the optional strand, leaving <contig>:<start>-<end>
+        int lastColon = location.lastIndexOf(':');
+        if (lastColon >= 0 && isStrand(location.substring(lastColon + 1)) && location.lastIndexOf(':', lastColon - 1) >= 0) {
+            location = location.substring(0, lastColon);
+            lastColon = location.lastIndexOf(':');
+        }
+        if (lastColon < 0) {
+            return new Region(variant, variant, Integer.MAX_VALUE, UNKNOWN_POSITION);
+        }
+
+        String contig = VariantNotationParser.normalizeContig(location.substring(0, lastColon));
+        return new Region(variant, contig, contigRank(contig), parseStart(location, lastColon + 1));
+    }
+
+    static Region parseVcf(String record) {
+        int contigEnd = record.indexOf('\t');
+        if (contigEnd < 0) {
+            return new Region(record, record, Integer.MAX_VALUE, UNKNOWN_POSITION);
+        }
+        String contig = VariantNotationParser.normalizeContig(record.substring(0, contigEnd));
+        return new Region(record, contig, contigRank(contig), parseStart(record, contigEnd + 1));
+    }
+
+    // Autosomes in numeric order, then X, Y, MT, then every other contig
+    private static int contigRank(String contig) {
+        return switch (contig) {
+            case "X" -> 1_000;
+            case "Y" -> 1_001;
+            case "MT" -> 1_002;
+            default -> autosomeRank(contig);
+        };
+    }
+
+    private static int autosomeRank(String contig) {
+        if (contig.isEmpty() || contig.length() > 3) {
+            return 2_000;
+        }
+        int rank = 0;
+        for (int i = 0; i < contig.length(); i++) {
+            char c = contig.charAt(i);
+            if (c < '0' || c > '9') {
+                return 2_000;
+            }
+            rank = rank * 10 + (c - '0');
+        }
+        return rank;
+    }
+
+    private static int parseStart(String location, int from) {
+        long position = 0;
+        int i = from;
+        for (; i < location.length(); i++) {
+            char c = location.charAt(i);
+            if (c < '0' || c > '9') {
+                break;
+            }
+            position = position * 10 + (c - '0');
+            if (position > Integer.MAX_VALUE) {
+                return UNKNOWN_POSITION;
+            }
+        }
+        return i == from ? UNKNOWN_POSITION : (int) position;
+    }
+
+    private static boolean isStrand(String value) {
+        return value.equals("1") || value.equals("-1") || value.equals("+1");
+    }
+}
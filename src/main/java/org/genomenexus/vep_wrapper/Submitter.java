@@ -0,0 +1,27 @@
+package org.genomenexus.vep_wrapper;
+
+/**
+ * Who a request's chunks are run for: the lane they wait in for VEP capacity, and the client they
+ * share the bulk lane fairly with.
+ */
+public record Submitter(Lane lane, String client) {
+
+    public enum Lane {
+        // small requests, typically from a UI, which get capacity reserved for them and go first
+        Interactive,
+        // everything else, sharing what is left round-robin between clients
+        Bulk
+    }
+
+    /**
+     * The interactive lane for requests of at most {@code lanes.interactive-max-variants} variants,
+     * the bulk lane for larger ones.
+     */
+    public static Submitter of(String client, int variants, VEPConfiguration.LanesConfiguration lanes) {
+        return new Submitter(variants <= lanes.interactiveMaxVariants() ? Lane.Interactive : Lane.Bulk, client);
+    }
+
+    public static Submitter bulk(String client) {
+        return new Submitter(Lane.Bulk, client);
+    }
+}
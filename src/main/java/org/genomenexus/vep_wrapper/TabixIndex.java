@@ -0,0 +1,128 @@
+package org.genomenexus.vep_wrapper;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * A tabix ({@code .tbi}) index of a bgzipped, position-sorted tab-separated file, read into memory
+ * whole. {@link #query} returns where in the data file the lines overlapping a position can be.
+ */
+final class TabixIndex {
+
+    private static final int MAGIC = 0x01494254; // "TBI\1"
+    // the pseudo-bin that holds per-sequence metadata rather than chunks
+    private static final int METADATA_BIN = 37450;
+    private static final int LINEAR_SHIFT = 14;
+
+    private final Map<String, Sequence> sequences = new HashMap<>();
+
+    /**
+     * Virtual offsets in the data file from {@code start} (inclusive) to {@code end} (exclusive).
+     */
+    record Chunk(long start, long end) {}
+
+    private record Sequence(Map<Integer, List<Chunk>> bins, long[] linearIndex) {}
+
+    private TabixIndex(ByteBuffer index) throws IOException {
+        if (index.getInt() != MAGIC) {
+            throw new IOException("Not a tabix index");
+        }
+        int sequenceCount = index.getInt();
+        // format, sequence, begin and end columns, meta character and skipped lines
+        index.position(index.position() + 6 * Integer.BYTES);
+        byte[] names = new byte[index.getInt()];
+        index.get(names);
+        List<String> sequenceNames = new ArrayList<>(sequenceCount);
+        int nameStart = 0;
+        for (int i = 0; i < names.length; i++) {
+            if (names[i] == 0) {
+                sequenceNames.add(new String(names, nameStart, i - nameStart, StandardCharsets.US_ASCII));
+                nameStart = i + 1;
+            }
+        }
+        if (sequenceNames.size() != sequenceCount) {
+            throw new IOException("Corrupt tabix index: expected " + sequenceCount + " sequence names");
+        }
+        for (String name : sequenceNames) {
+            int binCount = index.getInt();
+            Map<Integer, List<Chunk>> bins = new HashMap<>();
+            for (int i = 0; i < binCount; i++) {
+                int bin = index.getInt();
+                int chunkCount = index.getInt();
+                List<Chunk> chunks = new ArrayList<>(chunkCount);
+                for (int j = 0; j < chunkCount; j++) {
+                    chunks.add(new Chunk(index.getLong(), index.getLong()));
+                }
+                if (bin != METADATA_BIN) {
+                    bins.put(bin, chunks);
+                }
+            }
+            long[] linearIndex = new long[index.getInt()];
+            for (int i = 0; i < linearIndex.length; i++) {
+                linearIndex[i] = index.getLong();
+            }
+            sequences.put(name, new Sequence(bins, linearIndex));
+        }
+    }
+
+    static TabixIndex read(Path path) throws IOException {
+        // the index is itself bgzipped, which a gzip stream reads as concatenated members
+        try (InputStream in = new DataInputStream(new GZIPInputStream(Files.newInputStream(path)))) {
+            return new TabixIndex(ByteBuffer.wrap(in.readAllBytes()).order(ByteOrder.LITTLE_ENDIAN));
+        } catch (RuntimeException e) {
+            throw new IOException("Corrupt tabix index " + path, e);
+        }
+    }
+
+    boolean contains(String sequence) {
+        return sequences.containsKey(sequence);
+    }
+
+    /**
+     * The chunks that may hold lines overlapping the 1-based {@code position} of {@code sequence},
+     * in file order; empty if the sequence is not indexed.
+     */
+    List<Chunk> query(String sequence, int position) {
+        Sequence indexed = sequences.get(sequence);
+        if (indexed == null) {
+            return List.of();
+        }
+        int start = position - 1;
+        int window = start >> LINEAR_SHIFT;
+        long minOffset = indexed.linearIndex().length == 0 ? 0
+            : indexed.linearIndex()[Math.min(window, indexed.linearIndex().length - 1)];
+        List<Chunk> chunks = new ArrayList<>();
+        for (int bin : getBins(start)) {
+            for (Chunk chunk : indexed.bins().getOrDefault(bin, List.of())) {
+                if (chunk.end() > minOffset) {
+                    chunks.add(new Chunk(Math.max(chunk.start(), minOffset), chunk.end()));
+                }
+            }
+        }
+        chunks.sort((a, b) -> Long.compare(a.start(), b.start()));
+        return chunks;
+    }
+
+    // The bins of the UCSC binning scheme that can contain the 0-based position
+    private static List<Integer> getBins(int start) {
+        return List.of(
+            0,
+            1 + (start >> 26),
+            9 + (start >> 23),
+            73 + (start >> 20),
+            585 + (start >> 17),
+            4681 + (start >> 14)
+        );
+    }
+}
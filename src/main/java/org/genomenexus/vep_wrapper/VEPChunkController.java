@@ -0,0 +1,111 @@
+package org.genomenexus.vep_wrapper;
+
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import jakarta.servlet.http.HttpServletRequest;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * The endpoint a coordinator dispatches chunks to (see {@link VEPCoordinator}). It is only
+ * registered on instances with {@code vep.coordinator.serve-chunks} set, which should be reachable
+ * by coordinators but not by clients.
+ */
+@RestController
+@ConditionalOnProperty(prefix = "vep.coordinator", name = "serve-chunks", havingValue = "true")
+public class VEPChunkController {
+
+    private static final Set<String> CHUNK_FORMATS = Set.of("hgvs", "region", "vcf");
+
+    @Autowired
+    private VEPService vepService;
+
+    @Autowired
+    private VEPConfiguration vepConfiguration;
+
+    @Autowired
+    private HttpServletRequest request;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    /**
+     * Runs one chunk, one variant per line, on this instance's own VEP processes and responds with
+     * its records, one per line, with fields already renamed. The coordinator passes on the {@code client} of the request the chunk
+     * belongs to; the lane is chosen here from the chunk's size, like for any other request. A failed
+     * run is reported as {@code {"error": ..., "failure": ..., "transient": ...}} with status 500,
+     * {@code failure} being one of {@link VEPResult.Failure}.
+     */
+    @PostMapping(value = VEPCoordinator.CHUNKS_PATH, consumes = MediaType.TEXT_PLAIN_VALUE)
+    public ResponseEntity<StreamingResponseBody> runChunk(
+        @RequestBody String variants,
+        @RequestParam String format,
+        @RequestParam(required = false) String client,
+        VEPController.FieldSelection selection
+    ) {
+        if (!CHUNK_FORMATS.contains(format)) {
+            return writeError(ResponseEntity.badRequest().body(constructErrorMessage(new Exception("Unsupported chunk format: " + format))));
+        }
+        List<String> chunk = variants.lines().filter(line -> !line.isBlank()).toList();
+        try {
+            FieldProjection projection = FieldProjection.resolve(selection.fields(), selection.profile(), vepConfiguration.fieldProfiles);
+            if (chunk.isEmpty()) {
+                return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(out -> {});
+            }
+            Submitter submitter = Submitter.of(client != null ? client : request.getRemoteAddr(), chunk.size(), vepConfiguration.lanes);
+            VEPResult result = vepService.runChunk(chunk, format, projection, submitter);
+            if (result.getExitCode() != 0) {
+                return writeError(ResponseEntity.internalServerError().body(Map.of(
+                    "error", result.getOutput(),
+                    "failure", result.getFailure().name(),
+                    "transient", result.isTransientFailure()
+                )));
+            }
+            List<VEPRecord> records = result.getRecords();
+            StreamingResponseBody body = outputStream -> {
+                Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+                for (VEPRecord record : records) {
+                    writer.write(record.json());
+                    writer.write('\n');
+                }
+                writer.flush();
+            };
+            return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(body);
+        } catch (IllegalArgumentException e) {
+            return writeError(ResponseEntity.badRequest().body(constructErrorMessage(e)));
+        } catch (VEPOverloadedException e) {
+            return writeError(ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).body(constructErrorMessage(e)));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return writeError(ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(constructErrorMessage(new Exception("Annotation was interrupted"))));
+        }
+    }
+
+    private ResponseEntity<StreamingResponseBody> writeError(ResponseEntity<Object> error) {
+        Object body = error.getBody();
+        return ResponseEntity.status(error.getStatusCode())
+            .contentType(MediaType.APPLICATION_JSON)
+            .body(out -> objectMapper.writeValue(out, body));
+    }
+
+    private Map<String, String> constructErrorMessage(Exception e) {
+        return Map.of("error", e.getMessage());
+    }
+}
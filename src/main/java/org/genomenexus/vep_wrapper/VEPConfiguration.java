@@ -1,13 +1,25 @@
 package org.genomenexus.vep_wrapper;
 
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.util.unit.DataSize;
 import org.springframework.validation.annotation.Validated;
 
 @ConfigurationProperties(prefix = "vep")
 @Validated
 public class VEPConfiguration {
+
+    static final Map<String, String> DEFAULT_FIELD_RENAMES = Map.of(
+        "sift_pred", "sift_prediction",
+        "polyphen_humvar_pred", "polyphen_prediction",
+        "polyphen_humvar_score", "polyphen_score"
+    );
     
     public final Mode mode;
 	public final int forks;
@@ -15,6 +27,19 @@ public class VEPConfiguration {
     public final Optional<String> polyphenSiftFilename;
     public final Optional<String> alphaMissenseFilename;
     public final DataConfiguration dataConfiguration;
+    public final Map<String, String> fieldRenames;
+    public final Map<String, FieldProjection> fieldProfiles;
+    public final ExecutionConfiguration execution;
+    public final WorkerPoolConfiguration workerPool;
+    public final ResultCacheConfiguration resultCache;
+    public final JobsConfiguration jobs;
+    public final AnnotationStoreConfiguration annotationStore;
+    public final WarmupConfiguration warmup;
+    public final CoordinatorConfiguration coordinator;
+    public final LanesConfiguration lanes;
+    public final AlphaMissenseLookupConfiguration alphaMissenseLookup;
+    public final ReferenceCheckConfiguration referenceCheck;
+    public final PageCacheConfiguration pageCache;
 
     public VEPConfiguration(
         Mode mode,
@@ -23,7 +48,20 @@ public class VEPConfiguration {
         int forks,
         int hgvsMaxThreads,
         Optional<String> polyphenSiftFilename,
-        Optional<String> alphaMissenseFilename
+        Optional<String> alphaMissenseFilename,
+        Map<String, String> fieldRenames,
+        Map<String, List<String>> fieldProfiles,
+        @DefaultValue ExecutionConfiguration execution,
+        @DefaultValue WorkerPoolConfiguration workerPool,
+        @DefaultValue ResultCacheConfiguration resultCache,
+        @DefaultValue JobsConfiguration jobs,
+        @DefaultValue AnnotationStoreConfiguration annotationStore,
+        @DefaultValue WarmupConfiguration warmup,
+        @DefaultValue CoordinatorConfiguration coordinator,
+        @DefaultValue LanesConfiguration lanes,
+        @DefaultValue AlphaMissenseLookupConfiguration alphaMissenseLookup,
+        @DefaultValue ReferenceCheckConfiguration referenceCheck,
+        @DefaultValue PageCacheConfiguration pageCache
     ) {
         this.mode = mode;
         this.dataConfiguration = switch (ensurePresent(mode, "vep.mode")) {
@@ -39,6 +77,22 @@ public class VEPConfiguration {
         this.hgvsMaxThreads = ensurePresent(hgvsMaxThreads, "vep.hgvs-max-threads");
         this.polyphenSiftFilename = polyphenSiftFilename.filter(val -> !val.isBlank());
         this.alphaMissenseFilename = alphaMissenseFilename.filter(val -> !val.isBlank());
+        this.fieldRenames = fieldRenames == null || fieldRenames.isEmpty() ? DEFAULT_FIELD_RENAMES : Map.copyOf(fieldRenames);
+        this.fieldProfiles = toFieldProfiles(fieldProfiles);
+        this.execution = execution;
+        this.workerPool = workerPool;
+        this.resultCache = resultCache;
+        this.jobs = jobs;
+        this.annotationStore = annotationStore;
+        this.warmup = warmup;
+        if (coordinator.enabled() && coordinator.backends().isEmpty()) {
+            throw new IllegalArgumentException("Missing required configuration: vep.coordinator.backends");
+        }
+        this.coordinator = coordinator;
+        this.lanes = lanes;
+        this.alphaMissenseLookup = alphaMissenseLookup;
+        this.referenceCheck = referenceCheck;
+        this.pageCache = pageCache;
     }
 
     enum Mode {
@@ -66,6 +120,160 @@ public class VEPConfiguration {
 
     record CacheConfigurationOptional(Optional<String> fastaFilename) {}
 
+    record ExecutionConfiguration(
+        @DefaultValue("75") int maxConcurrentChunks,
+        @DefaultValue("10m") Duration chunkTimeout,
+        @DefaultValue("100") int minRegionChunkSize,
+        @DefaultValue("0") int cpuBudget,
+        @DefaultValue("8") int initialConcurrency,
+        @DefaultValue("2.0") double latencyTolerance,
+        @DefaultValue("50") int minVariantsPerFork,
+        @DefaultValue("1000") int maxQueuedChunks,
+        @DefaultValue("argument") InputTransport inputTransport,
+        @DefaultValue("") String inputDirectory,
+        @DefaultValue("2") int maxRetries,
+        @DefaultValue("1s") Duration retryBackoff,
+        @DefaultValue("true") boolean bisectFailedChunks,
+        @DefaultValue("32") int maxBisectionRuns,
+        @DefaultValue("scripts/vep") String command
+    ) {}
+
+    /**
+     * How a chunk's variants are handed to a spawned VEP process.
+     */
+    enum InputTransport {
+        // a single --input_data argument, limited by the maximum command line length
+        Argument,
+        // streamed to the process's standard input, which a scripts/vep wrapper must pass on (docker exec -i)
+        Stdin,
+        // written to a temporary file in execution.input-directory and passed as --input_file
+        File
+    }
+
+    record WorkerPoolConfiguration(
+        @DefaultValue("false") boolean enabled,
+        @DefaultValue("scripts/vep_worker") String command,
+        @DefaultValue("2") int size,
+        @DefaultValue("100") int maxBatches,
+        @DefaultValue("30s") Duration healthCheckInterval,
+        @DefaultValue("5s") Duration acquireTimeout
+    ) {}
+
+    record ResultCacheConfiguration(
+        @DefaultValue("false") boolean enabled,
+        @DefaultValue("256MB") DataSize maxMemorySize,
+        @DefaultValue("30d") Duration ttl,
+        @DefaultValue("") String diskDirectory,
+        @DefaultValue("10GB") DataSize maxDiskSize
+    ) {}
+
+    record JobsConfiguration(
+        @DefaultValue("") String spoolDirectory,
+        @DefaultValue("24h") Duration ttl,
+        @DefaultValue("10m") Duration cleanupInterval,
+        @DefaultValue("2") int maxRunningJobs,
+        @DefaultValue("100") int maxJobs
+    ) {}
+
+    record AnnotationStoreConfiguration(
+        @DefaultValue("") String path,
+        @DefaultValue("1m") Duration reloadInterval
+    ) {}
+
+    /**
+     * The region-format variants annotated at startup before the service reports ready. The
+     * defaults are a missense SNV and a deletion, so that the data source, the FASTA and every
+     * configured plugin are exercised.
+     */
+    record WarmupConfiguration(
+        @DefaultValue("true") boolean enabled,
+        @DefaultValue({"7:140453136-140453136:1/T", "17:7578503-7578518:1/-"}) List<String> variants,
+        @DefaultValue("30s") Duration retryInterval
+    ) {}
+
+    /**
+     * Remote wrapper instances that run the chunks instead of local VEP processes, each given by
+     * its base URL, such as {@code http://vep-1:8080}. Instances only accept chunks from a
+     * coordinator with {@code serveChunks} set.
+     */
+    record CoordinatorConfiguration(
+        @DefaultValue("false") boolean enabled,
+        @DefaultValue("false") boolean serveChunks,
+        @DefaultValue List<String> backends,
+        @DefaultValue("4") int maxChunksPerBackend,
+        @DefaultValue("10s") Duration healthCheckInterval,
+        @DefaultValue("/actuator/health/readiness") String healthPath,
+        @DefaultValue("2m") Duration stragglerTimeout,
+        @DefaultValue("3") int maxAttempts
+    ) {}
+
+    /**
+     * Requests of at most {@code interactiveMaxVariants} variants run in the interactive lane, which
+     * has {@code interactiveReservedChunks} chunk slots and as many cores that bulk chunks may not
+     * use, even when the adaptive concurrency limit falls to or below them. Clients are told apart by
+     * {@code clientHeader}, or by address when it is missing.
+     */
+    record LanesConfiguration(
+        @DefaultValue("10") int interactiveMaxVariants,
+        @DefaultValue("1") int interactiveReservedChunks,
+        @DefaultValue("X-Client-Id") String clientHeader
+    ) {}
+
+    /**
+     * Whether AlphaMissense scores are looked up in the JVM, reading {@code alpha-missense-filename}
+     * and its tabix index from {@code directory}, instead of by VEP's plugin. Decompressed blocks of
+     * the file are cached up to {@code blockCacheSize}.
+     */
+    record AlphaMissenseLookupConfiguration(
+        @DefaultValue("true") boolean enabled,
+        @DefaultValue("/plugin-data") String directory,
+        @DefaultValue("64MB") DataSize blockCacheSize
+    ) {}
+
+    /**
+     * Whether, in cache mode, region and genomic HGVS variants are checked against
+     * {@code cache.fasta-filename} and its {@code .fai} index in {@code directory} before they are
+     * sent to VEP, and whether indels are keyed left-aligned. Decompressed blocks of a bgzipped FASTA are
+     * cached up to {@code blockCacheSize}.
+     */
+    record ReferenceCheckConfiguration(
+        @DefaultValue("true") boolean enabled,
+        @DefaultValue("/cache-data") String directory,
+        @DefaultValue("true") boolean normalizeIndels,
+        @DefaultValue("16MB") DataSize blockCacheSize
+    ) {}
+
+    /**
+     * The data files read once at startup so that the OS has them in its page cache before requests
+     * need them: every file under {@code paths}, those matching the {@code priority} globs first in
+     * the order of the globs, then the rest in natural path order, so that chromosome directories of
+     * the VEP cache go 1, 2, ..., 10. Reading is limited to {@code rateLimit} per second and stops
+     * after {@code maxSize}; zero means unlimited.
+     */
+    record PageCacheConfiguration(
+        @DefaultValue("false") boolean enabled,
+        @DefaultValue({"/cache-data", "/plugin-data"}) List<String> paths,
+        @DefaultValue List<String> priority,
+        @DefaultValue("100MB") DataSize rateLimit,
+        @DefaultValue("0") DataSize maxSize,
+        @DefaultValue("false") boolean waitForReadiness
+    ) {}
+
+    private static Map<String, FieldProjection> toFieldProfiles(Map<String, List<String>> fieldProfiles) {
+        if (fieldProfiles == null) {
+            return Map.of();
+        }
+        Map<String, FieldProjection> profiles = new HashMap<>();
+        fieldProfiles.forEach((name, fields) -> {
+            try {
+                profiles.put(name, FieldProjection.of(fields));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Invalid configuration: vep.field-profiles." + name + ": " + e.getMessage());
+            }
+        });
+        return Map.copyOf(profiles);
+    }
+
     private static <T> T ensurePresent(T value, String path) {
         if (value == null || value instanceof String s && s.isBlank()) {
             throw new IllegalArgumentException("Missing required configuration: " + path);
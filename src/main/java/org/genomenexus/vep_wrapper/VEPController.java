@@ -1,25 +1,43 @@
 package org.genomenexus.vep_wrapper;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Optional;
+
+import jakarta.servlet.http.HttpServletRequest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
 
 @RestController
 public class VEPController {
 
+    private static final Logger LOG = LoggerFactory.getLogger(VEPController.class);
+
+    static final MediaType VCF_MEDIA_TYPE = MediaType.parseMediaType("text/x-vcf");
+
     @Value("${app.version}")
     private String serverVersion;
 
@@ -29,80 +47,177 @@ public class VEPController {
     @Autowired
     private VEPConfiguration vepConfiguration;
 
-    @GetMapping("/vep/human/hgvs/{variant}")
-    public ResponseEntity<Object> annotateHGVS(@PathVariable String variant) {
-        String format = "hgvs";
-        if (vepConfiguration.mode == VEPConfiguration.Mode.Cache) {
-            try {
-                variant = hgvsgToRegion(variant);
-                format = "region";
-            } catch (IllegalArgumentException e) {
-                return ResponseEntity.badRequest().body(constructErrorMessage(e));
-            }
-        }
+    @Autowired
+    private VEPJobService vepJobService;
 
-        List<List<String>> variantChunks = new ArrayList<>();
-        variantChunks.add(Arrays.asList(variant));
-        try {
-            return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(vepService.annotateVariants(variantChunks, format));
-        } catch (Exception e) {
-            return ResponseEntity.internalServerError().body(constructErrorMessage(e));
-        }
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    // the current request, through a request-scoped proxy
+    @Autowired
+    private HttpServletRequest request;
+
+    /**
+     * The {@code fields} (comma separated) or field {@code profile} query parameters that select
+     * which annotation fields a request returns; everything when neither is given.
+     */
+    public record FieldSelection(String fields, String profile) {}
+
+    @GetMapping("/vep/human/hgvs/{variant}")
+    public ResponseEntity<Object> annotateHGVS(@PathVariable String variant, FieldSelection selection) {
+        return annotateBatch(vepService.getHgvsBatch(Arrays.asList(variant)), selection);
     }
 
     @PostMapping("/vep/human/hgvs")
-    public ResponseEntity<Object> annotateHGVS(@RequestBody Map<String, List<String>> variants) {
+    public ResponseEntity<Object> annotateHGVS(@RequestBody Map<String, List<String>> variants, FieldSelection selection) {
         List<String> variantList = variants.get("hgvs_notations");
-        if (variantList == null) {
-            return ResponseEntity.badRequest().body(("Missing key: 'hgvs_notations'"));
+        ResponseEntity<Object> error = prepareHgvsNotations(variantList);
+        if (error != null) {
+            return error;
         }
 
-        String format = "hgvs";
-        List<String> errors = new ArrayList<>();
-        if (vepConfiguration.mode == VEPConfiguration.Mode.Cache) {
-            format = "region";
-            for (int i = 0; i < variantList.size(); i++) {
-                try {
-                     variantList.set(i, hgvsgToRegion(variantList.get(i)));
-                } catch (IllegalArgumentException e) {
-                     errors.add(e.getMessage());
-                }
-            }
-        }
+        return annotateBatch(vepService.getHgvsBatch(variantList), selection);
+    }
 
-        if (!errors.isEmpty()) {
-            Map<String, Object> body = new HashMap<>(constructErrorMessage(new Exception("Could not annotate variants")));
-            body.put("details", errors);
-            return ResponseEntity.internalServerError().body(body);
-        }
+    @PostMapping(value = "/vep/human/hgvs", params = "stream=true")
+    public ResponseEntity<StreamingResponseBody> streamHGVS(
+        @RequestBody Map<String, List<String>> variants,
+        @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept,
+        FieldSelection selection
+    ) {
+        return streamHGVS(variants.get("hgvs_notations"), acceptsNdjson(accept), selection);
+    }
 
-        List<List<String>> variantChunks = vepService.getVariantChunks(variantList, 1);
-        try {
-            return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(vepService.annotateVariants(variantChunks, format));
-        } catch (Exception e) {
-            return ResponseEntity.internalServerError().body(constructErrorMessage(e));
-        }
+    @PostMapping(value = "/vep/human/hgvs", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamHGVSAsNdjson(@RequestBody Map<String, List<String>> variants, FieldSelection selection) {
+        return streamHGVS(variants.get("hgvs_notations"), true, selection);
     }
 
     @GetMapping("/vep/human/region/{*variant}")
-    public ResponseEntity<Object> annotateRegion(@PathVariable String variant) {
+    public ResponseEntity<Object> annotateRegion(@PathVariable String variant, FieldSelection selection) {
         List<List<String>> variantChunks = new ArrayList<>();       
         variantChunks.add(Arrays.asList(variant.substring(1)));
-        try {
-            return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(vepService.annotateVariants(variantChunks, "region"));
-        } catch (Exception e) {
-            return ResponseEntity.internalServerError().body(constructErrorMessage(e));
-        }
+        return annotateBatch(VariantBatch.of(variantChunks, "region"), selection);
     }
 
     @PostMapping("/vep/human/region")
-    public ResponseEntity<Object> annotateRegion(@RequestBody List<String> variants) {
+    public ResponseEntity<Object> annotateRegion(@RequestBody List<String> variants, FieldSelection selection) {
         List<List<String>> variantChunks = vepService.getVariantChunksByChromosome(variants);
+        return annotateBatch(VariantBatch.of(variantChunks, "region"), selection);
+    }
+
+    @PostMapping(value = "/vep/human/region", params = "stream=true")
+    public ResponseEntity<StreamingResponseBody> streamRegion(
+        @RequestBody List<String> variants,
+        @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept,
+        FieldSelection selection
+    ) {
+        return streamBatch(VariantBatch.of(vepService.getVariantChunksByChromosome(variants), "region"), acceptsNdjson(accept), selection);
+    }
+
+    @PostMapping(value = "/vep/human/region", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamRegionAsNdjson(@RequestBody List<String> variants, FieldSelection selection) {
+        return streamBatch(VariantBatch.of(vepService.getVariantChunksByChromosome(variants), "region"), true, selection);
+    }
+
+    /**
+     * Annotates an uploaded VCF, plain or bgzipped. Responds with a JSON array, with NDJSON for
+     * {@code Accept: application/x-ndjson} or with the annotated VCF for {@code Accept: text/x-vcf}.
+     * A field selection applies to JSON responses; annotated VCFs always carry the CSQ fields.
+     */
+    @PostMapping(value = "/vep/human/vcf", consumes = MediaType.ALL_VALUE)
+    public ResponseEntity<StreamingResponseBody> annotateVcf(
+        InputStream body,
+        @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept,
+        FieldSelection selection
+    ) {
+        // only an annotated VCF passes the sample columns through
+        boolean annotatesVcf = accepts(accept, VCF_MEDIA_TYPE);
+        VcfReader.Vcf vcf;
         try {
-            return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(vepService.annotateVariants(variantChunks, "region"));
-        } catch (Exception e) {
-            return ResponseEntity.internalServerError().body(constructErrorMessage(e));
+            vcf = VcfReader.read(body, annotatesVcf);
+        } catch (IOException e) {
+            return writeError(ResponseEntity.badRequest().body(constructErrorMessage(new Exception("Could not read VCF: " + e.getMessage()))));
+        }
+        if (!vcf.errors().isEmpty()) {
+            closeQuietly(vcf);
+            Map<String, Object> error = new HashMap<>(constructErrorMessage(new Exception("Could not annotate variants")));
+            error.put("details", vcf.errors());
+            return writeError(ResponseEntity.badRequest().body(error));
+        }
+
+        List<List<String>> variantChunks = vepService.getVcfChunks(vcf.records());
+        if (!annotatesVcf) {
+            return streamBatch(VariantBatch.of(variantChunks, "vcf"), acceptsNdjson(accept), selection);
+        }
+        VariantBatch batch = VariantBatch.of(variantChunks, "vcf");
+        Submitter submitter = getSubmitter(batch);
+        if (vepService.isOverloaded(submitter.lane())) {
+            closeQuietly(vcf);
+            return writeError(ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).body(constructErrorMessage(new VEPOverloadedException())));
+        }
+        StreamingResponseBody annotatedVcf = out -> {
+            try (vcf) {
+                VcfStreamWriter writer = new VcfStreamWriter(out, vcf, variantChunks);
+                writer.begin();
+                vepService.annotateVariants(batch, VcfStreamWriter.CSQ_PROJECTION, submitter, writer);
+                writer.end();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Annotation was interrupted", e);
+            }
+        };
+        return ResponseEntity.ok().contentType(VCF_MEDIA_TYPE).body(annotatedVcf);
+    }
+
+    @PostMapping("/vep/human/hgvs/jobs")
+    public ResponseEntity<Object> submitHGVSJob(@RequestBody Map<String, List<String>> variants, FieldSelection selection) {
+        List<String> variantList = variants.get("hgvs_notations");
+        ResponseEntity<Object> error = prepareHgvsNotations(variantList);
+        if (error != null) {
+            return error;
+        }
+        return submitJob(vepService.getHgvsBatch(variantList), selection);
+    }
+
+    @PostMapping("/vep/human/region/jobs")
+    public ResponseEntity<Object> submitRegionJob(@RequestBody List<String> variants, FieldSelection selection) {
+        return submitJob(VariantBatch.of(vepService.getVariantChunksByChromosome(variants), "region"), selection);
+    }
+
+    @GetMapping("/vep/jobs/{id}")
+    public ResponseEntity<Object> getJob(@PathVariable String id) {
+        return vepJobService.getJob(id)
+            .<ResponseEntity<Object>>map(job -> ResponseEntity.ok().body(job.getProgress()))
+            .orElseGet(() -> jobNotFound(id));
+    }
+
+    @GetMapping("/vep/jobs/{id}/results")
+    public ResponseEntity<StreamingResponseBody> getJobResults(
+        @PathVariable String id,
+        @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept
+    ) {
+        Optional<VEPJob> job = vepJobService.getJob(id);
+        ResponseEntity<Object> error = null;
+        if (job.isEmpty()) {
+            error = jobNotFound(id);
+        } else if (job.get().getStatus() != VEPJob.Status.COMPLETED) {
+            error = ResponseEntity.status(HttpStatus.CONFLICT)
+                .body(constructErrorMessage(new Exception("Job " + id + " is " + job.get().getStatus())));
+        }
+        if (error != null) {
+            return writeError(error);
         }
+
+        boolean ndjson = acceptsNdjson(accept);
+        return ResponseEntity.ok()
+            .contentType(ndjson ? MediaType.APPLICATION_NDJSON : MediaType.APPLICATION_JSON)
+            .body(out -> job.get().writeResults(out, ndjson));
+    }
+
+    @DeleteMapping("/vep/jobs/{id}")
+    public ResponseEntity<Object> deleteJob(@PathVariable String id) {
+        return vepJobService.deleteJob(id) ? ResponseEntity.noContent().build() : jobNotFound(id);
     }
 
     @GetMapping("/info/software")
@@ -117,23 +232,134 @@ public class VEPController {
         }
     }
 
+    // Returns the error response if the notations are missing. In cache mode, the service converts
+    // them to regions and gives those it cannot convert or that do not match the reference genome
+    // an error entry.
+    private ResponseEntity<Object> prepareHgvsNotations(List<String> variantList) {
+        if (variantList == null) {
+            return ResponseEntity.badRequest().body(("Missing key: 'hgvs_notations'"));
+        }
+        return null;
+    }
+
+    private FieldProjection getProjection(FieldSelection selection) throws IllegalArgumentException {
+        return FieldProjection.resolve(selection.fields(), selection.profile(), vepConfiguration.fieldProfiles);
+    }
+
+    private ResponseEntity<Object> annotateBatch(VariantBatch batch, FieldSelection selection) {
+        try {
+            FieldProjection projection = getProjection(selection);
+            return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(vepService.annotateVariants(batch, projection, getSubmitter(batch)));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(constructErrorMessage(e));
+        } catch (VEPOverloadedException e) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).body(constructErrorMessage(e));
+        } catch (Exception e) {
+            return ResponseEntity.internalServerError().body(constructErrorMessage(e));
+        }
+    }
+
+    private ResponseEntity<StreamingResponseBody> streamHGVS(List<String> variantList, boolean ndjson, FieldSelection selection) {
+        ResponseEntity<Object> error = prepareHgvsNotations(variantList);
+        if (error != null) {
+            return writeError(error);
+        }
+        return streamBatch(vepService.getHgvsBatch(variantList), ndjson, selection);
+    }
+
+    /**
+     * Writes each chunk's records as soon as that chunk completes, as NDJSON or as a JSON array.
+     * Streamed responses always have status 200; failed chunks appear as error records in the stream.
+     */
+    private ResponseEntity<StreamingResponseBody> streamBatch(VariantBatch batch, boolean ndjson, FieldSelection selection) {
+        // Reject before committing to a 200 streamed response
+        FieldProjection projection;
+        try {
+            projection = getProjection(selection);
+        } catch (IllegalArgumentException e) {
+            return writeError(ResponseEntity.badRequest().body(constructErrorMessage(e)));
+        }
+        Submitter submitter = getSubmitter(batch);
+        if (vepService.isOverloaded(submitter.lane())) {
+            return writeError(ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).body(constructErrorMessage(new VEPOverloadedException())));
+        }
+        StreamingResponseBody body = out -> {
+            VEPStreamWriter writer = new VEPStreamWriter(out, ndjson, batch.inputs());
+            writer.begin();
+            try {
+                vepService.annotateVariants(batch, projection, submitter, writer);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Annotation was interrupted", e);
+            }
+            writer.end();
+        };
+        return ResponseEntity.ok().contentType(ndjson ? MediaType.APPLICATION_NDJSON : MediaType.APPLICATION_JSON).body(body);
+    }
+
+    private ResponseEntity<Object> submitJob(VariantBatch batch, FieldSelection selection) {
+        try {
+            VEPJob job = vepJobService.submit(batch, getProjection(selection), getClient());
+            return ResponseEntity.accepted().location(URI.create("/vep/jobs/" + job.getId())).body(job.getProgress());
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(constructErrorMessage(e));
+        } catch (VEPOverloadedException e) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).body(constructErrorMessage(e));
+        } catch (IOException e) {
+            return ResponseEntity.internalServerError().body(constructErrorMessage(e));
+        }
+    }
+
+    // Small requests run in the interactive lane, larger ones share the bulk lane with other clients
+    private Submitter getSubmitter(VariantBatch batch) {
+        return Submitter.of(getClient(), batch.size(), vepConfiguration.lanes);
+    }
+
+    // The client named in the vep.lanes.client-header header, or the caller's address
+    private String getClient() {
+        String client = request.getHeader(vepConfiguration.lanes.clientHeader());
+        return client == null || client.isBlank() ? request.getRemoteAddr() : client.strip();
+    }
+
+    private ResponseEntity<Object> jobNotFound(String id) {
+        return ResponseEntity.status(HttpStatus.NOT_FOUND).body(constructErrorMessage(new Exception("No such job: " + id)));
+    }
+
+    // Sends an error response from a streaming endpoint
+    private ResponseEntity<StreamingResponseBody> writeError(ResponseEntity<Object> error) {
+        Object body = error.getBody();
+        return ResponseEntity.status(error.getStatusCode())
+            .contentType(MediaType.APPLICATION_JSON)
+            .body(out -> objectMapper.writeValue(out, body));
+    }
+
+    // Deletes the spilled sample columns of a VCF that is not annotated after all
+    private static void closeQuietly(VcfReader.Vcf vcf) {
+        try {
+            vcf.close();
+        } catch (IOException e) {
+            LOG.warn("Could not delete the sample columns of a VCF", e);
+        }
+    }
+
+    private static boolean acceptsNdjson(String accept) {
+        return accepts(accept, MediaType.APPLICATION_NDJSON);
+    }
+
+    private static boolean accepts(String accept, MediaType expected) {
+        return accept != null && MediaType.parseMediaTypes(accept).stream()
+            .anyMatch(mediaType -> mediaType.equalsTypeAndSubtype(expected));
+    }
+
     private Map<String, String> constructErrorMessage(Exception e) {
         return Map.of("error", e.getMessage());
     }
 
-    // As of 04/01/26, hgvs variants of types 'inv' and 'dup' will never be passed to VEP
     public static String hgvsgToRegion(String variant) throws IllegalArgumentException {
-        Pattern hgvsPattern = Pattern.compile("^(.+):g\\.(\\d+)(?:_(\\d+))?(?:[A-Z]>|ins|delins|del)?([A-Z]*)$");
-        
-        Matcher matcher = hgvsPattern.matcher(variant);
-        if (matcher.find()) {
-            String chromosome = matcher.group(1);
-            String start = matcher.group(2);
-            String end = (matcher.group(3) != null) ? matcher.group(3) : start;
-            String altMatch = matcher.group(4);
-            String alt = (altMatch == null || altMatch.isEmpty()) ? "-" : altMatch;
-            return String.format("%s:%s-%s:1/%s", chromosome, start, end, alt);
-        }
-        throw new IllegalArgumentException("Invalid HGVSg format: " + variant);
+        VariantNotationParser.Result parsed = VariantNotationParser.parseHgvsg(variant);
+        if (!parsed.isValid()) {
+            throw new IllegalArgumentException(parsed.error());
+        }
+        return parsed.variant().region();
     }
 }
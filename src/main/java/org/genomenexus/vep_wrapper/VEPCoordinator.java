@@ -0,0 +1,576 @@
+package org.genomenexus.vep_wrapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Runs chunks on remote wrapper instances ({@code vep.coordinator.backends}) through their
+ * {@code POST /vep/chunks} endpoint instead of on local VEP processes.
+ *
+ * <ul>
+ *   <li>Each chunk is assigned to a backend by rendezvous hashing of the 1 Mb window its first
+ *       variant falls in, so that the same part of the genome, and of the VEP cache, keeps going
+ *       to the same backend.</li>
+ *   <li>A backend runs at most {@code max-chunks-per-backend} chunks at once. Once its own queue is
+ *       empty, it steals the most recently queued chunk of the longest other queue.</li>
+ *   <li>A chunk still running after {@code straggler-timeout} is also sent to an idle backend, and
+ *       whichever finishes first wins.</li>
+ *   <li>Interactive chunks are queued ahead of bulk ones. Chunks are sent with their client, and the
+ *       backend picks their lane from their size, so that it schedules them the same way.</li>
+ *   <li>Backends are health-checked every {@code health-check-interval} and only healthy ones get
+ *       chunks. A chunk whose backend could not be reached, was overloaded or failed transiently is
+ *       requeued for another backend, up to {@code max-attempts} times.</li>
+ * </ul>
+ */
+class VEPCoordinator implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(VEPCoordinator.class);
+
+    static final String CHUNKS_PATH = "/vep/chunks";
+    static final String SOFTWARE_PATH = "/info/software";
+
+    // VEP cache files each cover one 1 Mb window of a chromosome
+    private static final int SHARD_SIZE = 1_000_000;
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(5);
+    private static final Duration MAINTENANCE_INTERVAL = Duration.ofSeconds(1);
+
+    private final VEPConfiguration.CoordinatorConfiguration config;
+    private final Duration chunkTimeout;
+    private final int maxQueuedChunks;
+    private final VEPMetrics metrics;
+    private final List<Backend> backends = new ArrayList<>();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    // backends rename the fields of their records, so they are only split up here
+    private final VEPOutputTransformer recordReader = new VEPOutputTransformer(Map.of());
+    private final HttpClient httpClient = HttpClient.newBuilder().connectTimeout(CONNECT_TIMEOUT).build();
+    private final ExecutorService requests = Executors.newVirtualThreadPerTaskExecutor();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+        Thread.ofPlatform().name("vep-coordinator").daemon().factory()
+    );
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private int queuedChunks = 0;
+    private int queuedInteractiveChunks = 0;
+
+    VEPCoordinator(VEPConfiguration.CoordinatorConfiguration config, Duration chunkTimeout, int maxQueuedChunks, VEPMetrics metrics) {
+        this.config = config;
+        this.chunkTimeout = chunkTimeout;
+        this.maxQueuedChunks = maxQueuedChunks;
+        this.metrics = metrics;
+        for (String backend : config.backends()) {
+            backends.add(new Backend(URI.create(backend.strip().replaceAll("/+$", ""))));
+        }
+    }
+
+    void start() {
+        long interval = config.healthCheckInterval().toMillis();
+        scheduler.scheduleWithFixedDelay(this::checkHealth, 0, interval, TimeUnit.MILLISECONDS);
+        long maintenance = MAINTENANCE_INTERVAL.toMillis();
+        scheduler.scheduleWithFixedDelay(this::maintain, maintenance, maintenance, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Queues the chunk and calls {@code onDone} with its future once it has completed, failed or
+     * been cancelled. Cancelling the future stops every request for the chunk.
+     */
+    Future<VEPResult> submit(
+        List<String> chunk,
+        String format,
+        FieldProjection projection,
+        Submitter submitter,
+        Consumer<Future<VEPResult>> onDone
+    ) {
+        Dispatch dispatch = new Dispatch(chunk, format, projection, submitter);
+        dispatch.result.whenComplete((result, error) -> {
+            if (dispatch.result.isCancelled()) {
+                cancel(dispatch);
+            }
+            onDone.accept(dispatch.result);
+        });
+        metrics.recordChunkSize(chunk.size());
+        lock.lock();
+        try {
+            enqueue(dispatch, false);
+            schedule();
+        } finally {
+            lock.unlock();
+        }
+        return dispatch.result;
+    }
+
+    /**
+     * The VEP release reported on {@code /info/software} by the first healthy backend that reports one.
+     */
+    int getRelease() throws IOException, InterruptedException {
+        IOException failure = new IOException("No VEP backend reported its release");
+        for (Backend backend : backends) {
+            if (!backend.healthy) {
+                continue;
+            }
+            try {
+                HttpRequest request = HttpRequest.newBuilder(backend.uri.resolve(SOFTWARE_PATH))
+                    .timeout(chunkTimeout)
+                    .GET()
+                    .build();
+                HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+                JsonNode release = response.statusCode() == 200 ? objectMapper.readTree(response.body()).path("release") : null;
+                if (release != null && release.isInt()) {
+                    return release.asInt();
+                }
+            } catch (IOException e) {
+                failure.addSuppressed(e);
+            }
+        }
+        throw failure;
+    }
+
+    /**
+     * Whether so many chunks are waiting for a backend that new requests in {@code lane} should be
+     * turned away; only waiting interactive chunks count against interactive requests.
+     */
+    boolean isOverloaded(Submitter.Lane lane) {
+        lock.lock();
+        try {
+            return (lane == Submitter.Lane.Interactive ? queuedInteractiveChunks : queuedChunks) >= maxQueuedChunks;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int getHealthyBackends() {
+        return (int) backends.stream().filter(backend -> backend.healthy).count();
+    }
+
+    int getQueuedChunks() {
+        lock.lock();
+        try {
+            return queuedChunks;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+        requests.shutdownNow();
+        httpClient.shutdownNow();
+    }
+
+    // Must hold the lock
+    private void enqueue(Dispatch dispatch, boolean failover) {
+        List<Backend> candidates = backends.stream().filter(backend -> backend.healthy).toList();
+        if (failover) {
+            List<Backend> untried = candidates.stream().filter(backend -> !dispatch.tried.contains(backend)).toList();
+            candidates = untried.isEmpty() ? candidates : untried;
+        }
+        Backend target = selectByAffinity(dispatch.shardKey, candidates.isEmpty() ? backends : candidates);
+        if (failover || dispatch.interactive()) {
+            target.queue.addFirst(dispatch);
+        } else {
+            target.queue.addLast(dispatch);
+        }
+        queued(dispatch, 1);
+    }
+
+    // Must hold the lock
+    private void queued(Dispatch dispatch, int change) {
+        queuedChunks += change;
+        if (dispatch.interactive()) {
+            queuedInteractiveChunks += change;
+        }
+    }
+
+    // Starts queued chunks on every healthy backend with capacity. Must hold the lock.
+    private void schedule() {
+        boolean started = true;
+        while (started) {
+            started = false;
+            for (Backend backend : backends) {
+                if (!backend.healthy || backend.running.size() >= config.maxChunksPerBackend()) {
+                    continue;
+                }
+                Dispatch dispatch = backend.queue.pollFirst();
+                if (dispatch == null) {
+                    dispatch = steal(backend);
+                }
+                if (dispatch != null) {
+                    queued(dispatch, -1);
+                    start(dispatch, backend);
+                    started = true;
+                }
+            }
+        }
+    }
+
+    // The most recently queued chunk of the longest queue, the one its backend would get to last,
+    // unless the thief already failed to run it
+    private Dispatch steal(Backend thief) {
+        List<Backend> victims = backends.stream()
+            .filter(backend -> backend != thief && !backend.queue.isEmpty())
+            .sorted((a, b) -> Integer.compare(b.queue.size(), a.queue.size()))
+            .toList();
+        for (Backend victim : victims) {
+            var queued = victim.queue.descendingIterator();
+            while (queued.hasNext()) {
+                Dispatch dispatch = queued.next();
+                if (!dispatch.tried.contains(thief)) {
+                    queued.remove();
+                    return dispatch;
+                }
+            }
+        }
+        return null;
+    }
+
+    // Must hold the lock
+    private void start(Dispatch dispatch, Backend backend) {
+        dispatch.tried.add(backend);
+        dispatch.attempts++;
+        Attempt attempt = new Attempt(dispatch, backend, System.nanoTime());
+        backend.running.add(attempt);
+        dispatch.running.add(attempt);
+        attempt.request = requests.submit(() -> run(attempt));
+    }
+
+    private void run(Attempt attempt) {
+        Dispatch dispatch = attempt.dispatch;
+        Outcome outcome;
+        try {
+            HttpRequest request = HttpRequest.newBuilder(attempt.backend.chunksUri(dispatch))
+                .timeout(chunkTimeout)
+                .header("Content-Type", "text/plain")
+                .POST(HttpRequest.BodyPublishers.ofString(String.join("\n", dispatch.chunk), StandardCharsets.UTF_8))
+                .build();
+            HttpResponse<InputStream> response = httpClient.send(request, HttpResponse.BodyHandlers.ofInputStream());
+            try (InputStream body = response.body()) {
+                outcome = toOutcome(response.statusCode(), body);
+            }
+        } catch (InterruptedException e) {
+            // the chunk was cancelled, or another backend finished it first
+            outcome = Outcome.backendFailure("Annotation was cancelled", false);
+        } catch (JsonProcessingException e) {
+            outcome = Outcome.backendFailure("Could not parse the records of " + attempt.backend.uri + ": " + e.getOriginalMessage(), false);
+        } catch (IOException e) {
+            // reading the body is interrupted like sending the request
+            outcome = Thread.currentThread().isInterrupted()
+                ? Outcome.backendFailure("Annotation was cancelled", false)
+                : Outcome.backendFailure("Could not reach " + attempt.backend.uri + ": " + e.getMessage(), true);
+        }
+        finish(attempt, outcome);
+    }
+
+    // Records are parsed as the backend sends them
+    private Outcome toOutcome(int statusCode, InputStream body) throws IOException {
+        if (statusCode == 200) {
+            List<VEPRecord> records = new ArrayList<>();
+            recordReader.transform(new InputStreamReader(body, StandardCharsets.UTF_8), records::add);
+            return new Outcome(VEPResult.parsed(records), false, false);
+        }
+        String error = "Backend responded with status " + statusCode;
+        VEPResult.Failure failure = VEPResult.Failure.Transient;
+        try {
+            JsonNode errorBody = objectMapper.readTree(body);
+            error = errorBody.path("error").asText(error);
+            boolean transientFailure = errorBody.path("transient").asBoolean(statusCode != 500);
+            failure = errorBody.has("failure")
+                ? VEPResult.Failure.valueOf(errorBody.get("failure").asText())
+                : transientFailure ? VEPResult.Failure.Transient : VEPResult.Failure.Systemic;
+        } catch (IOException | IllegalArgumentException e) {
+            // not one of our error responses, so blame the backend
+        }
+        if (failure != VEPResult.Failure.Transient) {
+            // VEP itself could not annotate the chunk; no other backend would do better
+            return new Outcome(new VEPResult(error, 500, failure), false, false);
+        }
+        // overloaded, not ready, or a transient VEP failure such as a lost database connection
+        return Outcome.backendFailure(error, statusCode == 503);
+    }
+
+    private void finish(Attempt attempt, Outcome outcome) {
+        Dispatch dispatch = attempt.dispatch;
+        Backend backend = attempt.backend;
+        VEPResult completion = null;
+        lock.lock();
+        try {
+            backend.running.remove(attempt);
+            dispatch.running.remove(attempt);
+            if (outcome.unhealthy() && backend.healthy) {
+                LOG.warn("Marking VEP backend {} unhealthy: {}", backend.uri, outcome.result().getOutput());
+                backend.healthy = false;
+            }
+            if (dispatch.finished || dispatch.result.isDone()) {
+                // cancelled, or finished first on another backend
+            } else if (!outcome.backendFailure()) {
+                metrics.recordDispatch(backend.uri.toString(), outcome.result().getExitCode() == 0 ? "success" : "error");
+                cancelOthers(dispatch);
+                completion = outcome.result();
+            } else if (!dispatch.running.isEmpty()) {
+                // a hedged request for the same chunk is still running
+                metrics.recordDispatch(backend.uri.toString(), "failed");
+            } else if (dispatch.attempts < config.maxAttempts()) {
+                metrics.recordDispatch(backend.uri.toString(), "failover");
+                enqueue(dispatch, true);
+            } else {
+                metrics.recordDispatch(backend.uri.toString(), "failed");
+                completion = new VEPResult(outcome.result().getOutput(), 503, VEPResult.Failure.Transient);
+            }
+            dispatch.finished |= completion != null;
+            schedule();
+        } finally {
+            lock.unlock();
+        }
+        // outside the lock, as completing the chunk runs its callback
+        if (completion != null) {
+            dispatch.result.complete(completion);
+        }
+    }
+
+    private void cancel(Dispatch dispatch) {
+        lock.lock();
+        try {
+            for (Backend backend : backends) {
+                if (backend.queue.remove(dispatch)) {
+                    queued(dispatch, -1);
+                }
+            }
+            cancelOthers(dispatch);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Must hold the lock
+    private void cancelOthers(Dispatch dispatch) {
+        for (Attempt attempt : dispatch.running) {
+            attempt.request.cancel(true);
+        }
+    }
+
+    // Fails chunks that waited too long for a backend and hedges stragglers
+    private void maintain() {
+        List<Dispatch> expired = new ArrayList<>();
+        lock.lock();
+        try {
+            long now = System.nanoTime();
+            for (Backend backend : backends) {
+                var queued = backend.queue.iterator();
+                while (queued.hasNext()) {
+                    Dispatch dispatch = queued.next();
+                    if (now - dispatch.queuedAt > chunkTimeout.toNanos()) {
+                        queued.remove();
+                        queued(dispatch, -1);
+                        dispatch.finished = true;
+                        expired.add(dispatch);
+                    }
+                }
+            }
+            if (queuedChunks == 0) {
+                hedgeStragglers(now);
+            }
+        } catch (RuntimeException e) {
+            LOG.warn("Coordinator maintenance failed", e);
+        } finally {
+            lock.unlock();
+        }
+        for (Dispatch dispatch : expired) {
+            dispatch.result.complete(new VEPResult("No VEP backend was available within " + chunkTimeout.toSeconds() + " seconds", 503, VEPResult.Failure.Transient));
+        }
+    }
+
+    // Must hold the lock, with nothing queued
+    private void hedgeStragglers(long now) {
+        List<Attempt> stragglers = new ArrayList<>();
+        for (Backend backend : backends) {
+            for (Attempt attempt : backend.running) {
+                if (attempt.dispatch.running.size() == 1 && now - attempt.startedAt > config.stragglerTimeout().toNanos()) {
+                    stragglers.add(attempt);
+                }
+            }
+        }
+        stragglers.sort((a, b) -> Long.compare(a.startedAt, b.startedAt));
+        for (Attempt straggler : stragglers) {
+            Backend idle = backends.stream()
+                .filter(backend -> backend.healthy && backend.running.isEmpty() && !straggler.dispatch.tried.contains(backend))
+                .findFirst()
+                .orElse(null);
+            if (idle == null) {
+                return;
+            }
+            metrics.recordDispatch(idle.uri.toString(), "hedged");
+            start(straggler.dispatch, idle);
+        }
+    }
+
+    private void checkHealth() {
+        for (Backend backend : backends) {
+            boolean healthy;
+            try {
+                HttpRequest request = HttpRequest.newBuilder(backend.uri.resolve(config.healthPath()))
+                    .timeout(CONNECT_TIMEOUT)
+                    .GET()
+                    .build();
+                healthy = httpClient.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() == 200;
+            } catch (IOException e) {
+                healthy = false;
+            } catch (InterruptedException e) {
+                return;
+            }
+            lock.lock();
+            try {
+                if (healthy != backend.healthy) {
+                    LOG.info("VEP backend {} is {}", backend.uri, healthy ? "healthy" : "unhealthy");
+                }
+                backend.healthy = healthy;
+                schedule();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    // Highest random weight hashing, so that losing a backend only moves the windows it had
+    private static Backend selectByAffinity(String shardKey, Collection<Backend> candidates) {
+        Backend selected = null;
+        long bestScore = Long.MIN_VALUE;
+        for (Backend backend : candidates) {
+            long score = mix((shardKey + "|" + backend.uri).hashCode());
+            if (selected == null || score > bestScore) {
+                selected = backend;
+                bestScore = score;
+            }
+        }
+        return selected;
+    }
+
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        return hash ^ (hash >>> 33);
+    }
+
+    // The 1 Mb window of the chunk's first variant, or the reference sequence of an HGVS notation
+    static String getShardKey(List<String> chunk, String format) {
+        if (chunk.isEmpty()) {
+            return "";
+        }
+        String first = chunk.getFirst();
+        RegionChunker.Region region = switch (format) {
+            case "region" -> RegionChunker.parse(first);
+            case "vcf" -> RegionChunker.parseVcf(first);
+            default -> null;
+        };
+        if (region == null) {
+            int colon = first.indexOf(':');
+            return colon < 0 ? first : first.substring(0, colon);
+        }
+        return region.contig() + ":" + region.position() / SHARD_SIZE;
+    }
+
+    private static final class Backend {
+
+        private final URI uri;
+        private final Deque<Dispatch> queue = new ArrayDeque<>();
+        private final Set<Attempt> running = new HashSet<>();
+        // assumed healthy until the first check says otherwise
+        private volatile boolean healthy = true;
+
+        Backend(URI uri) {
+            this.uri = uri;
+        }
+
+        URI chunksUri(Dispatch dispatch) {
+            Submitter submitter = dispatch.submitter;
+            String query = "?format=" + dispatch.format
+                + (dispatch.projection.isAll() ? "" : "&fields=" + dispatch.projection)
+                + "&client=" + URLEncoder.encode(submitter.client(), StandardCharsets.UTF_8);
+            return URI.create(uri + CHUNKS_PATH + query);
+        }
+    }
+
+    private static final class Dispatch {
+
+        private final List<String> chunk;
+        private final String format;
+        private final FieldProjection projection;
+        private final Submitter submitter;
+        private final String shardKey;
+        private final long queuedAt = System.nanoTime();
+        private final CompletableFuture<VEPResult> result = new CompletableFuture<>();
+        private final Set<Backend> tried = new HashSet<>();
+        private final Set<Attempt> running = new HashSet<>();
+        private int attempts = 0;
+        // set under the lock once the result is decided, before it is completed
+        private boolean finished = false;
+
+        Dispatch(List<String> chunk, String format, FieldProjection projection, Submitter submitter) {
+            this.chunk = chunk;
+            this.format = format;
+            this.projection = projection;
+            this.submitter = submitter;
+            this.shardKey = getShardKey(chunk, format);
+        }
+
+        boolean interactive() {
+            return submitter.lane() == Submitter.Lane.Interactive;
+        }
+    }
+
+    private static final class Attempt {
+
+        private final Dispatch dispatch;
+        private final Backend backend;
+        private final long startedAt;
+        private Future<?> request;
+
+        Attempt(Dispatch dispatch, Backend backend, long startedAt) {
+            this.dispatch = dispatch;
+            this.backend = backend;
+            this.startedAt = startedAt;
+        }
+    }
+
+    /**
+     * What one request for a chunk came to: the chunk's result, or a failure of the backend after
+     * which the chunk should be tried elsewhere.
+     */
+    private record Outcome(VEPResult result, boolean backendFailure, boolean unhealthy) {
+
+        static Outcome backendFailure(String error, boolean unhealthy) {
+            return new Outcome(new VEPResult(error, 503, VEPResult.Failure.Transient), true, unhealthy);
+        }
+    }
+}
@@ -0,0 +1,532 @@
+package org.genomenexus.vep_wrapper;
+
+import java.io.BufferedWriter;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+import jakarta.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Application-wide execution engine for VEP chunks. Every chunk runs on its own virtual thread, but
+ * chunks only start VEP while the node has capacity for them:
+ *
+ * <ul>
+ *   <li>the cores claimed by running chunks (one per VEP fork) stay within {@code vep.execution.cpu-budget},</li>
+ *   <li>the number of running chunks stays within an {@link AdaptiveConcurrencyLimit} that follows
+ *       observed chunk latency, capped by {@code vep.execution.max-concurrent-chunks}.</li>
+ * </ul>
+ *
+ * The rest wait in line, in one of two lanes ({@link Submitter.Lane}). Interactive chunks go first,
+ * in arrival order, and {@code vep.lanes.interactive-reserved-chunks} chunk slots and as many cores
+ * are kept free of bulk chunks for them. Bulk chunks fill the remaining capacity, taking turns
+ * between clients so that one large batch cannot hold up every other client's. Once more than
+ * {@code vep.execution.max-queued-chunks} are waiting the executor reports itself overloaded so
+ * that new requests can be rejected instead of piling up; interactive requests are only turned
+ * away once that many interactive chunks are waiting.
+ */
+@Component
+public final class VEPExecutor {
+
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Duration chunkTimeout;
+    private final int cpuBudget;
+    private final int maxForks;
+    private final int minVariantsPerFork;
+    private final int maxQueuedChunks;
+    private final int reservedChunks;
+    private final AdaptiveConcurrencyLimit concurrencyLimit;
+    private final VEPMetrics metrics;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition capacityReleased = lock.newCondition();
+    private int activeChunks = 0;
+    private int usedCores = 0;
+    private int activeBulkChunks = 0;
+    private int bulkCores = 0;
+    private final AtomicInteger queuedChunks = new AtomicInteger();
+    private final Map<Submitter.Lane, AtomicInteger> queuedByLane = new EnumMap<>(Submitter.Lane.class);
+    // Chunks waiting for capacity: interactive ones in arrival order, bulk ones by client, the
+    // client whose turn it is first
+    private final Deque<Waiter> interactiveWaiters = new ArrayDeque<>();
+    private final Map<String, Deque<Waiter>> bulkWaiters = new LinkedHashMap<>();
+
+    @Autowired
+    public VEPExecutor(VEPConfiguration vepConfiguration, VEPMetrics metrics) {
+        VEPConfiguration.ExecutionConfiguration config = vepConfiguration.execution;
+        this.chunkTimeout = config.chunkTimeout();
+        this.cpuBudget = config.cpuBudget() > 0 ? config.cpuBudget() : Runtime.getRuntime().availableProcessors();
+        this.maxForks = Math.max(vepConfiguration.forks, 1);
+        this.minVariantsPerFork = Math.max(config.minVariantsPerFork(), 1);
+        this.maxQueuedChunks = config.maxQueuedChunks();
+        this.reservedChunks = Math.max(vepConfiguration.lanes.interactiveReservedChunks(), 0);
+        this.concurrencyLimit = new AdaptiveConcurrencyLimit(
+            config.initialConcurrency(),
+            1,
+            config.maxConcurrentChunks(),
+            config.latencyTolerance()
+        );
+        this.metrics = metrics;
+
+        MeterRegistry registry = metrics.getRegistry();
+        Gauge.builder("vep.chunks.queued", queuedChunks, AtomicInteger::get)
+            .description("Chunks waiting for capacity to run VEP")
+            .register(registry);
+        Gauge.builder("vep.chunks.active", this, VEPExecutor::getActiveChunks)
+            .description("Chunks currently running VEP")
+            .register(registry);
+        Gauge.builder("vep.concurrency.limit", this, VEPExecutor::getConcurrencyLimit)
+            .description("Current adaptive limit on chunks running at once")
+            .register(registry);
+        Gauge.builder("vep.cores.used", this, VEPExecutor::getUsedCores)
+            .description("Cores claimed by running chunks, out of vep.execution.cpu-budget")
+            .register(registry);
+        for (Submitter.Lane lane : Submitter.Lane.values()) {
+            String tag = lane.name().toLowerCase();
+            queuedByLane.put(lane, new AtomicInteger());
+            Gauge.builder("vep.lane.queued", queuedByLane.get(lane), AtomicInteger::get)
+                .description("Chunks waiting for capacity in each lane")
+                .tag("lane", tag)
+                .register(registry);
+            Gauge.builder("vep.lane.active", this, executor -> executor.getActiveChunks(lane))
+                .description("Chunks running VEP in each lane")
+                .tag("lane", tag)
+                .register(registry);
+            Gauge.builder("vep.lane.capacity", this, executor -> executor.getLaneCapacity(lane))
+                .description("Chunks each lane may run at once under the current concurrency limit")
+                .tag("lane", tag)
+                .register(registry);
+        }
+        Gauge.builder("vep.lane.reserved", this, VEPExecutor::getReservedChunks)
+            .description("Chunk slots and cores reserved for the interactive lane")
+            .register(registry);
+        Gauge.builder("vep.lane.clients", this, VEPExecutor::getWaitingBulkClients)
+            .description("Clients with bulk chunks waiting for capacity")
+            .register(registry);
+    }
+
+    /**
+     * Chooses the {@code --fork} count for the chunks of one request: the configured {@code vep.forks}
+     * at most, but no more than the core budget left to bulk chunks leaves per chunk and no more
+     * than the chunk is large enough to keep busy.
+     */
+    public int planForks(List<List<String>> variantChunks) {
+        if (variantChunks.isEmpty()) {
+            return 1;
+        }
+        int largestChunk = variantChunks.stream().mapToInt(List::size).max().getAsInt();
+        int forksPerChunk = Math.max(cpuBudget - reservedChunks, 1) / variantChunks.size();
+        int forksForSize = largestChunk / minVariantsPerFork;
+        return Math.clamp(Math.min(forksPerChunk, forksForSize), 1, maxForks);
+    }
+
+    /**
+     * Submits a chunk that keeps {@code cores} cores busy, to wait in the lane of {@code submitter},
+     * and calls {@code onDone} with its future once it has completed, failed or been cancelled.
+     * {@code onDone} runs on the thread that finished the task.
+     */
+    public <T> Future<T> submit(Callable<T> task, int cores, int variants, Submitter submitter, Consumer<Future<T>> onDone) {
+        FutureTask<T> future = new FutureTask<>(task) {
+            @Override
+            protected void done() {
+                onDone.accept(this);
+                if (isCancelled()) {
+                    // let a chunk cancelled while waiting for capacity leave the queue
+                    signalWaiters();
+                }
+            }
+        };
+        queuedChunks.incrementAndGet();
+        queuedByLane.get(submitter.lane()).incrementAndGet();
+        metrics.recordChunkSize(variants);
+        long queuedAt = System.nanoTime();
+        // a chunk larger than the whole budget may still run, but only on its own
+        Waiter waiter = new Waiter(submitter, Math.min(cores, cpuBudget));
+        // queued here rather than on the chunk's thread, so that chunks wait in the order they were submitted
+        lock.lock();
+        try {
+            enqueue(waiter);
+            grant();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            executor.execute(() -> runWithCapacity(future, waiter, variants, queuedAt));
+        } catch (RejectedExecutionException e) {
+            // shutting down
+            lock.lock();
+            try {
+                if (waiter.granted) {
+                    release(waiter);
+                } else {
+                    dequeue(waiter);
+                }
+            } finally {
+                queuedChunks.decrementAndGet();
+                queuedByLane.get(submitter.lane()).decrementAndGet();
+                lock.unlock();
+            }
+            throw e;
+        }
+        return future;
+    }
+
+    /**
+     * Whether so many chunks are already waiting for capacity that new bulk requests should be turned away.
+     */
+    public boolean isOverloaded() {
+        return isOverloaded(Submitter.Lane.Bulk);
+    }
+
+    /**
+     * Whether so many chunks are already waiting for capacity that new requests in {@code lane}
+     * should be turned away. Interactive chunks do not wait behind bulk ones, so only waiting
+     * interactive chunks count against interactive requests.
+     */
+    public boolean isOverloaded(Submitter.Lane lane) {
+        int queued = lane == Submitter.Lane.Interactive ? queuedByLane.get(lane).get() : queuedChunks.get();
+        return queued >= maxQueuedChunks;
+    }
+
+    public static void cancelAll(Collection<? extends Future<?>> futures) {
+        for (Future<?> future : futures) {
+            future.cancel(true);
+        }
+    }
+
+    /**
+     * Reads a process stream to EOF on a separate virtual thread, so that stdout and stderr are
+     * consumed concurrently and neither pipe can fill up and stall the process.
+     */
+    public CompletableFuture<String> drain(InputStream stream) {
+        return CompletableFuture.supplyAsync(() -> {
+            try (stream) {
+                return new String(stream.readAllBytes(), StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, executor);
+    }
+
+    /**
+     * Like {@link #drain(InputStream)}, handing the stream to {@code reader} as it arrives instead of
+     * collecting it. Whatever a failed {@code reader} left unread is discarded, so that the process
+     * still cannot stall on a full pipe; the stream stays open until then even if {@code reader}
+     * closes it.
+     */
+    public <T> CompletableFuture<T> drain(InputStream stream, StreamReader<T> reader) {
+        return CompletableFuture.supplyAsync(() -> {
+            try (stream) {
+                try {
+                    return reader.read(new FilterInputStream(stream) {
+                        @Override
+                        public void close() {}
+                    });
+                } catch (IOException e) {
+                    stream.transferTo(OutputStream.nullOutputStream());
+                    throw e;
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, executor);
+    }
+
+    @FunctionalInterface
+    public interface StreamReader<T> {
+        T read(InputStream stream) throws IOException;
+    }
+
+    /**
+     * Writes lines to a process's standard input on a separate virtual thread and closes it, so the
+     * process can produce output while its input is still being written. The returned future fails
+     * if the process stopped reading before it got all of them.
+     */
+    public CompletableFuture<Void> feed(OutputStream stream, List<String> lines) {
+        return CompletableFuture.runAsync(() -> {
+            try (Writer writer = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8))) {
+                for (String line : lines) {
+                    writer.write(line);
+                    writer.write('\n');
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, executor);
+    }
+
+    private void runWithCapacity(FutureTask<?> task, Waiter waiter, int variants, long queuedAt) {
+        lock.lock();
+        try {
+            while (!waiter.granted) {
+                if (task.isCancelled()) {
+                    dequeue(waiter);
+                    return;
+                }
+                capacityReleased.await();
+            }
+        } catch (InterruptedException e) {
+            // executor is shutting down; don't leave waiters hanging on a task that will never run
+            if (waiter.granted) {
+                release(waiter);
+            } else {
+                dequeue(waiter);
+            }
+            task.cancel(false);
+            return;
+        } finally {
+            queuedChunks.decrementAndGet();
+            queuedByLane.get(waiter.lane).decrementAndGet();
+            lock.unlock();
+        }
+
+        metrics.recordPhase("queue", queuedAt);
+        metrics.recordLaneWait(waiter.lane.name().toLowerCase(), queuedAt);
+        long start = System.nanoTime();
+        try {
+            task.run();
+        } finally {
+            // a cancelled chunk, or one VEP rejected for its input or its setup, says nothing about how loaded VEP is
+            if (!task.isCancelled() && !isUnrelatedToLoad(task)) {
+                concurrencyLimit.onSample(System.nanoTime() - start, variants, isFailed(task));
+            }
+            lock.lock();
+            try {
+                release(waiter);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    // Must hold the lock
+    private void enqueue(Waiter waiter) {
+        if (waiter.lane == Submitter.Lane.Interactive) {
+            interactiveWaiters.addLast(waiter);
+        } else {
+            bulkWaiters.computeIfAbsent(waiter.client, client -> new ArrayDeque<>()).addLast(waiter);
+        }
+    }
+
+    // Must hold the lock
+    private void dequeue(Waiter waiter) {
+        if (waiter.lane == Submitter.Lane.Interactive) {
+            interactiveWaiters.remove(waiter);
+        } else {
+            Deque<Waiter> waiters = bulkWaiters.get(waiter.client);
+            if (waiters != null && waiters.remove(waiter) && waiters.isEmpty()) {
+                bulkWaiters.remove(waiter.client);
+            }
+        }
+        // it may have been holding up the chunks behind it
+        grant();
+    }
+
+    // Must hold the lock
+    private void release(Waiter waiter) {
+        activeChunks--;
+        usedCores -= waiter.cores;
+        if (waiter.lane == Submitter.Lane.Bulk) {
+            activeBulkChunks--;
+            bulkCores -= waiter.cores;
+        }
+        grant();
+    }
+
+    // Starts waiting chunks while they fit, interactive ones first. Must hold the lock.
+    private void grant() {
+        boolean granted = false;
+        // an interactive chunk that does not fit holds back bulk chunks, which would otherwise take its place
+        boolean interactiveWaiting = false;
+        while (!interactiveWaiters.isEmpty()) {
+            if (!fits(interactiveWaiters.peekFirst())) {
+                interactiveWaiting = true;
+                break;
+            }
+            start(interactiveWaiters.pollFirst());
+            granted = true;
+        }
+        while (!interactiveWaiting && !bulkWaiters.isEmpty()) {
+            Map.Entry<String, Deque<Waiter>> turn = bulkWaiters.entrySet().iterator().next();
+            Deque<Waiter> waiters = turn.getValue();
+            if (!fits(waiters.peekFirst())) {
+                break;
+            }
+            start(waiters.pollFirst());
+            granted = true;
+            // the client's next chunk waits for every other client's turn
+            bulkWaiters.remove(turn.getKey());
+            if (!waiters.isEmpty()) {
+                bulkWaiters.put(turn.getKey(), waiters);
+            }
+        }
+        if (granted) {
+            capacityReleased.signalAll();
+        }
+    }
+
+    private boolean fits(Waiter waiter) {
+        if (activeChunks == 0) {
+            return true;
+        }
+        int limit = concurrencyLimit.getLimit();
+        if (usedCores + waiter.cores > cpuBudget) {
+            return false;
+        }
+        if (waiter.lane == Submitter.Lane.Interactive) {
+            // the reserved slots stay the interactive lane's even once the limit falls to or below them
+            return activeChunks < limit || activeChunks - activeBulkChunks < reservedChunks;
+        }
+        // bulk chunks never take the reserved slots and cores, and wait while the limit leaves them none
+        return activeChunks < limit && activeBulkChunks < limit - reservedChunks && bulkCores + waiter.cores <= cpuBudget - reservedChunks;
+    }
+
+    private void start(Waiter waiter) {
+        waiter.granted = true;
+        activeChunks++;
+        usedCores += waiter.cores;
+        if (waiter.lane == Submitter.Lane.Bulk) {
+            activeBulkChunks++;
+            bulkCores += waiter.cores;
+        }
+    }
+
+    private void signalWaiters() {
+        lock.lock();
+        try {
+            capacityReleased.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Whether the chunk timed out or failed transiently, which may be because VEP is overloaded
+    private static boolean isFailed(Future<?> task) {
+        if (task.state() != Future.State.SUCCESS) {
+            return true;
+        }
+        return task.resultNow() instanceof VEPResult result
+            && (result.getFailure() == VEPResult.Failure.Timeout || result.getFailure() == VEPResult.Failure.Transient);
+    }
+
+    // Whether the chunk failed in a way that would have happened however loaded VEP was
+    private static boolean isUnrelatedToLoad(Future<?> task) {
+        return task.state() == Future.State.SUCCESS && task.resultNow() instanceof VEPResult result
+            && (result.getFailure() == VEPResult.Failure.Input || result.getFailure() == VEPResult.Failure.Systemic);
+    }
+
+    public Duration getChunkTimeout() {
+        return chunkTimeout;
+    }
+
+    public int getQueuedChunks() {
+        return queuedChunks.get();
+    }
+
+    public int getActiveChunks() {
+        lock.lock();
+        try {
+            return activeChunks;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getUsedCores() {
+        lock.lock();
+        try {
+            return usedCores;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getActiveChunks(Submitter.Lane lane) {
+        lock.lock();
+        try {
+            return lane == Submitter.Lane.Bulk ? activeBulkChunks : activeChunks - activeBulkChunks;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The chunks {@code lane} may run at once: the whole concurrency limit, but at least the reserved
+     * slots, for the interactive lane, and what the reservation leaves of the limit for the bulk lane.
+     * A bulk chunk still runs when nothing else does, so bulk work never stops entirely.
+     */
+    public int getLaneCapacity(Submitter.Lane lane) {
+        int limit = concurrencyLimit.getLimit();
+        return lane == Submitter.Lane.Interactive ? Math.max(limit, reservedChunks) : Math.max(limit - reservedChunks, 0);
+    }
+
+    public int getReservedChunks() {
+        return reservedChunks;
+    }
+
+    public int getWaitingBulkClients() {
+        lock.lock();
+        try {
+            return bulkWaiters.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getCpuBudget() {
+        return cpuBudget;
+    }
+
+    public int getConcurrencyLimit() {
+        return concurrencyLimit.getLimit();
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private static final class Waiter {
+
+        private final Submitter.Lane lane;
+        private final String client;
+        private final int cores;
+        private boolean granted = false;
+
+        Waiter(Submitter submitter, int cores) {
+            this.lane = submitter.lane();
+            this.client = submitter.client();
+            this.cores = cores;
+        }
+    }
+}
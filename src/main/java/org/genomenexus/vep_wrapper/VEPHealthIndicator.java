@@ -0,0 +1,148 @@
+package org.genomenexus.vep_wrapper;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.OptionalInt;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import jakarta.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Gauge;
+
+/**
+ * Warms VEP up once the application has started: probes the VEP release, which is kept from then
+ * on, and annotates {@code vep.warmup.variants} so that the database or cache, the FASTA and the
+ * plugins are loaded before real requests arrive. A failed warm-up is retried every
+ * {@code vep.warmup.retry-interval}. With {@code vep.page-cache.enabled}, the data files are also read
+ * into the OS page cache, alongside warm-up.
+ *
+ * Reported as the {@code vep} health component, which is part of the readiness group: out of
+ * service until warm-up has succeeded, and with {@code vep.page-cache.wait-for-readiness} until the
+ * page cache is warm, and down while the worker pool is enabled but has no live
+ * workers.
+ */
+@Component("vepHealthIndicator")
+public class VEPHealthIndicator implements HealthIndicator {
+
+    private static final Logger LOG = LoggerFactory.getLogger(VEPHealthIndicator.class);
+
+    private final VEPConfiguration.WarmupConfiguration config;
+    private final VEPConfiguration.PageCacheConfiguration pageCacheConfig;
+    private final VEPService vepService;
+    private final VEPMetrics metrics;
+    private final ScheduledExecutorService warmer = Executors.newSingleThreadScheduledExecutor(
+        Thread.ofPlatform().name("vep-warmup").daemon().factory()
+    );
+    private volatile boolean warmedUp = false;
+    private volatile Integer release;
+    private volatile Duration warmupTime;
+    private volatile String warmupError;
+    private PageCacheWarmer pageCache;
+
+    @Autowired
+    public VEPHealthIndicator(VEPConfiguration vepConfiguration, VEPService vepService, VEPMetrics metrics) {
+        this.config = vepConfiguration.warmup;
+        this.pageCacheConfig = vepConfiguration.pageCache;
+        this.vepService = vepService;
+        this.metrics = metrics;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    void start() {
+        if (pageCacheConfig.enabled()) {
+            pageCache = new PageCacheWarmer(pageCacheConfig);
+            Gauge.builder("vep.pagecache.warmed", pageCache, PageCacheWarmer::getWarmedBytes)
+                .description("Bytes of VEP data read into the page cache at startup")
+                .baseUnit("bytes")
+                .register(metrics.getRegistry());
+            Gauge.builder("vep.pagecache.size", pageCache, PageCacheWarmer::getTotalBytes)
+                .description("Bytes of VEP data to read into the page cache at startup")
+                .baseUnit("bytes")
+                .register(metrics.getRegistry());
+            pageCache.start();
+        }
+        if (config.enabled()) {
+            warmer.execute(this::warmUp);
+        } else {
+            warmedUp = true;
+        }
+    }
+
+    @PreDestroy
+    void stop() {
+        warmer.shutdownNow();
+        if (pageCache != null) {
+            pageCache.close();
+        }
+    }
+
+    void warmUp() {
+        long start = System.nanoTime();
+        try {
+            release = vepService.getVEPVersion();
+            if (!config.variants().isEmpty()) {
+                vepService.warmUp(config.variants());
+            }
+            // computed once, with the release now known
+            vepService.getAnnotationNamespace();
+            warmupTime = Duration.ofNanos(System.nanoTime() - start);
+            warmupError = null;
+            warmedUp = true;
+            LOG.info("Warmed up VEP release {} in {} ms", release, warmupTime.toMillis());
+        } catch (Exception e) {
+            warmupError = String.valueOf(e.getMessage());
+            LOG.warn("VEP warm-up failed, retrying in {}", config.retryInterval(), e);
+            warmer.schedule(this::warmUp, config.retryInterval().toMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    boolean isWarmedUp() {
+        return warmedUp;
+    }
+
+    @Override
+    public Health health() {
+        if (!warmedUp) {
+            Health.Builder health = Health.outOfService().withDetail("warmup", "pending");
+            return warmupError == null ? health.build() : health.withDetail("error", warmupError).build();
+        }
+        if (pageCache != null && pageCacheConfig.waitForReadiness() && !pageCache.isFinished()) {
+            return Health.outOfService().withDetail("pageCache", getPageCacheProgress()).build();
+        }
+        Health.Builder health = Health.up();
+        OptionalInt liveWorkers = vepService.getLiveWorkers();
+        if (liveWorkers.isPresent()) {
+            health = liveWorkers.getAsInt() > 0 ? health : Health.down();
+            health.withDetail("liveWorkers", liveWorkers.getAsInt());
+        }
+        if (release != null) {
+            health.withDetail("release", release);
+        }
+        if (warmupTime != null) {
+            health.withDetail("warmupTime", warmupTime.toMillis() + "ms");
+        }
+        if (pageCache != null) {
+            health.withDetail("pageCache", getPageCacheProgress());
+        }
+        return health.build();
+    }
+
+    private Map<String, Object> getPageCacheProgress() {
+        return Map.of(
+            "warmedBytes", pageCache.getWarmedBytes(),
+            "totalBytes", pageCache.getTotalBytes(),
+            "finished", pageCache.isFinished()
+        );
+    }
+}
@@ -0,0 +1,223 @@
+package org.genomenexus.vep_wrapper;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A batch annotated in the background. Each chunk's records (or its error record) are spooled to
+ * {@code chunk-<index>.ndjson} in the job's directory as soon as the chunk completes, so nothing
+ * but progress is kept in memory.
+ */
+public class VEPJob implements VEPResultHandler {
+
+    public enum Status { QUEUED, RUNNING, COMPLETED, CANCELLED, FAILED }
+
+    public enum ChunkStatus { PENDING, COMPLETED, FAILED }
+
+    public record ChunkProgress(int chunk, int variants, ChunkStatus status) {}
+
+    public record Progress(
+        String id,
+        Status status,
+        String format,
+        int variants,
+        int chunks,
+        int completedChunks,
+        int failedChunks,
+        Instant createdAt,
+        Instant finishedAt,
+        String error,
+        List<ChunkProgress> chunkProgress
+    ) {}
+
+    private final String id = UUID.randomUUID().toString();
+    private final VariantBatch batch;
+    private final String format;
+    private final FieldProjection projection;
+    private final Submitter submitter;
+    private final List<List<String>> variantChunks;
+    private final Path directory;
+    private final Instant createdAt = Instant.now();
+    private final AtomicReferenceArray<ChunkStatus> chunkStatuses;
+    private volatile Status status = Status.QUEUED;
+    private volatile Instant finishedAt;
+    private volatile String error;
+    private volatile Future<?> runner;
+
+    VEPJob(VariantBatch batch, FieldProjection projection, Submitter submitter, Path spoolDirectory) {
+        this.batch = batch;
+        this.format = batch.format();
+        this.projection = projection;
+        this.submitter = submitter;
+        // as requested, for progress and error records
+        this.variantChunks = batch.inputs();
+        this.directory = spoolDirectory.resolve(id);
+        this.chunkStatuses = new AtomicReferenceArray<>(variantChunks.size());
+        for (int i = 0; i < variantChunks.size(); i++) {
+            chunkStatuses.set(i, ChunkStatus.PENDING);
+        }
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getFormat() {
+        return format;
+    }
+
+    public VariantBatch getBatch() {
+        return batch;
+    }
+
+    public FieldProjection getProjection() {
+        return projection;
+    }
+
+    public Submitter getSubmitter() {
+        return submitter;
+    }
+
+    public List<List<String>> getVariantChunks() {
+        return variantChunks;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public Instant getFinishedAt() {
+        return finishedAt;
+    }
+
+    Path getDirectory() {
+        return directory;
+    }
+
+    void setRunner(Future<?> runner) {
+        this.runner = runner;
+    }
+
+    void cancel() {
+        if (runner != null) {
+            runner.cancel(true);
+        }
+    }
+
+    void running() {
+        status = Status.RUNNING;
+    }
+
+    void finish(Status finalStatus, String message) {
+        error = message;
+        finishedAt = Instant.now();
+        status = finalStatus;
+    }
+
+    public boolean isFinished() {
+        return finishedAt != null;
+    }
+
+    public Progress getProgress() {
+        List<ChunkProgress> chunkProgress = new ArrayList<>(variantChunks.size());
+        int completed = 0;
+        int failed = 0;
+        for (int i = 0; i < variantChunks.size(); i++) {
+            ChunkStatus chunkStatus = chunkStatuses.get(i);
+            completed += chunkStatus == ChunkStatus.COMPLETED ? 1 : 0;
+            failed += chunkStatus == ChunkStatus.FAILED ? 1 : 0;
+            chunkProgress.add(new ChunkProgress(i, variantChunks.get(i).size(), chunkStatus));
+        }
+        return new Progress(
+            id,
+            status,
+            format,
+            variantChunks.stream().mapToInt(List::size).sum(),
+            variantChunks.size(),
+            completed,
+            failed,
+            createdAt,
+            finishedAt,
+            error,
+            chunkProgress
+        );
+    }
+
+    @Override
+    public void onRecords(int chunk, List<VEPRecord> records) throws IOException {
+        spool(chunk, writer -> writer.onRecords(chunk, records));
+        chunkStatuses.set(chunk, ChunkStatus.COMPLETED);
+    }
+
+    @Override
+    public void onError(int chunk, String message) throws IOException {
+        spool(chunk, writer -> writer.onError(chunk, message));
+        chunkStatuses.set(chunk, ChunkStatus.FAILED);
+    }
+
+    /**
+     * Writes the spooled results in chunk order, as newline-delimited JSON or as a JSON array.
+     * Failed chunks appear as error records, as in streamed responses.
+     */
+    public void writeResults(OutputStream out, boolean ndjson) throws IOException {
+        Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+        boolean first = true;
+        if (!ndjson) {
+            writer.write('[');
+        }
+        for (int i = 0; i < variantChunks.size(); i++) {
+            Path file = getChunkPath(i);
+            if (!Files.exists(file)) {
+                continue;
+            }
+            try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (!ndjson && !first) {
+                        writer.write(',');
+                    }
+                    writer.write(line);
+                    if (ndjson) {
+                        writer.write('\n');
+                    }
+                    first = false;
+                }
+            }
+            writer.flush();
+        }
+        if (!ndjson) {
+            writer.write(']');
+        }
+        writer.flush();
+    }
+
+    private interface ChunkWriter {
+        void write(VEPStreamWriter writer) throws IOException;
+    }
+
+    // Writes to a temporary file first so a download never sees a partially written chunk
+    private void spool(int chunk, ChunkWriter chunkWriter) throws IOException {
+        Path tmp = Files.createTempFile(directory, ".chunk", ".tmp");
+        try (OutputStream out = Files.newOutputStream(tmp)) {
+            chunkWriter.write(new VEPStreamWriter(out, true, variantChunks));
+        }
+        Files.move(tmp, getChunkPath(chunk), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private Path getChunkPath(int chunk) {
+        return directory.resolve(String.format("chunk-%05d.ndjson", chunk));
+    }
+}
@@ -0,0 +1,169 @@
+package org.genomenexus.vep_wrapper;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.util.FileSystemUtils;
+
+/**
+ * Runs batches as background jobs that outlive the request that submitted them. At most
+ * {@code vep.jobs.max-running-jobs} jobs annotate at once; the rest wait their turn. Finished jobs
+ * are kept for {@code vep.jobs.ttl} and then deleted together with their spooled results. Jobs are
+ * held in memory, so spool directories left behind by a previous run are removed on startup.
+ */
+@Service
+public class VEPJobService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(VEPJobService.class);
+
+    // How long a job waits before retrying when the executor is too busy to accept it
+    private static final Duration OVERLOAD_RETRY_DELAY = Duration.ofSeconds(5);
+
+    private final VEPConfiguration.JobsConfiguration config;
+    private final VEPService vepService;
+    private final Path spoolDirectory;
+    private final Map<String, VEPJob> jobs = new ConcurrentHashMap<>();
+    private final Semaphore runningJobs;
+    private final ExecutorService runner = Executors.newVirtualThreadPerTaskExecutor();
+    private final ScheduledExecutorService cleaner = Executors.newSingleThreadScheduledExecutor(
+        Thread.ofPlatform().name("vep-job-cleanup").daemon().factory()
+    );
+
+    @Autowired
+    public VEPJobService(VEPConfiguration vepConfiguration, VEPService vepService) {
+        this.config = vepConfiguration.jobs;
+        this.vepService = vepService;
+        this.spoolDirectory = config.spoolDirectory().isBlank()
+            ? Path.of(System.getProperty("java.io.tmpdir"), "vep-jobs")
+            : Path.of(config.spoolDirectory());
+        this.runningJobs = new Semaphore(config.maxRunningJobs(), true);
+    }
+
+    @PostConstruct
+    void start() throws IOException {
+        Files.createDirectories(spoolDirectory);
+        try (Stream<Path> leftovers = Files.list(spoolDirectory)) {
+            for (Path leftover : leftovers.filter(VEPJobService::isJobDirectory).toList()) {
+                FileSystemUtils.deleteRecursively(leftover);
+            }
+        }
+        long interval = config.cleanupInterval().toMillis();
+        cleaner.scheduleWithFixedDelay(this::removeExpiredJobs, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void stop() {
+        cleaner.shutdownNow();
+        runner.shutdownNow();
+    }
+
+    /**
+     * Queues the chunks for annotation in the bulk lane, whatever their number, and returns immediately.
+     *
+     * @throws VEPOverloadedException if {@code vep.jobs.max-jobs} unfinished jobs already exist
+     */
+    public VEPJob submit(VariantBatch batch, FieldProjection projection, String client) throws IOException {
+        if (jobs.values().stream().filter(job -> !job.isFinished()).count() >= config.maxJobs()) {
+            throw new VEPOverloadedException();
+        }
+        VEPJob job = new VEPJob(batch, projection, Submitter.bulk(client), spoolDirectory);
+        Files.createDirectories(job.getDirectory());
+        jobs.put(job.getId(), job);
+        job.setRunner(runner.submit(() -> run(job)));
+        return job;
+    }
+
+    public Optional<VEPJob> getJob(String id) {
+        return Optional.ofNullable(jobs.get(id));
+    }
+
+    /**
+     * Stops the job if it is still running and deletes it along with its results.
+     */
+    public boolean deleteJob(String id) {
+        VEPJob job = jobs.remove(id);
+        if (job == null) {
+            return false;
+        }
+        job.cancel();
+        deleteSpool(job);
+        return true;
+    }
+
+    private void run(VEPJob job) {
+        try {
+            runningJobs.acquire();
+        } catch (InterruptedException e) {
+            job.finish(VEPJob.Status.CANCELLED, null);
+            return;
+        }
+        try {
+            job.running();
+            while (true) {
+                try {
+                    vepService.annotateVariants(job.getBatch(), job.getProjection(), job.getSubmitter(), job);
+                    break;
+                } catch (VEPOverloadedException e) {
+                    // unlike interactive requests, a job can afford to wait for capacity
+                    Thread.sleep(OVERLOAD_RETRY_DELAY);
+                }
+            }
+            job.finish(VEPJob.Status.COMPLETED, null);
+        } catch (InterruptedException e) {
+            job.finish(VEPJob.Status.CANCELLED, null);
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Job {} failed", job.getId(), e);
+            job.finish(VEPJob.Status.FAILED, e.getMessage());
+        } finally {
+            runningJobs.release();
+        }
+    }
+
+    void removeExpiredJobs() {
+        Instant expiry = Instant.now().minus(config.ttl());
+        for (VEPJob job : jobs.values()) {
+            if (job.isFinished() && job.getFinishedAt().isBefore(expiry) && jobs.remove(job.getId(), job)) {
+                deleteSpool(job);
+            }
+        }
+    }
+
+    // Only touch directories named like a job, in case the spool directory is shared
+    private static boolean isJobDirectory(Path path) {
+        try {
+            UUID.fromString(path.getFileName().toString());
+            return Files.isDirectory(path);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private void deleteSpool(VEPJob job) {
+        try {
+            FileSystemUtils.deleteRecursively(job.getDirectory());
+        } catch (IOException e) {
+            LOG.warn("Could not delete results of job {}", job.getId(), e);
+        }
+    }
+}
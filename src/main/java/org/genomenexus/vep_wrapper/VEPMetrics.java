@@ -0,0 +1,224 @@
+package org.genomenexus.vep_wrapper;
+
+import java.time.Duration;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToLongFunction;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+
+/**
+ * Meters for the VEP execution pipeline, exposed through {@code /actuator/prometheus}:
+ *
+ * <ul>
+ *   <li>{@code vep.phase} timers tagged by phase: {@code queue} (waiting for capacity),
+ *       {@code spawn} (starting VEP), {@code run} (VEP running while its output is parsed) and
+ *       {@code parse} (adding looked-up scores to and trimming its records),</li>
+ *   <li>{@code vep.lane.wait} timers of the time chunks waited for capacity, tagged by lane, and the
+ *       lane gauges registered by {@link VEPExecutor},</li>
+ *   <li>{@code vep.chunk.size} and {@code vep.output.bytes} distributions,</li>
+ *   <li>{@code vep.processes.live} and the executor gauges registered by {@link VEPExecutor},</li>
+ *   <li>{@code vep.errors} counted by why the run failed (see {@link VEPResult.Failure}), and
+ *       {@code vep.requests} counted by whether all, some or none of their chunks succeeded,</li>
+ *   <li>{@code vep.chunks.retried} and {@code vep.chunks.bisected}, counting failed VEP runs that
+ *       were run again unchanged or split in half,</li>
+ *   <li>{@code vep.store.lookups} counted by whether the precomputed annotation store had the variant,</li>
+ *   <li>{@code vep.cache.lookups} counted by whether the result cache had the variant in memory, on
+ *       disk or not at all, and the {@code vep.cache.entries} and {@code vep.cache.disk.size} gauges,
+ *       registered for the {@link VariantAnnotationCache} by {@link #registerResultCache},</li>
+ *   <li>{@code vep.reference.checks} counted by whether a variant passed the reference genome check,
+ *       was left-aligned or was rejected without running VEP,</li>
+ *   <li>{@code vep.alphamissense.lookups} counted by whether a missense consequence had an AlphaMissense
+ *       prediction, and the {@code vep.alphamissense.cache.size} gauge registered by {@link VEPService},</li>
+ *   <li>{@code vep.pagecache.warmed} and {@code vep.pagecache.size} gauges, registered by
+ *       {@link VEPHealthIndicator}, of the data read into the page cache at startup,</li>
+ *   <li>{@code vep.backend.chunks} counting, in coordinator mode, requests for chunks to each backend
+ *       by {@code success}, {@code error} (VEP failed), {@code failover}, {@code hedged} or {@code failed}.</li>
+ * </ul>
+ *
+ * Each annotation request is also wrapped in a {@code vep.annotate} observation, which becomes a
+ * trace span when a tracer is configured.
+ */
+@Component
+public class VEPMetrics {
+
+    private final MeterRegistry registry;
+    private final ObservationRegistry observationRegistry;
+    private final AtomicInteger liveProcesses = new AtomicInteger();
+    private final DistributionSummary chunkSize;
+    private final DistributionSummary outputBytes;
+
+    @Autowired
+    public VEPMetrics(MeterRegistry registry, ObjectProvider<ObservationRegistry> observationRegistry) {
+        this(registry, observationRegistry.getIfAvailable(() -> ObservationRegistry.NOOP));
+    }
+
+    VEPMetrics(MeterRegistry registry, ObservationRegistry observationRegistry) {
+        this.registry = registry;
+        this.observationRegistry = observationRegistry;
+        this.chunkSize = DistributionSummary.builder("vep.chunk.size")
+            .description("Variants per chunk sent to VEP")
+            .baseUnit("variants")
+            .publishPercentileHistogram()
+            .register(registry);
+        this.outputBytes = DistributionSummary.builder("vep.output.bytes")
+            .description("Size of the output of one VEP run")
+            .baseUnit("bytes")
+            .publishPercentileHistogram()
+            .register(registry);
+        Gauge.builder("vep.processes.live", liveProcesses, AtomicInteger::get)
+            .description("VEP processes currently running")
+            .register(registry);
+    }
+
+    MeterRegistry getRegistry() {
+        return registry;
+    }
+
+    void recordPhase(String phase, Duration duration) {
+        Timer.builder("vep.phase")
+            .description("Time spent per chunk in each phase of a VEP run")
+            .tag("phase", phase)
+            .publishPercentileHistogram()
+            .register(registry)
+            .record(duration);
+    }
+
+    void recordPhase(String phase, long startNanos) {
+        recordPhase(phase, Duration.ofNanos(System.nanoTime() - startNanos));
+    }
+
+    void recordLaneWait(String lane, long queuedAtNanos) {
+        Timer.builder("vep.lane.wait")
+            .description("Time chunks waited for capacity in each lane")
+            .tag("lane", lane)
+            .publishPercentileHistogram()
+            .register(registry)
+            .record(Duration.ofNanos(System.nanoTime() - queuedAtNanos));
+    }
+
+    void recordChunkSize(int variants) {
+        chunkSize.record(variants);
+    }
+
+    void recordOutputBytes(long bytes) {
+        outputBytes.record(bytes);
+    }
+
+    void processStarted() {
+        liveProcesses.incrementAndGet();
+    }
+
+    void processFinished() {
+        liveProcesses.decrementAndGet();
+    }
+
+    // Tagged by class only, as VEP's messages can name the variants; callers log the message
+    void recordError(VEPResult.Failure failure) {
+        Counter.builder("vep.errors")
+            .description("Failed VEP runs by why they failed")
+            .tag("failure", failure.name().toLowerCase(Locale.ROOT))
+            .register(registry)
+            .increment();
+    }
+
+    void recordRetry() {
+        Counter.builder("vep.chunks.retried")
+            .description("VEP runs retried after a transient failure")
+            .register(registry)
+            .increment();
+    }
+
+    void recordBisection() {
+        Counter.builder("vep.chunks.bisected")
+            .description("Failed VEP runs split in half to isolate the variants VEP could not annotate")
+            .register(registry)
+            .increment();
+    }
+
+    void recordStoreLookup(boolean hit) {
+        Counter.builder("vep.store.lookups")
+            .description("Lookups in the precomputed annotation store")
+            .tag("result", hit ? "hit" : "miss")
+            .register(registry)
+            .increment();
+    }
+
+    void registerResultCache(VariantAnnotationCache cache) {
+        registerCacheLookups(cache, "memory", VariantAnnotationCache.Stats::memoryHits);
+        registerCacheLookups(cache, "disk", VariantAnnotationCache.Stats::diskHits);
+        registerCacheLookups(cache, "miss", VariantAnnotationCache.Stats::misses);
+        Gauge.builder("vep.cache.entries", cache, resultCache -> resultCache.getStats().memoryEntries())
+            .description("Records held in the in-memory tier of the result cache")
+            .register(registry);
+        Gauge.builder("vep.cache.disk.size", cache, resultCache -> resultCache.getStats().diskBytes())
+            .description("Size of the on-disk tier of the result cache")
+            .baseUnit("bytes")
+            .register(registry);
+    }
+
+    private void registerCacheLookups(VariantAnnotationCache cache, String result, ToLongFunction<VariantAnnotationCache.Stats> count) {
+        FunctionCounter.builder("vep.cache.lookups", cache, resultCache -> count.applyAsLong(resultCache.getStats()))
+            .description("Lookups in the result cache")
+            .tag("result", result)
+            .register(registry);
+    }
+
+    /**
+     * Counts a variant checked against the reference genome as {@code passed}, {@code normalized}
+     * or {@code rejected}.
+     */
+    void recordReferenceCheck(String result) {
+        Counter.builder("vep.reference.checks")
+            .description("Variants checked against the reference genome before being sent to VEP")
+            .tag("result", result)
+            .register(registry)
+            .increment();
+    }
+
+    void recordAlphaMissenseLookup(boolean found) {
+        Counter.builder("vep.alphamissense.lookups")
+            .description("Missense consequences looked up in the AlphaMissense predictions")
+            .tag("result", found ? "hit" : "miss")
+            .register(registry)
+            .increment();
+    }
+
+    void recordDispatch(String backend, String outcome) {
+        Counter.builder("vep.backend.chunks")
+            .description("Chunks sent to remote VEP backends by how the request for them ended")
+            .tag("backend", backend)
+            .tag("outcome", outcome)
+            .register(registry)
+            .increment();
+    }
+
+    /**
+     * Counts a finished request as {@code success}, {@code partial} or {@code failed}.
+     */
+    void recordRequest(int chunks, int failedChunks) {
+        String outcome = failedChunks == 0 ? "success" : failedChunks < chunks ? "partial" : "failed";
+        Counter.builder("vep.requests")
+            .description("Annotation requests by how many of their chunks failed")
+            .tag("outcome", outcome)
+            .register(registry)
+            .increment();
+    }
+
+    Observation annotation(String format, int variants) {
+        return Observation.createNotStarted("vep.annotate", observationRegistry)
+            .lowCardinalityKeyValue("format", format)
+            .highCardinalityKeyValue("variants", String.valueOf(variants));
+    }
+}
@@ -0,0 +1,96 @@
+package org.genomenexus.vep_wrapper;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Converts raw VEP {@code --json} output (one JSON object per record) into {@link VEPRecord}s in a
+ * single token-level pass. Field names are renamed according to {@code vep.field-renames} at any
+ * depth; values are never touched. Only one record is held in memory at a time.
+ */
+@Component
+public class VEPOutputTransformer {
+
+    private static final String INPUT_FIELD = "input";
+
+    private final JsonFactory jsonFactory = new JsonFactory();
+    private final Map<String, String> fieldRenames;
+
+    @Autowired
+    public VEPOutputTransformer(VEPConfiguration vepConfiguration) {
+        this(vepConfiguration.fieldRenames);
+    }
+
+    VEPOutputTransformer(Map<String, String> fieldRenames) {
+        this.fieldRenames = fieldRenames;
+    }
+
+    /**
+     * Streams every record in {@code vepOutput} to {@code sink} and returns the number of records.
+     *
+     * @throws JsonParseException if the output is not a sequence of JSON objects
+     */
+    public int transform(Reader vepOutput, Consumer<VEPRecord> sink) throws IOException {
+        int records = 0;
+        try (JsonParser parser = jsonFactory.createParser(vepOutput)) {
+            JsonToken token;
+            while ((token = parser.nextToken()) != null) {
+                if (token != JsonToken.START_OBJECT) {
+                    throw new JsonParseException(parser, "Expected a VEP record but found " + token);
+                }
+                sink.accept(copyRecord(parser));
+                records++;
+            }
+        }
+        return records;
+    }
+
+    private VEPRecord copyRecord(JsonParser parser) throws IOException {
+        StringWriter json = new StringWriter();
+        String input = null;
+        try (JsonGenerator generator = jsonFactory.createGenerator(json)) {
+            generator.writeStartObject();
+            int depth = 1;
+            while (depth > 0) {
+                JsonToken token = parser.nextToken();
+                if (token == null) {
+                    throw new JsonParseException(parser, "Truncated VEP record");
+                }
+                switch (token) {
+                    case FIELD_NAME -> {
+                        String name = parser.currentName();
+                        generator.writeFieldName(fieldRenames.getOrDefault(name, name));
+                        if (depth == 1 && INPUT_FIELD.equals(name) && parser.nextToken() == JsonToken.VALUE_STRING) {
+                            input = parser.getText();
+                            generator.copyCurrentEvent(parser);
+                        } else if (depth == 1 && INPUT_FIELD.equals(name)) {
+                            throw new JsonParseException(parser, "VEP record has a non-string input");
+                        }
+                    }
+                    case START_OBJECT, START_ARRAY -> {
+                        depth++;
+                        generator.copyCurrentEvent(parser);
+                    }
+                    case END_OBJECT, END_ARRAY -> {
+                        depth--;
+                        generator.copyCurrentEvent(parser);
+                    }
+                    default -> generator.copyCurrentEvent(parser);
+                }
+            }
+        }
+        return new VEPRecord(input, json.toString());
+    }
+}
@@ -0,0 +1,14 @@
+package org.genomenexus.vep_wrapper;
+
+/**
+ * Thrown when a request arrives while more chunks are already waiting for VEP than
+ * {@code vep.execution.max-queued-chunks} allows. Clients should back off and retry.
+ */
+public class VEPOverloadedException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public VEPOverloadedException() {
+        super("Too many variants are waiting to be annotated, please retry later");
+    }
+}
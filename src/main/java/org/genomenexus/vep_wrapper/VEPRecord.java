@@ -0,0 +1,7 @@
+package org.genomenexus.vep_wrapper;
+
+/**
+ * A single post-processed VEP annotation, serialized as compact JSON, together with the input
+ * line VEP reported it for.
+ */
+public record VEPRecord(String input, String json) {}
@@ -1,19 +1,103 @@
 package org.genomenexus.vep_wrapper;
 
+import java.time.Duration;
+import java.util.List;
+import java.util.regex.Pattern;
+
 public class VEPResult {
+
+    /**
+     * Why a run failed, which decides whether it is retried, split or given up on.
+     */
+    enum Failure {
+        // VEP rejected a variant it was given, so running the variants separately isolates it
+        Input,
+        // unrelated to the input, such as a lost database connection, so running it again may succeed
+        Transient,
+        // VEP did not finish in time, which neither splitting nor repeating the chunk would fix
+        Timeout,
+        // anything else, such as a broken plugin, a missing cache or VEP running out of memory
+        Systemic
+    }
+
+    private static final Pattern TRANSIENT_ERROR_PATTERN = Pattern.compile(
+        "DBI connect|Can't connect to|Lost connection to|server has gone away|Too many connections|Connection refused|Connection reset"
+    );
+    // Messages VEP reports about a variant of its input rather than about itself or its data
+    private static final Pattern INPUT_ERROR_PATTERN = Pattern.compile(
+        "HGVS|Unable to parse|Could not parse|Could not get a (?:Transcript|Slice|Gene)|does not match reference|"
+            + "Invalid (?:allele|input|variant)|not a valid|No valid variants|Region requested must be|Could not detect input",
+        Pattern.CASE_INSENSITIVE
+    );
+
     private String output;
     private int exitCode;
+    private Failure failure;
+    private List<VEPRecord> records;
 
     VEPResult(String output, int exitCode) {
+        this(output, exitCode, exitCode == 0 ? null : Failure.Systemic);
+    }
+
+    /**
+     * @param failure why the run failed, or null if it did not
+     */
+    VEPResult(String output, int exitCode, Failure failure) {
         this.output = output;
         this.exitCode = exitCode;
+        this.failure = failure;
     }
 
+    /**
+     * A successful run whose output was parsed into {@code records} as VEP wrote it.
+     */
+    static VEPResult parsed(List<VEPRecord> records) {
+        VEPResult result = new VEPResult("", 0);
+        result.records = records;
+        return result;
+    }
+
+    static VEPResult timedOut(Duration timeout) {
+        return new VEPResult("VEP did not finish within " + timeout.toSeconds() + " seconds", 500, Failure.Timeout);
+    }
+
+    /**
+     * Why VEP failed, judged from the error it reported. Errors that are not recognised as transient
+     * or as caused by the input are systemic.
+     */
+    static Failure classify(String error) {
+        if (TRANSIENT_ERROR_PATTERN.matcher(error).find()) {
+            return Failure.Transient;
+        }
+        return INPUT_ERROR_PATTERN.matcher(error).find() ? Failure.Input : Failure.Systemic;
+    }
+
+    /**
+     * VEP's error if the run failed, or its raw output if it was not parsed into records.
+     */
     public String getOutput() {
         return output;
     }
 
+    /**
+     * The records of a successful run, or null if its output was not parsed.
+     */
+    public List<VEPRecord> getRecords() {
+        return records;
+    }
+
     public int getExitCode() {
         return exitCode;
     }
+
+    /**
+     * Why the run failed, or null if it did not.
+     */
+    public Failure getFailure() {
+        return failure;
+    }
+
+    public boolean isTransientFailure() {
+        return failure == Failure.Transient;
+    }
 }
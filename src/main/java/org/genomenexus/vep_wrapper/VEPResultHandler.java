@@ -0,0 +1,23 @@
+package org.genomenexus.vep_wrapper;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Receives the outcome of each chunk as soon as it completes. Chunks are reported in completion
+ * order, identified by their index in the submitted chunk list.
+ */
+public interface VEPResultHandler {
+
+    void onRecords(int chunk, List<VEPRecord> records) throws IOException;
+
+    void onError(int chunk, String message) throws IOException;
+
+    /**
+     * Called instead of {@link #onError} for a chunk whose variants were all rejected before they
+     * reached VEP, such as for not matching the reference genome.
+     */
+    default void onRejected(int chunk, String message) throws IOException {
+        onError(chunk, message);
+    }
+}
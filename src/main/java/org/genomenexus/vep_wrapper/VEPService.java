@@ -1,45 +1,1077 @@
 package org.genomenexus.vep_wrapper;
 
-import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.stream.Collectors;
 
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.util.StringUtils;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.observation.Observation;
+
 @Service
 public class VEPService {
 
+    private static final Logger LOG = LoggerFactory.getLogger(VEPService.class);
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private static final Pattern WARNING_PATTERN = Pattern.compile("WARNING:\\s(.*)\\n");
+    private static final Pattern MESSAGE_PATTERN = Pattern.compile("MSG:\\s(.*)\\n");
+
+    // Output fields of each plugin, before renaming
+    private static final List<String> POLYPHEN_SIFT_FIELDS = List.of(
+        "sift_pred", "sift_score", "polyphen_humvar_pred", "polyphen_humvar_score", "polyphen_humdiv_pred", "polyphen_humdiv_score"
+    );
+    private static final List<String> ALPHA_MISSENSE_FIELDS = List.of("am_pathogenicity", "am_class");
+
     @Autowired
     private VEPConfiguration vepConfiguration;
 
+    @Autowired
+    private VEPExecutor vepExecutor;
+
+    @Autowired
+    private VEPOutputTransformer outputTransformer;
+
+    @Autowired
+    private VariantAnnotationCache resultCache;
+
+    @Autowired
+    private VEPMetrics metrics;
+
+    private VEPWorkerPool workerPool;
+
+    private PrecomputedAnnotations precomputedAnnotations;
+
+    private VEPCoordinator coordinator;
+
+    private AlphaMissenseAnnotator alphaMissense;
+
+    private ReferenceGenome referenceGenome;
+
+    private volatile String annotationNamespace;
+
+    private volatile Integer vepRelease;
+
+    // Variants currently being annotated by any request, keyed like the result cache
+    private final ConcurrentHashMap<String, CompletableFuture<Optional<VEPRecord>>> inFlightVariants = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    void startWorkerPool() {
+        // the workers run VEP's AlphaMissense plugin unless the scores can be looked up instead
+        openAlphaMissense();
+        if (vepConfiguration.workerPool.enabled()) {
+            workerPool = new VEPWorkerPool(
+                vepConfiguration.workerPool,
+                getAnnotationFlags(FieldProjection.ALL),
+                outputTransformer,
+                vepExecutor.getChunkTimeout()
+            );
+            workerPool.start();
+            Gauge.builder("vep.workers.live", workerPool, VEPWorkerPool::getLiveWorkers)
+                .description("Pre-warmed VEP workers currently alive")
+                .register(metrics.getRegistry());
+        }
+    }
+
+    @PreDestroy
+    void stopWorkerPool() {
+        if (workerPool != null) {
+            workerPool.close();
+        }
+    }
+
+    @PostConstruct
+    void registerResultCacheMetrics() {
+        if (resultCache.isEnabled()) {
+            metrics.registerResultCache(resultCache);
+        }
+    }
+
+    @PostConstruct
+    void loadAnnotationStore() {
+        if (!vepConfiguration.annotationStore.path().isBlank()) {
+            precomputedAnnotations = new PrecomputedAnnotations(vepConfiguration.annotationStore, this::getAnnotationNamespace);
+            precomputedAnnotations.start();
+            Gauge.builder("vep.store.records", precomputedAnnotations, PrecomputedAnnotations::size)
+                .description("Records in the loaded precomputed annotation store")
+                .register(metrics.getRegistry());
+        }
+    }
+
+    @PreDestroy
+    void closeAnnotationStore() {
+        if (precomputedAnnotations != null) {
+            precomputedAnnotations.close();
+        }
+    }
+
+    @PostConstruct
+    void startCoordinator() {
+        if (vepConfiguration.coordinator.enabled()) {
+            coordinator = new VEPCoordinator(
+                vepConfiguration.coordinator,
+                vepExecutor.getChunkTimeout(),
+                vepConfiguration.execution.maxQueuedChunks(),
+                metrics
+            );
+            coordinator.start();
+            Gauge.builder("vep.backends.healthy", coordinator, VEPCoordinator::getHealthyBackends)
+                .description("Remote VEP backends currently passing their health check")
+                .register(metrics.getRegistry());
+            Gauge.builder("vep.backends.queued", coordinator, VEPCoordinator::getQueuedChunks)
+                .description("Chunks waiting for a remote VEP backend")
+                .register(metrics.getRegistry());
+        }
+    }
+
+    @PreDestroy
+    void stopCoordinator() {
+        if (coordinator != null) {
+            coordinator.close();
+        }
+    }
+
+    // Falls back to VEP's plugin if the predictions cannot be opened
+    private void openAlphaMissense() {
+        if (vepConfiguration.alphaMissenseFilename.isPresent() && vepConfiguration.alphaMissenseLookup.enabled()) {
+            Path path = Path.of(vepConfiguration.alphaMissenseLookup.directory(), vepConfiguration.alphaMissenseFilename.get());
+            try {
+                alphaMissense = AlphaMissenseAnnotator.open(
+                    path,
+                    vepConfiguration.alphaMissenseLookup.blockCacheSize().toBytes(),
+                    vepConfiguration.fieldRenames,
+                    metrics
+                );
+            } catch (IOException e) {
+                LOG.warn("Could not open AlphaMissense predictions {}, VEP's plugin adds them instead; "
+                    + "set vep.alpha-missense-lookup.directory to look them up", path, e);
+                return;
+            }
+            Gauge.builder("vep.alphamissense.cache.size", alphaMissense, AlphaMissenseAnnotator::getCachedBytes)
+                .description("Decompressed blocks of the AlphaMissense predictions held in memory")
+                .baseUnit("bytes")
+                .register(metrics.getRegistry());
+        }
+    }
+
+    @PreDestroy
+    void closeAlphaMissense() throws IOException {
+        if (alphaMissense != null) {
+            alphaMissense.close();
+        }
+    }
+
+    @PostConstruct
+    void openReferenceGenome() {
+        if (vepConfiguration.dataConfiguration instanceof VEPConfiguration.CacheConfiguration(String fastaFilename)
+            && vepConfiguration.referenceCheck.enabled()) {
+            Path path = Path.of(vepConfiguration.referenceCheck.directory(), fastaFilename);
+            try {
+                referenceGenome = new ReferenceGenome(IndexedFasta.open(path, vepConfiguration.referenceCheck.blockCacheSize().toBytes()));
+            } catch (IOException e) {
+                LOG.warn("Could not open reference genome {}, variants are sent to VEP unchecked", path, e);
+            }
+        }
+    }
+
+    @PreDestroy
+    void closeReferenceGenome() throws IOException {
+        if (referenceGenome != null) {
+            referenceGenome.close();
+        }
+    }
+
     public String annotateVariants(List<List<String>> variantChunks, String format) throws Exception {
-        List<Callable<VEPResult>> wrappers = new ArrayList<>();
+        return annotateVariants(variantChunks, format, FieldProjection.ALL);
+    }
+
+    public String annotateVariants(List<List<String>> variantChunks, String format, FieldProjection projection) throws Exception {
+        return annotateVariants(VariantBatch.of(variantChunks, format), projection);
+    }
+
+    public String annotateVariants(VariantBatch batch, FieldProjection projection) throws Exception {
+        return annotateVariants(batch, projection, getSubmitter(batch));
+    }
+
+    /**
+     * Annotates the whole batch and returns its records as a JSON array in request order, followed
+     * by any records VEP reported under an input that was not sent. Throws if every chunk failed,
+     * with an {@link IllegalArgumentException} if all of their variants were rejected before they
+     * reached VEP.
+     */
+    public String annotateVariants(VariantBatch batch, FieldProjection projection, Submitter submitter) throws Exception {
+        List<List<String>> variantChunks = batch.chunks();
+        List<List<VEPRecord>> chunkRecords = new ArrayList<>(Collections.nCopies(variantChunks.size(), null));
+        String[] chunkErrors = new String[variantChunks.size()];
+        AtomicInteger rejectedChunks = new AtomicInteger();
+        annotateVariants(batch, projection, submitter, new VEPResultHandler() {
+            @Override
+            public void onRecords(int chunk, List<VEPRecord> records) {
+                chunkRecords.set(chunk, records);
+            }
+
+            @Override
+            public void onError(int chunk, String message) {
+                chunkErrors[chunk] = message;
+            }
+
+            @Override
+            public void onRejected(int chunk, String message) {
+                rejectedChunks.incrementAndGet();
+                onError(chunk, message);
+            }
+        });
+
+        if (!variantChunks.isEmpty() && chunkRecords.stream().allMatch(Objects::isNull)) {
+            // Ensembl VEP API only returns first error, so copying behavior
+            throw rejectedChunks.get() == variantChunks.size() ? new IllegalArgumentException(chunkErrors[0]) : new Exception(chunkErrors[0]);
+        }
+
+        // Records of a chunk follow its variants, skipping those VEP returned nothing for
+        String[] orderedRecords = new String[batch.size()];
+        List<String> unmatchedRecords = new ArrayList<>();
+        for (int i = 0; i < variantChunks.size(); i++) {
+            List<VEPRecord> records = chunkRecords.get(i);
+            List<String> inputs = batch.inputs().get(i);
+            List<Integer> positions = batch.positions().get(i);
+            int next = 0;
+            for (int j = 0; j < inputs.size(); j++) {
+                if (records == null) {
+                    orderedRecords[positions.get(j)] = errorRecord(inputs.get(j), chunkErrors[i]);
+                } else if (next < records.size() && inputs.get(j).equals(records.get(next).input())) {
+                    orderedRecords[positions.get(j)] = records.get(next++).json();
+                }
+            }
+            for (VEPRecord record : records == null ? List.<VEPRecord>of() : records.subList(next, records.size())) {
+                unmatchedRecords.add(record.json());
+            }
+        }
+
+        StringBuilder output = new StringBuilder("[");
+        for (String record : orderedRecords) {
+            if (record != null) {
+                appendRecord(output, record);
+            }
+        }
+        unmatchedRecords.forEach(record -> appendRecord(output, record));
+        return output.append(']').toString();
+    }
+
+    private static void appendRecord(StringBuilder output, String record) {
+        if (output.length() > 1) {
+            output.append(',');
+        }
+        output.append(record);
+    }
+
+    /**
+     * Annotates every chunk and reports each one to {@code handler} as soon as it completes. Chunk
+     * failures are passed to the handler rather than thrown; an exception thrown by the handler
+     * cancels all chunks that have not finished yet. Failed VEP runs are retried or bisected (see
+     * {@link ChunkRuns}), so a chunk in which only some variants could not be annotated is reported
+     * with an {@link #errorRecord error entry} in place of each of those variants.
+     *
+     * Each distinct variant is annotated at most once: repeats within the batch and variants already
+     * being annotated for a concurrent request wait for that result, and variants found in the
+     * precomputed annotation store or, with the result cache enabled, in the cache are not sent to
+     * VEP at all. Records are fanned back out to every
+     * position of the chunk in input order.
+     */
+    public void annotateVariants(List<List<String>> variantChunks, String format, VEPResultHandler handler) throws IOException, InterruptedException {
+        annotateVariants(variantChunks, format, FieldProjection.ALL, handler);
+    }
+
+    /**
+     * Like {@link #annotateVariants(List, String, VEPResultHandler)}, running VEP with only what
+     * {@code projection} needs and reporting records trimmed to it.
+     */
+    public void annotateVariants(
+        List<List<String>> variantChunks,
+        String format,
+        FieldProjection projection,
+        VEPResultHandler handler
+    ) throws IOException, InterruptedException {
+        annotateVariants(VariantBatch.of(variantChunks, format), projection, handler);
+    }
+
+    /**
+     * Like {@link #annotateVariants(List, String, FieldProjection, VEPResultHandler)} for chunks of
+     * different formats. Records are reported under the notation each variant was requested as.
+     */
+    public void annotateVariants(VariantBatch batch, FieldProjection projection, VEPResultHandler handler) throws IOException, InterruptedException {
+        annotateVariants(batch, projection, getSubmitter(batch), handler);
+    }
+
+    /**
+     * Like {@link #annotateVariants(VariantBatch, FieldProjection, VEPResultHandler)}, with the
+     * chunks waiting for VEP capacity in the lane of {@code submitter}.
+     */
+    public void annotateVariants(
+        VariantBatch batch,
+        FieldProjection projection,
+        Submitter submitter,
+        VEPResultHandler handler
+    ) throws IOException, InterruptedException {
+        if (isOverloaded(submitter.lane())) {
+            throw new VEPOverloadedException();
+        }
+        Observation observation = metrics.annotation(batch.format(), batch.size()).start();
+        Observation.Scope scope = observation.openScope();
+        try {
+            int failedChunks = annotateChunks(batch, projection, submitter, handler);
+            metrics.recordRequest(batch.chunks().size(), failedChunks);
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            observation.error(e);
+            throw e;
+        } finally {
+            scope.close();
+            observation.stop();
+        }
+    }
+
+    // Returns the number of chunks that failed
+    private int annotateChunks(
+        VariantBatch batch,
+        FieldProjection projection,
+        Submitter submitter,
+        VEPResultHandler handler
+    ) throws IOException, InterruptedException {
+        PreparedVariants prepared = prepareVariants(batch);
+        List<List<String>> variantChunks = prepared.chunks();
+        Optional<String> cacheNamespace = getCacheNamespace();
+        List<String> keyPrefixes = prepared.formats().stream()
+            .map(format -> cacheNamespace.map(namespace -> namespace + "|").orElse("") + format + "|" + projection.getCacheKey())
+            .toList();
+
+        // Result of every distinct variant in this request, whether cached, annotated here or elsewhere
+        Map<String, CompletableFuture<Optional<VEPRecord>>> variantResults = new HashMap<>();
+        // Key of every variant, by chunk, shared by the notations of the same variant
+        List<List<String>> variantKeys = new ArrayList<>();
+        // Variants this request sends to VEP, by chunk
+        List<Map<String, CompletableFuture<Optional<VEPRecord>>>> ownedVariants = new ArrayList<>();
+        // Key of every variant this request may send to VEP, by format
+        Map<String, Map<String, String>> sentKeys = new HashMap<>();
+        // Variants another request is annotating, which this one takes over if that one is aborted
+        List<FollowedVariant> followed = new ArrayList<>();
+        for (int i = 0; i < variantChunks.size(); i++) {
+            String format = prepared.formats().get(i);
+            String keyPrefix = keyPrefixes.get(i);
+            Map<String, String> formatKeys = sentKeys.computeIfAbsent(format, ignored -> new ConcurrentHashMap<>());
+            Map<String, CompletableFuture<Optional<VEPRecord>>> owned = new LinkedHashMap<>();
+            List<String> keys = new ArrayList<>(variantChunks.get(i).size());
+            variantKeys.add(keys);
+            for (int j = 0; j < variantChunks.get(i).size(); j++) {
+                String variant = variantChunks.get(i).get(j);
+                String keyedAs = prepared.keyedAs().get(i).get(j);
+                String key = variantKey(keyPrefix, format, keyedAs);
+                keys.add(key);
+                if (variantResults.containsKey(key)) {
+                    continue;
+                }
+                String referenceError = prepared.errors().get(i).get(j);
+                if (referenceError != null) {
+                    variantResults.put(key, CompletableFuture.failedFuture(new Exception(referenceError)));
+                    continue;
+                }
+                Optional<String> cached = getPrecomputed(format, keyedAs, projection)
+                    .or(() -> cacheNamespace.flatMap(namespace -> resultCache.get(key)));
+                if (cached.isPresent()) {
+                    variantResults.put(key, CompletableFuture.completedFuture(Optional.of(new VEPRecord(readInput(cached.get()), cached.get()))));
+                    continue;
+                }
+                formatKeys.put(variant, key);
+                CompletableFuture<Optional<VEPRecord>> result = new CompletableFuture<>();
+                CompletableFuture<Optional<VEPRecord>> inFlight = inFlightVariants.putIfAbsent(key, result);
+                if (inFlight != null) {
+                    variantResults.put(key, inFlight);
+                    followed.add(new FollowedVariant(key, variant, format, inFlight));
+                } else {
+                    variantResults.put(key, result);
+                    owned.put(variant, result);
+                }
+            }
+            ownedVariants.add(owned);
+        }
+
+        int forks = vepExecutor.planForks(ownedVariants.stream().filter(owned -> !owned.isEmpty()).map(owned -> List.copyOf(owned.keySet())).toList());
+        // Runs of each format in the batch
+        Map<String, ChunkRuns> runs = new HashMap<>();
+        for (int i = 0; i < variantChunks.size(); i++) {
+            String format = prepared.formats().get(i);
+            runs.computeIfAbsent(format, key -> new ChunkRuns(
+                getChunkFlags(format, forks, projection), format, projection, forks, submitter, sentKeys.get(format), cacheNamespace.isPresent()
+            ));
+        }
+        for (FollowedVariant variant : followed) {
+            variantResults.put(variant.key(), follow(variant.inFlight(), variant.key(), variant.variant(), runs.get(variant.format())));
+        }
+        List<UnmatchedRecords> unmatchedRecords = new ArrayList<>();
+        BlockingQueue<Integer> readyChunks = new LinkedBlockingQueue<>();
+        int failedChunks = 0;
+        try {
+            for (int i = 0; i < variantChunks.size(); i++) {
+                Map<String, CompletableFuture<Optional<VEPRecord>>> owned = ownedVariants.get(i);
+                UnmatchedRecords unmatched = new UnmatchedRecords();
+                unmatchedRecords.add(unmatched);
+                if (owned.isEmpty()) {
+                    unmatched.runFinished(List.of());
+                } else {
+                    runs.get(prepared.formats().get(i)).submit(owned, unmatched, 0);
+                }
+
+                List<CompletableFuture<?>> dependencies = new ArrayList<>();
+                dependencies.add(unmatched.records);
+                for (String key : variantKeys.get(i)) {
+                    dependencies.add(variantResults.get(key));
+                }
+                int chunkIndex = i;
+                CompletableFuture.allOf(dependencies.toArray(CompletableFuture[]::new))
+                    .whenComplete((ignored, error) -> readyChunks.add(chunkIndex));
+            }
+
+            for (int completed = 0; completed < variantChunks.size(); completed++) {
+                int chunk = readyChunks.take();
+                List<VEPRecord> records = new ArrayList<>();
+                String error = null;
+                int failedVariants = 0;
+                for (int j = 0; j < variantChunks.get(chunk).size(); j++) {
+                    String input = batch.inputs().get(chunk).get(j);
+                    CompletableFuture<Optional<VEPRecord>> result = variantResults.get(variantKeys.get(chunk).get(j));
+                    if (result.isCompletedExceptionally()) {
+                        String message = result.exceptionNow().getMessage();
+                        error = error != null ? error : message;
+                        failedVariants++;
+                        records.add(new VEPRecord(input, errorRecord(input, message)));
+                    } else if (result.join().isPresent()) {
+                        // annotated under whichever notation of the variant was sent, or found in the cache, first
+                        VEPRecord record = result.join().get();
+                        String json = record.json();
+                        records.add(new VEPRecord(input, input.equals(record.input()) ? json : withInput(json, record.input(), input)));
+                    }
+                }
+
+                if (failedVariants == variantChunks.get(chunk).size()) {
+                    failedChunks++;
+                    if (prepared.errors().get(chunk).stream().allMatch(Objects::nonNull)) {
+                        handler.onRejected(chunk, error);
+                    } else {
+                        handler.onError(chunk, error);
+                    }
+                } else {
+                    records.addAll(unmatchedRecords.get(chunk).records.join());
+                    handler.onRecords(chunk, records);
+                }
+            }
+            return failedChunks;
+        } finally {
+            // no-op for finished runs; stops queued and running ones if this request was aborted
+            runs.values().forEach(ChunkRuns::cancel);
+            // hand the variants this request stopped annotating to the requests following them
+            for (int i = 0; i < ownedVariants.size(); i++) {
+                abandon(ownedVariants.get(i), sentKeys.get(prepared.formats().get(i)));
+            }
+        }
+    }
+
+    // A variant of a request that another request is annotating
+    private record FollowedVariant(String key, String variant, String format, CompletableFuture<Optional<VEPRecord>> inFlight) {}
+
+    /**
+     * The result of a variant another request is annotating. If that request is aborted before it
+     * finishes, the variant is annotated in {@code runs} instead, or by whichever other request
+     * following it claims it first.
+     */
+    private CompletableFuture<Optional<VEPRecord>> follow(
+        CompletableFuture<Optional<VEPRecord>> inFlight,
+        String key,
+        String variant,
+        ChunkRuns runs
+    ) {
+        return inFlight.exceptionallyCompose(e -> {
+            Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+            if (!(cause instanceof AnnotationAbandonedException)) {
+                return CompletableFuture.failedFuture(cause);
+            }
+            CompletableFuture<Optional<VEPRecord>> result = new CompletableFuture<>();
+            CompletableFuture<Optional<VEPRecord>> claimed = inFlightVariants.putIfAbsent(key, result);
+            if (claimed != null) {
+                return follow(claimed, key, variant, runs);
+            }
+            Map<String, CompletableFuture<Optional<VEPRecord>>> owned = new LinkedHashMap<>();
+            owned.put(variant, result);
+            // VEP is not expected to report a single variant under another input
+            runs.submit(owned, new UnmatchedRecords(), 0);
+            return result;
+        });
+    }
+
+    /**
+     * Fails the variants a request stopped annotating, after releasing them so that the requests
+     * following them can claim them. Variants that were already annotated are left as they are.
+     */
+    private void abandon(Map<String, CompletableFuture<Optional<VEPRecord>>> owned, Map<String, String> keys) {
+        owned.forEach((variant, result) -> {
+            inFlightVariants.remove(keys.get(variant), result);
+            result.completeExceptionally(new AnnotationAbandonedException());
+        });
+    }
+
+    // Why a variant was not annotated by the request that claimed it, which another request may retry
+    private static final class AnnotationAbandonedException extends Exception {
+
+        private static final long serialVersionUID = 1L;
+
+        AnnotationAbandonedException() {
+            super("Annotation was cancelled");
+        }
+    }
+
+    /**
+     * The chunks of a batch as sent to VEP, the format each is sent in, and for each variant the
+     * notation it is keyed under and why it is not sent, or null.
+     */
+    private record PreparedVariants(List<List<String>> chunks, List<String> formats, List<List<String>> keyedAs, List<List<String>> errors) {}
+
+    /**
+     * A variant as it is sent to VEP, or why it is not, the notation it is deduplicated, cached and
+     * stored under, and the outcome of its reference check, or null if it was not checked.
+     */
+    private record PreparedVariant(String variant, String keyedAs, String error, String check) {
+
+        PreparedVariant(String variant, String error, String check) {
+            this(variant, variant, error, check);
+        }
+    }
+
+    private PreparedVariants prepareVariants(VariantBatch batch) {
+        List<List<String>> chunks = new ArrayList<>(batch.chunks().size());
+        List<String> formats = new ArrayList<>(batch.chunks().size());
+        List<List<String>> keyedAs = new ArrayList<>(batch.chunks().size());
+        List<List<String>> errors = new ArrayList<>(batch.chunks().size());
+        for (int i = 0; i < batch.chunks().size(); i++) {
+            String format = batch.formats().get(i);
+            List<String> preparedChunk = new ArrayList<>(batch.chunks().get(i).size());
+            List<String> chunkKeyedAs = new ArrayList<>(batch.chunks().get(i).size());
+            List<String> chunkErrors = new ArrayList<>(batch.chunks().get(i).size());
+            for (String variant : batch.chunks().get(i)) {
+                PreparedVariant prepared = prepareVariant(format, variant);
+                if (prepared.check() != null) {
+                    metrics.recordReferenceCheck(prepared.check());
+                }
+                preparedChunk.add(prepared.variant());
+                chunkKeyedAs.add(prepared.keyedAs());
+                chunkErrors.add(prepared.error());
+            }
+            chunks.add(preparedChunk);
+            formats.add(getSentFormat(format));
+            keyedAs.add(chunkKeyedAs);
+            errors.add(chunkErrors);
+        }
+        return new PreparedVariants(chunks, formats, keyedAs, errors);
+    }
+
+    // In cache mode, genomic HGVS notations are sent to VEP as regions
+    private String getSentFormat(String format) {
+        return format.equals("hgvs") && vepConfiguration.mode == VEPConfiguration.Mode.Cache ? "region" : format;
+    }
+
+    /**
+     * In cache mode, converts a genomic HGVS notation to a region, rejecting any other notation,
+     * checks region and HGVS variants against the reference genome, including the reference allele
+     * an HGVS notation states, and renames their contig as the reference does. Indels are sent as
+     * they are requested but keyed left-aligned, so that the annotation of one notation serves the
+     * others without changing what VEP annotates. Other variants are sent as they are.
+     */
+    private PreparedVariant prepareVariant(String format, String variant) {
+        VariantNotationParser.Result parsed;
+        if (!getSentFormat(format).equals(format)) {
+            parsed = VariantNotationParser.parseHgvsg(variant);
+            if (!parsed.isValid()) {
+                return new PreparedVariant(variant, parsed.error(), null);
+            }
+        } else if (format.equals("region") && referenceGenome != null) {
+            parsed = VariantNotationParser.parseRegion(variant);
+            if (!parsed.isValid()) {
+                // notations the parser does not know are left for VEP to report
+                return new PreparedVariant(variant, null, null);
+            }
+        } else if (format.equals("vcf")) {
+            // VEP does not need the sample columns, which stay in the request's input
+            return new PreparedVariant(VcfReader.fixedColumns(variant), null, null);
+        } else {
+            return new PreparedVariant(variant, null, null);
+        }
+        if (referenceGenome == null) {
+            return new PreparedVariant(parsed.variant().region(), null, null);
+        }
+
+        Optional<String> error = referenceGenome.check(parsed.variant());
+        if (error.isPresent()) {
+            return new PreparedVariant(variant, error.get(), "rejected");
+        }
+        GenomicVariant canonical = referenceGenome.canonicalize(parsed.variant());
+        GenomicVariant normalized = vepConfiguration.referenceCheck.normalizeIndels()
+            ? referenceGenome.normalize(canonical)
+            : canonical;
+        if (normalized != canonical) {
+            return new PreparedVariant(canonical.region(), normalized.region(), null, "normalized");
+        }
+        return new PreparedVariant(canonical.region(), null, "passed");
+    }
+
+    /**
+     * The key the annotation of {@code variant}, requested in {@code format}, is stored under in the
+     * precomputed annotation store: that of the variant as it is keyed when sent to VEP, with a
+     * genomic HGVS notation converted to a region like {@link #getHgvsBatch} and
+     * {@link #prepareVariant} do, and left-aligned, so that a store built from one notation serves every notation annotated as the
+     * same variant.
+     */
+    public String getStoreKey(String format, String variant) {
+        if (format.equals("hgvs")) {
+            VariantNotationParser.Result parsed = VariantNotationParser.parseHgvsg(variant);
+            if (parsed.isValid() && (vepConfiguration.mode == VEPConfiguration.Mode.Cache || VariantBatch.isSentAsRegion(parsed.variant()))) {
+                format = "region";
+                variant = parsed.variant().region();
+            }
+        }
+        return PrecomputedAnnotations.key(format, prepareVariant(format, variant).keyedAs());
+    }
+
+    // The key under which the annotation of variant is deduplicated and cached
+    private static String variantKey(String keyPrefix, String format, String variant) {
+        return keyPrefix + VariantNotationParser.variantKey(format, variant);
+    }
+
+    /**
+     * The notation a record of VEP's reports that it annotates, read without parsing the rest of it,
+     * or null if it reports none.
+     */
+    static String readInput(String json) throws IOException {
+        try (JsonParser parser = OBJECT_MAPPER.getFactory().createParser(json)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                parser.nextToken();
+                if (field.equals("input")) {
+                    return parser.getValueAsString();
+                }
+                parser.skipChildren();
+            }
+            return null;
+        }
+    }
+
+    /**
+     * The annotation of {@code variant} as VEP produced it, reported under the notation it was
+     * requested as instead.
+     */
+    static String withInput(String json, String variant, String input) throws IOException {
+        ObjectNode record = (ObjectNode) OBJECT_MAPPER.readTree(json);
+        record.put("input", input);
+        if (variant != null && variant.equals(record.path("id").asText(null))) {
+            record.put("id", input);
+        }
+        return record.toString();
+    }
+
+    /**
+     * The error entry that stands in for the annotation of a variant VEP could not annotate.
+     */
+    static String errorRecord(String variant, String message) {
+        return JsonNodeFactory.instance.objectNode()
+            .put("input", variant)
+            .put("error", message)
+            .toString();
+    }
+
+    /**
+     * The VEP runs of one request. A run that failed transiently is retried after an exponential
+     * backoff. A run that VEP failed because of a variant in its input is split in half and both
+     * halves are run again, down to single variants, so that only the variants VEP cannot annotate
+     * end up with an error; each chunk may be split into at most
+     * {@code vep.execution.max-bisection-runs} extra runs. Runs that timed out or failed for any
+     * other reason fail all of their variants. Records are trimmed to the request's projection
+     * before they are matched up and cached. Once the request is aborted, the variants of runs that
+     * had not finished are abandoned to the requests following them.
+     */
+    private final class ChunkRuns {
+
+        private final List<String> flags;
+        private final String format;
+        private final FieldProjection projection;
+        private final int forks;
+        private final Submitter submitter;
+        // Key of every variant submitted here, by the notation it is sent to VEP in
+        private final Map<String, String> keys;
+        private final boolean cacheResults;
+        private final Queue<Future<VEPResult>> futures = new ConcurrentLinkedQueue<>();
+        private volatile boolean cancelled = false;
+
+        ChunkRuns(
+            List<String> flags,
+            String format,
+            FieldProjection projection,
+            int forks,
+            Submitter submitter,
+            Map<String, String> keys,
+            boolean cacheResults
+        ) {
+            this.flags = flags;
+            this.format = format;
+            this.projection = projection;
+            this.forks = forks;
+            this.submitter = submitter;
+            this.keys = keys;
+            this.cacheResults = cacheResults;
+        }
+
+        void submit(Map<String, CompletableFuture<Optional<VEPRecord>>> owned, UnmatchedRecords unmatched, int attempt) {
+            if (cancelled) {
+                abandon(owned, keys);
+                unmatched.runFinished(List.of());
+                return;
+            }
+            List<String> chunk = new ArrayList<>(owned.keySet());
+            try {
+                Future<VEPResult> future = coordinator != null
+                    ? coordinator.submit(chunk, format, projection, submitter, done -> complete(done, owned, unmatched, attempt))
+                    : vepExecutor.submit(
+                        createChunkTask(chunk, flags, format, projection),
+                        forks,
+                        chunk.size(),
+                        submitter,
+                        done -> complete(done, owned, unmatched, attempt)
+                    );
+                futures.add(future);
+                // the request may have been aborted while this run was being retried or split
+                if (cancelled) {
+                    future.cancel(true);
+                }
+            } catch (RejectedExecutionException e) {
+                completeVariants("Annotation was cancelled", List.of(), owned, unmatched, keys, cacheResults);
+            }
+        }
 
+        void cancel() {
+            cancelled = true;
+            VEPExecutor.cancelAll(futures);
+        }
+
+        private void complete(
+            Future<VEPResult> chunkFuture,
+            Map<String, CompletableFuture<Optional<VEPRecord>>> owned,
+            UnmatchedRecords unmatched,
+            int attempt
+        ) {
+            String error = null;
+            VEPResult.Failure failure = null;
+            List<VEPRecord> records = List.of();
+            try {
+                VEPResult result = chunkFuture.get();
+                if (result.getExitCode() != 0) {
+                    error = result.getOutput();
+                    failure = result.getFailure();
+                } else {
+                    long parseStart = System.nanoTime();
+                    records = result.getRecords();
+                    boolean addAlphaMissense = alphaMissense != null && projection.requestsAny(ALPHA_MISSENSE_FIELDS, vepConfiguration.fieldRenames);
+                    for (int i = 0; i < records.size(); i++) {
+                        VEPRecord record = addAlphaMissense ? alphaMissense.annotate(records.get(i)) : records.get(i);
+                        records.set(i, projection.apply(record));
+                    }
+                    metrics.recordPhase("parse", parseStart);
+                }
+            } catch (ExecutionException e) {
+                error = String.valueOf(e.getCause().getMessage());
+                failure = VEPResult.Failure.Transient;
+            } catch (CancellationException | InterruptedException e) {
+                error = "Annotation was cancelled";
+            } catch (JsonProcessingException e) {
+                error = "Could not parse VEP output: " + e.getOriginalMessage();
+            }
+
+            if (error != null && cancelled) {
+                // the request was aborted, so requests following these variants annotate them instead
+                abandon(owned, keys);
+                unmatched.runFinished(List.of());
+                return;
+            }
+            if (error != null) {
+                VEPConfiguration.ExecutionConfiguration config = vepConfiguration.execution;
+                if (failure == VEPResult.Failure.Transient && attempt < config.maxRetries()) {
+                    metrics.recordRetry();
+                    long backoff = config.retryBackoff().toMillis() << attempt;
+                    CompletableFuture.delayedExecutor(backoff, TimeUnit.MILLISECONDS)
+                        .execute(() -> submit(owned, unmatched, attempt + 1));
+                    return;
+                }
+                if (failure == VEPResult.Failure.Input && config.bisectFailedChunks() && owned.size() > 1
+                    && unmatched.trySplit(config.maxBisectionRuns())) {
+                    metrics.recordBisection();
+                    Map<String, CompletableFuture<Optional<VEPRecord>>> firstHalf = new LinkedHashMap<>();
+                    Map<String, CompletableFuture<Optional<VEPRecord>>> secondHalf = new LinkedHashMap<>();
+                    owned.forEach((variant, result) -> (firstHalf.size() < owned.size() / 2 ? firstHalf : secondHalf).put(variant, result));
+                    submit(firstHalf, unmatched, 0);
+                    submit(secondHalf, unmatched, 0);
+                    return;
+                }
+            }
+            completeVariants(error, records, owned, unmatched, keys, cacheResults);
+        }
+    }
+
+    // Records VEP reported under an input that was not sent, collected from every run of one chunk
+    private static final class UnmatchedRecords {
+
+        private final List<VEPRecord> collected = Collections.synchronizedList(new ArrayList<>());
+        private final AtomicInteger pendingRuns = new AtomicInteger(1);
+        private final AtomicInteger extraRuns = new AtomicInteger();
+        private final CompletableFuture<List<VEPRecord>> records = new CompletableFuture<>();
+
+        // Whether a run may be split into two more while staying within maxExtraRuns for the chunk
+        boolean trySplit(int maxExtraRuns) {
+            int previous = extraRuns.getAndUpdate(runs -> runs + 2 <= maxExtraRuns ? runs + 2 : runs);
+            if (previous + 2 > maxExtraRuns) {
+                return false;
+            }
+            pendingRuns.incrementAndGet();
+            return true;
+        }
+
+        void runFinished(List<VEPRecord> unmatched) {
+            collected.addAll(unmatched);
+            if (pendingRuns.decrementAndGet() == 0) {
+                records.complete(List.copyOf(collected));
+            }
+        }
+    }
+
+    /**
+     * Completes the futures of the variants a run annotated, or fails them all with {@code error}.
+     * Records VEP reported under an input that was not sent are handed back through {@code unmatched}.
+     */
+    private void completeVariants(
+        String error,
+        List<VEPRecord> records,
+        Map<String, CompletableFuture<Optional<VEPRecord>>> owned,
+        UnmatchedRecords unmatched,
+        Map<String, String> keys,
+        boolean cacheResults
+    ) {
+        try {
+            if (error != null) {
+                Exception exception = new Exception(error);
+                owned.values().forEach(variantResult -> variantResult.completeExceptionally(exception));
+                unmatched.runFinished(List.of());
+                return;
+            }
+
+            Map<String, VEPRecord> recordsByInput = new HashMap<>();
+            List<VEPRecord> unmatchedRecords = new ArrayList<>();
+            for (VEPRecord record : records) {
+                if (record.input() != null && owned.containsKey(record.input()) && !recordsByInput.containsKey(record.input())) {
+                    recordsByInput.put(record.input(), record);
+                } else {
+                    unmatchedRecords.add(record);
+                }
+            }
+            for (Map.Entry<String, CompletableFuture<Optional<VEPRecord>>> variant : owned.entrySet()) {
+                VEPRecord record = recordsByInput.get(variant.getKey());
+                if (record != null && cacheResults) {
+                    resultCache.put(keys.get(variant.getKey()), record.json());
+                }
+                variant.getValue().complete(Optional.ofNullable(record));
+            }
+            unmatched.runFinished(unmatchedRecords);
+        } finally {
+            owned.forEach((variant, variantResult) -> inFlightVariants.remove(keys.get(variant), variantResult));
+        }
+    }
+
+    // variant is keyed as prepared for VEP, so it has the key getStoreKey gives any of its notations
+    private Optional<String> getPrecomputed(String format, String variant, FieldProjection projection) {
+        if (precomputedAnnotations == null) {
+            return Optional.empty();
+        }
+        Optional<String> record = precomputedAnnotations.get(format, variant);
+        metrics.recordStoreLookup(record.isPresent());
+        try {
+            return record.isPresent() ? Optional.of(projection.apply(record.get())) : record;
+        } catch (JsonProcessingException e) {
+            LOG.warn("Could not read precomputed annotation of {}", variant, e);
+            return Optional.empty();
+        }
+    }
+
+    private Optional<String> getCacheNamespace() {
+        return resultCache.isEnabled() ? getAnnotationNamespace() : Optional.empty();
+    }
+
+    /**
+     * Identifies everything that affects an annotation besides the variant and its format: the VEP
+     * release, the mode, the annotation flags and the field renames. Empty if the VEP release
+     * cannot be determined.
+     */
+    Optional<String> getAnnotationNamespace() {
+        if (annotationNamespace == null) {
+            synchronized (this) {
+                if (annotationNamespace == null) {
+                    try {
+                        String annotationConfig = String.join(" ", getAnnotationFlags(FieldProjection.ALL)) + " " + new TreeMap<>(vepConfiguration.fieldRenames);
+                        if (usesAlphaMissenseLookup()) {
+                            annotationConfig += " alphamissense=" + vepConfiguration.alphaMissenseFilename.get();
+                        }
+                        annotationNamespace = "release=" + getVEPVersion()
+                            + ";mode=" + vepConfiguration.mode
+                            + ";config=" + VariantAnnotationCache.sha256(annotationConfig);
+                    } catch (Exception e) {
+                        LOG.warn("Could not determine VEP release, bypassing result cache and annotation store", e);
+                        return Optional.empty();
+                    }
+                }
+            }
+        }
+        return Optional.of(annotationNamespace);
+    }
+
+    /**
+     * Whether the node already has so much work queued that new requests should be rejected.
+     */
+    public boolean isOverloaded() {
+        return isOverloaded(Submitter.Lane.Bulk);
+    }
+
+    /**
+     * Whether new requests in {@code lane} should be rejected.
+     */
+    public boolean isOverloaded(Submitter.Lane lane) {
+        return vepExecutor.isOverloaded(lane) || coordinator != null && coordinator.isOverloaded(lane);
+    }
+
+    /**
+     * The lane a batch waits in when the caller did not choose one: by its size, shared with every
+     * other caller that did not name a client.
+     */
+    public Submitter getSubmitter(VariantBatch batch) {
+        return Submitter.of("", batch.size(), vepConfiguration.lanes);
+    }
+
+    /**
+     * Runs one chunk on this node's own VEP processes, bypassing the result cache, the annotation
+     * store and the coordinator, and returns VEP's records untrimmed. This is how a coordinator hands a
+     * chunk to a remote instance.
+     *
+     * @throws VEPOverloadedException if this node already has too much work queued
+     */
+    public VEPResult runChunk(List<String> chunk, String format, FieldProjection projection, Submitter submitter) throws InterruptedException {
+        if (vepExecutor.isOverloaded(submitter.lane())) {
+            throw new VEPOverloadedException();
+        }
+        int forks = vepExecutor.planForks(List.of(chunk));
+        Future<VEPResult> future = vepExecutor.submit(
+            createChunkTask(chunk, getChunkFlags(format, forks, projection), format, projection),
+            forks,
+            chunk.size(),
+            submitter,
+            done -> {}
+        );
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            return new VEPResult(String.valueOf(e.getCause().getMessage()), 500, VEPResult.Failure.Transient);
+        } catch (CancellationException e) {
+            return new VEPResult("Annotation was cancelled", 500, VEPResult.Failure.Transient);
+        } finally {
+            future.cancel(true);
+        }
+    }
+
+    private List<String> getChunkFlags(String format, int forks, FieldProjection projection) {
         List<String> flags = new ArrayList<>(Arrays.asList(
             "--output_file=STDOUT",
                 "--warning_file=STDERR",
-                "--everything",
-                "--hgvsg",
                 "--no_stats",
-                "--xref_refseq",
                 "--json",
                 "--format=" + format,
-                "--fork=" + vepConfiguration.forks
+                "--fork=" + forks
         ));
+        flags.addAll(getAnnotationFlags(projection));
+        return flags;
+    }
+
+    // Pooled workers run with every annotation flag, so chunks of a narrower projection spawn VEP with just its flags
+    private Callable<VEPResult> createChunkTask(List<String> chunk, List<String> flags, String format, FieldProjection projection) {
+        Callable<VEPResult> spawn = runVEP(new ArrayList<>(flags), chunk);
+        if (workerPool == null || !projection.isAll()) {
+            return spawn;
+        }
+        return () -> {
+            Optional<VEPResult> pooled = workerPool.annotate(chunk, format);
+            return pooled.isPresent() ? pooled.get() : spawn.call();
+        };
+    }
+
+    // Flags that determine the annotation content, shared by spawned VEP processes and pooled workers
+    private List<String> getAnnotationFlags(FieldProjection projection) {
+        List<String> flags = projection.isAll()
+            ? new ArrayList<>(Arrays.asList(
+                "--everything",
+                "--hgvsg",
+                "--xref_refseq"
+            ))
+            : new ArrayList<>(projection.getVepFlags(vepConfiguration.fieldRenames));
         switch (vepConfiguration.dataConfiguration) {
 			case VEPConfiguration.DatabaseConfiguration(int port, String host, String username, String password) -> {
                 Collections.addAll(
@@ -61,43 +1093,19 @@ public class VEPService {
                 );
             }
         }
-        if (vepConfiguration.polyphenSiftFilename.isPresent()) {
+        if (vepConfiguration.polyphenSiftFilename.isPresent() && projection.requestsAny(POLYPHEN_SIFT_FIELDS, vepConfiguration.fieldRenames)) {
             flags.add("--plugin=PolyPhen_SIFT,db=/plugin-data/" + vepConfiguration.polyphenSiftFilename.get());
         }
-        if (vepConfiguration.alphaMissenseFilename.isPresent()) {
+        if (vepConfiguration.alphaMissenseFilename.isPresent() && !usesAlphaMissenseLookup()
+            && projection.requestsAny(ALPHA_MISSENSE_FIELDS, vepConfiguration.fieldRenames)) {
             flags.add("--plugin=AlphaMissense,file=/plugin-data/" + vepConfiguration.alphaMissenseFilename.get());
         }
+        return flags;
+    }
 
-        for (List<String> chunk : variantChunks) {
-            List<String> chunkFlags = new ArrayList<>(flags);
-            chunkFlags.add("--input_data=" + chunk.stream().collect(Collectors.joining("\n")));
-            wrappers.add(runVEP(chunkFlags));
-        }
-
-        String output = "";
-        ExecutorService threadPool = Executors.newCachedThreadPool();
-        List<Future<VEPResult>> resultFutures = threadPool.invokeAll(wrappers);
-
-        Exception exception = null;
-        boolean allFailed = true;
-        for (Future<VEPResult> resultFuture : resultFutures) {
-            VEPResult result = resultFuture.get();
-            if (result.getExitCode() == 0) {
-                output += result.getOutput();
-                allFailed = false;
-            } else if (exception == null) { // Ensembl VEP API only returns first error, so copying behavior
-                exception = new Exception(result.getOutput());
-            }
-        }
-
-        if (allFailed) {
-            throw exception;
-        }
-
-        output = output.replace("sift_pred", "sift_prediction");
-        output = output.replace("polyphen_humvar_pred", "polyphen_prediction");
-        output = output.replace("polyphen_humvar_score", "polyphen_score");
-        return "[" + output.replace("\n{", ",{") + "]";
+    // AlphaMissense scores are added by AlphaMissenseAnnotator rather than VEP's plugin, unless it could not be opened
+    private boolean usesAlphaMissenseLookup() {
+        return alphaMissense != null;
     }
 
     public List<List<String>> getVariantChunks(List<String> variants, int chunkSize) {
@@ -118,28 +1126,63 @@ public class VEPService {
         return variantChunks;
     }
 
-    public List<List<String>> getVariantChunksByChromosome(List<String> variants) {
-        List<List<String>> variantChunks = new ArrayList<>();
-        for (int i = 0; i < 25; i++) {
-            variantChunks.add(new ArrayList<>());
+    /**
+     * Chunks HGVS notations for the HGVS endpoints. In cache mode, they are chunked like
+     * {@link #getVariantChunks}, and genomic notations are converted to regions as they are
+     * prepared; any other notation gets an error entry. In database mode,
+     * genomic notations are sent to VEP as regions and the rest are grouped by reference sequence
+     * (see {@link VariantBatch#planHgvs}).
+     */
+    public VariantBatch getHgvsBatch(List<String> notations) {
+        if (vepConfiguration.mode == VEPConfiguration.Mode.Cache) {
+            return VariantBatch.of(getVariantChunks(notations, 1), "hgvs");
         }
+        return VariantBatch.planHgvs(
+            notations,
+            vepConfiguration.hgvsMaxThreads,
+            vepConfiguration.execution.maxConcurrentChunks(),
+            vepConfiguration.execution.minRegionChunkSize()
+        );
+    }
 
-        for (String variant : variants) {
-            String chromosome = variant.split(":")[0];
-            if (chromosome.toLowerCase().equals("x")) {
-                variantChunks.get(23).add(variant);
-            } else if (chromosome.toLowerCase().equals( "y")) {
-                variantChunks.get(24).add(variant);
-            } else {
-                variantChunks.get(Integer.parseInt(chromosome)).add(variant);
-            }
-        }
-        return variantChunks.stream().filter(chunk -> chunk.size() > 0).collect(Collectors.toList());
+    /**
+     * Chunks region-format variants by genomic position, packing them into at most
+     * {@code vep.execution.max-concurrent-chunks} contiguous windows of similar size.
+     */
+    public List<List<String>> getVariantChunksByChromosome(List<String> variants) {
+        return RegionChunker.chunk(
+            variants,
+            vepConfiguration.execution.maxConcurrentChunks(),
+            vepConfiguration.execution.minRegionChunkSize()
+        );
     }
 
+    /**
+     * Chunks VCF data lines by position, like {@link #getVariantChunksByChromosome(List)}.
+     */
+    public List<List<String>> getVcfChunks(List<String> records) {
+        return RegionChunker.chunkVcf(
+            records,
+            vepConfiguration.execution.maxConcurrentChunks(),
+            vepConfiguration.execution.minRegionChunkSize()
+        );
+    }
+
+    /**
+     * The VEP release, probed by running VEP the first time it is needed and then kept, since it
+     * cannot change while the service runs.
+     */
     public int getVEPVersion() throws Exception {
+        Integer release = vepRelease;
+        if (release != null) {
+            return release;
+        }
+        if (coordinator != null) {
+            vepRelease = coordinator.getRelease();
+            return vepRelease;
+        }
         VEPResult result = runVEP(new ArrayList<>()).call();
-        if (result.getExitCode() == 1) {
+        if (result.getExitCode() != 0) {
             throw new Exception(result.getOutput());
         }
 
@@ -147,83 +1190,221 @@ public class VEPService {
         Pattern pattern = Pattern.compile(versionRegex);
         Matcher matcher = pattern.matcher(result.getOutput());
         if (matcher.find()) {
-            return Integer.parseInt(matcher.group(1));
+            vepRelease = Integer.parseInt(matcher.group(1));
+            return vepRelease;
         } else {
             throw new Exception("Version not found in VEP output");
         }
     }
 
+    /**
+     * Runs VEP once on region-format {@code variants} with every annotation flag, bypassing the
+     * annotation store, the result cache and the worker pool, so that all of VEP's data is loaded.
+     * The run waits in the bulk lane like any other chunk. In coordinator mode they are sent to a
+     * backend instead.
+     *
+     * @throws Exception if VEP fails or annotates none of the variants
+     */
+    void warmUp(List<String> variants) throws Exception {
+        Future<VEPResult> future = coordinator != null
+            ? coordinator.submit(variants, "region", FieldProjection.ALL, Submitter.bulk(""), done -> {})
+            : vepExecutor.submit(runVEP(getChunkFlags("region", 1, FieldProjection.ALL), variants), 1, variants.size(), Submitter.bulk(""), done -> {});
+        VEPResult result;
+        try {
+            result = future.get();
+        } catch (ExecutionException e) {
+            throw new Exception(e.getCause().getMessage(), e.getCause());
+        } finally {
+            future.cancel(true);
+        }
+        if (result.getExitCode() != 0) {
+            throw new Exception(result.getOutput());
+        }
+        if (result.getRecords().isEmpty()) {
+            throw new Exception("VEP did not annotate any warm-up variant");
+        }
+    }
+
+    /**
+     * The number of pre-warmed workers alive, or empty if the worker pool is disabled.
+     */
+    OptionalInt getLiveWorkers() {
+        return workerPool == null ? OptionalInt.empty() : OptionalInt.of(workerPool.getLiveWorkers());
+    }
+
     public Callable<VEPResult> runVEP(List<String> flags) {
+        return runVEP(flags, List.of());
+    }
+
+    /**
+     * Runs VEP on {@code input}, one variant per line, delivered as configured by
+     * {@code vep.execution.input-transport}. VEP's output is parsed into records as VEP writes it,
+     * so that it is never held whole; without input, such as when probing the VEP release, the
+     * output is returned as text.
+     */
+    public Callable<VEPResult> runVEP(List<String> flags, List<String> input) {
         return new Callable<VEPResult>() {
             @Override
             public VEPResult call() throws Exception {
-                String path = Paths.get("").toAbsolutePath().toString() + "/scripts/vep";
+                String path = Paths.get(vepConfiguration.execution.command()).toAbsolutePath().toString();
+                Duration timeout = vepExecutor.getChunkTimeout();
+                VEPConfiguration.InputTransport transport = vepConfiguration.execution.inputTransport();
 
                 String output = "";
+                VEPResult parsed = null;
                 int exitCode = 0;
+                VEPResult.Failure failure = null;
+                Process process = null;
+                Path inputFile = null;
                 try {
                     flags.add(0, path);
-                    Process process = new ProcessBuilder().command(flags).start();
-                         
-                    StringBuilder outputBuilder = new StringBuilder();
-                    StringBuilder errorBuilder = new StringBuilder();
-                    BufferedReader stdin = new BufferedReader(new InputStreamReader(process.getInputStream()));
-                    BufferedReader stderr = new BufferedReader(new InputStreamReader(process.getErrorStream()));
-
-                    String line = null;
-                    while ( (line = stdin.readLine()) != null) {
-                        outputBuilder.append(line);
-                        outputBuilder.append(System.getProperty("line.separator"));
+                    if (!input.isEmpty()) {
+                        switch (transport) {
+                            case Argument -> flags.add("--input_data=" + String.join("\n", input));
+                            case Stdin -> flags.add("--input_file=STDIN");
+                            case File -> {
+                                inputFile = writeInputFile(input);
+                                flags.add("--input_file=" + inputFile);
+                            }
+                        }
+                    }
+                    long spawnStart = System.nanoTime();
+                    process = new ProcessBuilder().command(flags).start();
+                    metrics.recordPhase("spawn", spawnStart);
+                    metrics.processStarted();
+                    CompletableFuture<Void> fed = CompletableFuture.completedFuture(null);
+                    if (transport == VEPConfiguration.InputTransport.Stdin && !input.isEmpty()) {
+                        fed = vepExecutor.feed(process.getOutputStream(), input);
+                    } else {
+                        process.getOutputStream().close();
                     }
-                    while ( (line = stderr.readLine()) != null) {
-                        errorBuilder.append(line);
-                        errorBuilder.append(System.getProperty("line.separator"));
-                    }    
-                    stdin.close();
-                    stderr.close();
-
-                    output = outputBuilder.toString();
-                    String error = errorBuilder.toString();
-                    if (!StringUtils.hasText(output) && StringUtils.hasText(error)) {
+
+                    long runStart = System.nanoTime();
+                    long deadline = runStart + timeout.toNanos();
+                    CountingInputStream stdoutBytes = new CountingInputStream(process.getInputStream());
+                    CompletableFuture<VEPResult> stdout = vepExecutor.drain(stdoutBytes, stream -> input.isEmpty()
+                        ? new VEPResult(new String(stream.readAllBytes(), StandardCharsets.UTF_8), 0)
+                        : VEPResult.parsed(readRecords(stream)));
+                    CompletableFuture<String> stderr = vepExecutor.drain(process.getErrorStream());
+                    if (!process.waitFor(timeout.toMillis(), TimeUnit.MILLISECONDS)) {
+                        destroy(process);
+                        return recordFailure(VEPResult.timedOut(timeout), input);
+                    }
+                    metrics.recordPhase("run", runStart);
+
+                    // the deadline also covers the output, which forked VEP children can hold open
+                    String error = stderr.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    String outputError = null;
+                    try {
+                        parsed = stdout.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    } catch (ExecutionException e) {
+                        outputError = e.getCause() instanceof UncheckedIOException io && io.getCause() instanceof JsonProcessingException json
+                            ? "Could not parse VEP output: " + json.getOriginalMessage()
+                            : "Could not read VEP output: " + e.getCause().getMessage();
+                    }
+                    metrics.recordOutputBytes(stdoutBytes.getCount());
+                    String inputError = getInputError(fed, deadline);
+                    boolean hasOutput = outputError != null
+                        || (parsed.getRecords() != null ? !parsed.getRecords().isEmpty() : StringUtils.hasText(parsed.getOutput()));
+                    if (!hasOutput && StringUtils.hasText(error)) {
                         output = parseVepError(error);
                         exitCode = 500;
+                        failure = VEPResult.classify(error);
+                    } else if (inputError != null) {
+                        // VEP stopped reading before the end of the chunk, so its output cannot cover all of it
+                        output = "Could not write VEP input: " + inputError;
+                        exitCode = 500;
+                        failure = VEPResult.Failure.Systemic;
+                    } else if (outputError != null) {
+                        output = outputError;
+                        exitCode = 500;
+                        failure = VEPResult.Failure.Systemic;
+                    }
+                } catch (TimeoutException e) {
+                    destroy(process);
+                    return recordFailure(VEPResult.timedOut(timeout), input);
+                } catch (IOException | UncheckedIOException e) {
+                    output = "Could not run VEP: " + e.getMessage();
+                    exitCode = 500;
+                    failure = VEPResult.Failure.Transient;
+                } catch (InterruptedException e) {
+                    // chunk was cancelled
+                    destroy(process);
+                    throw e;
+                } finally {
+                    if (process != null) {
+                        metrics.processFinished();
                     }
-                } catch (IOException e) {
-                    e.printStackTrace();
-                } 
+                    if (inputFile != null) {
+                        deleteInputFile(inputFile);
+                    }
+                }
 
-                return new VEPResult(output, exitCode);
+                return exitCode == 0 ? parsed : recordFailure(new VEPResult(output, exitCode, failure), input);
             }
         };
     }
 
-    private String parseVepError(String error) {
-        String warning = null;
-        String message = null;
+    private VEPResult recordFailure(VEPResult result, List<String> input) {
+        metrics.recordError(result.getFailure());
+        LOG.warn("VEP run of {} variants failed ({}): {}", input.size(), result.getFailure(), result.getOutput());
+        return result;
+    }
 
-        String warningRegex = "WARNING:\\s(.*)\\n";
-        Pattern pattern = Pattern.compile(warningRegex);
-        Matcher matcher = pattern.matcher(error);
-        if (matcher.find()) {
-            warning = matcher.group(1);
+    private List<VEPRecord> readRecords(InputStream stream) throws IOException {
+        List<VEPRecord> records = new ArrayList<>();
+        outputTransformer.transform(new InputStreamReader(stream, StandardCharsets.UTF_8), records::add);
+        return records;
+    }
+
+    // Why the chunk could not be written to VEP's standard input, or null if it was
+    private static String getInputError(CompletableFuture<Void> fed, long deadline) throws InterruptedException, TimeoutException {
+        try {
+            fed.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            return null;
+        } catch (ExecutionException e) {
+            return e.getCause() instanceof UncheckedIOException io ? io.getCause().getMessage() : e.getCause().getMessage();
         }
+    }
 
-        String messageRegex =  "MSG:\\s(.*)\\n";
-        pattern = Pattern.compile(messageRegex);
-        matcher = pattern.matcher(error);
-        if (matcher.find()) {
-            message = matcher.group(1);
+    // VEP's --fork children are not killed along with the process that started them
+    private static void destroy(Process process) {
+        if (process != null) {
+            process.descendants().forEach(ProcessHandle::destroyForcibly);
+            process.destroyForcibly();
         }
+    }
 
+    private Path writeInputFile(List<String> input) throws IOException {
+        String directory = vepConfiguration.execution.inputDirectory();
+        Path inputDirectory = directory.isBlank() ? Path.of(System.getProperty("java.io.tmpdir")) : Path.of(directory);
+        Files.createDirectories(inputDirectory);
+        Path inputFile = Files.createTempFile(inputDirectory, "vep-input-", ".txt");
+        Files.write(inputFile, input, StandardCharsets.UTF_8);
+        return inputFile;
+    }
+
+    private static void deleteInputFile(Path inputFile) {
+        try {
+            Files.deleteIfExists(inputFile);
+        } catch (IOException e) {
+            LOG.warn("Could not delete VEP input file {}", inputFile, e);
+        }
+    }
+
+    static String parseVepError(String error) {
         String output = "";
-        if (warning != null) {
-            output += warning;
-        } 
-        if (message != null) {
-            output += message;
-        } else {
-            output += "Error annotating variant";
+        Matcher matcher = WARNING_PATTERN.matcher(error);
+        if (matcher.find()) {
+            output += matcher.group(1);
         }
+        output += parseVepMessage(error).orElse("Error annotating variant");
         return output;
     }
+
+    // The MSG: line of a VEP exception, if any
+    static Optional<String> parseVepMessage(String error) {
+        Matcher matcher = MESSAGE_PATTERN.matcher(error);
+        return matcher.find() ? Optional.of(matcher.group(1)) : Optional.empty();
+    }
 }
\ No newline at end of file
@@ -0,0 +1,90 @@
+package org.genomenexus.vep_wrapper;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * Writes chunk results to a streaming response as they complete, either as newline-delimited JSON
+ * or as a JSON array that is flushed chunk by chunk. A failed chunk is written as an error record
+ * {@code {"error": ..., "chunk": ..., "variants": [...]}} in place of its annotations.
+ */
+public class VEPStreamWriter implements VEPResultHandler {
+
+    private final JsonFactory jsonFactory = new JsonFactory();
+    private final Writer writer;
+    private final boolean ndjson;
+    private final List<List<String>> variantChunks;
+    private boolean first = true;
+
+    public VEPStreamWriter(OutputStream out, boolean ndjson, List<List<String>> variantChunks) {
+        this.writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+        this.ndjson = ndjson;
+        this.variantChunks = variantChunks;
+    }
+
+    public void begin() throws IOException {
+        if (!ndjson) {
+            writer.write('[');
+            writer.flush();
+        }
+    }
+
+    public void end() throws IOException {
+        if (!ndjson) {
+            writer.write(']');
+        }
+        writer.flush();
+    }
+
+    @Override
+    public void onRecords(int chunk, List<VEPRecord> records) throws IOException {
+        for (VEPRecord record : records) {
+            writeRecord(record.json());
+        }
+        writer.flush();
+    }
+
+    @Override
+    public void onError(int chunk, String message) throws IOException {
+        writeSeparator();
+        JsonGenerator generator = jsonFactory.createGenerator(writer);
+        generator.writeStartObject();
+        generator.writeStringField("error", message);
+        generator.writeNumberField("chunk", chunk);
+        generator.writeArrayFieldStart("variants");
+        for (String variant : variantChunks.get(chunk)) {
+            generator.writeString(variant);
+        }
+        generator.writeEndArray();
+        generator.writeEndObject();
+        generator.flush();
+        writeTerminator();
+        writer.flush();
+    }
+
+    private void writeRecord(String json) throws IOException {
+        writeSeparator();
+        writer.write(json);
+        writeTerminator();
+    }
+
+    private void writeSeparator() throws IOException {
+        if (!ndjson && !first) {
+            writer.write(',');
+        }
+        first = false;
+    }
+
+    private void writeTerminator() throws IOException {
+        if (ndjson) {
+            writer.write('\n');
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package org.genomenexus.vep_wrapper;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+
+/**
+ * A long-lived VEP process that keeps its caches, database connections and plugins loaded
+ * between batches.
+ *
+ * Batches are exchanged over the worker's stdin/stdout one line at a time. The wrapper writes
+ * {@code #FORMAT <format>}, one variant per line and a terminating {@code #END} line. The worker
+ * answers with one JSON record per line followed by {@code #END}, or {@code #END <message>} if the
+ * batch could not be annotated. {@code #PING} is answered with {@code #PONG}.
+ */
+class VEPWorker implements Closeable {
+
+    static final String FORMAT = "#FORMAT";
+    static final String END = "#END";
+    static final String PING = "#PING";
+    static final String PONG = "#PONG";
+
+    private static final int MAX_STDERR_LINES = 50;
+
+    private final Process process;
+    private final BufferedWriter stdin;
+    private final BufferedReader stdout;
+    private final Deque<String> recentErrors = new ArrayDeque<>();
+    private int batches = 0;
+
+    private VEPWorker(Process process) {
+        this.process = process;
+        this.stdin = new BufferedWriter(new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8));
+        this.stdout = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+        Thread.ofVirtual().name("vep-worker-stderr-" + process.pid()).start(this::drainStderr);
+    }
+
+    static VEPWorker start(List<String> command) throws IOException {
+        return new VEPWorker(new ProcessBuilder().command(command).start());
+    }
+
+    /**
+     * Annotates a batch of variants, parsing each record with {@code transformer} as the worker
+     * answers it. An {@link IOException} means the worker died mid-batch and must not be reused.
+     */
+    VEPResult annotate(List<String> variants, String format, VEPOutputTransformer transformer) throws IOException {
+        stdin.write(FORMAT + " " + format);
+        stdin.newLine();
+        for (String variant : variants) {
+            stdin.write(variant);
+            stdin.newLine();
+        }
+        stdin.write(END);
+        stdin.newLine();
+        stdin.flush();
+
+        List<VEPRecord> records = new ArrayList<>();
+        String parseError = null;
+        String line;
+        while ((line = stdout.readLine()) != null) {
+            if (line.startsWith(END)) {
+                batches++;
+                String error = line.substring(END.length()).trim();
+                if (!error.isEmpty()) {
+                    return new VEPResult(error, 500, VEPResult.classify(error));
+                }
+                if (parseError != null) {
+                    return new VEPResult(parseError, 500, VEPResult.Failure.Systemic);
+                }
+                return VEPResult.parsed(records);
+            }
+            // the rest of the batch is still read, so that the worker is ready for the next one
+            if (parseError == null) {
+                try {
+                    transformer.transform(new StringReader(line), records::add);
+                } catch (JsonProcessingException e) {
+                    parseError = "Could not parse VEP output: " + e.getOriginalMessage();
+                }
+            }
+        }
+        throw new IOException("VEP worker exited mid-batch: " + getRecentErrors());
+    }
+
+    boolean ping() {
+        try {
+            stdin.write(PING);
+            stdin.newLine();
+            stdin.flush();
+            return PONG.equals(stdout.readLine());
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    boolean isAlive() {
+        return process.isAlive();
+    }
+
+    int getBatches() {
+        return batches;
+    }
+
+    long getPid() {
+        return process.pid();
+    }
+
+    String getRecentErrors() {
+        synchronized (recentErrors) {
+            return String.join("\n", recentErrors);
+        }
+    }
+
+    @Override
+    public void close() {
+        process.destroyForcibly();
+    }
+
+    private void drainStderr() {
+        try (BufferedReader stderr = new BufferedReader(new InputStreamReader(process.getErrorStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = stderr.readLine()) != null) {
+                synchronized (recentErrors) {
+                    if (recentErrors.size() == MAX_STDERR_LINES) {
+                        recentErrors.removeFirst();
+                    }
+                    recentErrors.addLast(line);
+                }
+            }
+        } catch (IOException e) {
+            // process was destroyed
+        }
+    }
+}
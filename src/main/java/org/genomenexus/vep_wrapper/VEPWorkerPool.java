@@ -0,0 +1,167 @@
+package org.genomenexus.vep_wrapper;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps a fixed number of pre-warmed {@link VEPWorker}s. Workers are recycled after
+ * {@code maxBatches} batches, after a crash, or when they fail a health check. Callers fall back to
+ * spawning a fresh VEP process whenever no worker could annotate their batch.
+ */
+class VEPWorkerPool implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(VEPWorkerPool.class);
+
+    private final VEPConfiguration.WorkerPoolConfiguration config;
+    private final List<String> command;
+    private final VEPOutputTransformer transformer;
+    private final Duration batchTimeout;
+    private final BlockingQueue<VEPWorker> idleWorkers = new LinkedBlockingQueue<>();
+    private final AtomicInteger liveWorkers = new AtomicInteger();
+    private final ScheduledExecutorService healthChecker = Executors.newSingleThreadScheduledExecutor(
+        Thread.ofPlatform().name("vep-worker-health").daemon().factory()
+    );
+    private volatile boolean closed = false;
+
+    VEPWorkerPool(
+        VEPConfiguration.WorkerPoolConfiguration config,
+        List<String> flags,
+        VEPOutputTransformer transformer,
+        Duration batchTimeout
+    ) {
+        this.config = config;
+        this.transformer = transformer;
+        this.batchTimeout = batchTimeout;
+        this.command = new ArrayList<>(flags);
+        this.command.add(0, Paths.get(config.command()).toAbsolutePath().toString());
+    }
+
+    void start() {
+        replenish();
+        long interval = config.healthCheckInterval().toMillis();
+        healthChecker.scheduleWithFixedDelay(this::checkHealth, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Annotates a batch on an idle worker. Returns empty if no worker became available within
+     * {@code acquireTimeout} or the worker crashed, in which case the caller should spawn VEP itself.
+     * A worker that exceeds the batch timeout is killed and the batch reported as timed out.
+     */
+    Optional<VEPResult> annotate(List<String> variants, String format) throws InterruptedException {
+        VEPWorker worker = idleWorkers.poll(config.acquireTimeout().toMillis(), TimeUnit.MILLISECONDS);
+        if (worker == null) {
+            return Optional.empty();
+        }
+
+        AtomicBoolean timedOut = new AtomicBoolean(false);
+        ScheduledFuture<?> watchdog = healthChecker.schedule(() -> {
+            timedOut.set(true);
+            worker.close();
+        }, batchTimeout.toMillis(), TimeUnit.MILLISECONDS);
+        try {
+            VEPResult result = worker.annotate(variants, format, transformer);
+            watchdog.cancel(false);
+            release(worker);
+            return Optional.of(result);
+        } catch (IOException e) {
+            watchdog.cancel(false);
+            retire(worker);
+            replenish();
+            if (timedOut.get()) {
+                return Optional.of(VEPResult.timedOut(batchTimeout));
+            }
+            LOG.warn("VEP worker {} crashed, recycling", worker.getPid(), e);
+            return Optional.empty();
+        }
+    }
+
+    int getLiveWorkers() {
+        return liveWorkers.get();
+    }
+
+    int getIdleWorkers() {
+        return idleWorkers.size();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        healthChecker.shutdownNow();
+        VEPWorker worker;
+        while ((worker = idleWorkers.poll()) != null) {
+            retire(worker);
+        }
+    }
+
+    void checkHealth() {
+        List<VEPWorker> workers = new ArrayList<>();
+        idleWorkers.drainTo(workers);
+        for (VEPWorker worker : workers) {
+            if (isHealthy(worker)) {
+                release(worker);
+            } else {
+                LOG.warn("VEP worker {} failed health check, recycling: {}", worker.getPid(), worker.getRecentErrors());
+                retire(worker);
+            }
+        }
+        replenish();
+    }
+
+    private boolean isHealthy(VEPWorker worker) {
+        if (!worker.isAlive()) {
+            return false;
+        }
+        try {
+            return CompletableFuture.supplyAsync(worker::ping, Thread::startVirtualThread)
+                .get(config.acquireTimeout().toMillis(), TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private void release(VEPWorker worker) {
+        if (closed) {
+            retire(worker);
+        } else if (worker.getBatches() >= config.maxBatches()) {
+            retire(worker);
+            replenish();
+        } else {
+            idleWorkers.add(worker);
+        }
+    }
+
+    private void retire(VEPWorker worker) {
+        worker.close();
+        liveWorkers.decrementAndGet();
+    }
+
+    private synchronized void replenish() {
+        while (!closed && liveWorkers.get() < config.size()) {
+            liveWorkers.incrementAndGet();
+            try {
+                idleWorkers.add(VEPWorker.start(command));
+            } catch (IOException e) {
+                liveWorkers.decrementAndGet();
+                LOG.error("Could not start VEP worker", e);
+                return;
+            }
+        }
+    }
+}
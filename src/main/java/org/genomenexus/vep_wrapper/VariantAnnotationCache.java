@@ -0,0 +1,227 @@
+package org.genomenexus.vep_wrapper;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+/**
+ * Per-variant cache of post-processed VEP records, one record per key. A bounded in-memory W-TinyLFU tier sits in front
+ * of an optional on-disk tier; both expire entries after {@code vep.result-cache.ttl}. Keys are
+ * built by the caller and must already include everything that affects the annotation (VEP release,
+ * mode, flags and input format).
+ */
+@Component
+public class VariantAnnotationCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(VariantAnnotationCache.class);
+
+    // Evict down to this fraction of max-disk-size once the limit is exceeded
+    private static final double DISK_LOW_WATERMARK = 0.9;
+
+    public record Stats(long memoryHits, long diskHits, long misses, long memoryEntries, long diskBytes) {}
+
+    private final VEPConfiguration.ResultCacheConfiguration config;
+    private final Cache<String, String> memory;
+    private final Optional<Path> diskDirectory;
+    private final AtomicLong diskBytes = new AtomicLong();
+    private final AtomicBoolean evictingDisk = new AtomicBoolean(false);
+    private final AtomicLong memoryHits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    @Autowired
+    public VariantAnnotationCache(VEPConfiguration vepConfiguration) {
+        this(vepConfiguration.resultCache);
+    }
+
+    VariantAnnotationCache(VEPConfiguration.ResultCacheConfiguration config) {
+        this.config = config;
+        this.memory = Caffeine.newBuilder()
+            .maximumWeight(config.maxMemorySize().toBytes())
+            .weigher((String key, String record) -> key.length() + record.length())
+            .expireAfterWrite(config.ttl())
+            .build();
+        this.diskDirectory = Optional.ofNullable(config.diskDirectory()).filter(dir -> !dir.isBlank()).map(Path::of);
+        if (config.enabled() && diskDirectory.isPresent()) {
+            Thread.ofVirtual().name("result-cache-disk-scan").start(this::scanDisk);
+        }
+    }
+
+    public boolean isEnabled() {
+        return config.enabled();
+    }
+
+    /**
+     * Returns the cached record JSON for {@code key}, promoting disk hits into memory.
+     */
+    public Optional<String> get(String key) {
+        String record = memory.getIfPresent(key);
+        if (record != null) {
+            memoryHits.incrementAndGet();
+            return Optional.of(record);
+        }
+
+        Optional<String> fromDisk = diskDirectory.flatMap(dir -> readFromDisk(dir, key));
+        if (fromDisk.isPresent()) {
+            diskHits.incrementAndGet();
+            memory.put(key, fromDisk.get());
+        } else {
+            misses.incrementAndGet();
+        }
+        return fromDisk;
+    }
+
+    public void put(String key, String record) {
+        memory.put(key, record);
+        diskDirectory.ifPresent(dir -> writeToDisk(dir, key, record));
+    }
+
+    public Stats getStats() {
+        return new Stats(memoryHits.get(), diskHits.get(), misses.get(), memory.estimatedSize(), diskBytes.get());
+    }
+
+    private Optional<String> readFromDisk(Path dir, String key) {
+        Path file = getDiskPath(dir, key);
+        try {
+            if (!Files.exists(file)) {
+                return Optional.empty();
+            }
+            FileTime written = Files.getLastModifiedTime(file);
+            if (written.toInstant().plus(config.ttl()).isBefore(Instant.now())) {
+                deleteFromDisk(file);
+                return Optional.empty();
+            }
+
+            try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                // First line holds the full key, guarding against hash collisions
+                if (!key.equals(reader.readLine())) {
+                    return Optional.empty();
+                }
+                return Optional.ofNullable(reader.readLine());
+            }
+        } catch (IOException e) {
+            LOG.warn("Could not read cached annotation {}", file, e);
+            return Optional.empty();
+        }
+    }
+
+    private void writeToDisk(Path dir, String key, String record) {
+        Path file = getDiskPath(dir, key);
+        try {
+            Files.createDirectories(file.getParent());
+            Path tmp = Files.createTempFile(file.getParent(), ".entry", ".tmp");
+            try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                writer.write(key);
+                writer.newLine();
+                writer.write(record);
+                writer.newLine();
+            }
+            long previousSize = Files.exists(file) ? Files.size(file) : 0;
+            long size = Files.size(tmp);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            if (diskBytes.addAndGet(size - previousSize) > config.maxDiskSize().toBytes()) {
+                evictDisk(dir);
+            }
+        } catch (IOException e) {
+            LOG.warn("Could not write cached annotation {}", file, e);
+        }
+    }
+
+    private void deleteFromDisk(Path file) throws IOException {
+        long size = size(file);
+        if (Files.deleteIfExists(file)) {
+            diskBytes.addAndGet(-size);
+        }
+    }
+
+    // Removes the least recently written entries until the disk tier is back under its low watermark
+    private void evictDisk(Path dir) {
+        if (!evictingDisk.compareAndSet(false, true)) {
+            return;
+        }
+        Thread.ofVirtual().name("result-cache-disk-evict").start(() -> {
+            long target = (long) (config.maxDiskSize().toBytes() * DISK_LOW_WATERMARK);
+            try (Stream<Path> files = Files.walk(dir)) {
+                List<Path> entries = files
+                    .filter(path -> path.toString().endsWith(".jsonl"))
+                    .sorted(Comparator.comparing(VariantAnnotationCache::lastModified))
+                    .toList();
+                for (Path entry : entries) {
+                    if (diskBytes.get() <= target) {
+                        break;
+                    }
+                    deleteFromDisk(entry);
+                }
+            } catch (IOException e) {
+                LOG.warn("Could not evict result cache entries from {}", dir, e);
+            } finally {
+                evictingDisk.set(false);
+            }
+        });
+    }
+
+    private void scanDisk() {
+        Path dir = diskDirectory.get();
+        if (!Files.isDirectory(dir)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(dir)) {
+            diskBytes.addAndGet(files.filter(path -> path.toString().endsWith(".jsonl")).mapToLong(VariantAnnotationCache::size).sum());
+        } catch (IOException e) {
+            LOG.warn("Could not scan result cache directory {}", dir, e);
+        }
+    }
+
+    private static Path getDiskPath(Path dir, String key) {
+        String hash = sha256(key);
+        return dir.resolve(hash.substring(0, 2)).resolve(hash + ".jsonl");
+    }
+
+    static String sha256(String value) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(value.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static FileTime lastModified(Path path) {
+        try {
+            return Files.getLastModifiedTime(path);
+        } catch (IOException e) {
+            return FileTime.from(Instant.EPOCH);
+        }
+    }
+
+    private static long size(Path path) {
+        try {
+            return Files.size(path);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+}
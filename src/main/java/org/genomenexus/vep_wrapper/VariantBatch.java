@@ -0,0 +1,140 @@
+package org.genomenexus.vep_wrapper;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The chunks of one request, each sent to VEP in its own input format. For every variant in a
+ * chunk, {@link #inputs()} holds the notation it was requested as, under which its annotation is
+ * reported, and {@link #positions()} its index in the request, by which a complete response is
+ * ordered.
+ */
+public record VariantBatch(
+    List<List<String>> chunks,
+    List<String> formats,
+    List<List<String>> inputs,
+    List<List<Integer>> positions
+) {
+
+    static final String MIXED_FORMAT = "mixed";
+
+    /**
+     * Chunks that are all in {@code format}, requested as they are, in chunk order.
+     */
+    public static VariantBatch of(List<List<String>> chunks, String format) {
+        List<List<Integer>> positions = new ArrayList<>(chunks.size());
+        int position = 0;
+        for (List<String> chunk : chunks) {
+            List<Integer> chunkPositions = new ArrayList<>(chunk.size());
+            for (int i = 0; i < chunk.size(); i++) {
+                chunkPositions.add(position++);
+            }
+            positions.add(chunkPositions);
+        }
+        return new VariantBatch(chunks, Collections.nCopies(chunks.size(), format), chunks, positions);
+    }
+
+    /**
+     * Plans a batch of HGVS notations for database mode. Genomic {@code g.} notations that
+     * {@link #isSentAsRegion} are converted to regions and chunked by position like
+     * {@code /vep/human/region}, which VEP annotates far more cheaply than HGVS. All other
+     * notations, such as transcript {@code c.} and protein {@code p.} notations or genomic ones
+     * that cannot be converted without changing how VEP annotates them, stay in HGVS format and are
+     * chunked by reference sequence, so that each VEP run looks up as few transcripts as possible:
+     * one chunk per reference sequence, or runs of consecutive reference sequences once there are
+     * more than {@code maxHgvsChunks} of them.
+     */
+    public static VariantBatch planHgvs(List<String> notations, int maxHgvsChunks, int maxRegionChunks, int minRegionChunkSize) {
+        List<String> regions = new ArrayList<>();
+        Map<String, Deque<Integer>> regionPositions = new HashMap<>();
+        Map<String, List<Integer>> hgvsGroups = new LinkedHashMap<>();
+        for (int i = 0; i < notations.size(); i++) {
+            VariantNotationParser.Result parsed = VariantNotationParser.parseHgvsg(notations.get(i));
+            if (parsed.isValid() && isSentAsRegion(parsed.variant())) {
+                String region = parsed.variant().region();
+                regions.add(region);
+                regionPositions.computeIfAbsent(region, key -> new ArrayDeque<>()).add(i);
+            } else {
+                hgvsGroups.computeIfAbsent(getReferenceSequence(notations.get(i)), key -> new ArrayList<>()).add(i);
+            }
+        }
+
+        List<List<String>> chunks = new ArrayList<>();
+        List<String> formats = new ArrayList<>();
+        List<List<String>> inputs = new ArrayList<>();
+        List<List<Integer>> positions = new ArrayList<>();
+        if (!regions.isEmpty()) {
+            for (List<String> chunk : RegionChunker.chunk(regions, maxRegionChunks, minRegionChunkSize)) {
+                List<Integer> chunkPositions = new ArrayList<>(chunk.size());
+                for (String region : chunk) {
+                    chunkPositions.add(regionPositions.get(region).remove());
+                }
+                addChunk(notations, chunk, "region", chunkPositions, chunks, formats, inputs, positions);
+            }
+        }
+
+        List<List<Integer>> hgvsChunks = new ArrayList<>(hgvsGroups.values());
+        if (hgvsChunks.size() > maxHgvsChunks) {
+            List<Integer> grouped = hgvsChunks.stream().flatMap(List::stream).toList();
+            int chunkSize = (grouped.size() + maxHgvsChunks - 1) / maxHgvsChunks;
+            hgvsChunks.clear();
+            for (int i = 0; i < grouped.size(); i += chunkSize) {
+                hgvsChunks.add(grouped.subList(i, Math.min(i + chunkSize, grouped.size())));
+            }
+        }
+        for (List<Integer> chunkPositions : hgvsChunks) {
+            List<String> chunk = chunkPositions.stream().map(notations::get).toList();
+            addChunk(notations, chunk, "hgvs", chunkPositions, chunks, formats, inputs, positions);
+        }
+        return new VariantBatch(chunks, formats, inputs, positions);
+    }
+
+    /**
+     * Whether a genomic HGVS variant is annotated as a region in database mode. Notations stating
+     * a reference are not, as VEP checks that reference only for HGVS input, and neither are
+     * duplications and inversions without a sequence, which as regions would be annotated as
+     * structural variants.
+     */
+    static boolean isSentAsRegion(GenomicVariant variant) {
+        return variant.ref() == null && !VariantNotationParser.isStructuralAllele(variant.allele());
+    }
+
+    /**
+     * The format of every chunk, or {@code mixed}.
+     */
+    public String format() {
+        return formats.stream().distinct().count() == 1 ? formats.getFirst() : MIXED_FORMAT;
+    }
+
+    public int size() {
+        return chunks.stream().mapToInt(List::size).sum();
+    }
+
+    // The accession before the first colon, such as a transcript or a chromosome
+    private static String getReferenceSequence(String notation) {
+        int colon = notation.indexOf(':');
+        return colon < 0 ? notation : notation.substring(0, colon).strip();
+    }
+
+    private static void addChunk(
+        List<String> notations,
+        List<String> chunk,
+        String format,
+        List<Integer> chunkPositions,
+        List<List<String>> chunks,
+        List<String> formats,
+        List<List<String>> inputs,
+        List<List<Integer>> positions
+    ) {
+        chunks.add(chunk);
+        formats.add(format);
+        inputs.add(chunkPositions.stream().map(notations::get).toList());
+        positions.add(chunkPositions);
+    }
+}
@@ -0,0 +1,314 @@
+package org.genomenexus.vep_wrapper;
+
+/**
+ * Hand-written parser for genomic HGVS ({@code <contig>:g.<position><change>}) and VEP region
+ * ({@code <contig>:<start>-<end>[:<strand>]/<allele>}) notations. Both are turned into a
+ * {@link GenomicVariant} in VEP region coordinates. Invalid notations are reported through
+ * {@link Result#error()} rather than exceptions, so that a batch of variants can be validated in a
+ * single pass without paying for a stack trace per bad variant.
+ *
+ * Supported HGVS changes:
+ * <ul>
+ *   <li>{@code 123A>T}: substitution</li>
+ *   <li>{@code 100_102del}, {@code 100del}, {@code 100_102delATG}: deletion</li>
+ *   <li>{@code 200_201insA}: insertion between two adjacent positions</li>
+ *   <li>{@code 123_124delinsAT}: deletion-insertion</li>
+ *   <li>{@code 100_102dup}, {@code 100_102dupATG}: duplication, as an insertion when the sequence is given</li>
+ *   <li>{@code 100_102inv}: inversion</li>
+ * </ul>
+ */
+final class VariantNotationParser {
+
+    record Result(GenomicVariant variant, String error) {
+
+        static Result valid(GenomicVariant variant) {
+            return new Result(variant, null);
+        }
+
+        static Result invalid(String error) {
+            return new Result(null, error);
+        }
+
+        boolean isValid() {
+            return variant != null;
+        }
+    }
+
+    private static final int INVALID = -1;
+
+    private VariantNotationParser() {}
+
+    static Result parseHgvsg(String notation) {
+        int from = skipWhitespace(notation, 0);
+        int to = trimWhitespace(notation, from);
+        int separator = notation.indexOf(":g.", from);
+        if (separator <= from || separator >= to) {
+            return invalidHgvsg(notation);
+        }
+        String contig = notation.substring(from, separator);
+
+        int cursor = separator + 3;
+        int positionEnd = scanDigits(notation, cursor, to);
+        int start = parsePosition(notation, cursor, positionEnd);
+        if (start == INVALID) {
+            return invalidHgvsg(notation);
+        }
+        int end = start;
+        cursor = positionEnd;
+        if (cursor < to && notation.charAt(cursor) == '_') {
+            positionEnd = scanDigits(notation, cursor + 1, to);
+            end = parsePosition(notation, cursor + 1, positionEnd);
+            if (end == INVALID || end < start) {
+                return invalidHgvsg(notation);
+            }
+            cursor = positionEnd;
+        }
+
+        if (cursor + 1 < to && notation.charAt(cursor + 1) == '>') {
+            // substitution, e.g. 123A>T
+            if (start != end || !isBase(notation.charAt(cursor))) {
+                return invalidHgvsg(notation);
+            }
+            String alt = parseBases(notation, cursor + 2, to);
+            String ref = parseBases(notation, cursor, cursor + 1);
+            return alt == null || alt.length() != 1 ? invalidHgvsg(notation) : valid(contig, start, end, ref, alt);
+        }
+        if (notation.startsWith("delins", cursor)) {
+            String alt = parseBases(notation, cursor + 6, to);
+            return alt == null ? invalidHgvsg(notation) : valid(contig, start, end, alt);
+        }
+        if (notation.startsWith("del", cursor)) {
+            // the deleted sequence is optional and not needed to describe the change
+            if (cursor + 3 == to) {
+                return valid(contig, start, end, "-");
+            }
+            String deleted = parseBases(notation, cursor + 3, to);
+            return deleted != null ? valid(contig, start, end, deleted, "-") : invalidHgvsg(notation);
+        }
+        if (notation.startsWith("ins", cursor)) {
+            String alt = parseBases(notation, cursor + 3, to);
+            if (alt == null || end != start + 1) {
+                return invalidHgvsg(notation);
+            }
+            return valid(contig, end, start, alt);
+        }
+        if (notation.startsWith("dup", cursor)) {
+            if (cursor + 3 == to) {
+                return valid(contig, start, end, "DUP");
+            }
+            String duplicated = parseBases(notation, cursor + 3, to);
+            if (duplicated == null || duplicated.length() != end - start + 1) {
+                return invalidHgvsg(notation);
+            }
+            return valid(contig, end + 1, end, duplicated);
+        }
+        if (notation.startsWith("inv", cursor) && cursor + 3 == to) {
+            return start == end ? invalidHgvsg(notation) : valid(contig, start, end, "INV");
+        }
+        return invalidHgvsg(notation);
+    }
+
+    static Result parseRegion(String notation) {
+        int from = skipWhitespace(notation, 0);
+        int to = trimWhitespace(notation, from);
+        int slash = notation.lastIndexOf('/', to - 1);
+        if (slash < from) {
+            return invalidRegion(notation);
+        }
+
+        // Drop the optional strand, leaving <contig>:<start>-<end>
+        int locationEnd = slash;
+        int strand = 1;
+        int lastColon = notation.lastIndexOf(':', locationEnd - 1);
+        if (lastColon > from) {
+            int parsedStrand = parseStrand(notation, lastColon + 1, locationEnd);
+            if (parsedStrand != 0 && notation.lastIndexOf(':', lastColon - 1) > from) {
+                strand = parsedStrand;
+                locationEnd = lastColon;
+                lastColon = notation.lastIndexOf(':', locationEnd - 1);
+            }
+        }
+        if (lastColon <= from) {
+            return invalidRegion(notation);
+        }
+
+        int dash = notation.indexOf('-', lastColon + 1);
+        if (dash < 0 || dash >= locationEnd) {
+            return invalidRegion(notation);
+        }
+        int start = parsePosition(notation, lastColon + 1, dash);
+        int end = parsePosition(notation, dash + 1, locationEnd);
+        if (start == INVALID || end == INVALID || end < start - 1) {
+            return invalidRegion(notation);
+        }
+
+        String contig = notation.substring(from, lastColon);
+        String allele = notation.substring(slash + 1, to);
+        if (allele.equals("-") || isStructuralAllele(allele)) {
+            return valid(contig, start, end, allele);
+        }
+        String bases = parseBases(notation, slash + 1, to);
+        if (bases == null) {
+            return invalidRegion(notation);
+        }
+        return valid(contig, start, end, strand < 0 ? reverseComplement(bases) : bases);
+    }
+
+    /**
+     * The key shared by every notation of {@code variant} in {@code format}, under which its
+     * annotation is deduplicated, cached and stored: a region or genomic HGVS notation as its
+     * {@link GenomicVariant#cacheKey()}, so that {@code chr7} and {@code 7}, the case of bases and
+     * surrounding whitespace do not matter, followed by the reference bases an HGVS notation states,
+     * which VEP checks. A VCF record is keyed by its {@code CHROM}, {@code POS}, {@code REF} and
+     * {@code ALT} columns, whatever its ID, INFO and sample columns. Other notations, such as
+     * transcript HGVS, are only stripped.
+     */
+    static String variantKey(String format, String variant) {
+        if (format.equals("vcf")) {
+            return vcfKey(variant);
+        }
+        Result parsed = switch (format) {
+            case "region" -> parseRegion(variant);
+            case "hgvs" -> parseHgvsg(variant);
+            default -> null;
+        };
+        if (parsed == null || !parsed.isValid()) {
+            return variant.strip();
+        }
+        GenomicVariant genomic = parsed.variant();
+        return genomic.ref() == null ? genomic.cacheKey() : genomic.cacheKey() + ":" + genomic.ref();
+    }
+
+    private static String vcfKey(String record) {
+        String[] columns = record.strip().split("\t", 6);
+        if (columns.length < 5) {
+            return record.strip();
+        }
+        return normalizeContig(columns[0]) + ":" + columns[1] + ":" + columns[3].toUpperCase() + ":" + columns[4].toUpperCase();
+    }
+
+    /**
+     * Normalizes contig aliases: drops a {@code chr} prefix and maps {@code M} to {@code MT}.
+     */
+    static String normalizeContig(String contig) {
+        String normalized = contig.regionMatches(true, 0, "chr", 0, 3) ? contig.substring(3) : contig;
+        if (normalized.equalsIgnoreCase("M") || normalized.equalsIgnoreCase("MT")) {
+            return "MT";
+        }
+        if (normalized.equalsIgnoreCase("X") || normalized.equalsIgnoreCase("Y")) {
+            return normalized.toUpperCase();
+        }
+        return normalized;
+    }
+
+    private static Result valid(String contig, int start, int end, String allele) {
+        return valid(contig, start, end, null, allele);
+    }
+
+    private static Result valid(String contig, int start, int end, String ref, String allele) {
+        return Result.valid(GenomicVariant.of(contig, start, end, ref, allele));
+    }
+
+    private static Result invalidHgvsg(String notation) {
+        return Result.invalid("Invalid HGVSg format: " + notation);
+    }
+
+    private static Result invalidRegion(String notation) {
+        return Result.invalid("Invalid region format: " + notation);
+    }
+
+    private static int scanDigits(String value, int from, int to) {
+        int i = from;
+        while (i < to && value.charAt(i) >= '0' && value.charAt(i) <= '9') {
+            i++;
+        }
+        return i;
+    }
+
+    // Parses a positive position in [from, to), or returns INVALID
+    private static int parsePosition(String value, int from, int to) {
+        if (from >= to) {
+            return INVALID;
+        }
+        long position = 0;
+        for (int i = from; i < to; i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return INVALID;
+            }
+            position = position * 10 + (c - '0');
+            if (position > Integer.MAX_VALUE) {
+                return INVALID;
+            }
+        }
+        return position == 0 ? INVALID : (int) position;
+    }
+
+    private static int parseStrand(String value, int from, int to) {
+        return switch (value.substring(from, to)) {
+            case "1", "+1", "+" -> 1;
+            case "-1", "-" -> -1;
+            default -> 0;
+        };
+    }
+
+    // Returns the upper-cased bases in [from, to), or null if the range is empty or not all bases
+    private static String parseBases(String value, int from, int to) {
+        if (from >= to) {
+            return null;
+        }
+        boolean upperCase = true;
+        for (int i = from; i < to; i++) {
+            char c = value.charAt(i);
+            if (!isBase(c)) {
+                return null;
+            }
+            upperCase &= c < 'a';
+        }
+        String bases = value.substring(from, to);
+        return upperCase ? bases : bases.toUpperCase();
+    }
+
+    private static boolean isBase(char c) {
+        return switch (c) {
+            case 'A', 'C', 'G', 'T', 'N', 'a', 'c', 'g', 't', 'n' -> true;
+            default -> false;
+        };
+    }
+
+    static boolean isStructuralAllele(String allele) {
+        return switch (allele) {
+            case "DEL", "DUP", "TDUP", "INS", "INV", "CNV" -> true;
+            default -> false;
+        };
+    }
+
+    private static String reverseComplement(String bases) {
+        char[] complement = new char[bases.length()];
+        for (int i = 0; i < complement.length; i++) {
+            complement[complement.length - 1 - i] = switch (bases.charAt(i)) {
+                case 'A' -> 'T';
+                case 'C' -> 'G';
+                case 'G' -> 'C';
+                case 'T' -> 'A';
+                default -> 'N';
+            };
+        }
+        return new String(complement);
+    }
+
+    private static int skipWhitespace(String value, int from) {
+        while (from < value.length() && Character.isWhitespace(value.charAt(from))) {
+            from++;
+        }
+        return from;
+    }
+
+    private static int trimWhitespace(String value, int from) {
+        int to = value.length();
+        while (to > from && Character.isWhitespace(value.charAt(to - 1))) {
+            to--;
+        }
+        return to;
+    }
+}
@@ -0,0 +1,178 @@
+package org.genomenexus.vep_wrapper;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads a VCF, plain or gzip/bgzip compressed, line by line from a stream. Only the eight fixed
+ * columns of each record are kept in memory ({@code CHROM} to {@code INFO}); genotype columns,
+ * which make up most of a cohort VCF, are dropped as the record is read since VEP does not need
+ * them, or spilled to a {@link VcfSampleColumns} file for an annotated VCF to pass them through.
+ */
+final class VcfReader {
+
+    static final String COLUMN_HEADER = "#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO";
+
+    private static final int FIXED_COLUMNS = 8;
+    private static final int REQUIRED_COLUMNS = 5;
+    private static final int MAX_ERRORS = 100;
+
+    /**
+     * @param metaHeaders   the {@code ##} header lines
+     * @param columnHeader  the {@code #CHROM} header line, or {@link #COLUMN_HEADER} if there is none
+     * @param records       the data lines, cut or padded to the eight fixed columns
+     * @param sampleColumns the columns cut from each record, or null if they were dropped
+     * @param errors        descriptions of malformed lines, at most {@value #MAX_ERRORS}
+     */
+    record Vcf(
+        List<String> metaHeaders,
+        String columnHeader,
+        List<String> records,
+        VcfSampleColumns sampleColumns,
+        List<String> errors
+    ) implements Closeable {
+
+        @Override
+        public void close() throws IOException {
+            if (sampleColumns != null) {
+                sampleColumns.close();
+            }
+        }
+    }
+
+    private VcfReader() {}
+
+    static Vcf read(InputStream in) throws IOException {
+        return read(in, false);
+    }
+
+    /**
+     * @param keepSampleColumns whether to spill the {@code FORMAT} and sample columns of the records
+     *                          rather than drop them
+     */
+    static Vcf read(InputStream in, boolean keepSampleColumns) throws IOException {
+        VcfSampleColumns sampleColumns = keepSampleColumns ? new VcfSampleColumns() : null;
+        try {
+            return read(in, sampleColumns);
+        } catch (IOException | RuntimeException e) {
+            if (sampleColumns != null) {
+                sampleColumns.close();
+            }
+            throw e;
+        }
+    }
+
+    private static Vcf read(InputStream in, VcfSampleColumns sampleColumns) throws IOException {
+        BufferedInputStream buffered = new BufferedInputStream(in);
+        InputStream decompressed = isGzip(buffered) ? new GZIPInputStream(buffered, 64 * 1024) : buffered;
+        BufferedReader reader = new BufferedReader(new InputStreamReader(decompressed, StandardCharsets.UTF_8));
+
+        List<String> metaHeaders = new ArrayList<>();
+        String columnHeader = COLUMN_HEADER;
+        List<String> records = new ArrayList<>();
+        List<String> errors = new ArrayList<>();
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (line.startsWith("##")) {
+                metaHeaders.add(line);
+            } else if (line.startsWith("#CHROM")) {
+                columnHeader = line;
+            } else if (line.startsWith("#") || line.isBlank()) {
+                continue;
+            } else {
+                String record = toFixedColumns(line);
+                if (record != null) {
+                    records.add(record);
+                    if (sampleColumns != null) {
+                        sampleColumns.add(line, Math.min(record.length() + 1, line.length()));
+                    }
+                } else if (errors.size() < MAX_ERRORS) {
+                    errors.add("Invalid VCF record on line " + lineNumber + ": " + abbreviate(line));
+                }
+            }
+        }
+        if (sampleColumns != null) {
+            sampleColumns.finish();
+        }
+        return new Vcf(metaHeaders, columnHeader, records, sampleColumns, errors);
+    }
+
+    // Returns the first eight columns of a data line, padding missing optional ones with '.', or null if it is malformed
+    static String toFixedColumns(String line) {
+        int columns = 0;
+        int end = -1;
+        while (columns < FIXED_COLUMNS) {
+            int tab = line.indexOf('\t', end + 1);
+            int columnEnd = tab < 0 ? line.length() : tab;
+            if (columnEnd == end + 1) {
+                return null;
+            }
+            if (columns == 1 && !isPosition(line, end + 1, columnEnd)) {
+                return null;
+            }
+            columns++;
+            end = columnEnd;
+            if (tab < 0) {
+                break;
+            }
+        }
+        if (columns < REQUIRED_COLUMNS) {
+            return null;
+        }
+
+        StringBuilder record = new StringBuilder(end + 2 * (FIXED_COLUMNS - columns)).append(line, 0, end);
+        for (int i = columns; i < FIXED_COLUMNS; i++) {
+            record.append("\t.");
+        }
+        return record.toString();
+    }
+
+    // The eight fixed columns of a record, without its FORMAT and sample columns
+    static String fixedColumns(String record) {
+        return record.substring(0, infoEnd(record));
+    }
+
+    // The end of a record's INFO column
+    private static int infoEnd(String record) {
+        int end = -1;
+        for (int i = 0; i < FIXED_COLUMNS; i++) {
+            end = record.indexOf('\t', end + 1);
+            if (end < 0) {
+                return record.length();
+            }
+        }
+        return end;
+    }
+
+    private static boolean isPosition(String line, int from, int to) {
+        for (int i = from; i < to; i++) {
+            char c = line.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isGzip(BufferedInputStream in) throws IOException {
+        in.mark(2);
+        int first = in.read();
+        int second = in.read();
+        in.reset();
+        return first == 0x1f && second == 0x8b;
+    }
+
+    private static String abbreviate(String line) {
+        return line.length() > 80 ? line.substring(0, 80) + "..." : line;
+    }
+}
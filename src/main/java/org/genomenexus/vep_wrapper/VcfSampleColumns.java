@@ -0,0 +1,82 @@
+package org.genomenexus.vep_wrapper;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * The {@code FORMAT} and sample columns of the records of a VCF, by record index, appended to a
+ * temporary file as the records are read, so that the genotypes of a cohort VCF never reach the
+ * heap. Only an offset per record is held in memory. {@link #finish()} makes them readable, and
+ * {@link #close()} deletes the file.
+ */
+final class VcfSampleColumns implements Closeable {
+
+    private final Path file;
+    private final OutputStream out;
+    private FileChannel channel;
+    // Record i spans offsets[i] to offsets[i + 1] of the file
+    private long[] offsets = new long[1024];
+    private int size = 0;
+
+    VcfSampleColumns() throws IOException {
+        this.file = Files.createTempFile("vcf-samples", ".tsv");
+        this.out = new BufferedOutputStream(Files.newOutputStream(file), 64 * 1024);
+    }
+
+    /**
+     * Appends the columns of the next record, empty if it has none.
+     */
+    void add(String line, int from) throws IOException {
+        byte[] columns = line.substring(from).getBytes(StandardCharsets.UTF_8);
+        out.write(columns);
+        if (size + 1 == offsets.length) {
+            offsets = Arrays.copyOf(offsets, offsets.length * 2);
+        }
+        offsets[size + 1] = offsets[size] + columns.length;
+        size++;
+    }
+
+    void finish() throws IOException {
+        out.close();
+        channel = FileChannel.open(file, StandardOpenOption.READ);
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * The columns of record {@code record}, without a leading tab, or the empty string if it has none.
+     */
+    String get(int record) throws IOException {
+        ByteBuffer columns = ByteBuffer.allocate(Math.toIntExact(offsets[record + 1] - offsets[record]));
+        while (columns.hasRemaining()) {
+            if (channel.read(columns, offsets[record] + columns.position()) < 0) {
+                throw new EOFException("Sample columns of record " + record + " are truncated");
+            }
+        }
+        return new String(columns.array(), StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            out.close();
+            if (channel != null) {
+                channel.close();
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
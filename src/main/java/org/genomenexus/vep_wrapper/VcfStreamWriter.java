@@ -0,0 +1,221 @@
+package org.genomenexus.vep_wrapper;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Writes chunk results as an annotated VCF: the input records, with their sample columns read back
+ * from {@link VcfSampleColumns}, with a VEP-style {@code CSQ} INFO field added. VCF records must stay in order, so a chunk that completes before the chunks in front
+ * of it is held back until they have been written. Records of a failed chunk, and records VEP could
+ * not annotate within an otherwise successful chunk, are written unannotated with a {@code VEP_ERROR}
+ * INFO field.
+ */
+public class VcfStreamWriter implements VEPResultHandler {
+
+    static final String[] CSQ_FIELDS = {
+        "Allele", "Consequence", "IMPACT", "SYMBOL", "Gene", "Feature_type", "Feature", "BIOTYPE", "HGVSc", "HGVSp"
+    };
+
+    // Everything the CSQ fields are built from, so VEP is not run with more than they need
+    static final FieldProjection CSQ_PROJECTION = FieldProjection.of(List.of(
+        "consequence_terms", "impact", "gene_symbol", "biotype", "hgvsc", "hgvsp", "regulatory_feature_consequences"
+    ));
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Writer writer;
+    private final List<String> metaHeaders;
+    private final String columnHeader;
+    private final VcfSampleColumns sampleColumns;
+    // Input index of every record with sample columns, in input order among equal records
+    private final Map<String, Deque<Integer>> recordIndexes = new HashMap<>();
+    private final List<List<String>> variantChunks;
+    private final Map<Integer, List<VEPRecord>> pendingRecords = new HashMap<>();
+    private final Map<Integer, String> pendingErrors = new HashMap<>();
+    private int nextChunk = 0;
+
+    /**
+     * @param vcf           the VCF the records were read from
+     * @param variantChunks its records, as chunked for VEP
+     */
+    public VcfStreamWriter(OutputStream out, VcfReader.Vcf vcf, List<List<String>> variantChunks) {
+        this.writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+        this.metaHeaders = vcf.metaHeaders();
+        this.columnHeader = vcf.columnHeader();
+        this.sampleColumns = vcf.sampleColumns();
+        this.variantChunks = variantChunks;
+        if (sampleColumns != null) {
+            for (int i = 0; i < vcf.records().size(); i++) {
+                recordIndexes.computeIfAbsent(vcf.records().get(i), key -> new ArrayDeque<>(1)).add(i);
+            }
+        }
+    }
+
+    public void begin() throws IOException {
+        boolean hasFileFormat = false;
+        for (String header : metaHeaders) {
+            hasFileFormat |= header.startsWith("##fileformat=");
+        }
+        if (!hasFileFormat) {
+            writer.write("##fileformat=VCFv4.2\n");
+        }
+        for (String header : metaHeaders) {
+            writer.write(header);
+            writer.write('\n');
+        }
+        writer.write("##INFO=<ID=CSQ,Number=.,Type=String,Description=\"Consequence annotations from Ensembl VEP. Format: "
+            + String.join("|", CSQ_FIELDS) + "\">\n");
+        writer.write("##INFO=<ID=VEP_ERROR,Number=1,Type=String,Description=\"Why the record could not be annotated\">\n");
+        writer.write(columnHeader);
+        writer.write('\n');
+        writer.flush();
+    }
+
+    public void end() throws IOException {
+        writer.flush();
+    }
+
+    @Override
+    public void onRecords(int chunk, List<VEPRecord> records) throws IOException {
+        pendingRecords.put(chunk, records);
+        writeReadyChunks();
+    }
+
+    @Override
+    public void onError(int chunk, String message) throws IOException {
+        pendingErrors.put(chunk, message);
+        writeReadyChunks();
+    }
+
+    private void writeReadyChunks() throws IOException {
+        while (pendingRecords.containsKey(nextChunk) || pendingErrors.containsKey(nextChunk)) {
+            List<VEPRecord> records = pendingRecords.remove(nextChunk);
+            if (records != null) {
+                writeAnnotated(variantChunks.get(nextChunk), records);
+            } else {
+                String info = "VEP_ERROR=" + escape(pendingErrors.remove(nextChunk));
+                for (String record : variantChunks.get(nextChunk)) {
+                    writeRecord(record, info);
+                }
+            }
+            nextChunk++;
+        }
+        writer.flush();
+    }
+
+    private void writeAnnotated(List<String> chunk, List<VEPRecord> records) throws IOException {
+        Map<String, String> annotations = new HashMap<>();
+        for (VEPRecord record : records) {
+            if (record.input() != null) {
+                annotations.putIfAbsent(record.input(), record.json());
+            }
+        }
+        for (String record : chunk) {
+            String json = annotations.get(record);
+            writeRecord(record, json == null ? null : toInfo(objectMapper.readTree(json)));
+        }
+    }
+
+    private void writeRecord(String record, String info) throws IOException {
+        if (info == null) {
+            writer.write(record);
+        } else {
+            int infoStart = record.lastIndexOf('\t') + 1;
+            writer.write(record, 0, infoStart);
+            if (record.length() > infoStart && !record.substring(infoStart).equals(".")) {
+                writer.write(record, infoStart, record.length() - infoStart);
+                writer.write(';');
+            }
+            writer.write(info);
+        }
+        Deque<Integer> indexes = recordIndexes.get(record);
+        if (indexes != null) {
+            String columns = sampleColumns.get(indexes.remove());
+            if (!columns.isEmpty()) {
+                writer.write('\t');
+                writer.write(columns);
+            }
+        }
+        writer.write('\n');
+    }
+
+    // An error entry stands in for the annotation of a record VEP could not annotate
+    private static String toInfo(JsonNode annotation) {
+        if (annotation.has("error")) {
+            return "VEP_ERROR=" + escape(annotation.path("error").asText());
+        }
+        return "CSQ=" + toCsq(annotation);
+    }
+
+    static String toCsq(JsonNode annotation) {
+        StringBuilder csq = new StringBuilder();
+        for (String consequenceType : List.of("transcript_consequences", "regulatory_feature_consequences", "intergenic_consequences")) {
+            for (JsonNode consequence : annotation.path(consequenceType)) {
+                if (!csq.isEmpty()) {
+                    csq.append(',');
+                }
+                appendField(csq, consequence.path("variant_allele"));
+                csq.append('|');
+                appendField(csq, consequence.path("consequence_terms"));
+                csq.append('|');
+                appendField(csq, consequence.path("impact"));
+                csq.append('|');
+                appendField(csq, consequence.path("gene_symbol"));
+                csq.append('|');
+                appendField(csq, consequence.path("gene_id"));
+                csq.append('|');
+                csq.append(switch (consequenceType) {
+                    case "transcript_consequences" -> "Transcript";
+                    case "regulatory_feature_consequences" -> "RegulatoryFeature";
+                    default -> "";
+                });
+                csq.append('|');
+                appendField(csq, consequence.has("transcript_id") ? consequence.path("transcript_id") : consequence.path("regulatory_feature_id"));
+                csq.append('|');
+                appendField(csq, consequence.path("biotype"));
+                csq.append('|');
+                appendField(csq, consequence.path("hgvsc"));
+                csq.append('|');
+                appendField(csq, consequence.path("hgvsp"));
+            }
+        }
+        return csq.toString();
+    }
+
+    private static void appendField(StringBuilder csq, JsonNode value) {
+        if (value.isArray()) {
+            for (int i = 0; i < value.size(); i++) {
+                if (i > 0) {
+                    csq.append('&');
+                }
+                csq.append(escape(value.get(i).asText()));
+            }
+        } else if (!value.isMissingNode() && !value.isNull()) {
+            csq.append(escape(value.asText()));
+        }
+    }
+
+    // Characters with a meaning in INFO values are replaced, following VEP's own VCF output
+    private static String escape(String value) {
+        StringBuilder escaped = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            escaped.append(switch (c) {
+                case ',' -> '&';
+                case ';', '=', '|', ' ', '\t', '\n' -> '_';
+                default -> c;
+            });
+        }
+        return escaped.toString();
+    }
+}
@@ -1,15 +1,20 @@
 package org.genomenexus.vep_wrapper;
 
+import org.springframework.boot.DefaultApplicationArguments;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.ConfigurableApplicationContext;
 
 @SpringBootApplication
 @EnableConfigurationProperties(VEPConfiguration.class)
 public class VepWrapperApplication {
 
 	public static void main(String[] args) {
-		SpringApplication.run(VepWrapperApplication.class, args);
+		ConfigurableApplicationContext context = SpringApplication.run(VepWrapperApplication.class, args);
+		if (AnnotationStoreBuildCommand.isBuild(new DefaultApplicationArguments(args))) {
+			System.exit(SpringApplication.exit(context));
+		}
 	}
 
 }
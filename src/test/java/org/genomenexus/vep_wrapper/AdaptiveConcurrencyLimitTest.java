@@ -0,0 +1,67 @@
+package org.genomenexus.vep_wrapper;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+public class AdaptiveConcurrencyLimitTest {
+
+    private static final long MILLISECOND = 1_000_000L;
+
+    @Test
+    void testGrowsWhileLatencyIsStable() {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(4, 1, 10, 2.0);
+        for (int i = 0; i < 100; i++) {
+            limit.onSample(100 * MILLISECOND, 10, false);
+        }
+        assertEquals(10, limit.getLimit());
+    }
+
+    @Test
+    void testBacksOffWhenLatencyRises() {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(8, 1, 10, 2.0);
+        limit.onSample(100 * MILLISECOND, 10, false);
+        int before = limit.getLimit();
+
+        limit.onSample(500 * MILLISECOND, 10, false);
+
+        assertTrue(limit.getLimit() < before);
+    }
+
+    @Test
+    void testLatencyIsNormalizedByChunkSize() {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(8, 1, 10, 2.0);
+        limit.onSample(100 * MILLISECOND, 10, false);
+
+        // Ten times slower, but for ten times as many variants
+        limit.onSample(1_000 * MILLISECOND, 100, false);
+
+        assertEquals(8, limit.getLimit());
+    }
+
+    @Test
+    void testMixedChunkSizesDoNotCollapseLimit() {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(4, 1, 10, 2.0);
+        // steady load: VEP takes 2s to start, then 50ms per variant
+        for (int i = 0; i < 100; i++) {
+            limit.onSample(2_000 * MILLISECOND + 200 * 50 * MILLISECOND, 200, false);
+            limit.onSample(2_000 * MILLISECOND + 50 * MILLISECOND, 1, false);
+            limit.onSample(2_000 * MILLISECOND + 3 * 50 * MILLISECOND, 3, false);
+        }
+        assertEquals(10, limit.getLimit());
+
+        // a slowdown is still noticed in single-variant chunks
+        limit.onSample(10_000 * MILLISECOND, 1, false);
+        assertTrue(limit.getLimit() < 10);
+    }
+
+    @Test
+    void testFailuresNeverDropBelowMinimum() {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(8, 2, 10, 2.0);
+        for (int i = 0; i < 20; i++) {
+            limit.onSample(MILLISECOND, 1, true);
+        }
+        assertEquals(2, limit.getLimit());
+    }
+}
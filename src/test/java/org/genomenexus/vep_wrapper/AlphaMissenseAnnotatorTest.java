@@ -0,0 +1,174 @@
+package org.genomenexus.vep_wrapper;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Optional;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
+
+public class AlphaMissenseAnnotatorTest {
+
+    private static final String PREDICTIONS = """
+        # Copyright 2023 DeepMind Technologies Limited
+        #CHROM\tPOS\tREF\tALT\tgenome\tuniprot_id\ttranscript_id\tprotein_variant\tam_pathogenicity\tam_class
+        chr7\t140453136\tA\tC\thg19\tP15056\tENST00000288602.6\tV600G\t0.9990\tpathogenic
+        chr7\t140453136\tA\tT\thg19\tP15056\tENST00000288602.6\tV600E\t0.9927\tpathogenic
+        chr7\t140453137\tC\tT\thg19\tP15056\tENST00000288602.6\tV600M\t0.1230\tlikely_benign
+        chr17\t7578406\tC\tT\thg19\tP04637\tENST00000269305.4\tR175H\t0.9850\tpathogenic
+        """;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void testLooksUpPredictionsAcrossBlocks() throws Exception {
+        try (AlphaMissenseAnnotator annotator = openAnnotator(Map.of())) {
+            assertEquals(Optional.of(new AlphaMissenseAnnotator.Prediction("0.9927", "pathogenic")), annotator.lookup("7", 140453136, "A", "T"));
+            assertEquals(Optional.of(new AlphaMissenseAnnotator.Prediction("0.1230", "likely_benign")), annotator.lookup("chr7", 140453137, "C", "T"));
+            assertEquals(Optional.of(new AlphaMissenseAnnotator.Prediction("0.9850", "pathogenic")), annotator.lookup("17", 7578406, "C", "T"));
+            assertEquals(Optional.empty(), annotator.lookup("7", 140453136, "A", "G"));
+            assertEquals(Optional.empty(), annotator.lookup("7", 140453138, "A", "T"));
+            assertEquals(Optional.empty(), annotator.lookup("12", 25398284, "C", "A"));
+            assertTrue(annotator.getCachedBytes() > 0);
+        }
+    }
+
+    @Test
+    void testAnnotatesMissenseConsequences() throws Exception {
+        VEPRecord record = new VEPRecord("7:140453136-140453136:1/T", """
+            {"input":"7:140453136-140453136:1/T","allele_string":"A/T","seq_region_name":"7","start":140453136,"end":140453136,\
+            "transcript_consequences":[\
+            {"transcript_id":"ENST00000288602","variant_allele":"T","consequence_terms":["missense_variant"]},\
+            {"transcript_id":"ENST00000479537","variant_allele":"T","consequence_terms":["downstream_gene_variant"]}]}""");
+
+        try (AlphaMissenseAnnotator annotator = openAnnotator(Map.of("am_class", "alphamissense_class"))) {
+            VEPRecord annotated = annotator.annotate(record);
+
+            assertEquals(record.input(), annotated.input());
+            assertEquals("""
+                {"input":"7:140453136-140453136:1/T","allele_string":"A/T","seq_region_name":"7","start":140453136,"end":140453136,\
+                "transcript_consequences":[\
+                {"transcript_id":"ENST00000288602","variant_allele":"T","consequence_terms":["missense_variant"],\
+                "alphamissense":{"am_pathogenicity":0.9927,"alphamissense_class":"pathogenic"}},\
+                {"transcript_id":"ENST00000479537","variant_allele":"T","consequence_terms":["downstream_gene_variant"]}]}""",
+                annotated.json());
+        }
+    }
+
+    @Test
+    void testLeavesOtherVariantsUnchanged() throws Exception {
+        VEPRecord deletion = new VEPRecord("7:140453136-140453137:1/-", """
+            {"allele_string":"AC/-","seq_region_name":"7","start":140453136,"end":140453137,\
+            "transcript_consequences":[{"variant_allele":"-","consequence_terms":["frameshift_variant","missense_variant"]}]}""");
+        VEPRecord synonymous = new VEPRecord("7:140453136-140453136:1/T", """
+            {"allele_string":"A/T","seq_region_name":"7","start":140453136,"end":140453136,\
+            "transcript_consequences":[{"variant_allele":"T","consequence_terms":["synonymous_variant"]}]}""");
+
+        try (AlphaMissenseAnnotator annotator = openAnnotator(Map.of())) {
+            assertSame(deletion, annotator.annotate(deletion));
+            assertSame(synonymous, annotator.annotate(synonymous));
+        }
+    }
+
+    @Test
+    void testRequiresIndex() throws Exception {
+        Path path = directory.resolve("AlphaMissense_hg19.tsv.gz");
+        Files.write(path, bgzf(PREDICTIONS.getBytes(StandardCharsets.UTF_8), 100).data());
+
+        assertThrows(IOException.class, () -> AlphaMissenseAnnotator.open(path, 1 << 20, Map.of(), metrics()));
+    }
+
+    private AlphaMissenseAnnotator openAnnotator(Map<String, String> fieldRenames) throws IOException {
+        Path path = directory.resolve("AlphaMissense_hg19.tsv.gz");
+        writePredictions(path);
+        return AlphaMissenseAnnotator.open(path, 1 << 20, fieldRenames, metrics());
+    }
+
+    // The test predictions, bgzipped, and their tabix index
+    static void writePredictions(Path path) throws IOException {
+        // small blocks, so that lines are split between them
+        Bgzf file = bgzf(PREDICTIONS.getBytes(StandardCharsets.UTF_8), 100);
+        Files.write(path, file.data());
+        writeIndex(Path.of(path + ".tbi"), file.endOffset(), "chr7", "chr17");
+    }
+
+    private static VEPMetrics metrics() {
+        return new VEPMetrics(new SimpleMeterRegistry(), ObservationRegistry.NOOP);
+    }
+
+    /**
+     * A bgzipped file, the offset of its empty last block and the offsets of the blocks before it.
+     */
+    record Bgzf(byte[] data, long endOffset, long[] blockOffsets) {}
+
+    // Compresses the text as bgzip does, into blocks of at most blockSize bytes and an empty last block
+    static Bgzf bgzf(byte[] text, int blockSize) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long[] blockOffsets = new long[(text.length + blockSize - 1) / blockSize];
+        for (int start = 0; start < text.length; start += blockSize) {
+            blockOffsets[start / blockSize] = out.size();
+            writeBlock(out, Arrays.copyOfRange(text, start, Math.min(text.length, start + blockSize)));
+        }
+        long endOffset = out.size();
+        writeBlock(out, new byte[0]);
+        return new Bgzf(out.toByteArray(), endOffset, blockOffsets);
+    }
+
+    private static void writeBlock(ByteArrayOutputStream out, byte[] data) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        deflater.setInput(data);
+        deflater.finish();
+        byte[] compressed = new byte[data.length + 64];
+        int compressedLength = deflater.deflate(compressed);
+        deflater.end();
+        CRC32 crc = new CRC32();
+        crc.update(data);
+
+        ByteBuffer block = ByteBuffer.allocate(18 + compressedLength + 8).order(ByteOrder.LITTLE_ENDIAN);
+        block.put(new byte[] {31, (byte) 139, 8, 4, 0, 0, 0, 0, 0, (byte) 255});
+        block.putShort((short) 6).put((byte) 'B').put((byte) 'C').putShort((short) 2);
+        block.putShort((short) (block.capacity() - 1));
+        block.put(compressed, 0, compressedLength);
+        block.putInt((int) crc.getValue()).putInt(data.length);
+        out.writeBytes(block.array());
+    }
+
+    // An index with every line of every sequence in one chunk of bin 0, which queries then scan
+    private static void writeIndex(Path path, long endOffset, String... sequences) throws IOException {
+        ByteArrayOutputStream names = new ByteArrayOutputStream();
+        for (String sequence : sequences) {
+            names.writeBytes(sequence.getBytes(StandardCharsets.US_ASCII));
+            names.write(0);
+        }
+        ByteBuffer index = ByteBuffer.allocate(36 + names.size() + sequences.length * 32).order(ByteOrder.LITTLE_ENDIAN);
+        index.put("TBI\1".getBytes(StandardCharsets.US_ASCII)).putInt(sequences.length);
+        index.putInt(0).putInt(1).putInt(2).putInt(2).putInt('#').putInt(0);
+        index.putInt(names.size()).put(names.toByteArray());
+        for (int i = 0; i < sequences.length; i++) {
+            index.putInt(1).putInt(0).putInt(1).putLong(0).putLong(endOffset << 16).putInt(0);
+        }
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(path))) {
+            out.write(index.array(), 0, index.position());
+        }
+    }
+}
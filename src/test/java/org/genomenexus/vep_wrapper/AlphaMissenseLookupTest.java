@@ -0,0 +1,106 @@
+package org.genomenexus.vep_wrapper;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mockito;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.bean.override.mockito.MockitoSpyBean;
+
+// The test profile turns the lookup off; these turn it on, with and without the predictions file
+@SpringBootTest
+@ActiveProfiles("test")
+public class AlphaMissenseLookupTest {
+
+    private static final String VARIANT = "7:140453136-140453136:1/T";
+
+    @TempDir
+    static Path pluginDirectory;
+
+    @MockitoSpyBean
+    private VEPService vepService;
+
+    private final List<String> runFlags = Collections.synchronizedList(new ArrayList<>());
+
+    @DynamicPropertySource
+    static void lookupProperties(DynamicPropertyRegistry registry) {
+        registry.add("vep.alpha-missense-lookup.enabled", () -> "true");
+        registry.add("vep.alpha-missense-lookup.directory", AlphaMissenseLookupTest::writePredictions);
+    }
+
+    @BeforeEach
+    void setup() throws Exception {
+        mockVEP(vepService, runFlags);
+    }
+
+    @Test
+    void testScoresLookedUpWithoutPlugin() throws Exception {
+        String annotated = vepService.annotateVariants(List.of(List.of(VARIANT)), "region");
+
+        assertTrue(annotated.contains("\"am_class\":\"pathogenic\""), annotated);
+        assertFalse(runFlags.stream().anyMatch(flag -> flag.startsWith("--plugin=AlphaMissense")), runFlags.toString());
+    }
+
+    @Nested
+    @TestPropertySource(properties = "vep.alpha-missense-filename=missing.tsv.gz")
+    class MissingPredictions {
+
+        // the enclosing instance is injected from the enclosing class's context
+        @MockitoSpyBean
+        private VEPService missingPredictionsService;
+
+        private final List<String> missingPredictionsFlags = Collections.synchronizedList(new ArrayList<>());
+
+        @BeforeEach
+        void setup() throws Exception {
+            mockVEP(missingPredictionsService, missingPredictionsFlags);
+        }
+
+        @Test
+        void testPluginAddsScores() throws Exception {
+            missingPredictionsService.annotateVariants(List.of(List.of(VARIANT)), "region");
+
+            assertTrue(missingPredictionsFlags.contains("--plugin=AlphaMissense,file=/plugin-data/missing.tsv.gz"), missingPredictionsFlags.toString());
+        }
+    }
+
+    // VEP reporting a missense consequence of VARIANT, recording the flags it runs with
+    private static void mockVEP(VEPService vepService, List<String> runFlags) throws Exception {
+        Mockito.when(vepService.runVEP(Mockito.anyList(), Mockito.anyList())).thenAnswer(invocation -> {
+            List<String> variants = invocation.getArgument(1);
+            if (variants.isEmpty()) {
+                return (Callable<VEPResult>) () -> new VEPResult("ensembl-vep : 112.0\n", 0);
+            }
+            runFlags.addAll(invocation.getArgument(0));
+            VEPRecord record = new VEPRecord(VARIANT, """
+                {"input":"7:140453136-140453136:1/T","allele_string":"A/T","seq_region_name":"7","start":140453136,"end":140453136,\
+                "transcript_consequences":[{"transcript_id":"ENST00000288602","variant_allele":"T","consequence_terms":["missense_variant"]}]}""");
+            return (Callable<VEPResult>) () -> VEPResult.parsed(new ArrayList<>(List.of(record)));
+        });
+    }
+
+    // The test profile's alpha-missense-filename in the plugin directory
+    private static String writePredictions() {
+        try {
+            AlphaMissenseAnnotatorTest.writePredictions(pluginDirectory.resolve("filename"));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return pluginDirectory.toString();
+    }
+}
@@ -0,0 +1,81 @@
+package org.genomenexus.vep_wrapper;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.DefaultApplicationArguments;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.context.bean.override.mockito.MockitoSpyBean;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+// Runs the stub VEP script, as the store is reloaded outside of the spied service
+@SpringBootTest
+@ActiveProfiles("test")
+public class AnnotationStoreBuildCommandTest {
+
+    @TempDir
+    static Path storeDirectory;
+
+    @MockitoSpyBean
+    private VEPService vepService;
+
+    @Autowired
+    private AnnotationStoreBuildCommand command;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @DynamicPropertySource
+    static void storeProperties(DynamicPropertyRegistry registry) throws URISyntaxException {
+        registry.add("vep.execution.command", Path.of(AnnotationStoreBuildCommandTest.class.getResource("/stub-vep/vep").toURI())::toString);
+        registry.add("vep.annotation-store.path", () -> storeDirectory.resolve("annotations.store").toString());
+        registry.add("vep.annotation-store.reload-interval", () -> "100ms");
+    }
+
+    @Test
+    void testBuiltStoreServesEveryNotationOfItsVariants() throws Exception {
+        Path variants = Files.writeString(storeDirectory.resolve("variants.txt"), "# variants\nchr7:140453136-140453136/t\n");
+
+        command.run(new DefaultApplicationArguments("--build-annotation-store=" + variants, "--format=region"));
+
+        assertEquals(0, command.getExitCode());
+        for (int attempt = 0; attempt < 100 && meterRegistry.get("vep.store.records").gauge().value() == 0; attempt++) {
+            Thread.sleep(50);
+        }
+        assertEquals(1, meterRegistry.get("vep.store.records").gauge().value());
+        Mockito.clearInvocations(vepService);
+
+        String annotated = vepService.annotateVariants(List.of(List.of("7:140453136-140453136:1/T")), "region");
+
+        // served from the store under the notation it was requested as, without running VEP
+        List<Map<String, Object>> records = new ObjectMapper().readValue(annotated, new TypeReference<List<Map<String, Object>>>() {});
+        assertEquals(1, records.size());
+        assertEquals("7:140453136-140453136:1/T", records.getFirst().get("input"));
+        assertFalse(records.getFirst().containsKey("error"));
+        Mockito.verify(vepService, Mockito.never()).runVEP(Mockito.anyList(), Mockito.anyList());
+    }
+
+    @Test
+    void testFailedBuildGivesExitCode() {
+        command.run(new DefaultApplicationArguments("--build-annotation-store=" + storeDirectory.resolve("missing.txt"), "--format=region"));
+
+        assertEquals(1, command.getExitCode());
+    }
+}
@@ -0,0 +1,93 @@
+package org.genomenexus.vep_wrapper;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class AnnotationStoreTest {
+
+    private static final String NAMESPACE = "release=112;mode=Cache;config=abc";
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void testLooksUpEveryRecord() throws Exception {
+        Path path = directory.resolve("store.bin");
+        try (AnnotationStoreWriter writer = new AnnotationStoreWriter(path, NAMESPACE)) {
+            // added out of order, with a duplicate that must not replace the first record
+            for (int i = 999; i >= 0; i--) {
+                writer.add(PrecomputedAnnotations.key("region", variant(i)), record(i));
+            }
+            writer.add(PrecomputedAnnotations.key("region", variant(1)), "{\"duplicate\":true}");
+            writer.finish();
+        }
+
+        try (AnnotationStore store = AnnotationStore.open(path)) {
+            assertEquals(NAMESPACE, store.getNamespace());
+            assertEquals(1000, store.size());
+            for (int i = 0; i < 1000; i++) {
+                assertEquals(Optional.of(record(i)), store.get(PrecomputedAnnotations.key("region", variant(i))));
+            }
+            assertEquals(Optional.empty(), store.get(PrecomputedAnnotations.key("hgvs", variant(1))));
+            assertEquals(Optional.empty(), store.get(PrecomputedAnnotations.key("region", "X:1-1:1/A")));
+        }
+        try (var files = Files.list(directory)) {
+            assertEquals(1, files.count(), "temporary files are removed");
+        }
+    }
+
+    @Test
+    void testRejectsOtherFiles() throws Exception {
+        Path path = directory.resolve("store.bin");
+        Files.writeString(path, "not a store at all");
+
+        assertThrows(IOException.class, () -> AnnotationStore.open(path));
+    }
+
+    @Test
+    void testIgnoresStoreForOtherRelease() throws Exception {
+        Path path = directory.resolve("store.bin");
+        try (AnnotationStoreWriter writer = new AnnotationStoreWriter(path, "release=111;mode=Cache;config=abc")) {
+            writer.add(PrecomputedAnnotations.key("region", variant(1)), record(1));
+            writer.finish();
+        }
+        AtomicReference<Optional<String>> namespace = new AtomicReference<>(Optional.of(NAMESPACE));
+        PrecomputedAnnotations annotations = new PrecomputedAnnotations(
+            new VEPConfiguration.AnnotationStoreConfiguration(path.toString(), Duration.ofMinutes(1)),
+            namespace::get
+        );
+
+        annotations.reload();
+        assertEquals(0, annotations.size());
+
+        // a matching store written in its place is swapped in
+        try (AnnotationStoreWriter writer = new AnnotationStoreWriter(path, NAMESPACE)) {
+            writer.add(PrecomputedAnnotations.key("region", variant(1)), record(1));
+            writer.add(PrecomputedAnnotations.key("region", variant(2)), record(2));
+            writer.finish();
+        }
+        annotations.reload();
+        assertEquals(2, annotations.size());
+        assertTrue(annotations.get("region", variant(2)).isPresent());
+        annotations.close();
+    }
+
+    private static String variant(int i) {
+        return (i % 22 + 1) + ":" + (1000 + i) + "-" + (1000 + i) + ":1/A";
+    }
+
+    private static String record(int i) {
+        return "{\"input\":\"" + variant(i) + "\",\"most_severe_consequence\":\"missense_variant\",\"id\":" + i + "}";
+    }
+}
@@ -0,0 +1,122 @@
+package org.genomenexus.vep_wrapper;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.context.bean.override.mockito.MockitoSpyBean;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+// Runs the stub VEP script in cache mode, with variants checked against a small reference genome
+@SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT)
+@ActiveProfiles("test")
+public class CacheModeTest {
+
+    private static final String SEQUENCE = "GATCCACACAGTTTTTGCAT";
+
+    @TempDir
+    static Path dataDirectory;
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    @MockitoSpyBean
+    private VEPService vepService;
+
+    @DynamicPropertySource
+    static void cacheModeProperties(DynamicPropertyRegistry registry) throws URISyntaxException {
+        registry.add("vep.mode", () -> "cache");
+        registry.add("vep.cache.fasta-filename", () -> "reference.fa");
+        registry.add("vep.reference-check.directory", CacheModeTest::writeReference);
+        registry.add("vep.execution.command", Path.of(CacheModeTest.class.getResource("/stub-vep/vep").toURI())::toString);
+    }
+
+    @Test
+    void testHgvsNotationNotMatchingReferenceGetsErrorEntry() {
+        ResponseEntity<List<Map<String, Object>>> response = restTemplate.exchange(
+            "http://localhost:" + port + "/vep/human/hgvs",
+            HttpMethod.POST,
+            new HttpEntity<>(Map.of("hgvs_notations", List.of("1:g.3T>G", "1:g.3A>G", "not-a-valid-hgvs"))),
+            new ParameterizedTypeReference<List<Map<String, Object>>>() {}
+        );
+
+        // the rest of the request is still annotated, each under the notation it was requested as
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        List<Map<String, Object>> records = response.getBody();
+        assertEquals(List.of("1:g.3T>G", "1:g.3A>G", "not-a-valid-hgvs"), records.stream().map(record -> record.get("input")).toList());
+        assertFalse(records.get(0).containsKey("error"));
+        assertEquals("Reference allele A does not match T at 1:3", records.get(1).get("error"));
+        assertEquals(VariantNotationParser.parseHgvsg("not-a-valid-hgvs").error(), records.get(2).get("error"));
+    }
+
+    @Test
+    void testSingleHgvsNotationNotMatchingReferenceRejected() {
+        ResponseEntity<Map<String, Object>> response = restTemplate.exchange(
+            "http://localhost:" + port + "/vep/human/hgvs/1:g.3A>G",
+            HttpMethod.GET,
+            null,
+            new ParameterizedTypeReference<Map<String, Object>>() {}
+        );
+
+        assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+        assertEquals("Reference allele A does not match T at 1:3", response.getBody().get("error"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testIndelNotationsAnnotatedOnceAsRequested() throws Exception {
+        // CA deleted from the CACACA repeat at two positions, which left-align to 1:5-6
+        List<String> notations = List.of("chr1:9-10:1/-", "1:7-8:1/-");
+
+        String annotated = vepService.annotateVariants(List.of(notations), "region");
+
+        List<Map<String, Object>> records = new ObjectMapper().readValue(annotated, new TypeReference<List<Map<String, Object>>>() {});
+        assertEquals(notations, records.stream().map(record -> record.get("input")).toList());
+        assertTrue(records.stream().noneMatch(record -> record.containsKey("error")), annotated);
+        // VEP is sent the first notation on the contig as the FASTA names it, not left-aligned
+        ArgumentCaptor<List<String>> sent = ArgumentCaptor.forClass(List.class);
+        Mockito.verify(vepService, Mockito.atLeastOnce()).runVEP(Mockito.anyList(), sent.capture());
+        assertEquals(List.of("1:9-10:1/-"), sent.getAllValues().stream().filter(Objects::nonNull).flatMap(List::stream).toList());
+    }
+
+    // A plain FASTA of one contig and its .fai index, returning their directory
+    private static String writeReference() {
+        try {
+            Files.writeString(dataDirectory.resolve("reference.fa"), ">1\n" + SEQUENCE + "\n");
+            Files.writeString(dataDirectory.resolve("reference.fa.fai"), "1\t" + SEQUENCE.length() + "\t3\t" + SEQUENCE.length() + "\t" + (SEQUENCE.length() + 1) + "\n");
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return dataDirectory.toString();
+    }
+}
@@ -0,0 +1,72 @@
+package org.genomenexus.vep_wrapper;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+public class FieldProjectionTest {
+
+    private static final String RECORD = """
+        {"input":"1:g.100A>T","id":"var","most_severe_consequence":"missense_variant","colocated_variants":[{"id":"rs1","frequencies":{"T":{"af":0.1}}}],\
+        "transcript_consequences":[\
+        {"transcript_id":"ENST1","variant_allele":"T","gene_symbol":"ABC","biotype":"protein_coding","sift_prediction":"deleterious"},\
+        {"transcript_id":"ENST2","variant_allele":"T","biotype":"nonsense_mediated_decay"}]}""";
+
+    @Test
+    void testTrimsUnrequestedFields() throws Exception {
+        FieldProjection projection = FieldProjection.of(List.of("gene_symbol", "sift_prediction"));
+
+        assertEquals(
+            "{\"input\":\"1:g.100A>T\",\"id\":\"var\",\"transcript_consequences\":["
+                + "{\"transcript_id\":\"ENST1\",\"variant_allele\":\"T\",\"gene_symbol\":\"ABC\",\"sift_prediction\":\"deleterious\"}]}",
+            projection.apply(RECORD)
+        );
+    }
+
+    @Test
+    void testKeepsRequestedContainersWhole() throws Exception {
+        FieldProjection projection = FieldProjection.of(List.of("most_severe_consequence", "colocated_variants"));
+
+        assertEquals(
+            "{\"input\":\"1:g.100A>T\",\"id\":\"var\",\"most_severe_consequence\":\"missense_variant\","
+                + "\"colocated_variants\":[{\"id\":\"rs1\",\"frequencies\":{\"T\":{\"af\":0.1}}}]}",
+            projection.apply(RECORD)
+        );
+        assertSame(RECORD, FieldProjection.ALL.apply(RECORD));
+    }
+
+    @Test
+    void testMapsFieldsToMinimalFlags() {
+        Map<String, String> renames = VEPConfiguration.DEFAULT_FIELD_RENAMES;
+        FieldProjection projection = FieldProjection.of(List.of("hgvsc", "hgvsp", "sift_prediction", "frequencies", "impact"));
+
+        assertEquals(
+            List.of("--check_existing", "--af", "--af_1kg", "--af_gnomade", "--af_gnomadg", "--max_af", "--hgvs", "--sift=b"),
+            projection.getVepFlags(renames)
+        );
+        // sift_prediction is PolyPhen_SIFT's sift_pred, renamed
+        assertTrue(projection.requestsAny(List.of("sift_pred", "sift_score"), renames));
+        assertFalse(projection.requestsAny(List.of("am_pathogenicity", "am_class"), renames));
+        assertTrue(FieldProjection.ALL.requestsAny(List.of("am_pathogenicity"), renames));
+    }
+
+    @Test
+    void testResolvesFieldsAndProfiles() {
+        Map<String, FieldProjection> profiles = Map.of("genes", FieldProjection.of(List.of("gene_symbol")));
+
+        assertSame(FieldProjection.ALL, FieldProjection.resolve(null, null, profiles));
+        assertSame(profiles.get("genes"), FieldProjection.resolve(null, "genes", profiles));
+        assertEquals("fields=gene_symbol,hgvsp|", FieldProjection.resolve("hgvsp, gene_symbol", null, profiles).getCacheKey());
+        assertThrows(IllegalArgumentException.class, () -> FieldProjection.resolve("hgvsp", "genes", profiles));
+        assertThrows(IllegalArgumentException.class, () -> FieldProjection.resolve(null, "unknown", profiles));
+        assertThrows(IllegalArgumentException.class, () -> FieldProjection.resolve("hgvsp,\"x\"", null, profiles));
+        assertThrows(IllegalArgumentException.class, () -> FieldProjection.resolve("", null, profiles));
+    }
+}
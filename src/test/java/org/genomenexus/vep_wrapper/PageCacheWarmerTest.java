@@ -0,0 +1,85 @@
+package org.genomenexus.vep_wrapper;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+public class PageCacheWarmerTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void testOrdersFilesByPriorityThenChromosome() throws Exception {
+        Path cache = directory.resolve("cache-data/homo_sapiens/112_GRCh37");
+        for (String file : List.of("10/1-1000000.gz", "2/1-1000000.gz", "X/1-1000000.gz", "7/1000001-2000000.gz",
+                "7/1-1000000.gz", "Homo_sapiens.GRCh37.dna.toplevel.fa.gz", "Homo_sapiens.GRCh37.dna.toplevel.fa.gz.fai")) {
+            write(cache.resolve(file), 1);
+        }
+
+        List<Path> files = PageCacheWarmer.listFiles(
+            List.of(directory.resolve("cache-data"), directory.resolve("plugin-data")),
+            List.of("**/*.fai", "**/7/**")
+        );
+
+        assertEquals(List.of(
+            "Homo_sapiens.GRCh37.dna.toplevel.fa.gz.fai",
+            "7/1-1000000.gz",
+            "7/1000001-2000000.gz",
+            "2/1-1000000.gz",
+            "10/1-1000000.gz",
+            "Homo_sapiens.GRCh37.dna.toplevel.fa.gz",
+            "X/1-1000000.gz"
+        ), files.stream().map(file -> cache.toAbsolutePath().relativize(file).toString()).toList());
+    }
+
+    @Test
+    void testReadsAllFilesAtTheRateLimit() throws Exception {
+        write(directory.resolve("a/1.gz"), 30_000);
+        write(directory.resolve("b/2.gz"), 20_000);
+
+        PageCacheWarmer warmer = new PageCacheWarmer(configuration(DataSize.ofBytes(100_000), DataSize.ofBytes(0)));
+        long start = System.nanoTime();
+        warmer.warm();
+
+        assertTrue(warmer.isFinished());
+        assertEquals(50_000, warmer.getTotalBytes());
+        assertEquals(50_000, warmer.getWarmedBytes());
+        assertTrue(System.nanoTime() - start >= 400_000_000L);
+    }
+
+    @Test
+    void testStopsAtMaxSize() throws Exception {
+        write(directory.resolve("a/1.gz"), 30_000);
+        write(directory.resolve("b/2.gz"), 20_000);
+
+        PageCacheWarmer warmer = new PageCacheWarmer(configuration(DataSize.ofBytes(0), DataSize.ofBytes(40_000)));
+        warmer.warm();
+
+        assertEquals(40_000, warmer.getTotalBytes());
+        assertEquals(40_000, warmer.getWarmedBytes());
+    }
+
+    private VEPConfiguration.PageCacheConfiguration configuration(DataSize rateLimit, DataSize maxSize) {
+        return new VEPConfiguration.PageCacheConfiguration(
+            true,
+            List.of(directory.resolve("a").toString(), directory.resolve("b").toString(), directory.resolve("missing").toString()),
+            List.of(),
+            rateLimit,
+            maxSize,
+            false
+        );
+    }
+
+    private static void write(Path file, int size) throws Exception {
+        Files.createDirectories(file.getParent());
+        Files.write(file, new byte[size]);
+    }
+}
@@ -0,0 +1,129 @@
+package org.genomenexus.vep_wrapper;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class ReferenceGenomeTest {
+
+    private static final String SEQUENCE_1 = "GATCCACACAGTTTTTGCAT";
+    private static final String SEQUENCE_2 = "G" + "A".repeat(300);
+    private static final int LINE_BASES = 8;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void testReadsPlainAndBgzippedFasta() throws Exception {
+        try (IndexedFasta plain = IndexedFasta.open(writeFasta(false), 1 << 20);
+             IndexedFasta compressed = IndexedFasta.open(writeFasta(true), 1 << 20)) {
+            for (IndexedFasta fasta : new IndexedFasta[] {plain, compressed}) {
+                assertEquals(20, fasta.getLength("1"));
+                assertEquals(SEQUENCE_1, fasta.getBases("1", 1, 20));
+                assertEquals("CACAGTTTTT", fasta.getBases("1", 7, 16));
+                assertEquals("AT", fasta.getBases("1", 19, 30));
+                assertEquals(SEQUENCE_2.substring(250), fasta.getBases("2", 251, 301));
+            }
+        }
+    }
+
+    @Test
+    void testRejectsVariantsTheReferenceDoesNotHave() throws Exception {
+        try (ReferenceGenome reference = new ReferenceGenome(IndexedFasta.open(writeFasta(true), 1 << 20))) {
+            assertEquals(Optional.empty(), reference.check(parseHgvsg("chr1:g.3T>G")));
+            assertEquals(Optional.empty(), reference.check(parseRegion("1:20-20:1/A")));
+            assertEquals(Optional.empty(), reference.check(parseRegion("1:21-20:1/A")));
+            assertEquals(
+                Optional.of("Reference allele A does not match T at 1:3"),
+                reference.check(parseHgvsg("1:g.3A>G"))
+            );
+            assertEquals(
+                Optional.of("Reference allele CCA does not match CAC at 1:5-7"),
+                reference.check(parseHgvsg("1:g.5_7delCCA"))
+            );
+            assertEquals(
+                Optional.of("Position 21 is outside contig chr1 of length 20"),
+                reference.check(parseRegion("chr1:21-21:1/A"))
+            );
+            assertEquals(Optional.of("Contig 3 is not in the reference genome"), reference.check(parseRegion("3:1-1:1/A")));
+        }
+    }
+
+    @Test
+    void testLeftAlignsIndels() throws Exception {
+        try (ReferenceGenome reference = new ReferenceGenome(IndexedFasta.open(writeFasta(false), 1 << 20))) {
+            // CA deleted from the CACACA repeat, and T inserted into the run of Ts
+            assertEquals("1:5-6:1/-", reference.normalize(parseRegion("1:9-10:1/-")).region());
+            assertEquals("1:5-6:1/-", reference.normalize(parseHgvsg("1:g.7_8del")).region());
+            assertEquals("1:12-11:1/T", reference.normalize(parseRegion("1:17-16:1/T")).region());
+            assertEquals("1:5-4:1/CA", reference.normalize(parseRegion("1:11-10:1/CA")).region());
+            // across more than one window of reference bases
+            assertEquals("2:2-2:1/-", reference.normalize(parseRegion("2:301-301:1/-")).region());
+
+            GenomicVariant substitution = parseRegion("1:9-9:1/T");
+            GenomicVariant leftmost = parseRegion("1:5-6:1/-");
+            assertSame(substitution, reference.normalize(substitution));
+            assertSame(leftmost, reference.normalize(leftmost));
+        }
+    }
+
+    @Test
+    void testRenamesContigsAsTheReferenceDoes() throws Exception {
+        try (ReferenceGenome reference = new ReferenceGenome(IndexedFasta.open(writeFasta(false), 1 << 20))) {
+            assertEquals("1:9-10:1/-", reference.canonicalize(parseRegion("chr1:9-10:1/-")).region());
+
+            GenomicVariant canonical = parseRegion("1:9-10:1/-");
+            assertSame(canonical, reference.canonicalize(canonical));
+        }
+    }
+
+    private static GenomicVariant parseRegion(String notation) {
+        return VariantNotationParser.parseRegion(notation).variant();
+    }
+
+    private static GenomicVariant parseHgvsg(String notation) {
+        return VariantNotationParser.parseHgvsg(notation).variant();
+    }
+
+    // Writes both sequences with LINE_BASES bases per line and their .fai, and for bgzip a .gzi
+    private Path writeFasta(boolean bgzip) throws IOException {
+        StringBuilder fasta = new StringBuilder();
+        StringBuilder index = new StringBuilder();
+        for (String[] sequence : new String[][] {{"1", SEQUENCE_1}, {"2", SEQUENCE_2}}) {
+            fasta.append('>').append(sequence[0]).append(" dna:chromosome\n");
+            index.append(sequence[0]).append('\t').append(sequence[1].length()).append('\t').append(fasta.length())
+                .append('\t').append(LINE_BASES).append('\t').append(LINE_BASES + 1).append('\n');
+            for (int i = 0; i < sequence[1].length(); i += LINE_BASES) {
+                fasta.append(sequence[1], i, Math.min(sequence[1].length(), i + LINE_BASES)).append('\n');
+            }
+        }
+        byte[] text = fasta.toString().getBytes(StandardCharsets.US_ASCII);
+        Path path = directory.resolve(bgzip ? "genome.fa.gz" : "genome.fa");
+        if (bgzip) {
+            int blockSize = 7;
+            AlphaMissenseAnnotatorTest.Bgzf file = AlphaMissenseAnnotatorTest.bgzf(text, blockSize);
+            Files.write(path, file.data());
+            long[] blocks = file.blockOffsets();
+            ByteBuffer gzi = ByteBuffer.allocate(8 + (blocks.length - 1) * 16).order(ByteOrder.LITTLE_ENDIAN);
+            gzi.putLong(blocks.length - 1);
+            for (int i = 1; i < blocks.length; i++) {
+                gzi.putLong(blocks[i]).putLong((long) i * blockSize);
+            }
+            Files.write(Path.of(path + ".gzi"), gzi.array());
+        } else {
+            Files.write(path, text);
+        }
+        Files.writeString(Path.of(path + ".fai"), index);
+        return path;
+    }
+}
@@ -0,0 +1,91 @@
+package org.genomenexus.vep_wrapper;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class RegionChunkerTest {
+
+    @Test
+    void testAcceptsAllContigNames() {
+        List<String> variants = List.of(
+            "chrX:100-100:1/A",
+            "MT:50-50:1/G",
+            "GL000192.1:10-10:1/T",
+            "chr2:300-300:1/C",
+            "1:200-200/T",
+            "chrM:20-20:1/A"
+        );
+
+        List<List<String>> chunks = RegionChunker.chunk(variants, 10, 100);
+
+        assertEquals(1, chunks.size());
+        assertEquals(List.of(
+            "1:200-200/T",
+            "chr2:300-300:1/C",
+            "chrX:100-100:1/A",
+            "chrM:20-20:1/A",
+            "MT:50-50:1/G",
+            "GL000192.1:10-10:1/T"
+        ), chunks.get(0));
+    }
+
+    @Test
+    void testSplitsLargeContigsIntoSortedWindows() {
+        List<String> variants = new ArrayList<>();
+        for (int position = 1000; position > 0; position--) {
+            variants.add("1:" + position + "-" + position + ":1/A");
+        }
+        variants.add("21:5-5:1/A");
+
+        List<List<String>> chunks = RegionChunker.chunk(variants, 4, 10);
+
+        assertEquals(4, chunks.size());
+        chunks.forEach(chunk -> assertTrue(chunk.size() <= 251));
+        assertEquals("1:1-1:1/A", chunks.get(0).get(0));
+        assertEquals("1:252-252:1/A", chunks.get(1).get(0));
+        assertEquals("21:5-5:1/A", chunks.get(3).get(chunks.get(3).size() - 1));
+    }
+
+    @Test
+    void testRespectsMinimumChunkSize() {
+        List<String> variants = new ArrayList<>();
+        for (int position = 1; position <= 30; position++) {
+            variants.add("3:" + position + "-" + position + ":1/A");
+        }
+
+        assertEquals(3, RegionChunker.chunk(variants, 75, 10).size());
+    }
+
+    @Test
+    void testUnparseableVariantsSortLast() {
+        List<List<String>> chunks = RegionChunker.chunk(List.of("not-a-region", "1:5-5:1/A"), 1, 1);
+
+        assertEquals(List.of("1:5-5:1/A", "not-a-region"), chunks.get(0));
+    }
+
+    @Test
+    void testEmptyInput() {
+        assertTrue(RegionChunker.chunk(List.of(), 75, 100).isEmpty());
+    }
+
+    @Test
+    void testChunksVcfRecordsByPosition() {
+        List<String> records = List.of(
+            "chr2\t300\t.\tC\tT\t.\t.\t.",
+            "1\t200\t.\tA\tG\t.\t.\t.",
+            "1\t100\t.\tG\tA\t.\t.\t."
+        );
+
+        List<List<String>> chunks = RegionChunker.chunkVcf(records, 2, 1);
+
+        assertEquals(List.of(
+            List.of("1\t100\t.\tG\tA\t.\t.\t.", "1\t200\t.\tA\tG\t.\t.\t."),
+            List.of("chr2\t300\t.\tC\tT\t.\t.\t.")
+        ), chunks);
+    }
+}
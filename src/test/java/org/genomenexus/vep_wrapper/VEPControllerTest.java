@@ -26,7 +26,8 @@ public class VEPControllerTest {
     @Test
     void testInsertionWithAlt() {
         String input = "1:g.200_201insA";
-        String expected = "1:200-201:1/A";
+        // VEP marks insertions with start = end + 1
+        String expected = "1:201-200:1/A";
         String actual = VEPController.hgvsgToRegion(input);
         assertEquals(expected, actual);
     }
@@ -0,0 +1,249 @@
+package org.genomenexus.vep_wrapper;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.client.RestTemplate;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
+
+public class VEPCoordinatorTest {
+
+    private final List<HttpServer> servers = new ArrayList<>();
+    private final List<ConfigurableApplicationContext> contexts = new ArrayList<>();
+    private VEPCoordinator coordinator;
+
+    @AfterEach
+    void tearDown() {
+        if (coordinator != null) {
+            coordinator.close();
+        }
+        servers.forEach(server -> server.stop(0));
+        contexts.forEach(ConfigurableApplicationContext::close);
+    }
+
+    @Test
+    void testAnnotatesThroughWrapperBackends() throws Exception {
+        String stubVep = Path.of(getClass().getResource("/stub-vep/vep").toURI()).toString();
+        List<ConfigurableApplicationContext> backends = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            backends.add(startWrapper(
+                "--vep.coordinator.serve-chunks=true",
+                "--vep.execution.command=" + stubVep
+            ));
+        }
+        ConfigurableApplicationContext wrapper = startWrapper(
+            "--vep.coordinator.enabled=true",
+            "--vep.coordinator.backends=" + backends.stream().map(VEPCoordinatorTest::baseUrl).collect(Collectors.joining(",")),
+            "--vep.coordinator.health-path=/actuator/health"
+        );
+        List<String> variants = new ArrayList<>();
+        for (int chromosome = 1; chromosome <= 22; chromosome++) {
+            variants.add(chromosome + ":g.1000000" + chromosome + "A>T");
+        }
+
+        ResponseEntity<List<Map<String, Object>>> response = new RestTemplate().exchange(
+            baseUrl(wrapper) + "/vep/human/hgvs",
+            HttpMethod.POST,
+            new HttpEntity<>(Map.of("hgvs_notations", variants)),
+            new ParameterizedTypeReference<List<Map<String, Object>>>() {}
+        );
+
+        assertEquals(variants, response.getBody().stream().map(record -> record.get("input")).toList());
+        assertTrue(response.getBody().stream().allMatch(record -> record.containsKey("transcript_consequences")));
+        for (ConfigurableApplicationContext backend : backends) {
+            Timer runs = backend.getBean(MeterRegistry.class).find("vep.phase").tag("phase", "run").timer();
+            assertTrue(runs != null && runs.count() > 0, "Expected every backend to run VEP");
+        }
+    }
+
+    @Test
+    void testShardsByPositionAcrossBackends() throws Exception {
+        FakeBackend first = startBackend("first", 200, null);
+        FakeBackend second = startBackend("second", 200, null);
+        coordinator = startCoordinator(Duration.ofHours(1), first.uri, second.uri);
+
+        List<Future<VEPResult>> results = new ArrayList<>();
+        for (int window = 0; window < 20; window++) {
+            results.add(submit(List.of("1:" + (window * 1_000_000 + 1) + "-" + (window * 1_000_000 + 1) + ":1/A")));
+        }
+        for (Future<VEPResult> result : results) {
+            assertEquals(0, result.get(10, TimeUnit.SECONDS).getExitCode());
+        }
+        // one at a time, so that neither is stolen
+        List<String> sameWindow = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            sameWindow.add(submit(List.of("7:140453136-140453136:1/T", "7:140453200-140453200:1/A")).get(10, TimeUnit.SECONDS).getRecords().get(0).json());
+        }
+        assertFalse(first.chunks.isEmpty());
+        assertFalse(second.chunks.isEmpty());
+        assertEquals(sameWindow.get(0), sameWindow.get(1));
+    }
+
+    @Test
+    void testFailsOverFromUnavailableBackends() throws Exception {
+        FakeBackend overloaded = startBackend("overloaded", 429, null);
+        FakeBackend healthy = startBackend("healthy", 200, null);
+        String unreachable = "http://localhost:" + freePort();
+        coordinator = startCoordinator(Duration.ofHours(1), overloaded.uri, unreachable, healthy.uri);
+
+        for (int window = 0; window < 10; window++) {
+            VEPResult result = submit(List.of("2:" + (window * 1_000_000 + 1) + "-" + (window * 1_000_000 + 1) + ":1/T"))
+                .get(10, TimeUnit.SECONDS);
+            assertEquals(0, result.getExitCode());
+            assertTrue(result.getRecords().get(0).json().contains("\"backend\":\"healthy\""));
+        }
+    }
+
+    @Test
+    void testVepFailureIsNotFailedOver() throws Exception {
+        FakeBackend failing = startBackend("failing", 500, "{\"error\":\"Invalid allele\",\"transient\":false}");
+        FakeBackend healthy = startBackend("healthy", 200, null);
+        coordinator = startCoordinator(Duration.ofHours(1), failing.uri, healthy.uri);
+
+        List<VEPResult> results = new ArrayList<>();
+        for (int window = 0; window < 20; window++) {
+            results.add(submit(List.of("3:" + (window * 1_000_000 + 1) + "-" + (window * 1_000_000 + 1) + ":1/G")).get(10, TimeUnit.SECONDS));
+        }
+
+        assertTrue(results.stream().anyMatch(result -> result.getExitCode() == 500 && result.getOutput().equals("Invalid allele")));
+        assertEquals(20, failing.chunks.size() + healthy.chunks.size());
+    }
+
+    @Test
+    void testHedgesStraggler() throws Exception {
+        AtomicInteger requests = new AtomicInteger();
+        FakeBackend first = startBackend("first", 200, null, requests);
+        FakeBackend second = startBackend("second", 200, null, requests);
+        coordinator = startCoordinator(Duration.ofMillis(100), first.uri, second.uri);
+
+        // the first request either backend gets hangs
+        VEPResult result = submit(List.of("4:1000-1000:1/C")).get(10, TimeUnit.SECONDS);
+
+        assertEquals(0, result.getExitCode());
+        assertEquals(1, first.chunks.size());
+        assertEquals(1, second.chunks.size());
+    }
+
+    private Future<VEPResult> submit(List<String> chunk) {
+        return coordinator.submit(chunk, "region", FieldProjection.ALL, Submitter.bulk(""), done -> {});
+    }
+
+    private VEPCoordinator startCoordinator(Duration stragglerTimeout, String... backends) {
+        VEPCoordinator started = new VEPCoordinator(
+            new VEPConfiguration.CoordinatorConfiguration(true, false, List.of(backends), 2, Duration.ofHours(1), "/health", stragglerTimeout, 3),
+            Duration.ofMinutes(1),
+            100,
+            new VEPMetrics(new SimpleMeterRegistry(), ObservationRegistry.NOOP)
+        );
+        started.start();
+        return started;
+    }
+
+    private FakeBackend startBackend(String name, int status, String errorBody) throws IOException {
+        return startBackend(name, status, errorBody, null);
+    }
+
+    // A wrapper instance that echoes every variant of a chunk as a record naming the backend
+    private FakeBackend startBackend(String name, int status, String errorBody, AtomicInteger hangOnFirst) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        FakeBackend backend = new FakeBackend("http://localhost:" + server.getAddress().getPort());
+        server.createContext("/health", exchange -> respond(exchange, 200, "{\"status\":\"UP\"}"));
+        server.createContext(VEPCoordinator.CHUNKS_PATH, exchange -> {
+            List<String> chunk = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8).lines().toList();
+            backend.chunks.add(chunk);
+            if (hangOnFirst != null && hangOnFirst.getAndIncrement() == 0) {
+                try {
+                    Thread.sleep(30_000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (status != 200) {
+                respond(exchange, status, errorBody == null ? "" : errorBody);
+                return;
+            }
+            StringBuilder output = new StringBuilder();
+            for (String variant : chunk) {
+                output.append("{\"input\":\"").append(variant).append("\",\"backend\":\"").append(name).append("\"}\n");
+            }
+            respond(exchange, 200, output.toString());
+        });
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.start();
+        servers.add(server);
+        return backend;
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+        if (bytes.length > 0) {
+            exchange.getResponseBody().write(bytes);
+        }
+        exchange.close();
+    }
+
+    // A wrapper instance with the test profile on a free port, without any result cache
+    private ConfigurableApplicationContext startWrapper(String... args) {
+        List<String> arguments = new ArrayList<>(List.of(
+            "--spring.profiles.active=test",
+            "--server.port=0",
+            "--vep.result-cache.enabled=false",
+            "--vep.execution.min-region-chunk-size=1"
+        ));
+        arguments.addAll(List.of(args));
+        ConfigurableApplicationContext context = new SpringApplicationBuilder(VepWrapperApplication.class).run(arguments.toArray(String[]::new));
+        contexts.add(context);
+        return context;
+    }
+
+    private static String baseUrl(ConfigurableApplicationContext context) {
+        return "http://localhost:" + ((WebServerApplicationContext) context).getWebServer().getPort();
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private record FakeBackend(String uri, List<List<String>> chunks) {
+
+        FakeBackend(String uri) {
+            this(uri, new CopyOnWriteArrayList<>());
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package org.genomenexus.vep_wrapper;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.source.MapConfigurationPropertySource;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
+
+public class VEPExecutorTest {
+
+    private final VEPExecutor executor = createExecutor(Map.of());
+
+    // two chunks at once, one of them reserved for the interactive lane
+    private final VEPExecutor laneExecutor = createExecutor(Map.of(
+        "vep.cpu-budget", "2",
+        "vep.initial-concurrency", "2",
+        "vep.max-concurrent-chunks", "2",
+        "vep.latency-tolerance", "1000",
+        "vep.interactive-reserved-chunks", "1"
+    ));
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdown();
+        laneExecutor.shutdown();
+    }
+
+    @Test
+    void testFeedsInputWhileOutputIsDrained() throws Exception {
+        // far more than a pipe buffer, so this only finishes if input and output flow concurrently
+        List<String> input = IntStream.range(0, 100_000).mapToObj(i -> "1:" + i + "-" + i + ":1/A").toList();
+        Process process = new ProcessBuilder("cat").start();
+
+        executor.feed(process.getOutputStream(), input);
+        CompletableFuture<String> output = executor.drain(process.getInputStream());
+
+        assertEquals(input, output.get(30, TimeUnit.SECONDS).lines().toList());
+        assertEquals(0, process.waitFor());
+    }
+
+    @Test
+    void testDrainDiscardsOutputItCannotRead() throws Exception {
+        List<String> input = IntStream.range(0, 100_000).mapToObj(i -> "1:" + i + "-" + i + ":1/A").toList();
+        Process process = new ProcessBuilder("cat").start();
+
+        executor.feed(process.getOutputStream(), input);
+        CompletableFuture<Integer> output = executor.drain(process.getInputStream(), stream -> {
+            stream.read();
+            stream.close();
+            throw new IOException("Unexpected output");
+        });
+
+        // the rest of the output is still consumed, so the process is not left blocked on its pipe
+        ExecutionException e = assertThrows(ExecutionException.class, () -> output.get(30, TimeUnit.SECONDS));
+        assertEquals("Unexpected output", e.getCause().getCause().getMessage());
+        assertTrue(process.waitFor(30, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void testFeedToExitedProcessFails() throws Exception {
+        List<String> input = IntStream.range(0, 100_000).mapToObj(i -> "1:" + i + "-" + i + ":1/A").toList();
+        Process process = new ProcessBuilder("true").start();
+        process.waitFor();
+
+        // the process never read the chunk, so its output cannot be trusted to cover it
+        ExecutionException e = assertThrows(ExecutionException.class, () -> executor.feed(process.getOutputStream(), input).get(30, TimeUnit.SECONDS));
+        assertInstanceOf(UncheckedIOException.class, e.getCause());
+    }
+
+    @Test
+    void testOnlyLoadRelatedFailuresLowerConcurrencyLimit() throws Exception {
+        int initialLimit = executor.getConcurrencyLimit();
+        for (int i = 0; i < 10; i++) {
+            executor.submit(() -> new VEPResult("Unable to parse HGVS notation", 500, VEPResult.Failure.Input), 1, 100, Submitter.bulk(""), done -> {})
+                .get(10, TimeUnit.SECONDS);
+        }
+        executor.submit(() -> VEPResult.timedOut(Duration.ofMinutes(10)), 1, 100, Submitter.bulk(""), done -> {})
+            .get(10, TimeUnit.SECONDS);
+
+        // the limit is sampled just after the chunk completes
+        for (int attempt = 0; attempt < 100 && executor.getConcurrencyLimit() == initialLimit; attempt++) {
+            Thread.sleep(10);
+        }
+        assertEquals((int) (initialLimit * AdaptiveConcurrencyLimit.BACKOFF), executor.getConcurrencyLimit());
+    }
+
+    @Test
+    void testInteractiveChunkSkipsQueuedBulkChunks() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        laneExecutor.submit(() -> release.await(30, TimeUnit.SECONDS), 1, 1, Submitter.bulk("pipeline"), done -> {});
+        Future<Boolean> queuedBulk = laneExecutor.submit(() -> true, 1, 1, Submitter.bulk("pipeline"), done -> {});
+        Future<Boolean> interactive = laneExecutor.submit(() -> true, 1, 1, new Submitter(Submitter.Lane.Interactive, "ui"), done -> {});
+
+        // runs in the reserved slot while the bulk lane is full
+        assertEquals(true, interactive.get(10, TimeUnit.SECONDS));
+        assertFalse(queuedBulk.isDone());
+        release.countDown();
+        assertEquals(true, queuedBulk.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void testReservedSlotOutlastsFallingLimit() throws Exception {
+        // the adaptive limit has fallen to the reserved slot
+        VEPExecutor limitedExecutor = createExecutor(Map.of(
+            "vep.cpu-budget", "2",
+            "vep.initial-concurrency", "1",
+            "vep.max-concurrent-chunks", "2",
+            "vep.interactive-reserved-chunks", "1"
+        ));
+        try {
+            CountDownLatch release = new CountDownLatch(1);
+            // runs because nothing else does
+            limitedExecutor.submit(() -> release.await(30, TimeUnit.SECONDS), 1, 1, Submitter.bulk("pipeline"), done -> {});
+            Future<Boolean> queuedBulk = limitedExecutor.submit(() -> true, 1, 1, Submitter.bulk("pipeline"), done -> {});
+            Future<Boolean> interactive = limitedExecutor.submit(() -> true, 1, 1, new Submitter(Submitter.Lane.Interactive, "ui"), done -> {});
+
+            assertEquals(true, interactive.get(10, TimeUnit.SECONDS));
+            assertFalse(queuedBulk.isDone());
+            release.countDown();
+            assertEquals(true, queuedBulk.get(10, TimeUnit.SECONDS));
+        } finally {
+            limitedExecutor.shutdown();
+        }
+    }
+
+    @Test
+    void testBulkClientsTakeTurns() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        laneExecutor.submit(() -> release.await(30, TimeUnit.SECONDS), 1, 1, Submitter.bulk("first"), done -> {});
+        List<String> started = Collections.synchronizedList(new ArrayList<>());
+        List<Future<Boolean>> chunks = new ArrayList<>();
+        for (String chunk : List.of("first-1", "first-2", "first-3", "second-1")) {
+            String client = chunk.substring(0, chunk.indexOf('-'));
+            chunks.add(laneExecutor.submit(() -> started.add(chunk), 1, 1, Submitter.bulk(client), done -> {}));
+        }
+        release.countDown();
+        for (Future<Boolean> chunk : chunks) {
+            chunk.get(10, TimeUnit.SECONDS);
+        }
+
+        assertEquals(List.of("first-1", "second-1", "first-2", "first-3"), started);
+    }
+
+    private static VEPExecutor createExecutor(Map<String, String> properties) {
+        return new VEPExecutor(
+            new VEPConfiguration(
+                VEPConfiguration.Mode.Cache,
+                null,
+                new VEPConfiguration.CacheConfigurationOptional(Optional.of("filename")),
+                1,
+                1,
+                Optional.empty(),
+                Optional.empty(),
+                null,
+                null,
+                bind(VEPConfiguration.ExecutionConfiguration.class, properties),
+                bind(VEPConfiguration.WorkerPoolConfiguration.class, properties),
+                bind(VEPConfiguration.ResultCacheConfiguration.class, properties),
+                bind(VEPConfiguration.JobsConfiguration.class, properties),
+                bind(VEPConfiguration.AnnotationStoreConfiguration.class, properties),
+                bind(VEPConfiguration.WarmupConfiguration.class, properties),
+                bind(VEPConfiguration.CoordinatorConfiguration.class, properties),
+                bind(VEPConfiguration.LanesConfiguration.class, properties),
+                bind(VEPConfiguration.AlphaMissenseLookupConfiguration.class, properties),
+                bind(VEPConfiguration.ReferenceCheckConfiguration.class, properties),
+                bind(VEPConfiguration.PageCacheConfiguration.class, properties)
+            ),
+            new VEPMetrics(new SimpleMeterRegistry(), ObservationRegistry.NOOP)
+        );
+    }
+
+    // Each configuration group bound from the same flat properties under vep.
+    private static <T> T bind(Class<T> type, Map<String, String> properties) {
+        return new Binder(new MapConfigurationPropertySource(properties)).bindOrCreate("vep", Bindable.of(type));
+    }
+}
@@ -0,0 +1,69 @@
+package org.genomenexus.vep_wrapper;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.core.JsonParseException;
+
+public class VEPOutputTransformerTest {
+
+    private final VEPOutputTransformer transformer = new VEPOutputTransformer(VEPConfiguration.DEFAULT_FIELD_RENAMES);
+
+    @Test
+    void testRenamesNestedFields() throws IOException {
+        List<VEPRecord> records = transform(
+            "{\"input\":\"1:g.1A>T\",\"transcript_consequences\":[{\"sift_pred\":\"deleterious\",\"polyphen_humvar_score\":0.5}]}\n"
+        );
+
+        assertEquals(1, records.size());
+        assertEquals("1:g.1A>T", records.get(0).input());
+        assertEquals(
+            "{\"input\":\"1:g.1A>T\",\"transcript_consequences\":[{\"sift_prediction\":\"deleterious\",\"polyphen_score\":0.5}]}",
+            records.get(0).json()
+        );
+    }
+
+    @Test
+    void testLeavesValuesAndPrefixedFieldsAlone() throws IOException {
+        List<VEPRecord> records = transform("{\"input\":\"sift_pred\",\"sift_prediction\":\"tolerated\"}");
+
+        assertEquals("{\"input\":\"sift_pred\",\"sift_prediction\":\"tolerated\"}", records.get(0).json());
+    }
+
+    @Test
+    void testSplitsConcatenatedRecords() throws IOException {
+        List<VEPRecord> records = transform("{\"input\":\"a\"}\n{\n  \"input\": \"b\",\n  \"start\": 1\n}\n{\"input\":\"c\"}\n");
+
+        assertEquals(List.of("a", "b", "c"), records.stream().map(VEPRecord::input).toList());
+        assertEquals("{\"input\":\"b\",\"start\":1}", records.get(1).json());
+    }
+
+    @Test
+    void testEmptyOutput() throws IOException {
+        assertTrue(transform("").isEmpty());
+    }
+
+    @Test
+    void testRejectsNonObjectRecords() {
+        assertThrows(JsonParseException.class, () -> transform("[{\"input\":\"a\"}]"));
+    }
+
+    @Test
+    void testRejectsTruncatedRecords() {
+        assertThrows(JsonParseException.class, () -> transform("{\"input\":\"a\",\"start\":"));
+    }
+
+    private List<VEPRecord> transform(String vepOutput) throws IOException {
+        List<VEPRecord> records = new ArrayList<>();
+        transformer.transform(new StringReader(vepOutput), records::add);
+        return records;
+    }
+}
@@ -0,0 +1,18 @@
+package org.genomenexus.vep_wrapper;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+public class VEPResultTest {
+
+    @Test
+    void testClassifiesVepErrors() {
+        assertEquals(VEPResult.Failure.Transient, VEPResult.classify("DBI connect('host=ensembldb;port=3306','anonymous',...) failed: Lost connection to MySQL server"));
+        assertEquals(VEPResult.Failure.Input, VEPResult.classify("Unable to parse HGVS notation '17:g.7578503_7578518dell'"));
+        assertEquals(VEPResult.Failure.Input, VEPResult.classify("Could not get a Transcript object for 'ENST00000000000.1'"));
+        assertEquals(VEPResult.Failure.Systemic, VEPResult.classify("Failed to instantiate plugin AlphaMissense: file not found"));
+        assertEquals(VEPResult.Failure.Systemic, VEPResult.classify("No cache found for homo_sapiens, version 112"));
+        assertEquals(VEPResult.Failure.Systemic, VEPResult.classify("Out of memory!"));
+    }
+}
@@ -0,0 +1,96 @@
+package org.genomenexus.vep_wrapper;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+public class VEPWorkerPoolTest {
+
+    private static final String STUB_WORKER = "src/test/resources/stub-vep/vep_worker.sh";
+
+    private VEPWorkerPool pool;
+
+    @AfterEach
+    void tearDown() {
+        if (pool != null) {
+            pool.close();
+        }
+    }
+
+    @Test
+    void testAnnotatesBatch() throws Exception {
+        pool = startPool(1, 100);
+        Optional<VEPResult> result = pool.annotate(List.of("1:100-100:1/A", "2:200-200:1/T"), "region");
+
+        assertTrue(result.isPresent());
+        assertEquals(0, result.get().getExitCode());
+        assertEquals(2, result.get().getRecords().size());
+        assertEquals("2:200-200:1/T", result.get().getRecords().get(1).input());
+    }
+
+    @Test
+    void testFailedBatchKeepsWorker() throws Exception {
+        pool = startPool(1, 100);
+        VEPResult failed = pool.annotate(List.of("fail"), "region").get();
+        VEPResult succeeded = pool.annotate(List.of("1:100-100:1/A"), "region").get();
+
+        assertEquals(500, failed.getExitCode());
+        assertEquals("Invalid input", failed.getOutput());
+        assertEquals(0, succeeded.getExitCode());
+        assertEquals(1, pool.getLiveWorkers());
+    }
+
+    @Test
+    void testRecyclesAfterMaxBatches() throws Exception {
+        pool = startPool(1, 2);
+        String first = pool.annotate(List.of("a"), "region").get().getRecords().get(0).json();
+        String second = pool.annotate(List.of("a"), "region").get().getRecords().get(0).json();
+        String third = pool.annotate(List.of("a"), "region").get().getRecords().get(0).json();
+
+        assertEquals(first, second);
+        assertNotEquals(second, third);
+    }
+
+    @Test
+    void testCrashFallsBackAndRecycles() throws Exception {
+        pool = startPool(1, 100);
+        Optional<VEPResult> crashed = pool.annotate(List.of("crash"), "region");
+
+        assertTrue(crashed.isEmpty());
+        assertEquals(1, pool.getLiveWorkers());
+        assertTrue(pool.annotate(List.of("a"), "region").isPresent());
+    }
+
+    @Test
+    void testMissingWorkerCommandFallsBack() throws Exception {
+        pool = new VEPWorkerPool(
+            new VEPConfiguration.WorkerPoolConfiguration(true, "does/not/exist", 2, 100, Duration.ofHours(1), Duration.ofMillis(100)),
+            List.of(),
+            new VEPOutputTransformer(Map.of()),
+            Duration.ofMinutes(1)
+        );
+        pool.start();
+
+        assertEquals(0, pool.getLiveWorkers());
+        assertTrue(pool.annotate(List.of("a"), "region").isEmpty());
+    }
+
+    private VEPWorkerPool startPool(int size, int maxBatches) {
+        VEPWorkerPool workerPool = new VEPWorkerPool(
+            new VEPConfiguration.WorkerPoolConfiguration(true, STUB_WORKER, size, maxBatches, Duration.ofHours(1), Duration.ofSeconds(5)),
+            List.of("--everything"),
+            new VEPOutputTransformer(Map.of()),
+            Duration.ofMinutes(1)
+        );
+        workerPool.start();
+        return workerPool;
+    }
+}
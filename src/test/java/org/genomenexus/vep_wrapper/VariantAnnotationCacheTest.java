@@ -0,0 +1,101 @@
+package org.genomenexus.vep_wrapper;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
+
+public class VariantAnnotationCacheTest {
+
+    private static final String KEY = "release=112;mode=Database;config=abc|hgvs|7:g.140453136A>T";
+    private static final String RECORD = "{\"input\":\"7:g.140453136A>T\"}";
+
+    @TempDir
+    Path cacheDirectory;
+
+    @Test
+    void testMemoryHit() {
+        VariantAnnotationCache cache = createCache("", Duration.ofDays(1));
+        assertTrue(cache.get(KEY).isEmpty());
+
+        cache.put(KEY, RECORD);
+
+        assertEquals(Optional.of(RECORD), cache.get(KEY));
+        assertEquals(new VariantAnnotationCache.Stats(1, 0, 1, 1, 0), cache.getStats());
+    }
+
+    @Test
+    void testStatsExportedAsMeters() {
+        VariantAnnotationCache cache = createCache(cacheDirectory.toString(), Duration.ofDays(1));
+        MeterRegistry registry = new SimpleMeterRegistry();
+        new VEPMetrics(registry, ObservationRegistry.NOOP).registerResultCache(cache);
+
+        cache.get(KEY);
+        cache.put(KEY, RECORD);
+        cache.get(KEY);
+
+        assertEquals(1, registry.get("vep.cache.lookups").tag("result", "memory").functionCounter().count());
+        assertEquals(0, registry.get("vep.cache.lookups").tag("result", "disk").functionCounter().count());
+        assertEquals(1, registry.get("vep.cache.lookups").tag("result", "miss").functionCounter().count());
+        assertEquals(1, registry.get("vep.cache.entries").gauge().value());
+        assertTrue(registry.get("vep.cache.disk.size").gauge().value() > 0);
+    }
+
+    @Test
+    void testDiskTierSurvivesRestart() {
+        createCache(cacheDirectory.toString(), Duration.ofDays(1)).put(KEY, RECORD);
+
+        VariantAnnotationCache restarted = createCache(cacheDirectory.toString(), Duration.ofDays(1));
+
+        assertEquals(Optional.of(RECORD), restarted.get(KEY));
+        assertEquals(Optional.of(RECORD), restarted.get(KEY));
+        assertEquals(1, restarted.getStats().diskHits());
+        assertEquals(1, restarted.getStats().memoryHits());
+    }
+
+    @Test
+    void testExpiredDiskEntriesAreDropped() throws IOException {
+        createCache(cacheDirectory.toString(), Duration.ofDays(1)).put(KEY, RECORD);
+        try (Stream<Path> files = Files.walk(cacheDirectory)) {
+            for (Path file : files.filter(Files::isRegularFile).toList()) {
+                Files.setLastModifiedTime(file, FileTime.from(Instant.now().minus(Duration.ofDays(2))));
+            }
+        }
+
+        VariantAnnotationCache restarted = createCache(cacheDirectory.toString(), Duration.ofDays(1));
+
+        assertTrue(restarted.get(KEY).isEmpty());
+        try (Stream<Path> files = Files.walk(cacheDirectory)) {
+            assertTrue(files.noneMatch(Files::isRegularFile));
+        }
+    }
+
+    @Test
+    void testKeysAreIsolated() {
+        VariantAnnotationCache cache = createCache(cacheDirectory.toString(), Duration.ofDays(1));
+        cache.put(KEY, RECORD);
+
+        assertTrue(cache.get(KEY.replace("release=112", "release=113")).isEmpty());
+    }
+
+    private VariantAnnotationCache createCache(String diskDirectory, Duration ttl) {
+        return new VariantAnnotationCache(new VEPConfiguration.ResultCacheConfiguration(
+            true, DataSize.ofMegabytes(1), ttl, diskDirectory, DataSize.ofMegabytes(1)
+        ));
+    }
+}
@@ -0,0 +1,73 @@
+package org.genomenexus.vep_wrapper;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class VariantBatchTest {
+
+    private static final List<String> NOTATIONS = List.of(
+        "ENST00000269305.4:c.817C>T",
+        "7:g.140453136delinsT",
+        "ENST00000288135.5:c.2347C>G",
+        "1:g.11303249delinsG",
+        "ENST00000269305.4:p.Arg273His",
+        "not a variant",
+        "7:g.140453136delinsT"
+    );
+
+    @Test
+    void testPlansGenomicNotationsAsRegionsAndGroupsTheRestByTranscript() {
+        VariantBatch batch = VariantBatch.planHgvs(NOTATIONS, 75, 75, 1);
+
+        assertEquals(List.of(
+            List.of("1:11303249-11303249:1/G"),
+            List.of("7:140453136-140453136:1/T"),
+            List.of("7:140453136-140453136:1/T"),
+            List.of("ENST00000269305.4:c.817C>T", "ENST00000269305.4:p.Arg273His"),
+            List.of("ENST00000288135.5:c.2347C>G"),
+            List.of("not a variant")
+        ), batch.chunks());
+        assertEquals(List.of("region", "region", "region", "hgvs", "hgvs", "hgvs"), batch.formats());
+        assertEquals(List.of(
+            List.of("1:g.11303249delinsG"),
+            List.of("7:g.140453136delinsT"),
+            List.of("7:g.140453136delinsT"),
+            List.of("ENST00000269305.4:c.817C>T", "ENST00000269305.4:p.Arg273His"),
+            List.of("ENST00000288135.5:c.2347C>G"),
+            List.of("not a variant")
+        ), batch.inputs());
+        assertEquals(List.of(List.of(3), List.of(1), List.of(6), List.of(0, 4), List.of(2), List.of(5)), batch.positions());
+        assertEquals(VariantBatch.MIXED_FORMAT, batch.format());
+        assertEquals(NOTATIONS.size(), batch.size());
+    }
+
+    @Test
+    void testKeepsGenomicNotationsVepWouldAnnotateDifferentlyAsRegionsInHgvs() {
+        // a stated reference, which VEP checks, and a duplication and inversion without a sequence
+        VariantBatch batch = VariantBatch.planHgvs(List.of(
+            "7:g.140453136G>T", "7:g.140453136_140453138dup", "7:g.140453136_140453138inv", "7:g.140453136_140453137dupAC"
+        ), 75, 75, 1);
+
+        assertEquals(List.of(
+            List.of("7:140453138-140453137:1/AC"),
+            List.of("7:g.140453136G>T", "7:g.140453136_140453138dup", "7:g.140453136_140453138inv")
+        ), batch.chunks());
+        assertEquals(List.of("region", "hgvs"), batch.formats());
+    }
+
+    @Test
+    void testPacksTranscriptsIntoAtMostMaxChunks() {
+        VariantBatch batch = VariantBatch.planHgvs(List.of(
+            "ENST1:c.1A>T", "ENST2:c.1A>T", "ENST1:c.2A>T", "ENST3:c.1A>T", "ENST4:c.1A>T"
+        ), 2, 75, 1);
+
+        assertEquals(List.of(
+            List.of("ENST1:c.1A>T", "ENST1:c.2A>T", "ENST2:c.1A>T"),
+            List.of("ENST3:c.1A>T", "ENST4:c.1A>T")
+        ), batch.chunks());
+        assertEquals("hgvs", batch.format());
+    }
+}
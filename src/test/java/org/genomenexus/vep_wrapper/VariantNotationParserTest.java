@@ -0,0 +1,127 @@
+package org.genomenexus.vep_wrapper;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class VariantNotationParserTest {
+
+    @Test
+    void testHgvsgChanges() {
+        assertRegion("7:140453136-140453136:1/T", "7:g.140453136A>T");
+        assertRegion("1:100-102:1/-", "1:g.100_102del");
+        assertRegion("1:100-100:1/-", "1:g.100del");
+        assertRegion("1:100-102:1/-", "1:g.100_102delATG");
+        assertRegion("1:201-200:1/A", "1:g.200_201insA");
+        assertRegion("1:123-124:1/AT", "1:g.123_124delinsAT");
+        assertRegion("1:100-102:1/DUP", "1:g.100_102dup");
+        assertRegion("1:103-102:1/ATG", "1:g.100_102dupATG");
+        assertRegion("1:101-100:1/C", "1:g.100dupC");
+        assertRegion("1:100-102:1/INV", "1:g.100_102inv");
+    }
+
+    @Test
+    void testHgvsgNormalizesCaseAndWhitespace() {
+        assertRegion("12:25398284-25398284:1/A", " 12:g.25398284c>a\n");
+    }
+
+    @Test
+    void testInvalidHgvsgIsReportedWithoutException() {
+        List<String> invalid = List.of(
+            "not-a-valid-hgvs",
+            ":g.100A>T",
+            "1:g.A>T",
+            "1:g.0A>T",
+            "1:g.100_99del",
+            "1:g.100_102A>T",
+            "1:g.100A>TT",
+            "1:g.100_105insA",
+            "1:g.100_101ins",
+            "1:g.100_102dupAT",
+            "1:g.100inv",
+            "1:g.100A>X",
+            "1:g.99999999999A>T",
+            "1:c.100A>T"
+        );
+        for (String notation : invalid) {
+            VariantNotationParser.Result result = VariantNotationParser.parseHgvsg(notation);
+            assertFalse(result.isValid(), notation);
+            assertEquals("Invalid HGVSg format: " + notation, result.error());
+        }
+    }
+
+    @Test
+    void testRegionNotation() {
+        GenomicVariant variant = VariantNotationParser.parseRegion("chr7:140453136-140453136:1/T").variant();
+        assertEquals("chr7", variant.contig());
+        assertEquals(140453136, variant.start());
+        assertEquals(140453136, variant.end());
+        assertEquals("T", variant.allele());
+
+        assertEquals("1:200-200:1/T", VariantNotationParser.parseRegion("1:200-200/T").variant().region());
+        assertEquals("1:201-200:1/A", VariantNotationParser.parseRegion("1:201-200:1/A").variant().region());
+        assertTrue(VariantNotationParser.parseRegion("1:201-200:1/A").variant().isInsertion());
+        assertEquals("1:100-102:1/DUP", VariantNotationParser.parseRegion("1:100-102/DUP").variant().region());
+        assertEquals("GL000192.1:10-10:1/T", VariantNotationParser.parseRegion("GL000192.1:10-10:1/T").variant().region());
+    }
+
+    @Test
+    void testRegionOnReverseStrandIsComplemented() {
+        assertEquals("1:100-101:1/CA", VariantNotationParser.parseRegion("1:100-101:-1/TG").variant().region());
+        assertEquals("1:100-102:1/-", VariantNotationParser.parseRegion("1:100-102:-1/-").variant().region());
+    }
+
+    @Test
+    void testInvalidRegion() {
+        for (String notation : List.of("1:100-100", "100-100:1/T", "1:100:1/T", "1:abc-100:1/T", "1:100-100:2/T", "1:100-100:1/Q")) {
+            VariantNotationParser.Result result = VariantNotationParser.parseRegion(notation);
+            assertFalse(result.isValid(), notation);
+            assertEquals("Invalid region format: " + notation, result.error());
+        }
+    }
+
+    @Test
+    void testCacheKeyIsSharedByAliases() {
+        String key = VariantNotationParser.parseHgvsg("MT:g.100A>G").variant().cacheKey();
+        assertEquals("MT:100-100:1/G", key);
+        assertEquals(key, VariantNotationParser.parseHgvsg("chrM:g.100A>G").variant().cacheKey());
+        assertEquals(key, VariantNotationParser.parseHgvsg("chrMT:g.100a>g").variant().cacheKey());
+        assertEquals(key, VariantNotationParser.parseRegion("M:100-100/G").variant().cacheKey());
+        assertEquals(key, VariantNotationParser.parseRegion("chrM:100-100:-1/C").variant().cacheKey());
+
+        assertEquals("X:5-5:1/A", VariantNotationParser.parseRegion("chrx:5-5/A").variant().cacheKey());
+        assertEquals("chrx:5-5:1/A", VariantNotationParser.parseRegion("chrx:5-5/A").variant().region());
+    }
+
+    @Test
+    void testVariantKeyIgnoresNotationDetails() {
+        String key = VariantNotationParser.variantKey("region", "7:140453136-140453136:1/T");
+        assertEquals(key, VariantNotationParser.variantKey("region", " chr7:140453136-140453136/t "));
+        assertEquals(key, VariantNotationParser.variantKey("region", "7:140453136-140453136:-1/A"));
+
+        assertEquals(VariantNotationParser.variantKey("hgvs", "7:g.140453136A>T"), VariantNotationParser.variantKey("hgvs", "chr7:g.140453136a>t"));
+        // VEP checks the reference an HGVS notation states
+        assertNotEquals(VariantNotationParser.variantKey("hgvs", "7:g.140453136A>T"), VariantNotationParser.variantKey("hgvs", "7:g.140453136C>T"));
+        assertEquals("ENST00000288602.6:c.1799T>A", VariantNotationParser.variantKey("hgvs", " ENST00000288602.6:c.1799T>A"));
+
+        assertEquals(
+            VariantNotationParser.variantKey("vcf", "7\t140453136\t.\tA\tT\t.\t.\t."),
+            VariantNotationParser.variantKey("vcf", "chr7\t140453136\trs113488022\ta\tt\t50\tPASS\tDP=10\tGT\t0/1")
+        );
+        assertNotEquals(
+            VariantNotationParser.variantKey("vcf", "7\t140453136\t.\tA\tT\t.\t.\t."),
+            VariantNotationParser.variantKey("vcf", "7\t140453136\t.\tA\tG\t.\t.\t.")
+        );
+    }
+
+    private static void assertRegion(String expected, String hgvsg) {
+        VariantNotationParser.Result result = VariantNotationParser.parseHgvsg(hgvsg);
+        assertTrue(result.isValid(), result.error());
+        assertEquals(expected, result.variant().region());
+    }
+}
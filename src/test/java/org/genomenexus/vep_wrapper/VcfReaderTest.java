@@ -0,0 +1,83 @@
+package org.genomenexus.vep_wrapper;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.jupiter.api.Test;
+
+public class VcfReaderTest {
+
+    private static final String VCF = String.join("\n",
+        "##fileformat=VCFv4.2",
+        "##contig=<ID=7>",
+        "#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\tSAMPLE1\tSAMPLE2",
+        "7\t140453136\trs113488022\tA\tT\t50\tPASS\tDP=10\tGT\t0/1\t0/0",
+        "",
+        "17\t7578503\t.\tGCATGGGCGGCATGAAC\tG"
+    ) + "\n";
+
+    @Test
+    void testKeepsFixedColumns() throws IOException {
+        VcfReader.Vcf vcf = VcfReader.read(new ByteArrayInputStream(VCF.getBytes(StandardCharsets.UTF_8)));
+
+        assertEquals(List.of("##fileformat=VCFv4.2", "##contig=<ID=7>"), vcf.metaHeaders());
+        assertEquals("#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\tSAMPLE1\tSAMPLE2", vcf.columnHeader());
+        assertEquals(List.of(
+            "7\t140453136\trs113488022\tA\tT\t50\tPASS\tDP=10",
+            "17\t7578503\t.\tGCATGGGCGGCATGAAC\tG\t.\t.\t."
+        ), vcf.records());
+        assertNull(vcf.sampleColumns());
+        assertTrue(vcf.errors().isEmpty());
+    }
+
+    @Test
+    void testSpillsSampleColumns() throws IOException {
+        try (VcfReader.Vcf vcf = VcfReader.read(new ByteArrayInputStream(VCF.getBytes(StandardCharsets.UTF_8)), true)) {
+            assertEquals("7\t140453136\trs113488022\tA\tT\t50\tPASS\tDP=10", vcf.records().getFirst());
+            assertEquals(2, vcf.sampleColumns().size());
+            assertEquals("", vcf.sampleColumns().get(1));
+            assertEquals("GT\t0/1\t0/0", vcf.sampleColumns().get(0));
+        }
+    }
+
+    @Test
+    void testFixedColumnsDropSampleColumns() {
+        assertEquals("7\t140453136\trs113488022\tA\tT\t50\tPASS\tDP=10", VcfReader.fixedColumns("7\t140453136\trs113488022\tA\tT\t50\tPASS\tDP=10\tGT\t0/1"));
+        assertEquals("7\t140453136\t.\tA\tT\t.\t.\t.", VcfReader.fixedColumns("7\t140453136\t.\tA\tT\t.\t.\t."));
+    }
+
+    @Test
+    void testReadsMultiMemberGzip() throws IOException {
+        // bgzip output is a series of gzip members
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        int middle = VCF.indexOf("17\t");
+        for (String part : List.of(VCF.substring(0, middle), VCF.substring(middle))) {
+            try (GZIPOutputStream member = new GZIPOutputStream(compressed)) {
+                member.write(part.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        VcfReader.Vcf vcf = VcfReader.read(new ByteArrayInputStream(compressed.toByteArray()));
+
+        assertEquals(2, vcf.records().size());
+    }
+
+    @Test
+    void testReportsMalformedRecords() throws IOException {
+        String vcf = "7\t140453136\t.\tA\n7\tabc\t.\tA\tT\n7\t\t.\tA\tT\n";
+
+        VcfReader.Vcf read = VcfReader.read(new ByteArrayInputStream(vcf.getBytes(StandardCharsets.UTF_8)));
+
+        assertTrue(read.records().isEmpty());
+        assertEquals(3, read.errors().size());
+        assertTrue(read.errors().get(1).startsWith("Invalid VCF record on line 2"));
+    }
+}
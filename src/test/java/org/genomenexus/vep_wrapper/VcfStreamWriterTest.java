@@ -0,0 +1,52 @@
+package org.genomenexus.vep_wrapper;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class VcfStreamWriterTest {
+
+    private static final String FIRST = "7\t140453136\t.\tA\tT\t.\t.\t.";
+    private static final String SECOND = "7\t140453137\t.\tC\tG\t.\tPASS\tDP=3";
+    private static final String THIRD = "8\t100\t.\tG\tA\t.\t.\t.";
+    private static final String SAMPLES = "\tGT\t0/1";
+
+    @Test
+    void testWritesChunksInOrderWithCsq() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        String input = "##fileformat=VCFv4.1\n" + VcfReader.COLUMN_HEADER + "\tFORMAT\tSAMPLE\n" + THIRD + "\n" + FIRST + "\n" + SECOND + SAMPLES + "\n";
+        try (VcfReader.Vcf vcf = VcfReader.read(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)), true)) {
+            VcfStreamWriter writer = new VcfStreamWriter(out, vcf, List.of(List.of(FIRST, SECOND), List.of(THIRD)));
+
+            writer.begin();
+            writer.onError(1, "MSG: no overlap; skipped");
+            writer.onRecords(0, List.of(
+                new VEPRecord(FIRST, "{\"input\":\"" + FIRST.replace("\t", "\\t") + "\",\"transcript_consequences\":[{"
+                    + "\"variant_allele\":\"T\",\"consequence_terms\":[\"missense_variant\",\"splice_region_variant\"],"
+                    + "\"impact\":\"MODERATE\",\"gene_symbol\":\"BRAF\",\"gene_id\":\"ENSG00000157764\","
+                    + "\"transcript_id\":\"ENST00000288602\",\"biotype\":\"protein_coding\",\"hgvsp\":\"ENSP00000288602.6:p.Val600Glu\"}]}"),
+                new VEPRecord(SECOND, "{\"input\":\"x\",\"intergenic_consequences\":[{\"variant_allele\":\"G\",\"consequence_terms\":[\"intergenic_variant\"],\"impact\":\"MODIFIER\"}]}")
+            ));
+            writer.end();
+        }
+
+        String[] lines = out.toString(StandardCharsets.UTF_8).split("\n");
+        assertEquals("##fileformat=VCFv4.1", lines[0]);
+        assertEquals(VcfReader.COLUMN_HEADER + "\tFORMAT\tSAMPLE", lines[3]);
+        assertEquals(
+            FIRST.substring(0, FIRST.length() - 1)
+                + "CSQ=T|missense_variant&splice_region_variant|MODERATE|BRAF|ENSG00000157764|Transcript|ENST00000288602|protein_coding||ENSP00000288602.6:p.Val600Glu",
+            lines[4]
+        );
+        // the CSQ field goes into INFO, ahead of the sample columns
+        assertEquals(SECOND + ";CSQ=G|intergenic_variant|MODIFIER|||||||" + SAMPLES, lines[5]);
+        assertEquals(THIRD.substring(0, THIRD.length() - 1) + "VEP_ERROR=MSG:_no_overlap__skipped", lines[6]);
+        assertEquals(7, lines.length);
+    }
+}
@@ -1,17 +1,29 @@
 package org.genomenexus.vep_wrapper;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.io.IOException;
+import java.io.StringReader;
 import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.AbstractMap.SimpleEntry;
 import java.util.concurrent.Callable;
-import java.util.stream.Collectors;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -19,16 +31,28 @@ import org.mockito.Mockito;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.Status;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
 import org.springframework.boot.test.web.client.TestRestTemplate;
 import org.springframework.boot.test.web.server.LocalServerPort;
 import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.bean.override.mockito.MockitoSpyBean;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import io.micrometer.core.instrument.MeterRegistry;
 
 @SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT)
 @ActiveProfiles("test")
@@ -43,6 +67,15 @@ public class VepServiceTest {
     @Autowired
     private TestRestTemplate restTemplate;
 
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private VEPOutputTransformer outputTransformer;
+
+    @Autowired
+    private VEPHealthIndicator healthIndicator;
+
     final Map<String, List<String>> HGVS_PAYLOAD = Map.ofEntries(
         new SimpleEntry<>("hgvs_notations", List.of(
             "7:g.55249071C>T",
@@ -70,25 +103,50 @@ public class VepServiceTest {
         ))
     );
 
+    private final List<String> annotatedInputs = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicInteger transientFailures = new AtomicInteger();
+    private final AtomicInteger systemicFailures = new AtomicInteger();
+    private final List<String> runFlags = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicInteger versionProbes = new AtomicInteger();
+    // Signalled when the next run starts, which then never finishes unless it is cancelled
+    private final AtomicReference<CountDownLatch> blockedRun = new AtomicReference<>();
+
     @BeforeEach
     public void setup() throws Exception {
+        annotatedInputs.clear();
+        transientFailures.set(0);
+        systemicFailures.set(0);
+        runFlags.clear();
+        versionProbes.set(0);
+        blockedRun.set(null);
         Answer<Callable<VEPResult>> answer = new Answer<>() {
             @Override
             public Callable<VEPResult> answer(InvocationOnMock invocation) throws Throwable {
-                List<String> flags = invocation.getArgument(0);
-                String flagPrefix = "--input_data=";
-                List<String> variants = Arrays.asList(
-                    flags.stream()
-                        .filter(flag -> flag.startsWith(flagPrefix))
-                        .collect(Collectors.toList())
-                        .getFirst()
-                        .substring(flagPrefix.length())
-                        .split("\n")
-                );
+                List<String> variants = invocation.getArgument(1);
+                if (variants.isEmpty()) {
+                    versionProbes.incrementAndGet();
+                    return () -> new VEPResult("#----------------------------------#\n# ENSEMBL VARIANT EFFECT PREDICTOR #\n\nensembl-vep : 112.0\n", 0);
+                }
+                runFlags.addAll(invocation.getArgument(0));
+                if (transientFailures.getAndDecrement() > 0) {
+                    return () -> new VEPResult("DBI connect failed: Lost connection to MySQL server", 500, VEPResult.Failure.Transient);
+                }
+                if (systemicFailures.getAndDecrement() > 0) {
+                    return () -> new VEPResult("Failed to instantiate plugin AlphaMissense", 500, VEPResult.Failure.Systemic);
+                }
+                CountDownLatch started = blockedRun.getAndSet(null);
+                if (started != null) {
+                    return () -> {
+                        started.countDown();
+                        new CountDownLatch(1).await();
+                        throw new IllegalStateException("Blocked run finished");
+                    };
+                }
+                annotatedInputs.addAll(variants);
                 return constructMockedResponse(variants);
             }
         };
-        Mockito.when(vepService.runVEP(Mockito.anyList())).thenAnswer(answer);
+        Mockito.when(vepService.runVEP(Mockito.anyList(), Mockito.anyList())).thenAnswer(answer);
     }
 
     @Test
@@ -100,12 +158,321 @@ public class VepServiceTest {
             new ParameterizedTypeReference<List<Map<String, Object>>>() {}
         );
 
+        assertAllVariantsAnnotated(annotatedVariants.getBody());
+    }
+
+    @Test
+    void testAllVariantsStreamedAsArray() throws Exception {
+        ResponseEntity<List<Map<String, Object>>> annotatedVariants = restTemplate.exchange(
+            "http://localhost:" + port + "/vep/human/hgvs?stream=true",
+            HttpMethod.POST,
+            new HttpEntity<Map<String, List<String>>>(HGVS_PAYLOAD),
+            new ParameterizedTypeReference<List<Map<String, Object>>>() {}
+        );
+
+        assertAllVariantsAnnotated(annotatedVariants.getBody());
+    }
+
+    @Test
+    void testAllVariantsStreamedAsNdjson() throws Exception {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setAccept(List.of(MediaType.APPLICATION_NDJSON));
+        ResponseEntity<String> response = restTemplate.exchange(
+            "http://localhost:" + port + "/vep/human/hgvs",
+            HttpMethod.POST,
+            new HttpEntity<Map<String, List<String>>>(HGVS_PAYLOAD, headers),
+            String.class
+        );
+
+        assertEquals(MediaType.APPLICATION_NDJSON, response.getHeaders().getContentType());
+        ObjectMapper objectMapper = new ObjectMapper();
+        List<Map<String, Object>> annotatedVariants = new ArrayList<>();
+        for (String line : response.getBody().split("\n")) {
+            annotatedVariants.add(objectMapper.readValue(line, new TypeReference<Map<String, Object>>() {}));
+        }
+        assertAllVariantsAnnotated(annotatedVariants);
+    }
+
+    @Test
+    void testDuplicateVariantsAnnotatedOnce() throws Exception {
+        ResponseEntity<List<Map<String, Object>>> annotatedVariants = restTemplate.exchange(
+            "http://localhost:" + port + "/vep/human/hgvs",
+            HttpMethod.POST,
+            new HttpEntity<Map<String, List<String>>>(HGVS_PAYLOAD),
+            new ParameterizedTypeReference<List<Map<String, Object>>>() {}
+        );
+
+        assertAllVariantsAnnotated(annotatedVariants.getBody());
+        assertEquals(HGVS_PAYLOAD.get("hgvs_notations").size(), annotatedVariants.getBody().size());
+        assertEquals(new HashSet<>(HGVS_PAYLOAD.get("hgvs_notations")).size(), annotatedInputs.size());
+    }
+
+    @Test
+    void testNotationsOfOneVariantAnnotatedOnce() throws Exception {
+        List<String> notations = List.of("7:140453136-140453136:1/T", "chr7:140453136-140453136/t");
+
+        String annotated = vepService.annotateVariants(List.of(notations), "region");
+
+        List<Map<String, Object>> records = new ObjectMapper().readValue(annotated, new TypeReference<List<Map<String, Object>>>() {});
+        assertEquals(notations, records.stream().map(record -> record.get("input")).toList());
+        assertEquals(List.of("7:140453136-140453136:1/T"), annotatedInputs);
+    }
+
+    @Test
+    void testGenomicNotationsAnnotatedAsRegionsInInputOrder() throws Exception {
+        ResponseEntity<List<Map<String, Object>>> annotatedVariants = restTemplate.exchange(
+            "http://localhost:" + port + "/vep/human/hgvs",
+            HttpMethod.POST,
+            new HttpEntity<Map<String, List<String>>>(HGVS_PAYLOAD),
+            new ParameterizedTypeReference<List<Map<String, Object>>>() {}
+        );
+
+        assertEquals(
+            HGVS_PAYLOAD.get("hgvs_notations"),
+            annotatedVariants.getBody().stream().map(annotatedVariant -> annotatedVariant.get("input")).toList()
+        );
+        assertTrue(annotatedInputs.contains("10:8115875-8115874:1/G"));
+        assertFalse(annotatedInputs.contains("10:g.8115874_8115875insG"));
+        assertTrue(annotatedInputs.contains("ENST00000269305.4:c.817C>T"));
+        // VEP checks the reference a substitution states only in HGVS format
+        assertTrue(annotatedInputs.contains("7:g.140453136A>T"));
+        assertTrue(runFlags.containsAll(List.of("--format=region", "--format=hgvs")));
+    }
+
+    @Test
+    void testJobResultsDownloadedWhenComplete() throws Exception {
+        ResponseEntity<Map<String, Object>> submitted = restTemplate.exchange(
+            "http://localhost:" + port + "/vep/human/hgvs/jobs",
+            HttpMethod.POST,
+            new HttpEntity<Map<String, List<String>>>(HGVS_PAYLOAD),
+            new ParameterizedTypeReference<Map<String, Object>>() {}
+        );
+        assertEquals(HttpStatus.ACCEPTED, submitted.getStatusCode());
+        String jobUrl = "http://localhost:" + port + submitted.getHeaders().getLocation();
+
+        Map<String, Object> progress = submitted.getBody();
+        for (int attempt = 0; attempt < 100 && !"COMPLETED".equals(progress.get("status")); attempt++) {
+            Thread.sleep(100);
+            progress = restTemplate.exchange(jobUrl, HttpMethod.GET, null, new ParameterizedTypeReference<Map<String, Object>>() {}).getBody();
+        }
+        assertEquals("COMPLETED", progress.get("status"));
+        assertEquals(progress.get("chunks"), progress.get("completedChunks"));
+
+        ResponseEntity<List<Map<String, Object>>> results = restTemplate.exchange(
+            jobUrl + "/results",
+            HttpMethod.GET,
+            null,
+            new ParameterizedTypeReference<List<Map<String, Object>>>() {}
+        );
+        assertAllVariantsAnnotated(results.getBody());
+
+        restTemplate.delete(jobUrl);
+        assertEquals(HttpStatus.NOT_FOUND, restTemplate.getForEntity(jobUrl, String.class).getStatusCode());
+    }
+
+    @Test
+    void testMalformedVcfRejected() throws Exception {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.TEXT_PLAIN);
+        ResponseEntity<Map<String, Object>> response = restTemplate.exchange(
+            "http://localhost:" + port + "/vep/human/vcf",
+            HttpMethod.POST,
+            new HttpEntity<String>("##fileformat=VCFv4.2\n7\tnot-a-position\t.\tA\tT\n", headers),
+            new ParameterizedTypeReference<Map<String, Object>>() {}
+        );
+
+        assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+        assertEquals(List.of("Invalid VCF record on line 2: 7\tnot-a-position\t.\tA\tT"), response.getBody().get("details"));
+        assertEquals(0, annotatedInputs.size());
+    }
+
+    @Test
+    void testPipelineMetricsRecorded() throws Exception {
+        double successfulRequests = meterRegistry.counter("vep.requests", "outcome", "success").count();
+
+        restTemplate.exchange(
+            "http://localhost:" + port + "/vep/human/hgvs",
+            HttpMethod.POST,
+            new HttpEntity<Map<String, List<String>>>(HGVS_PAYLOAD),
+            new ParameterizedTypeReference<List<Map<String, Object>>>() {}
+        );
+
+        assertEquals(successfulRequests + 1, meterRegistry.counter("vep.requests", "outcome", "success").count());
+        assertTrue(meterRegistry.get("vep.chunk.size").summary().count() > 0);
+        assertTrue(meterRegistry.get("vep.phase").tag("phase", "queue").timer().count() > 0);
+        assertTrue(meterRegistry.get("vep.phase").tag("phase", "parse").timer().count() > 0);
+        assertEquals(0, meterRegistry.get("vep.chunks.queued").gauge().value());
+    }
+
+    @Test
+    void testFailingVariantIsolatedByBisection() throws Exception {
+        double bisections = meterRegistry.counter("vep.chunks.bisected").count();
+        List<String> chunk = new ArrayList<>(new LinkedHashSet<>(HGVS_PAYLOAD.get("hgvs_notations")));
+        chunk.add(7, "1:g.1A>T");
+
+        List<VEPRecord> records = new ArrayList<>();
+        vepService.annotateVariants(List.of(chunk), "hgvs", new VEPResultHandler() {
+            @Override
+            public void onRecords(int chunkIndex, List<VEPRecord> chunkRecords) {
+                records.addAll(chunkRecords);
+            }
+
+            @Override
+            public void onError(int chunkIndex, String message) {
+                throw new AssertionError("Chunk failed: " + message);
+            }
+        });
+
+        assertEquals(chunk, records.stream().map(VEPRecord::input).toList());
+        Map<String, Object> errorEntry = new ObjectMapper().readValue(records.get(7).json(), new TypeReference<Map<String, Object>>() {});
+        assertEquals(Map.of("input", "1:g.1A>T", "error", "Error annotating variant"), errorEntry);
+        assertTrue(meterRegistry.counter("vep.chunks.bisected").count() > bisections);
+    }
+
+    @Test
+    void testSystemicFailureNotBisected() throws Exception {
+        double bisections = meterRegistry.counter("vep.chunks.bisected").count();
+        double retries = meterRegistry.counter("vep.chunks.retried").count();
+        systemicFailures.set(1);
+
+        List<String> errors = new ArrayList<>();
+        vepService.annotateVariants(List.of(List.of("7:g.55249071C>T", "7:g.140453136A>T", "14:g.81422178C>A")), "hgvs", new VEPResultHandler() {
+            @Override
+            public void onRecords(int chunkIndex, List<VEPRecord> chunkRecords) {
+                throw new AssertionError("Chunk annotated: " + chunkRecords);
+            }
+
+            @Override
+            public void onError(int chunkIndex, String message) {
+                errors.add(message);
+            }
+        });
+
+        assertEquals(List.of("Failed to instantiate plugin AlphaMissense"), errors);
+        assertEquals(bisections, meterRegistry.counter("vep.chunks.bisected").count());
+        assertEquals(retries, meterRegistry.counter("vep.chunks.retried").count());
+        assertTrue(annotatedInputs.isEmpty());
+    }
+
+    @Test
+    void testCancelledRequestHandsOffCoalescedVariants() throws Exception {
+        CountDownLatch firstRunStarted = new CountDownLatch(1);
+        blockedRun.set(firstRunStarted);
+        List<List<String>> chunks = List.of(List.of("7:g.55249071C>T"));
+
+        try (ExecutorService requests = Executors.newVirtualThreadPerTaskExecutor()) {
+            Future<String> cancelled = requests.submit(() -> vepService.annotateVariants(chunks, "hgvs"));
+            assertTrue(firstRunStarted.await(10, TimeUnit.SECONDS));
+            Future<String> coalesced = requests.submit(() -> vepService.annotateVariants(chunks, "hgvs"));
+            // the second request waits on the first one's run instead of running VEP itself
+            Thread.sleep(200);
+            assertTrue(annotatedInputs.isEmpty());
+
+            cancelled.cancel(true);
+
+            assertTrue(coalesced.get(10, TimeUnit.SECONDS).contains("\"input\":\"7:g.55249071C>T\""));
+            assertEquals(List.of("7:g.55249071C>T"), annotatedInputs);
+        }
+    }
+
+    @Test
+    void testTransientFailureRetried() throws Exception {
+        double retries = meterRegistry.counter("vep.chunks.retried").count();
+        transientFailures.set(1);
+
+        String annotated = vepService.annotateVariants(List.of(List.of("7:g.55249071C>T")), "hgvs");
+
+        assertTrue(annotated.contains("\"input\":\"7:g.55249071C>T\""));
+        assertEquals(retries + 1, meterRegistry.counter("vep.chunks.retried").count());
+    }
+
+    @Test
+    void testFieldProfileTrimsFlagsAndRecords() throws Exception {
+        ResponseEntity<List<Map<String, Object>>> annotatedVariants = restTemplate.exchange(
+            "http://localhost:" + port + "/vep/human/hgvs?profile=consequences",
+            HttpMethod.POST,
+            new HttpEntity<Map<String, List<String>>>(HGVS_PAYLOAD),
+            new ParameterizedTypeReference<List<Map<String, Object>>>() {}
+        );
+
+        assertAllVariantsAnnotated(annotatedVariants.getBody());
+        assertTrue(runFlags.containsAll(List.of("--hgvs", "--symbol")));
+        assertFalse(runFlags.contains("--everything"));
+        assertFalse(runFlags.stream().anyMatch(flag -> flag.startsWith("--plugin")));
+        for (Map<String, Object> annotatedVariant : annotatedVariants.getBody()) {
+            assertFalse(annotatedVariant.containsKey("most_severe_consequence"));
+            List<Map<String, Object>> consequences = new ObjectMapper().convertValue(
+                annotatedVariant.getOrDefault("transcript_consequences", List.of()),
+                new TypeReference<List<Map<String, Object>>>() {}
+            );
+            for (Map<String, Object> consequence : consequences) {
+                assertTrue(consequence.containsKey("consequence_terms"));
+                assertFalse(consequence.containsKey("biotype"));
+            }
+        }
+    }
+
+    @Test
+    void testUnknownFieldProfileRejected() throws Exception {
+        ResponseEntity<Map<String, Object>> response = restTemplate.exchange(
+            "http://localhost:" + port + "/vep/human/hgvs?stream=true&profile=unknown",
+            HttpMethod.POST,
+            new HttpEntity<Map<String, List<String>>>(HGVS_PAYLOAD),
+            new ParameterizedTypeReference<Map<String, Object>>() {}
+        );
+
+        assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+        assertEquals("Unknown field profile: unknown", response.getBody().get("error"));
+        assertTrue(annotatedInputs.isEmpty());
+    }
+
+    @Test
+    void testChunkEndpointOnlyServedToCoordinators() throws Exception {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.TEXT_PLAIN);
+        ResponseEntity<String> response = restTemplate.exchange(
+            "http://localhost:" + port + "/vep/chunks?format=hgvs&lane=Interactive",
+            HttpMethod.POST,
+            new HttpEntity<String>("7:g.55249071C>T\n", headers),
+            String.class
+        );
+
+        assertEquals(HttpStatus.NOT_FOUND, response.getStatusCode());
+        assertTrue(annotatedInputs.isEmpty());
+    }
+
+    @Test
+    void testWarmupGatesReadinessAndCachesRelease() throws Exception {
+        ReflectionTestUtils.setField(vepService, "vepRelease", null);
+        ReflectionTestUtils.setField(healthIndicator, "warmedUp", false);
+        assertEquals(Status.OUT_OF_SERVICE, healthIndicator.health().getStatus());
+
+        healthIndicator.warmUp();
+
+        Health health = healthIndicator.health();
+        assertEquals(Status.UP, health.getStatus());
+        assertEquals(112, health.getDetails().get("release"));
+        assertTrue(annotatedInputs.contains("7:g.55249071C>T"));
+        assertTrue(runFlags.contains("--everything"));
+        for (int i = 0; i < 2; i++) {
+            ResponseEntity<Map<String, Object>> software = restTemplate.exchange(
+                "http://localhost:" + port + "/info/software",
+                HttpMethod.GET,
+                null,
+                new ParameterizedTypeReference<Map<String, Object>>() {}
+            );
+            assertEquals(112, software.getBody().get("release"));
+        }
+        assertEquals(1, versionProbes.get());
+    }
+
+    private void assertAllVariantsAnnotated(List<Map<String, Object>> annotatedVariants) {
         Map<String, Integer> inputVariantCounts = new HashMap<>();
         for (String variant : HGVS_PAYLOAD.get("hgvs_notations")) {
             inputVariantCounts.put(variant, inputVariantCounts.getOrDefault(variant, 0) + 1);
         }
         Map<String, Integer> outputVariantCounts = new HashMap<>();
-        for(Map<String, Object> annotatedVariant : annotatedVariants.getBody()) {
+        for(Map<String, Object> annotatedVariant : annotatedVariants) {
             String originalInput = annotatedVariant.get("input").toString();
             outputVariantCounts.put(originalInput, outputVariantCounts.getOrDefault(originalInput, 0) + 1);
         }
@@ -121,20 +488,48 @@ public class VepServiceTest {
     private Callable<VEPResult> constructMockedResponse(List<String> variants) throws IOException {
         StringBuilder response = new StringBuilder();
         for (String variant : variants) {
-            response.append(readMockVariantDataFromFile(variant) + "\n");
+            // genomic notations are sent to VEP as regions, which VEP reports the record under
+            String notation = getRegionNotations().getOrDefault(variant, variant);
+            if (!hasMockVariantData(notation)) {
+                // like VEP, fail the whole run on a variant it cannot handle
+                return () -> new VEPResult("Error annotating variant", 500, VEPResult.Failure.Input);
+            }
+            ObjectNode record = (ObjectNode) new ObjectMapper().readTree(readMockVariantDataFromFile(notation));
+            response.append(record.put("input", variant) + "\n");
         }
 
         return new Callable<VEPResult>() {
             @Override
             public VEPResult call() throws Exception {
-                return new VEPResult(response.toString(), 0);
+                // like runVEP, parse the output into records as the run produces it
+                List<VEPRecord> records = new ArrayList<>();
+                outputTransformer.transform(new StringReader(response.toString()), records::add);
+                return VEPResult.parsed(records);
             }
         };
     }
 
+    private Map<String, String> getRegionNotations() {
+        Map<String, String> regionNotations = new HashMap<>();
+        for (String notation : HGVS_PAYLOAD.get("hgvs_notations")) {
+            VariantNotationParser.Result parsed = VariantNotationParser.parseHgvsg(notation);
+            if (parsed.isValid()) {
+                regionNotations.put(parsed.variant().region(), notation);
+            }
+        }
+        return regionNotations;
+    }
+
+    private boolean hasMockVariantData(String variant) {
+        return getClass().getClassLoader().getResource(getMockVariantDataPath(variant)) != null;
+    }
+
     private String readMockVariantDataFromFile(String variant) throws IOException {
         ClassLoader classLoader = getClass().getClassLoader();
-        variant = variant.replace(":", "_").replace(">", "-");
-        return Files.readString(Paths.get(classLoader.getResource("mock-vep-data/" + variant + ".json").getFile()));
+        return Files.readString(Paths.get(classLoader.getResource(getMockVariantDataPath(variant)).getFile()));
+    }
+
+    private static String getMockVariantDataPath(String variant) {
+        return "mock-vep-data/" + variant.replace(":", "_").replace(">", "-") + ".json";
     }
 }
\ No newline at end of file
@@ -0,0 +1,35 @@
+#!/bin/bash
+
+# Stub VEP worker speaking the VEPWorker line protocol. Each variant is echoed back as a
+# record tagged with this process' PID. The variant "fail" fails the batch and "crash"
+# kills the worker mid-batch.
+
+batch=()
+while IFS= read -r line; do
+    case "$line" in
+        "#PING")
+            echo "#PONG"
+            ;;
+        "#FORMAT "*)
+            batch=()
+            ;;
+        "#END")
+            for variant in "${batch[@]}"; do
+                if [ "$variant" == "crash" ]; then
+                    echo "MSG: worker crashed" >&2
+                    exit 1
+                elif [ "$variant" == "fail" ]; then
+                    echo "#END Invalid input"
+                    continue 2
+                fi
+            done
+            for variant in "${batch[@]}"; do
+                echo "{\"input\":\"$variant\",\"worker\":$$}"
+            done
+            echo "#END"
+            ;;
+        *)
+            batch+=("$line")
+            ;;
+    esac
+done